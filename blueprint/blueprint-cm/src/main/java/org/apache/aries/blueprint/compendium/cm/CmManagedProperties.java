@@ -23,6 +23,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -151,11 +152,21 @@ public class CmManagedProperties implements ManagedObject, BeanProcessor {
             return;
         }
         LOGGER.debug("Configuration updated for bean={} / pid={}", beanName, persistentId);
+        Set<String> changedKeys;
+        List<Object> targets;
         synchronized (lock) {
+            changedKeys = CmUtils.getChangedKeys(properties, props);
             properties = props;
-            for (Object bean : beans) {
-                updated(bean, properties);
-            }
+            targets = new ArrayList<Object>(beans);
+        }
+        if (changedKeys.isEmpty()) {
+            LOGGER.debug("Configuration unchanged for bean={} / pid={}", beanName, persistentId);
+            return;
+        }
+        // Beans are called outside of the lock so that a slow setter does not block
+        // threads creating or destroying other instances
+        for (Object bean : targets) {
+            inject(bean, props, changedKeys, false);
         }
     }
 
@@ -163,9 +174,9 @@ public class CmManagedProperties implements ManagedObject, BeanProcessor {
         LOGGER.debug("Configuration updated for bean={} / pid={}", beanName, persistentId);
         synchronized (lock) {
             properties = props;
-            if (bean != null) {
-                inject(bean, false);
-            }
+        }
+        if (bean != null) {
+            inject(bean, props, null, false);
         }
     }
 
@@ -174,7 +185,7 @@ public class CmManagedProperties implements ManagedObject, BeanProcessor {
             LOGGER.debug("Adding bean for bean={} / pid={}", beanName, persistentId);
             synchronized (lock) {
                 beans.add(bean);
-                inject(bean, true);
+                inject(bean, properties, null, true);
             }
         }
         return bean;
@@ -196,13 +207,20 @@ public class CmManagedProperties implements ManagedObject, BeanProcessor {
     public void afterDestroy(Object bean, String beanName) {
     }
 
-    private void inject(Object bean, boolean initial) {
+    /**
+     * Inject the given configuration into the bean.  When <code>keys</code> is not null,
+     * only the setters for those keys are called when the container manages the updates.
+     */
+    private void inject(Object bean, Dictionary<String, Object> properties, Collection<String> keys, boolean initial) {
         LOGGER.debug("Injecting bean for bean={} / pid={}", beanName, persistentId);
         LOGGER.debug("Configuration: {}", properties);
         if (initial || "container-managed".equals(updateStrategy)) {
             if (properties != null) {
                 for (Enumeration<String> e = properties.keys(); e.hasMoreElements();) {
                     String key = e.nextElement();
+                    if (keys != null && !keys.contains(key)) {
+                        continue;
+                    }
                     Object val = properties.get(key);
                     String setterName = "set" + Character.toUpperCase(key.charAt(0));
                     if (key.length() > 0) {
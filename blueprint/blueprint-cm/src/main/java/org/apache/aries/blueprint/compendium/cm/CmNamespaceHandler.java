@@ -540,7 +540,8 @@ public class CmNamespaceHandler implements NamespaceHandler {
             MutableBeanMetadata beanMetadata = context.createMetadata(MutableBeanMetadata.class);
             beanMetadata.setScope(BeanMetadata.SCOPE_SINGLETON);
             beanMetadata.setId(MANAGED_OBJECT_MANAGER_NAME);
-            beanMetadata.setRuntimeClass(ManagedObjectManager.class);            
+            beanMetadata.setRuntimeClass(ManagedObjectManager.class);
+            beanMetadata.addProperty("blueprintContainer", createRef(context, "blueprintContainer"));
             registry.registerComponentDefinition(beanMetadata);
         }
     }
@@ -24,7 +24,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Set;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -86,6 +88,44 @@ public class CmUtils {
         }
     }
 
+    /**
+     * Compute the keys which have been added, removed or whose value changed
+     * between two configurations.  Either configuration may be <code>null</code>.
+     */
+    public static Set<String> getChangedKeys(Dictionary<String, ?> oldProps, Dictionary<String, ?> newProps) {
+        Set<String> changed = new HashSet<String>();
+        if (newProps != null) {
+            for (Enumeration<String> e = newProps.keys(); e.hasMoreElements();) {
+                String key = e.nextElement();
+                Object oldValue = oldProps != null ? oldProps.get(key) : null;
+                if (!valueEquals(oldValue, newProps.get(key))) {
+                    changed.add(key);
+                }
+            }
+        }
+        if (oldProps != null) {
+            for (Enumeration<String> e = oldProps.keys(); e.hasMoreElements();) {
+                String key = e.nextElement();
+                if (newProps == null || newProps.get(key) == null) {
+                    changed.add(key);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean valueEquals(Object v1, Object v2) {
+        if (v1 == null) {
+            return v2 == null;
+        } else if (v1 instanceof Object[] && v2 instanceof Object[]) {
+            return Arrays.deepEquals((Object[]) v1, (Object[]) v2);
+        } else if (v1.getClass().isArray() && v2 != null && v2.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[] { v1 }, new Object[] { v2 });
+        } else {
+            return v1.equals(v2);
+        }
+    }
+
     private static void callPlugins(final BundleContext bundleContext,
                                     final Dictionary<String, Object> props,
                                     final ServiceReference sr,
@@ -23,7 +23,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.apache.aries.blueprint.services.ExtendedBlueprintContainer;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
@@ -39,12 +43,22 @@ public class ManagedObjectManager {
     private static final Logger LOGGER = LoggerFactory.getLogger(ManagedObjectManager.class);
 
     private HashMap<String, ConfigurationWatcher> map = new HashMap<String, ConfigurationWatcher>();
-               
+
+    private ExtendedBlueprintContainer blueprintContainer;
+
+    public ExtendedBlueprintContainer getBlueprintContainer() {
+        return blueprintContainer;
+    }
+
+    public void setBlueprintContainer(ExtendedBlueprintContainer blueprintContainer) {
+        this.blueprintContainer = blueprintContainer;
+    }
+
     public synchronized void register(ManagedObject cm, Properties props) {
         String key = cm.getPersistentId();
         ConfigurationWatcher reg = map.get(key);
         if (reg == null) {
-            reg = new ConfigurationWatcher(); 
+            reg = new ConfigurationWatcher(blueprintContainer != null ? blueprintContainer.getExecutors() : null);
             ServiceRegistration registration = cm.getBundle().getBundleContext().registerService(ManagedService.class.getName(), reg, (Dictionary) props);
             reg.setRegistration(registration);            
             map.put(key, reg);
@@ -71,23 +85,85 @@ public class ManagedObjectManager {
         }
     }
 
+    /**
+     * Dispatches configuration updates to the managed objects, one update at a time and
+     * in order.  Updates received while a previous one is still waiting to be dispatched
+     * replace it, so that a burst of updates only results in the last one being applied.
+     */
     private static class ConfigurationWatcher implements ManagedService {
 
+        private final ExecutorService executor;
         private ServiceRegistration registration;
         private List<ManagedObject> list = new CopyOnWriteArrayList<ManagedObject>();
-        
-        public ConfigurationWatcher() {
+        private Dictionary pendingProps;
+        private boolean pending;
+        private boolean dispatching;
+
+        public ConfigurationWatcher(ExecutorService executor) {
+            this.executor = executor;
         }
         
         public void updated(final Dictionary props) throws ConfigurationException {
+            synchronized (this) {
+                if (pending) {
+                    LOGGER.debug("Coalescing configuration update with a pending one");
+                }
+                pendingProps = props;
+                pending = true;
+                if (dispatching) {
+                    return;
+                }
+                dispatching = true;
+            }
             // Run in a separate thread to avoid re-entrance
-            new Thread() {
+            Runnable dispatcher = new Runnable() {
                 public void run() {
-                    for (ManagedObject cm : list) {
+                    dispatch();
+                }
+            };
+            try {
+                getExecutor().execute(dispatcher);
+            } catch (RejectedExecutionException e) {
+                // The container is being destroyed
+                synchronized (this) {
+                    pendingProps = null;
+                    pending = false;
+                    dispatching = false;
+                }
+            }
+        }
+
+        private Executor getExecutor() {
+            if (executor != null && !executor.isShutdown()) {
+                return executor;
+            }
+            return new Executor() {
+                public void execute(Runnable command) {
+                    new Thread(command).start();
+                }
+            };
+        }
+
+        private void dispatch() {
+            while (true) {
+                Dictionary props;
+                synchronized (this) {
+                    if (!pending) {
+                        dispatching = false;
+                        return;
+                    }
+                    props = pendingProps;
+                    pendingProps = null;
+                    pending = false;
+                }
+                for (ManagedObject cm : list) {
+                    try {
                         cm.updated(props);
+                    } catch (Throwable t) {
+                        LOGGER.warn("Error updating configuration for pid " + cm.getPersistentId(), t);
                     }
                 }
-            }.start();
+            }
         }
         
         private void setRegistration(ServiceRegistration registration) {
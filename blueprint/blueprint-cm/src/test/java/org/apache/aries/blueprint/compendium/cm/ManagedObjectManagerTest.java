@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.compendium.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.blueprint.services.ExtendedBlueprintContainer;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.blueprint.container.Converter;
+import org.osgi.service.cm.ManagedService;
+
+public class ManagedObjectManagerTest {
+
+    private QueueExecutor executor;
+    private ManagedService managedService;
+    private TestBean bean;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new QueueExecutor();
+        ExtendedBlueprintContainer container = (ExtendedBlueprintContainer) proxy(ExtendedBlueprintContainer.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getExecutors")) {
+                    return executor;
+                } else if (method.getName().equals("getBundleContext")) {
+                    return createBundleContext();
+                } else if (method.getName().equals("getConverter")) {
+                    return createConverter();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        ManagedObjectManager manager = new ManagedObjectManager();
+        manager.setBlueprintContainer(container);
+
+        CmManagedProperties managedProperties = new CmManagedProperties();
+        managedProperties.setBlueprintContainer(container);
+        managedProperties.setManagedObjectManager(manager);
+        managedProperties.setPersistentId("pid");
+        managedProperties.setUpdateStrategy("container-managed");
+        managedProperties.setBeanName("bean");
+        managedProperties.init();
+        assertNotNull(managedService);
+
+        // initial configuration
+        managedService.updated(configuration("a"));
+        executor.runAll();
+
+        bean = new TestBean();
+        managedProperties.beforeInit(bean, "bean", null, null);
+        assertEquals(1, bean.values.size());
+    }
+
+    @Test
+    public void testRapidUpdatesAreInjectedOnce() throws Exception {
+        managedService.updated(configuration("b"));
+        managedService.updated(configuration("c"));
+        managedService.updated(configuration("d"));
+        // a single dispatch is scheduled for the whole burst
+        assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+
+        assertEquals(2, bean.values.size());
+        assertEquals("d", bean.values.get(1));
+    }
+
+    @Test
+    public void testUpdateDuringDispatchIsNotLost() throws Exception {
+        bean.onSet = new Runnable() {
+            public void run() {
+                bean.onSet = null;
+                try {
+                    managedService.updated(configuration("c"));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        managedService.updated(configuration("b"));
+        executor.runAll();
+
+        assertEquals(3, bean.values.size());
+        assertEquals("b", bean.values.get(1));
+        assertEquals("c", bean.values.get(2));
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void testUnchangedConfigurationIsNotInjected() throws Exception {
+        managedService.updated(configuration("a"));
+        executor.runAll();
+
+        assertEquals(1, bean.values.size());
+    }
+
+    private static Dictionary<String, Object> configuration(String name) {
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put("name", name);
+        return props;
+    }
+
+    private BundleContext createBundleContext() {
+        return (BundleContext) proxy(BundleContext.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getBundle")) {
+                    return createBundle((BundleContext) proxy);
+                } else if (method.getName().equals("registerService")) {
+                    managedService = (ManagedService) args[1];
+                    return proxy(ServiceRegistration.class, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            return null;
+                        }
+                    });
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Bundle createBundle(final BundleContext bundleContext) {
+        return (Bundle) proxy(Bundle.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getBundleContext")) {
+                    return bundleContext;
+                } else if (method.getName().equals("getSymbolicName")) {
+                    return "test";
+                } else if (method.getName().equals("getHeaders")) {
+                    Dictionary<String, String> headers = new Hashtable<String, String>();
+                    headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+                    return headers;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Converter createConverter() {
+        return (Converter) proxy(Converter.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("convert")) {
+                    return args[0];
+                } else if (method.getName().equals("canConvert")) {
+                    return true;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {type}, handler);
+    }
+
+    public static class TestBean {
+        private final List<String> values = new ArrayList<String>();
+        private Runnable onSet;
+
+        public void setName(String name) {
+            values.add(name);
+            if (onSet != null) {
+                onSet.run();
+            }
+        }
+    }
+
+    /**
+     * Runs the submitted tasks when asked to, so that the tests control when updates are dispatched.
+     */
+    private static class QueueExecutor extends AbstractExecutorService {
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.removeFirst().run();
+            }
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return new ArrayList<Runnable>();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+}
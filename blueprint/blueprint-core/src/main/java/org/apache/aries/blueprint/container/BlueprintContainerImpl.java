@@ -18,6 +18,7 @@
  */
 package org.apache.aries.blueprint.container;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.security.AccessControlContext;
@@ -44,6 +45,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.xml.validation.Schema;
+
 import org.apache.aries.blueprint.BlueprintConstants;
 import org.apache.aries.blueprint.ComponentDefinitionRegistryProcessor;
 import org.apache.aries.blueprint.ExtendedBeanMetadata;
@@ -162,6 +165,7 @@ public class BlueprintContainerImpl
     private final AccessControlContext accessControlContext;
     private final IdSpace tempRecipeIdSpace = new IdSpace();
     private final ProxyManager proxyManager;
+    private StartupTimeline timeline;
 
     public BlueprintContainerImpl(Bundle bundle, BundleContext bundleContext, Bundle extenderBundle, BlueprintListener eventDispatcher,
                                   NamespaceHandlerRegistry handlers, ExecutorService executor, ScheduledExecutorService timer,
@@ -255,6 +259,18 @@ public class BlueprintContainerImpl
         LOGGER.debug("Xml-validation directive: {}", xmlValidation);
     }
 
+    /**
+     * Record the startup of this container in the given timeline.
+     * This must be called before the container is first run.
+     */
+    public void setStartupTimeline(StartupTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    public StartupTimeline getStartupTimeline() {
+        return timeline;
+    }
+
     public void schedule() {
         if (scheduled.compareAndSet(false, true)) {
             executors.submit(this);
@@ -319,12 +335,19 @@ public class BlueprintContainerImpl
                     return;
                 }
                 LOGGER.debug("Running container for blueprint bundle {}/{} in state {}", getBundle().getSymbolicName(), getBundle().getVersion(), state);
+                if (timeline != null) {
+                    timeline.state(state.name());
+                }
                 switch (state) {
                     case Unknown:
                         readDirectives();
                         eventDispatcher.blueprintEvent(new BlueprintEvent(BlueprintEvent.CREATING, getBundle(), getExtenderBundle()));
                         parser = new Parser();
+                        long parseStart = System.nanoTime();
                         parser.parse(pathList);
+                        if (timeline != null) {
+                            timeline.record(StartupTimeline.CATEGORY_PARSE, "parse", parseStart);
+                        }
                         namespaces = parser.getNamespaces();
                         if (additionalNamespaces != null) {
                             namespaces.addAll(additionalNamespaces);
@@ -362,13 +385,17 @@ public class BlueprintContainerImpl
                         }
                         try {
                             if (xmlValidation == null || "true".equals(xmlValidation)) {
-                                parser.validate(handlerSet.getSchema(parser.getSchemaLocations()));
+                                parser.validate(getSchema());
                             } else if ("structure".equals(xmlValidation)) {
-                                parser.validate(handlerSet.getSchema(parser.getSchemaLocations()), new ValidationHandler());
+                                parser.validate(getSchema(), new ValidationHandler());
                             } else if ("psvi".equals(xmlValidation)) {
-                                parser.validatePsvi(handlerSet.getSchema(parser.getSchemaLocations()));
+                                parser.validatePsvi(getSchema());
                             }
+                            long populateStart = System.nanoTime();
                             parser.populate(handlerSet, componentDefinitionRegistry);
+                            if (timeline != null) {
+                                timeline.record(StartupTimeline.CATEGORY_PARSE, "populate", populateStart);
+                            }
                             state = State.Populated;
                         } catch (MissingNamespaceException e) {
                             // If we found a missing namespace when parsing the schema,
@@ -392,6 +419,7 @@ public class BlueprintContainerImpl
                                     }
                                     Throwable t = new TimeoutException();
                                     state = State.Failed;
+                                    finishStartupTimeline();
                                     tidyupComponents();
                                     LOGGER.error("Unable to start container for blueprint bundle {}/{} due to unresolved dependencies {}", getBundle().getSymbolicName(), getBundle().getVersion(), Arrays.asList(missingDependecies), t);
                                     eventDispatcher.blueprintEvent(new BlueprintEvent(BlueprintEvent.FAILURE, getBundle(), getExtenderBundle(), missingDependecies, t));
@@ -449,12 +477,14 @@ public class BlueprintContainerImpl
                         break;
                     case Created:
                     case Failed:
+                        finishStartupTimeline();
                         return;
                 }
             }
         } catch (Throwable t) {
             try {
                 state = State.Failed;
+                finishStartupTimeline();
                 cancelFutureIfPresent();
                 tidyupComponents();
                 LOGGER.error("Unable to start container for blueprint bundle {}/{}", getBundle().getSymbolicName(), getBundle().getVersion(), t);
@@ -466,6 +496,22 @@ public class BlueprintContainerImpl
         }
     }
 
+    private Schema getSchema() throws IOException, SAXException {
+        long start = System.nanoTime();
+        Schema schema = handlerSet.getSchema(parser.getSchemaLocations());
+        if (timeline != null) {
+            timeline.record(StartupTimeline.CATEGORY_SCHEMA, "schema", start);
+        }
+        return schema;
+    }
+
+    private void finishStartupTimeline() {
+        if (timeline != null) {
+            timeline.state(state.name());
+            timeline.finish();
+        }
+    }
+
     public Class loadClass(final String name) throws ClassNotFoundException {
         if (accessControlContext == null) {
             return bundle.loadClass(name);
@@ -522,10 +568,29 @@ public class BlueprintContainerImpl
     public BlueprintRepository getRepository() {
         if (repository == null) {
             repository = new RecipeBuilder(this, tempRecipeIdSpace).createRepository();
+            repository.setStartupTimeline(timeline);
         }
         return repository;
     }
 
+    /**
+     * Returns the number of calls in flight on each service of this container, keyed by the
+     * service id. Calls are only counted when the quiesce API is available.
+     */
+    public Map<String, Long> getServiceActiveCalls() {
+        Map<String, Long> calls = new HashMap<String, Long>();
+        BlueprintRepository repo = repository;
+        if (repo != null) {
+            for (String name : repo.getNames()) {
+                Recipe recipe = repo.getRecipe(name);
+                if (recipe instanceof ServiceRecipe) {
+                    calls.put(name, ((ServiceRecipe) recipe).getActiveCalls());
+                }
+            }
+        }
+        return calls;
+    }
+
     protected void processTypeConverters() throws Exception {
         List<String> typeConverters = new ArrayList<String>();
         for (Target target : componentDefinitionRegistry.getTypeConverters()) {
@@ -94,6 +94,8 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
     private SingleServiceTracker<ProxyManager> proxyManager;
     private ExecutorServiceFinder executorServiceFinder;
     private volatile boolean stopping;
+    private StartupProfiler startupProfiler;
+    private StartupScheduler startupScheduler;
 
     public void start(BundleContext ctx) {
         LOGGER.debug("Starting blueprint extender...");
@@ -118,7 +120,9 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
                 return Executors.newScheduledThreadPool(extenderThreads, new BlueprintThreadFactory(name));
             }
         });
+        startupScheduler = new StartupScheduler(getStartupThreads(), new BlueprintThreadFactory("Blueprint Extender Startup"));
         eventDispatcher = new BlueprintEventDispatcher(ctx);
+        startupProfiler = StartupProfiler.create(ctx, executors);
 
         // Ideally we'd want to only track STARTING and ACTIVE bundle, but this is not supported
         // when using equinox composites.  This would ensure that no STOPPING event is lost while
@@ -210,6 +214,7 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
         this.eventDispatcher.destroy();
         this.handlers.destroy();
         executors.shutdown();
+        startupScheduler.shutdown();
         LOGGER.debug("Blueprint extender stopped");
     }
 
@@ -320,15 +325,22 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
                 // The bundle has been stopped in the mean time
                 return false;
             }
+            ExecutorService executor = getExecutorService(bundle);
             BlueprintContainerImpl blueprintContainer = new BlueprintContainerImpl(bundle, bundleContext,
                                                                 context.getBundle(), eventDispatcher,
-                                                                handlers, getExecutorService(bundle),
+                                                                handlers, executor,
                                                                 executors, paths, pm, namespaces);
+            if (executor instanceof StartupScheduler.ContainerExecutor) {
+                ((StartupScheduler.ContainerExecutor) executor).setContainer(blueprintContainer);
+            }
             synchronized (containers) {
                 if (containers.putIfAbsent(bundle, blueprintContainer) != null) {
                     return false;
                 }
             }
+            if (startupProfiler != null) {
+                blueprintContainer.setStartupTimeline(startupProfiler.createTimeline(bundle));
+            }
             String val = context.getProperty(BlueprintConstants.SYNCHRONOUS_PROPERTY);
             if (Boolean.parseBoolean(val)) {
                 LOGGER.debug("Starting creation of blueprint bundle {}/{} synchronously", bundle.getSymbolicName(), bundle.getVersion());
@@ -344,6 +356,13 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
         }
     }
 
+    /**
+     * @return the profiler recording the startup of the containers, or <code>null</code> if profiling is disabled
+     */
+    public StartupProfiler getStartupProfiler() {
+        return startupProfiler;
+    }
+
     private void destroyContainer(final Bundle bundle) {
         FutureTask future;
         synchronized (containers) {
@@ -558,10 +577,32 @@ public class BlueprintExtender implements BundleActivator, BundleTrackerCustomiz
         if (executorServiceFinder != null) {
             return executorServiceFinder.find(bundle);
         } else {
-            return executors;
+            return startupScheduler.createExecutor();
         }
     }
 
+    /**
+     * Size the pool running the containers from the number of available cores,
+     * unless a number of threads has been explicitly configured.
+     */
+    private int getStartupThreads() {
+        int threads = Math.max(DEFAULT_NUMBER_OF_THREADS, Runtime.getRuntime().availableProcessors());
+        try {
+            threads = Integer.getInteger(EXTENDER_THREADS_PROPERTY, threads);
+        } catch (Exception e) {
+            LOGGER.error(EXTENDER_THREADS_PROPERTY + " is not a number. Using default value " + threads + ".");
+        }
+        LOGGER.debug("Using {} threads to run blueprint containers", threads);
+        return threads;
+    }
+
+    /**
+     * @return the scheduler running the containers, which exposes queueing statistics
+     */
+    public StartupScheduler getStartupScheduler() {
+        return startupScheduler;
+    }
+
     interface ExecutorServiceFinder {
 
         ExecutorService find(Bundle bundle);
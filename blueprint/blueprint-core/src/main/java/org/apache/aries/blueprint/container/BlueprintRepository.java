@@ -89,11 +89,17 @@ public class BlueprintRepository implements Repository, ExecutionContext {
     private final ThreadLocal<LinkedList<Recipe>> stack = new ThreadLocal<LinkedList<Recipe>>();
 
     private Map<String, Set<String>> invertedDependencies;
+
+    private volatile StartupTimeline timeline;
     
     public BlueprintRepository(ExtendedBlueprintContainer container) {
         blueprintContainer = container;
     }
     
+    public void setStartupTimeline(StartupTimeline timeline) {
+        this.timeline = timeline;
+    }
+
     public Object getInstance(String name) {
         Future<Object> future = instances.get(name);
         if (future != null && future.isDone()) {
@@ -461,11 +467,20 @@ public class BlueprintRepository implements Repository, ExecutionContext {
             stack.set(list);
         }
         list.add(recipe);
+        StartupTimeline timeline = this.timeline;
+        if (timeline != null) {
+            timeline.beginComponent();
+        }
     }
 
     public Recipe pop() {
         LinkedList<Recipe> list = stack.get();
-        return list.removeLast();
+        Recipe recipe = list.removeLast();
+        StartupTimeline timeline = this.timeline;
+        if (timeline != null) {
+            timeline.endComponent(recipe.getName());
+        }
+        return recipe;
     }
 
     public boolean containsObject(String name) {
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls in flight on a service. Calls are counted on a single counter until two of them
+ * contend on it; padded stripes chosen by the calling thread are then allocated, so that concurrent
+ * calls on a popular service do not all update the same cache line while services which are rarely
+ * called concurrently do not pay for the stripes.
+ * <p>
+ * {@link #enter()} returns a token which must be given back to {@link #exit(int)}. Once {@link #drain()}
+ * has been called, new calls are only counted on the single counter, so the stripes can only decrease
+ * and {@link #isDrained()} tells exactly whether the count reached zero.
+ */
+final class InFlightCounter {
+
+    /** The token of a call counted on the single counter */
+    static final int BASE = -1;
+
+    /** The number of longs between two stripes, so that each stripe is on its own cache line */
+    private static final int PADDING = 8;
+    private static final int MAX_STRIPES = 64;
+
+    private final AtomicLong base = new AtomicLong();
+    /** Allocated the first time two calls contend on <code>base</code>, never replaced afterwards */
+    private volatile AtomicLongArray cells;
+    private volatile boolean draining;
+
+    /**
+     * @return the token to give back to {@link #exit(int)} when the call completes
+     */
+    int enter() {
+        while (!draining) {
+            AtomicLongArray stripes = cells;
+            if (stripes == null) {
+                long b = base.get();
+                if (base.compareAndSet(b, b + 1)) {
+                    return BASE;
+                }
+                createCells();
+            } else {
+                int index = index(stripes);
+                stripes.incrementAndGet(index);
+                if (!draining) {
+                    return index;
+                }
+                // drain() has been called meanwhile, the stripes must only decrease from now on
+                stripes.decrementAndGet(index);
+            }
+        }
+        base.incrementAndGet();
+        return BASE;
+    }
+
+    void exit(int token) {
+        if (token == BASE) {
+            base.decrementAndGet();
+        } else {
+            cells.decrementAndGet(token);
+        }
+    }
+
+    /**
+     * Count the calls entered from now on on the single counter.
+     */
+    void drain() {
+        draining = true;
+    }
+
+    /**
+     * Only exact once {@link #drain()} has been called: the stripes can then only decrease, so when
+     * they are all seen at zero before the single counter is, no call was in flight when it was read.
+     *
+     * @return whether no call is in flight
+     */
+    boolean isDrained() {
+        AtomicLongArray stripes = cells;
+        if (stripes != null) {
+            for (int i = 0; i < stripes.length(); i += PADDING) {
+                if (stripes.get(i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return base.get() == 0;
+    }
+
+    /**
+     * @return the number of calls in flight, this is exact when no call enters or exits concurrently
+     */
+    long sum() {
+        long sum = base.get();
+        AtomicLongArray stripes = cells;
+        if (stripes != null) {
+            for (int i = 0; i < stripes.length(); i += PADDING) {
+                sum += stripes.get(i);
+            }
+        }
+        return sum;
+    }
+
+    boolean isStriped() {
+        return cells != null;
+    }
+
+    synchronized void createCells() {
+        if (cells == null) {
+            int stripes = 1;
+            int cpus = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+            while (stripes < cpus) {
+                stripes <<= 1;
+            }
+            cells = new AtomicLongArray(stripes * PADDING);
+        }
+    }
+
+    private static int index(AtomicLongArray stripes) {
+        int mask = stripes.length() / PADDING - 1;
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) * PADDING;
+    }
+}
@@ -32,17 +32,22 @@ public class QuiesceInterceptor implements Interceptor {
     }
 
     public Object preCall(ComponentMetadata cm, Method m, Object... parameters) throws Throwable {
-        serviceRecipe.incrementActiveCalls();
-
-        return null;
+        return serviceRecipe.incrementActiveCalls();
     }
 
     public void postCallWithReturn(ComponentMetadata cm, Method m, Object returnType, Object preCallToken) throws Throwable {
-        serviceRecipe.decrementActiveCalls();
+        exit(preCallToken);
     }
 
     public void postCallWithException(ComponentMetadata cm, Method m, Throwable ex, Object preCallToken) throws Throwable {
-        serviceRecipe.decrementActiveCalls();
+        exit(preCallToken);
+    }
+
+    private void exit(Object preCallToken) {
+        // the token is null when preCall did not complete
+        if (preCallToken != null) {
+            serviceRecipe.decrementActiveCalls((Integer) preCallToken);
+        }
     }
 
     public int getRank() {
@@ -27,7 +27,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.aries.blueprint.BlueprintConstants;
@@ -88,7 +87,7 @@ public class ServiceRecipe extends AbstractRecipe {
     private volatile Object service;
 
     private final Object monitor = new Object();
-    private final AtomicInteger activeCalls = new AtomicInteger(0);
+    private final InFlightCounter activeCalls = new InFlightCounter();
     private volatile boolean quiesce;
     /** Only ever access when holding a lock on <code>monitor</code> */
     private Collection<DestroyCallback> destroyCallbacks = new ArrayList<DestroyCallback>();
@@ -460,17 +459,28 @@ public class ServiceRecipe extends AbstractRecipe {
         }
     }
 
-    protected void incrementActiveCalls()
+    /**
+     * @return the number of calls currently in flight on this service
+     */
+    public long getActiveCalls() {
+        return activeCalls.sum();
+    }
+
+    /**
+     * @return the token to give back to {@link #decrementActiveCalls(int)}
+     */
+    protected int incrementActiveCalls()
     {
-        // can be improved with LongAdder but Java 8 or backport (like guava) is needed
-        activeCalls.incrementAndGet();
+        return activeCalls.enter();
     }
     
-  	protected void decrementActiveCalls() 
+  	protected void decrementActiveCalls(int token) 
   	{
-        int currentCount = activeCalls.decrementAndGet();
+        activeCalls.exit(token);
 
-        if (currentCount == 0 && quiesce) {
+        // quiesce() drains the counter before setting the flag and checks it afterwards,
+        // so one of them sees the count reach zero
+        if (quiesce && activeCalls.isDrained()) {
             List<DestroyCallback> callbacksToCall;
             synchronized (monitor) {
                 callbacksToCall = new ArrayList<DestroyCallback>(destroyCallbacks);
@@ -490,6 +500,7 @@ public class ServiceRecipe extends AbstractRecipe {
     public void quiesce(DestroyCallback destroyCallback)
     {
         unregister();
+        activeCalls.drain();
         quiesce = true;
 
         DestroyCallback safeDestroyCallback = new DestroyOnceCallback(destroyCallback);
@@ -498,7 +509,7 @@ public class ServiceRecipe extends AbstractRecipe {
             destroyCallbacks.add(safeDestroyCallback);
         }
 
-        if (activeCalls.get() == 0) {
+        if (activeCalls.isDrained()) {
             safeDestroyCallback.callback();
             synchronized (monitor) {
                 destroyCallbacks.remove(safeDestroyCallback);
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the startup timelines of all the blueprint containers created by the extender.
+ *
+ * Profiling is enabled by setting the <code>org.apache.aries.blueprint.profile</code> property
+ * to <code>true</code>, in which case a summary is logged when each container is created or fails.
+ * If the <code>org.apache.aries.blueprint.profile.dir</code> property is set, the timeline of each
+ * bundle is also written to that directory as a Chrome trace, along with a
+ * <code>blueprint-startup.json</code> trace aggregating all the bundles.
+ *
+ * @version $Rev$, $Date$
+ */
+public class StartupProfiler {
+
+    public static final String PROFILE_PROPERTY = "org.apache.aries.blueprint.profile";
+    public static final String PROFILE_DIRECTORY_PROPERTY = "org.apache.aries.blueprint.profile.dir";
+    public static final String AGGREGATE_FILE_NAME = "blueprint-startup.json";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupProfiler.class);
+    private static final long AGGREGATE_DELAY = 1000;
+    private static final int SLOWEST_COMPONENTS = 5;
+
+    private final File directory;
+    private final ScheduledExecutorService timer;
+    private final List<StartupTimeline> timelines = new CopyOnWriteArrayList<StartupTimeline>();
+    private final AtomicBoolean aggregateScheduled = new AtomicBoolean();
+
+    public StartupProfiler(File directory, ScheduledExecutorService timer) {
+        this.directory = directory;
+        this.timer = timer;
+    }
+
+    /**
+     * Create a profiler if profiling is enabled by the framework properties, else return <code>null</code>.
+     */
+    public static StartupProfiler create(BundleContext context, ScheduledExecutorService timer) {
+        String dir = context.getProperty(PROFILE_DIRECTORY_PROPERTY);
+        if (dir == null && !Boolean.parseBoolean(context.getProperty(PROFILE_PROPERTY))) {
+            return null;
+        }
+        File directory = null;
+        if (dir != null) {
+            directory = new File(dir);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                LOGGER.warn("Unable to create blueprint profile directory {}, timelines will not be written", directory);
+                directory = null;
+            }
+        }
+        LOGGER.info("Blueprint startup profiling is enabled");
+        return new StartupProfiler(directory, timer);
+    }
+
+    public StartupTimeline createTimeline(Bundle bundle) {
+        StartupTimeline timeline = new StartupTimeline(this, bundle);
+        // Only keep the latest timeline of a bundle which is restarted
+        for (StartupTimeline previous : timelines) {
+            if (previous.getBundleId() == timeline.getBundleId()) {
+                timelines.remove(previous);
+            }
+        }
+        timelines.add(timeline);
+        return timeline;
+    }
+
+    public List<StartupTimeline> getTimelines() {
+        return new ArrayList<StartupTimeline>(timelines);
+    }
+
+    void finished(StartupTimeline timeline) {
+        LOGGER.info(getSummary(timeline));
+        if (directory != null) {
+            writeTimeline(timeline);
+            scheduleAggregate();
+        }
+    }
+
+    public String getSummary(StartupTimeline timeline) {
+        Map<String, Long> states = timeline.getStateDurations();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Blueprint bundle ").append(timeline.getBundleName())
+          .append(" startup took ").append(timeline.getTotalDuration()).append(" ms")
+          .append(" (namespace handlers wait: ").append(getDuration(states, BlueprintContainerImpl.State.WaitForNamespaceHandlers)).append(" ms")
+          .append(", services wait: ").append(getDuration(states, BlueprintContainerImpl.State.WaitForInitialReferences)
+                                             + getDuration(states, BlueprintContainerImpl.State.WaitForInitialReferences2)).append(" ms")
+          .append(", parse: ").append(timeline.getDuration(StartupTimeline.CATEGORY_PARSE)).append(" ms")
+          .append(", schema: ").append(timeline.getDuration(StartupTimeline.CATEGORY_SCHEMA)).append(" ms")
+          .append(", create: ").append(getDuration(states, BlueprintContainerImpl.State.Create)).append(" ms")
+          .append("), states: ").append(states)
+          .append(", slowest components: ").append(timeline.getSlowestComponents(SLOWEST_COMPONENTS));
+        return sb.toString();
+    }
+
+    /**
+     * @return all the finished timelines as a single Chrome trace document
+     */
+    public String getAggregateTrace() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeAggregate(writer);
+        } catch (IOException e) {
+            // Can not happen with a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private static long getDuration(Map<String, Long> states, BlueprintContainerImpl.State state) {
+        Long duration = states.get(state.name());
+        return duration != null ? duration : 0;
+    }
+
+    private void writeTimeline(StartupTimeline timeline) {
+        File file = new File(directory, timeline.getBundleName().replaceAll("[^A-Za-z0-9._-]", "_") + ".json");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                timeline.writeChromeTrace(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write blueprint startup timeline to {}", file, e);
+        }
+    }
+
+    private void scheduleAggregate() {
+        if (aggregateScheduled.compareAndSet(false, true)) {
+            // Coalesce the writes when many bundles are started at the same time
+            try {
+                timer.schedule(new Runnable() {
+                    public void run() {
+                        aggregateScheduled.set(false);
+                        File file = new File(directory, AGGREGATE_FILE_NAME);
+                        try {
+                            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                            try {
+                                writeAggregate(writer);
+                            } finally {
+                                writer.close();
+                            }
+                        } catch (IOException e) {
+                            LOGGER.warn("Unable to write blueprint startup timeline to {}", file, e);
+                        }
+                    }
+                }, AGGREGATE_DELAY, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The extender is stopping
+                aggregateScheduled.set(false);
+            }
+        }
+    }
+
+    private void writeAggregate(Writer writer) throws IOException {
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (StartupTimeline timeline : timelines) {
+            if (timeline.isFinished()) {
+                timeline.writeChromeTraceEvents(writer, first);
+                first = false;
+            }
+        }
+        writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the blueprint containers tasks on a bounded pool of threads.
+ *
+ * Containers waiting for namespace handlers or services do not hold a thread: they return
+ * and are scheduled again when their dependencies show up.  When more containers are ready
+ * to run than there are threads, the containers which are the furthest in their startup are
+ * run first, as their dependencies are available and completing them publishes the services
+ * other containers are waiting for.  Containers in the same state are run in submission order.
+ *
+ * @version $Rev$, $Date$
+ */
+public class StartupScheduler {
+
+    /** Tasks waiting longer than this in the queue are reported as starved */
+    public static final long STARVATION_THRESHOLD = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StartupScheduler.class);
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong executedTasks = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+    private final AtomicLong starvedTasks = new AtomicLong();
+
+    public StartupScheduler(int threads, ThreadFactory threadFactory) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                               new PriorityBlockingQueue<Runnable>(), threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Create the executor to be used by a container.  The container must be
+     * set on the returned executor before it submits any task.
+     */
+    public ContainerExecutor createExecutor() {
+        return new ContainerExecutor();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getExecutedTasks() {
+        return executedTasks.get();
+    }
+
+    /**
+     * @return the average time in milliseconds the tasks waited in the queue before running
+     */
+    public long getAverageWaitTime() {
+        long executed = executedTasks.get();
+        return executed > 0 ? TimeUnit.NANOSECONDS.toMillis(totalWaitTime.get() / executed) : 0;
+    }
+
+    /**
+     * @return the longest time in milliseconds a task waited in the queue before running
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    /**
+     * @return the number of tasks which waited longer than {@link #STARVATION_THRESHOLD} before running
+     */
+    public long getStarvedTasks() {
+        return starvedTasks.get();
+    }
+
+    void execute(Runnable command, int priority) {
+        executor.execute(new Task(command, priority, sequence.getAndIncrement()));
+        int depth = executor.getQueue().size();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // retry
+        }
+    }
+
+    private void started(Task task) {
+        long wait = System.nanoTime() - task.submitted;
+        executedTasks.incrementAndGet();
+        totalWaitTime.addAndGet(wait);
+        long max;
+        while (wait > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, wait)) {
+            // retry
+        }
+        if (wait > STARVATION_THRESHOLD) {
+            starvedTasks.incrementAndGet();
+            LOGGER.debug("Blueprint task waited {} ms before running, {} tasks are queued", TimeUnit.NANOSECONDS.toMillis(wait), getQueueDepth());
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+
+        private final Runnable command;
+        private final int priority;
+        private final long sequence;
+        private final long submitted = System.nanoTime();
+
+        Task(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run() {
+            started(this);
+            command.run();
+        }
+
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+        }
+    }
+
+    /**
+     * The view of the scheduler used by a single container, which gives its tasks
+     * a priority depending on the state of the container when they are submitted.
+     * The underlying pool is shared, so shutting down this executor has no effect.
+     */
+    public class ContainerExecutor extends AbstractExecutorService {
+
+        private volatile BlueprintContainerImpl container;
+
+        public void setContainer(BlueprintContainerImpl container) {
+            this.container = container;
+        }
+
+        public void execute(Runnable command) {
+            BlueprintContainerImpl container = this.container;
+            int priority = container != null ? container.getState().ordinal() : 0;
+            StartupScheduler.this.execute(command, priority);
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Records where the startup time of a blueprint container is spent: the time spent in each
+ * state of the container, the time taken to parse the definitions and to compile the schemas,
+ * and the time taken to create each component.
+ *
+ * The timeline can be exported using the Chrome trace event format, which can be loaded in
+ * chrome://tracing or any compatible viewer.
+ *
+ * @version $Rev$, $Date$
+ */
+public class StartupTimeline {
+
+    public static final String CATEGORY_STATE = "state";
+    public static final String CATEGORY_PARSE = "parse";
+    public static final String CATEGORY_SCHEMA = "schema";
+    public static final String CATEGORY_COMPONENT = "component";
+
+    /** Pseudo thread id used for the state intervals, as a container may change threads while waiting */
+    private static final long STATE_THREAD_ID = 0;
+
+    private final StartupProfiler profiler;
+    private final long bundleId;
+    private final String bundleName;
+    private final long origin;
+    private final List<Event> events = new ArrayList<Event>();
+    private final ThreadLocal<LinkedList<Long>> componentStarts = new ThreadLocal<LinkedList<Long>>();
+    private String state;
+    private long stateStart;
+    private volatile boolean finished;
+
+    public StartupTimeline(StartupProfiler profiler, Bundle bundle) {
+        this.profiler = profiler;
+        this.bundleId = bundle.getBundleId();
+        this.bundleName = bundle.getSymbolicName() + "/" + bundle.getVersion();
+        this.origin = System.nanoTime();
+    }
+
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    public String getBundleName() {
+        return bundleName;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Record that the container is now in the given state.  Nothing is recorded if the
+     * container is already in that state, so that the time spent waiting is attributed
+     * to the state the container is waiting in.
+     */
+    public synchronized void state(String newState) {
+        if (finished || newState.equals(state)) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (state != null) {
+            events.add(new Event(CATEGORY_STATE, state, STATE_THREAD_ID, stateStart, now));
+        }
+        state = newState;
+        stateStart = now;
+    }
+
+    /**
+     * Record an interval which started at the given time and ends now.
+     */
+    public void record(String category, String name, long start) {
+        long end = System.nanoTime();
+        if (finished) {
+            return;
+        }
+        Event event = new Event(category, name, Thread.currentThread().getId(), start, end);
+        synchronized (this) {
+            events.add(event);
+        }
+    }
+
+    public void beginComponent() {
+        if (finished) {
+            return;
+        }
+        LinkedList<Long> starts = componentStarts.get();
+        if (starts == null) {
+            starts = new LinkedList<Long>();
+            componentStarts.set(starts);
+        }
+        starts.add(System.nanoTime());
+    }
+
+    public void endComponent(String name) {
+        LinkedList<Long> starts = componentStarts.get();
+        if (starts == null || starts.isEmpty()) {
+            return;
+        }
+        long start = starts.removeLast();
+        if (starts.isEmpty()) {
+            componentStarts.remove();
+        }
+        record(CATEGORY_COMPONENT, name, start);
+    }
+
+    /**
+     * Close the current state and notify the profiler.  Nothing is recorded afterwards.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            if (state != null) {
+                events.add(new Event(CATEGORY_STATE, state, STATE_THREAD_ID, stateStart, System.nanoTime()));
+            }
+            finished = true;
+        }
+        if (profiler != null) {
+            profiler.finished(this);
+        }
+    }
+
+    /**
+     * @return the total time in milliseconds spent in each state
+     */
+    public synchronized Map<String, Long> getStateDurations() {
+        return getDurations(CATEGORY_STATE);
+    }
+
+    /**
+     * @return the total time in milliseconds, from the first recorded event to the last one
+     */
+    public synchronized long getTotalDuration() {
+        long end = origin;
+        for (Event event : events) {
+            end = Math.max(end, event.end);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(end - origin);
+    }
+
+    /**
+     * @return the total time in milliseconds spent on the given category of events
+     */
+    public synchronized long getDuration(String category) {
+        long duration = 0;
+        for (Event event : events) {
+            if (event.category.equals(category)) {
+                duration += event.end - event.start;
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(duration);
+    }
+
+    /**
+     * @return the names of the components which took the longest to create, including the
+     *         creation of their dependencies, with their creation time in milliseconds
+     */
+    public synchronized Map<String, Long> getSlowestComponents(int count) {
+        List<Event> components = new ArrayList<Event>();
+        for (Event event : events) {
+            if (event.category.equals(CATEGORY_COMPONENT)) {
+                components.add(event);
+            }
+        }
+        Collections.sort(components, new Comparator<Event>() {
+            public int compare(Event e1, Event e2) {
+                long d1 = e1.end - e1.start;
+                long d2 = e2.end - e2.start;
+                return d1 > d2 ? -1 : d1 < d2 ? 1 : 0;
+            }
+        });
+        Map<String, Long> slowest = new LinkedHashMap<String, Long>();
+        for (Event event : components.subList(0, Math.min(count, components.size()))) {
+            slowest.put(event.name, TimeUnit.NANOSECONDS.toMillis(event.end - event.start));
+        }
+        return slowest;
+    }
+
+    private Map<String, Long> getDurations(String category) {
+        Map<String, Long> durations = new LinkedHashMap<String, Long>();
+        for (Event event : events) {
+            if (event.category.equals(category)) {
+                Long duration = durations.get(event.name);
+                durations.put(event.name, (duration != null ? duration : 0L) + event.end - event.start);
+            }
+        }
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            entry.setValue(TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return durations;
+    }
+
+    /**
+     * Write this timeline as a standalone Chrome trace document.
+     */
+    public void writeChromeTrace(Writer writer) throws IOException {
+        writer.write("{\"traceEvents\":[");
+        writeChromeTraceEvents(writer, true);
+        writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+
+    /**
+     * Write the events of this timeline, separated by commas, so that the events of
+     * several timelines can be aggregated in a single document.
+     */
+    synchronized void writeChromeTraceEvents(Writer writer, boolean first) throws IOException {
+        writer.write(first ? "\n" : ",\n");
+        writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":");
+        writer.write(Long.toString(bundleId));
+        writer.write(",\"args\":{\"name\":");
+        writeString(writer, bundleName);
+        writer.write("}}");
+        for (Event event : events) {
+            writer.write(",\n{\"name\":");
+            writeString(writer, event.name);
+            writer.write(",\"cat\":");
+            writeString(writer, event.category);
+            writer.write(",\"ph\":\"X\",\"ts\":");
+            writer.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(event.start)));
+            writer.write(",\"dur\":");
+            writer.write(Long.toString(TimeUnit.NANOSECONDS.toMicros(event.end - event.start)));
+            writer.write(",\"pid\":");
+            writer.write(Long.toString(bundleId));
+            writer.write(",\"tid\":");
+            writer.write(Long.toString(event.threadId));
+            writer.write("}");
+        }
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private static class Event {
+
+        private final String category;
+        private final String name;
+        private final long threadId;
+        private final long start;
+        private final long end;
+
+        Event(String category, String name, long threadId, long start, long end) {
+            this.category = category;
+            this.name = name;
+            this.threadId = threadId;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+}
@@ -30,9 +30,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 /**
@@ -51,6 +58,13 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
 
     private LinkedList<String> processingStack = new LinkedList<String>();
 
+    /** Raw values retrieved while resolving the current string on this thread, keyed by expression */
+    private final ThreadLocal<Map<String, ResolvedValue>> resolvedValues = new ThreadLocal<Map<String, ResolvedValue>>();
+    /** Index from the keys looked up to the values which used them */
+    private final ConcurrentMap<String, Set<LateBindingValueMetadata>> dependentValues = new ConcurrentHashMap<String, Set<LateBindingValueMetadata>>();
+    /** Keys looked up by the value being resolved on the current thread */
+    private final ThreadLocal<Set<String>> dependencyKeys = new ThreadLocal<Set<String>>();
+
     private Bundle blueprintBundle;
     
     public String getPlaceholderPrefix() {
@@ -78,6 +92,7 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
     }
 
     public void process(ComponentDefinitionRegistry registry) throws ComponentDefinitionException {
+        dependentValues.clear();
         try {
              blueprintBundle = (Bundle) ((PassThroughMetadata)registry.getComponentDefinition("blueprintBundle")).getObject();
             
@@ -413,31 +428,197 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
     protected Object retrieveValue(String expression) {
         return getProperty(expression);
     }
-    
+
     protected Object processString(String str) {
         // TODO: we need to handle escapes on the prefix / suffix
-        Matcher matcher = getPattern().matcher(str);
-        while (matcher.find()) {
-            String n = matcher.group(1);
-            int idx = n.indexOf(placeholderPrefix);
-            if (idx >= 0) {
-                matcher.region(matcher.start(1) + idx, str.length());
-                continue;
+        // the raw values are only reused while resolving this string, so that later
+        // resolutions see the current values of the properties
+        Map<String, ResolvedValue> previous = resolvedValues.get();
+        if (previous == null) {
+            resolvedValues.set(new HashMap<String, ResolvedValue>());
+        }
+        Object value;
+        try {
+            value = resolve(str, new HashSet<String>());
+        } finally {
+            if (previous == null) {
+                resolvedValues.remove();
             }
-            Object rep = retrieveValue(matcher.group(1));
-            if (rep != null) {
-                if (rep instanceof String || !matcher.group(0).equals(str)) {
-                    str = str.replace(matcher.group(0), rep.toString());
-                    matcher.reset(str);
-                } else {
-                    return rep;
+        }
+        if (nullValue != null && nullValue.equals(value)) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Replace all placeholders in the given string in a single left to right pass.
+     * Nested placeholders are resolved before the placeholder enclosing them and
+     * resolved values are themselves resolved, so that properties may refer to other
+     * properties.  If the whole string is a single placeholder, the value is returned
+     * as is, else the string representation of the values are substituted.
+     * Placeholders which can not be resolved are left untouched.
+     */
+    private Object resolve(String str, Set<String> resolving) {
+        int start = str.indexOf(placeholderPrefix);
+        if (start < 0) {
+            return str;
+        }
+        StringBuilder out = new StringBuilder(str.length());
+        out.append(str, 0, start);
+        int pos = start + placeholderPrefix.length();
+        StringBuilder key = new StringBuilder();
+        int end = substitute(str, pos, true, key, resolving);
+        if (end < 0) {
+            out.append(placeholderPrefix).append(key);
+            return out.toString();
+        }
+        Object value = lookup(key.toString(), resolving);
+        if (start == 0 && end == str.length() && value != null) {
+            return value;
+        }
+        append(out, key, value);
+        substitute(str, end, false, out, resolving);
+        return out.toString();
+    }
+
+    /**
+     * Copy the given string to the buffer starting at the given position and replace the
+     * placeholders found along the way.  When <code>nested</code> is set, the copy stops at the
+     * suffix closing the current placeholder and the position following that suffix is returned.
+     * Otherwise, or if the end of the string is reached first, -1 is returned.
+     */
+    private int substitute(String str, int pos, boolean nested, StringBuilder out, Set<String> resolving) {
+        int length = str.length();
+        while (pos < length) {
+            if (nested && str.startsWith(placeholderSuffix, pos)) {
+                return pos + placeholderSuffix.length();
+            }
+            if (str.startsWith(placeholderPrefix, pos)) {
+                StringBuilder key = new StringBuilder();
+                int end = substitute(str, pos + placeholderPrefix.length(), true, key, resolving);
+                if (end < 0) {
+                    out.append(placeholderPrefix).append(key);
+                    return -1;
                 }
+                append(out, key, lookup(key.toString(), resolving));
+                pos = end;
+            } else {
+                out.append(str.charAt(pos++));
             }
         }
-        if (nullValue != null && nullValue.equals(str)) {
+        return -1;
+    }
+
+    private void append(StringBuilder out, CharSequence key, Object value) {
+        if (value != null) {
+            out.append(value);
+        } else {
+            out.append(placeholderPrefix).append(key).append(placeholderSuffix);
+        }
+    }
+
+    private Object lookup(String key, Set<String> resolving) {
+        if (key.length() == 0) {
             return null;
         }
-        return str;
+        addDependency(key);
+        if (!resolving.add(key)) {
+            LOGGER.warn("Circular reference detected while resolving placeholder {}{}{}",
+                    new Object[] { placeholderPrefix, key, placeholderSuffix });
+            return null;
+        }
+        try {
+            Object value = retrieveResolvedValue(key);
+            if (value instanceof String) {
+                value = resolve((String) value, resolving);
+            }
+            return value;
+        } finally {
+            resolving.remove(key);
+        }
+    }
+
+    /**
+     * Retrieve the raw value of the given expression, reusing the value retrieved
+     * earlier while resolving the current string if any.
+     */
+    private Object retrieveResolvedValue(String expression) {
+        Map<String, ResolvedValue> memo = resolvedValues.get();
+        ResolvedValue resolvedValue = memo != null ? memo.get(expression) : null;
+        if (resolvedValue == null) {
+            Set<String> keys = new HashSet<String>();
+            Set<String> previous = dependencyKeys.get();
+            dependencyKeys.set(keys);
+            Object value;
+            try {
+                value = retrieveValue(expression);
+            } finally {
+                dependencyKeys.set(previous);
+            }
+            if (previous != null) {
+                previous.addAll(keys);
+            }
+            if (value == null) {
+                return null;
+            }
+            resolvedValue = new ResolvedValue(value, keys);
+            if (memo != null) {
+                memo.put(expression, resolvedValue);
+            }
+        } else {
+            Set<String> keys = dependencyKeys.get();
+            if (keys != null) {
+                keys.addAll(resolvedValue.keys);
+            }
+        }
+        return resolvedValue.value;
+    }
+
+    /**
+     * Record that the value currently being resolved depends on the given key.
+     * Subclasses which look up additional keys while retrieving a value, for example
+     * through an expression evaluator, should call this method for each of them.
+     */
+    protected void addDependency(String key) {
+        Set<String> keys = dependencyKeys.get();
+        if (keys != null) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Return the values which have been resolved using any of the given keys.
+     */
+    protected Set<LateBindingValueMetadata> getDependentValues(Collection<String> keys) {
+        Set<LateBindingValueMetadata> values = new HashSet<LateBindingValueMetadata>();
+        for (String key : keys) {
+            Set<LateBindingValueMetadata> dependents = dependentValues.get(key);
+            if (dependents != null) {
+                values.addAll(dependents);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Forget the values resolved using any of the given keys, so that they are
+     * resolved again the next time they are accessed.
+     *
+     * @return the values which will be resolved again
+     */
+    protected Set<LateBindingValueMetadata> invalidate(Collection<String> keys) {
+        Set<LateBindingValueMetadata> values = new HashSet<LateBindingValueMetadata>();
+        for (String key : keys) {
+            Set<LateBindingValueMetadata> dependents = dependentValues.remove(key);
+            if (dependents != null) {
+                values.addAll(dependents);
+            }
+        }
+        for (LateBindingValueMetadata value : values) {
+            value.reset();
+        }
+        return values;
     }
 
     protected Object getProperty(String val) {
@@ -451,10 +632,21 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
         return pattern;
     }
 
+    private static class ResolvedValue {
+
+        private final Object value;
+        private final Set<String> keys;
+
+        ResolvedValue(Object value, Set<String> keys) {
+            this.value = value;
+            this.keys = keys;
+        }
+    }
+
     public class LateBindingValueMetadata implements ExtendedValueMetadata {
 
         private final ValueMetadata metadata;
-        private boolean retrieved;
+        private volatile boolean retrieved;
         private Object retrievedValue;
 
         public LateBindingValueMetadata(ValueMetadata metadata) {
@@ -484,7 +676,25 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
                 if (o == null) {
                     String v = metadata.getStringValue();
                     LOGGER.debug("Before process: {}", v);
-                    retrievedValue = processString(v);
+                    Set<String> keys = new HashSet<String>();
+                    Set<String> previous = dependencyKeys.get();
+                    dependencyKeys.set(keys);
+                    try {
+                        retrievedValue = processString(v);
+                    } finally {
+                        dependencyKeys.set(previous);
+                    }
+                    for (String key : keys) {
+                        Set<LateBindingValueMetadata> dependents = dependentValues.get(key);
+                        if (dependents == null) {
+                            dependents = Collections.newSetFromMap(new ConcurrentHashMap<LateBindingValueMetadata, Boolean>());
+                            Set<LateBindingValueMetadata> existing = dependentValues.putIfAbsent(key, dependents);
+                            if (existing != null) {
+                                dependents = existing;
+                            }
+                        }
+                        dependents.add(this);
+                    }
                     LOGGER.debug("After process: {}", retrievedValue);
                 } else {
                     LOGGER.debug("Skipping non string value: {}", o);
@@ -492,5 +702,9 @@ public abstract class AbstractPropertyPlaceholderExt extends PropertyPlaceholder
                 retrieved = true;
             }
         }
+
+        private void reset() {
+            retrieved = false;
+        }
     }
 }
@@ -212,6 +212,7 @@ public class PropertyPlaceholderExt extends AbstractPropertyPlaceholderExt {
             return evaluator.evaluate(expression, new AbstractMap<String, Object>() {
                 @Override
                 public Object get(Object key) {
+                    addDependency((String) key);
                     return getProperty((String) key);
                 }
                 @Override
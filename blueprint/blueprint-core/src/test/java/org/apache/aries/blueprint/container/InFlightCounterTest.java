@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InFlightCounterTest {
+
+    @Test
+    public void testConcurrentCallsDrainToZero() throws Exception {
+        final InFlightCounter counter = new InFlightCounter();
+        final CountDownLatch entered = new CountDownLatch(8);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.exit(counter.enter());
+                    }
+                    int token = counter.enter();
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    counter.exit(token);
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        entered.await();
+        Assert.assertEquals(8, counter.sum());
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertEquals(0, counter.sum());
+        Assert.assertTrue(counter.isDrained());
+    }
+
+    @Test
+    public void testUncontendedCallsAreNotStriped() {
+        InFlightCounter counter = new InFlightCounter();
+        for (int i = 0; i < 1000; i++) {
+            int token = counter.enter();
+            Assert.assertEquals(InFlightCounter.BASE, token);
+            counter.exit(token);
+        }
+        Assert.assertFalse(counter.isStriped());
+    }
+
+    @Test
+    public void testCallsEnteredWhileDrainingAreCounted() throws Exception {
+        final InFlightCounter counter = new InFlightCounter();
+        // as if calls had contended
+        counter.createCells();
+        Assert.assertTrue(counter.isStriped());
+        final int[] token = new int[1];
+        Thread t = new Thread() {
+            public void run() {
+                token[0] = counter.enter();
+            }
+        };
+        t.start();
+        t.join();
+
+        counter.drain();
+        int late = counter.enter();
+        Assert.assertEquals(InFlightCounter.BASE, late);
+        Assert.assertFalse(counter.isDrained());
+
+        counter.exit(token[0]);
+        Assert.assertFalse(counter.isDrained());
+        counter.exit(late);
+        Assert.assertTrue(counter.isDrained());
+    }
+}
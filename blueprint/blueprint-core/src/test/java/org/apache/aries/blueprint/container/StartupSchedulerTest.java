@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StartupSchedulerTest {
+
+    @Test
+    public void testPriorityOrdering() throws Exception {
+        StartupScheduler scheduler = new StartupScheduler(1, new BlueprintThreadFactory("test"));
+        final CountDownLatch blocker = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+        try {
+            scheduler.execute(new Runnable() {
+                public void run() {
+                    try {
+                        blocker.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, 0);
+            scheduler.execute(record("new-1", order, done), BlueprintContainerImpl.State.Unknown.ordinal());
+            scheduler.execute(record("create", order, done), BlueprintContainerImpl.State.Create.ordinal());
+            scheduler.execute(record("new-2", order, done), BlueprintContainerImpl.State.Unknown.ordinal());
+            scheduler.execute(record("populated", order, done), BlueprintContainerImpl.State.Populated.ordinal());
+            Assert.assertEquals(4, scheduler.getQueueDepth());
+            blocker.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList("create", "populated", "new-1", "new-2"), order);
+            Assert.assertEquals(5, scheduler.getExecutedTasks());
+            Assert.assertEquals(4, scheduler.getMaxQueueDepth());
+            Assert.assertEquals(0, scheduler.getStarvedTasks());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static Runnable record(final String name, final List<String> order, final CountDownLatch done) {
+        return new Runnable() {
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+}
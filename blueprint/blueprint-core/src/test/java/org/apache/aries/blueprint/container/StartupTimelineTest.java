@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.blueprint.container;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void testTimeline() throws Exception {
+        Bundle bundle = EasyMock.createMock(Bundle.class);
+        EasyMock.expect(bundle.getBundleId()).andReturn(42L).anyTimes();
+        EasyMock.expect(bundle.getSymbolicName()).andReturn("my.\"bundle\"").anyTimes();
+        EasyMock.expect(bundle.getVersion()).andReturn(new Version("1.0.0")).anyTimes();
+        EasyMock.replay(bundle);
+
+        StartupProfiler profiler = new StartupProfiler(null, null);
+        StartupTimeline timeline = profiler.createTimeline(bundle);
+        timeline.state("Unknown");
+        timeline.state("WaitForNamespaceHandlers");
+        Thread.sleep(20);
+        timeline.state("WaitForNamespaceHandlers");
+        timeline.record(StartupTimeline.CATEGORY_SCHEMA, "schema", System.nanoTime());
+        timeline.state("Create");
+        timeline.beginComponent();
+        timeline.beginComponent();
+        timeline.endComponent("inner");
+        Thread.sleep(5);
+        timeline.endComponent("outer");
+        timeline.state("Created");
+        timeline.finish();
+
+        // Nothing is recorded once finished
+        timeline.state("Failed");
+
+        Map<String, Long> states = timeline.getStateDurations();
+        Assert.assertEquals(Arrays.asList("Unknown", "WaitForNamespaceHandlers", "Create", "Created"),
+                            Arrays.asList(states.keySet().toArray()));
+        Assert.assertTrue(states.get("WaitForNamespaceHandlers") >= 20);
+        Assert.assertEquals("outer", timeline.getSlowestComponents(1).keySet().iterator().next());
+        Assert.assertEquals(2, timeline.getSlowestComponents(5).size());
+
+        StringWriter writer = new StringWriter();
+        timeline.writeChromeTrace(writer);
+        String trace = writer.toString();
+        Assert.assertTrue(trace.startsWith("{\"traceEvents\":["));
+        Assert.assertTrue(trace.contains("\"args\":{\"name\":\"my.\\\"bundle\\\"/1.0.0\"}"));
+        Assert.assertTrue(trace.contains("{\"name\":\"outer\",\"cat\":\"component\",\"ph\":\"X\""));
+        Assert.assertTrue(trace.contains("\"pid\":42"));
+
+        Assert.assertTrue(profiler.getAggregateTrace().contains("\"name\":\"inner\""));
+        Assert.assertTrue(profiler.getSummary(timeline).contains("namespace handlers wait"));
+    }
+
+}
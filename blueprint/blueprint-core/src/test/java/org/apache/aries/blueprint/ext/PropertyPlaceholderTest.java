@@ -20,8 +20,11 @@ package org.apache.aries.blueprint.ext;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -96,6 +99,58 @@ public class PropertyPlaceholderTest extends PropertyPlaceholderExt {
         assertEquals("plain text", sut.getStringValue());
     }
 
+    @Test
+    public void unresolvedProps() {
+        sut = makeProperty("${missing} ${prop-${missing}} ${prop1");
+        assertEquals("${missing} ${prop-${missing}} ${prop1", sut.getStringValue());
+    }
+
+    @Test
+    public void circularProps() {
+        bind("circular-1", "${circular-2}");
+        bind("circular-2", "${circular-1}");
+        sut = makeProperty("${circular-1}");
+        assertEquals("${circular-1}", sut.getStringValue());
+    }
+
+    @Test
+    public void nonStringProp() {
+        final Object value = new Object();
+        PropertyPlaceholderExt pp = new PropertyPlaceholderExt() {
+            protected Object getProperty(String val) {
+                return "object".equals(val) ? value : null;
+            }
+        };
+        assertSame(value, pp.processString("${object}"));
+        assertEquals("value " + value, pp.processString("value ${object}"));
+    }
+
+    @Test
+    public void laterResolutionsSeeCurrentValues() {
+        sut = makeProperty("${prop1}");
+        assertEquals("hello", sut.getStringValue());
+
+        bind("prop1", "bye");
+        LateBindingValueMetadata other = makeProperty("${prop1} ${prop1}");
+        assertEquals("bye bye", other.getStringValue());
+    }
+
+    @Test
+    public void invalidateProps() {
+        sut = makeProperty("${prop-${prop5}}");
+        LateBindingValueMetadata other = makeProperty("${prop1}");
+        assertEquals("hello nested world!", sut.getStringValue());
+        assertEquals("hello", other.getStringValue());
+
+        bind("prop5", "recursive-3");
+        assertEquals("hello nested world!", sut.getStringValue());
+
+        assertEquals(Collections.singleton(sut), invalidate(Collections.singleton("prop5")));
+        assertEquals("recursive-3", sut.getStringValue());
+        assertTrue(getDependentValues(Collections.singleton("prop5")).contains(sut));
+        assertEquals(Collections.singleton(other), getDependentValues(Collections.singleton("prop1")));
+    }
+
     @Test
     public void testAries1858() throws Exception {
         Method method = AbstractPropertyPlaceholder.class.getDeclaredMethod("retrieveValue", String.class);
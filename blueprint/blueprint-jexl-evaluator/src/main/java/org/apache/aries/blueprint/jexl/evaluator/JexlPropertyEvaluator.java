@@ -29,11 +29,35 @@ public class JexlPropertyEvaluator implements PropertyEvaluatorExt {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JexlPropertyEvaluator.class);
 
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    /**
+     * The engine holds no per-evaluation state, and the expressions it creates
+     * use a fresh interpreter for every call, so a single instance can be shared.
+     */
+    private static final JexlEngine ENGINE = new JexlEngine();
+
+    private final Map<String, Expression> expressions = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     public Object evaluate(String expression, Map<String, Object> properties) {
         try {
-            JexlEngine engine = new JexlEngine();
             MapContext context = new MapContext(properties);
-            Expression exp = engine.createExpression(expression);
+            Expression exp = getExpression(expression);
             return exp.evaluate(context);
         } catch (Exception e) {
             LOGGER.info("Could not evaluate expression: {}", expression);
@@ -42,4 +66,25 @@ public class JexlPropertyEvaluator implements PropertyEvaluatorExt {
         }
     }
 
+    /**
+     * Parse the given expression, or return the already parsed expression
+     * if it has been seen recently.
+     */
+    protected Expression getExpression(String expression) {
+        Expression exp;
+        synchronized (expressions) {
+            exp = expressions.get(expression);
+        }
+        if (exp == null) {
+            // Parse outside of the lock, a concurrent parse of the same text is harmless
+            exp = ENGINE.createExpression(expression);
+            if (cacheSize > 0) {
+                synchronized (expressions) {
+                    expressions.put(expression, exp);
+                }
+            }
+        }
+        return exp;
+    }
+
 }
@@ -101,7 +101,7 @@ public class JMXAgentImpl implements JMXAgent {
         MBeanHandler serviceStateHandler = new ServiceStateMBeanHandler(agentContext, stateConfig);
         mbeansHandlers.put(serviceStateHandler, Boolean.FALSE);
         serviceStateHandler.open();
-        MBeanHandler packageStateHandler = new PackageStateMBeanHandler(agentContext);
+        MBeanHandler packageStateHandler = new PackageStateMBeanHandler(agentContext, stateConfig);
         mbeansHandlers.put(packageStateHandler, Boolean.FALSE);
         packageStateHandler.open();
         MBeanHandler permissionAdminHandler = new PermissionAdminMBeanHandler(agentContext);
@@ -70,6 +70,7 @@ import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 
+import org.apache.aries.jmx.util.WiringSnapshot;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.jmx.framework.BundleStateMBean;
@@ -225,6 +226,66 @@ public class BundleData {
         this.version = bundle.getVersion().toString();
     }
 
+    /**
+     * Creates a BundleData holding only the given items, for listing many bundles at once. The package and
+     * bundle wiring is taken from a snapshot shared by all the bundles of the listing. The result must be
+     * converted with {@link #toCompositeData(Collection)} for the same items.
+     */
+    public BundleData(Bundle bundle, PackageAdmin packageAdmin, StartLevel startLevel, WiringSnapshot wiring,
+            Collection<String> itemNames) {
+        if (bundle == null) {
+            throw new IllegalArgumentException("Argument bundle cannot be null");
+        }
+        if (packageAdmin == null || startLevel == null || wiring == null) {
+            throw new IllegalArgumentException("Arguments PackageAdmin / startLevel / wiring cannot be null");
+        }
+        this.identifier = bundle.getBundleId();
+        if (itemNames.contains(EXPORTED_PACKAGES))
+            this.exportedPackages = wiring.getBundleExportedPackages(bundle);
+        if (itemNames.contains(FRAGMENT))
+            this.fragment = (PackageAdmin.BUNDLE_TYPE_FRAGMENT == packageAdmin.getBundleType(bundle));
+        if (itemNames.contains(FRAGMENTS))
+            this.fragments = getFragmentIds(bundle, packageAdmin);
+        if (itemNames.contains(HEADERS)) {
+            Dictionary<String, String> bundleHeaders = bundle.getHeaders();
+            Enumeration<String> keys = bundleHeaders.keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                headers.add(new Header(key, bundleHeaders.get(key)));
+            }
+        }
+        if (itemNames.contains(HOSTS))
+            this.hosts = getHostIds(bundle, packageAdmin);
+        if (itemNames.contains(IMPORTED_PACKAGES))
+            this.importedPackages = wiring.getBundleImportedPackages(bundle);
+        if (itemNames.contains(LAST_MODIFIED))
+            this.lastModified = bundle.getLastModified();
+        if (itemNames.contains(LOCATION))
+            this.location = bundle.getLocation();
+        if (itemNames.contains(PERSISTENTLY_STARTED))
+            this.persistentlyStarted = startLevel.isBundlePersistentlyStarted(bundle);
+        if (itemNames.contains(REGISTERED_SERVICES))
+            this.registeredServices = getRegisteredServiceIds(bundle);
+        if (itemNames.contains(REMOVAL_PENDING))
+            this.removalPending = wiring.isBundlePendingRemoval(bundle);
+        if (itemNames.contains(REQUIRED))
+            this.required = wiring.isBundleRequiredByOthers(bundle);
+        if (itemNames.contains(REQUIRED_BUNDLES))
+            this.requiredBundles = wiring.getBundleDependencies(bundle);
+        if (itemNames.contains(REQUIRING_BUNDLES))
+            this.requiringBundles = wiring.getDependentBundles(bundle);
+        if (itemNames.contains(SERVICES_IN_USE))
+            this.servicesInUse = getServicesInUseByBundle(bundle);
+        if (itemNames.contains(START_LEVEL))
+            this.bundleStartLevel = startLevel.getBundleStartLevel(bundle);
+        if (itemNames.contains(STATE))
+            this.state = getBundleState(bundle);
+        if (itemNames.contains(SYMBOLIC_NAME))
+            this.symbolicName = bundle.getSymbolicName();
+        if (itemNames.contains(VERSION))
+            this.version = bundle.getVersion().toString();
+    }
+
     /**
      * Returns CompositeData representing a BundleData complete state typed by {@link BundleStateMBean#BUNDLE_TYPE}
      *
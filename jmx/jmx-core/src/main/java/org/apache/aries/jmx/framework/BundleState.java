@@ -38,7 +38,6 @@ import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -55,15 +54,20 @@ import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 
-import org.apache.aries.jmx.JMXThreadFactory;
 import org.apache.aries.jmx.Logger;
 import org.apache.aries.jmx.codec.BundleData;
 import org.apache.aries.jmx.codec.BundleData.Header;
 import org.apache.aries.jmx.codec.BundleEventData;
+import org.apache.aries.jmx.util.VersionedCache;
+import org.apache.aries.jmx.util.WiringSnapshot;
+import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
 import org.osgi.jmx.framework.BundleStateMBean;
 import org.osgi.service.log.LogService;
 import org.osgi.service.packageadmin.PackageAdmin;
@@ -77,6 +81,12 @@ import org.osgi.service.startlevel.StartLevel;
  */
 public class BundleState extends NotificationBroadcasterSupport implements BundleStateMBean, MBeanRegistration {
 
+    /**
+     * The type of the notifications sent in batch dispatch mode, whose user data is an array of
+     * <code>CompositeData</code> typed by {@link #BUNDLE_EVENT_TYPE}.
+     */
+    public static final String BATCH_EVENT = EVENT + ".batch";
+
     protected Logger logger;
     protected BundleContext bundleContext;
     protected PackageAdmin packageAdmin;
@@ -84,11 +94,14 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
     protected StateConfig stateConfig;
 
     protected ExecutorService eventDispatcher;
+    private EventNotificationDispatcher<BundleEvent, BundleEventData> notificationDispatcher;
     protected BundleListener bundleListener;
     private AtomicInteger notificationSequenceNumber = new AtomicInteger(1);
     private AtomicInteger attributeChangeNotificationSequenceNumber = new AtomicInteger(1);
     private Lock lock = new ReentrantLock();
     private AtomicInteger registrations = new AtomicInteger(0);
+    private final VersionedCache<Long, CompositeData> bundleCache = new VersionedCache<Long, CompositeData>();
+    private final CacheInvalidator cacheInvalidator = new CacheInvalidator();
 
     // notification type description
     public static String BUNDLE_EVENT = "org.osgi.bundle.event";
@@ -302,12 +315,23 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
     }
 
     public CompositeData getBundle(long id) throws IOException {
+        long maxAge = getCompositeDataCacheMaxAge();
+        if (maxAge > 0) {
+            CompositeData cached = bundleCache.get(id, maxAge);
+            if (cached != null)
+                return cached;
+        }
+
+        long version = bundleCache.getVersion();
         Bundle bundle = bundleContext.getBundle(id);
         if (bundle == null)
             return null;
 
         BundleData data = new BundleData(bundleContext, bundle, packageAdmin, startLevel);
-        return data.toCompositeData();
+        CompositeData compositeData = data.toCompositeData();
+        if (maxAge > 0)
+            bundleCache.put(id, version, compositeData);
+        return compositeData;
     }
 
     public long[] getBundleIds() throws IOException {
@@ -336,20 +360,36 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
     }
 
     private TabularData listBundles(Collection<String> items) throws IOException {
+        // only the data of all items is cached, as returned by getBundle(long)
+        long maxAge = items.containsAll(BUNDLE_TYPE.keySet()) ? getCompositeDataCacheMaxAge() : 0;
+        long version = bundleCache.getVersion();
         Bundle[] containerBundles = bundleContext.getBundles();
-        List<BundleData> bundleDatas = new ArrayList<BundleData>();
+        TabularData bundleTable = new TabularDataSupport(BUNDLES_TYPE);
         if (containerBundles != null) {
+            WiringSnapshot wiring = null;
             for (Bundle containerBundle : containerBundles) {
-                bundleDatas.add(new BundleData(bundleContext, containerBundle, packageAdmin, startLevel));
+                long id = containerBundle.getBundleId();
+                CompositeData compositeData = maxAge > 0 ? bundleCache.get(id, maxAge) : null;
+                if (compositeData == null) {
+                    if (wiring == null) {
+                        // one snapshot of the wiring for all bundles rather than PackageAdmin queries per bundle
+                        wiring = new WiringSnapshot(packageAdmin);
+                    }
+                    compositeData = new BundleData(containerBundle, packageAdmin, startLevel, wiring, items)
+                            .toCompositeData(items);
+                    if (maxAge > 0)
+                        bundleCache.put(id, version, compositeData);
+                }
+                bundleTable.put(compositeData);
             }
         }
-        TabularData bundleTable = new TabularDataSupport(BUNDLES_TYPE);
-        for (BundleData bundleData : bundleDatas) {
-            bundleTable.put(bundleData.toCompositeData(items));
-        }
         return bundleTable;
     }
 
+    private long getCompositeDataCacheMaxAge() {
+        return stateConfig != null ? stateConfig.getCompositeDataCacheMaxAge() : 0;
+    }
+
     /**
      * @see javax.management.NotificationBroadcasterSupport#getNotificationInfo()
      */
@@ -364,7 +404,12 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
                 AttributeChangeNotification.class.getName(),
                 "An attribute of this MBean has changed");
 
-        return new MBeanNotificationInfo[] { eventInfo, attributeChangeInfo };
+        MBeanNotificationInfo batchEventInfo = new MBeanNotificationInfo(
+                new String[] { BATCH_EVENT },
+                Notification.class.getName(),
+                "The BundleEvents issued from the Framework during the last batch interval");
+
+        return new MBeanNotificationInfo[] { eventInfo, attributeChangeInfo, batchEventInfo };
     }
 
     /**
@@ -381,8 +426,13 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
      */
     public void postRegister(Boolean registrationDone) {
         if (registrationDone && registrations.incrementAndGet() == 1) {
-            eventDispatcher = Executors.newSingleThreadExecutor(new JMXThreadFactory("JMX OSGi Bundle State Event Dispatcher"));
+            notificationDispatcher = new BundleEventDispatcher();
+            notificationDispatcher.start();
+            eventDispatcher = notificationDispatcher.getExecutor();
             bundleContext.addBundleListener(bundleListener);
+            bundleContext.addServiceListener(cacheInvalidator);
+            bundleContext.addFrameworkListener(cacheInvalidator);
+            bundleCache.setEnabled(true);
         }
     }
 
@@ -402,25 +452,13 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
             if (bundleListener == null) {
                 bundleListener = new BundleListener() {
                     public void bundleChanged(BundleEvent event) {
+                        // the wiring and state of other bundles may change as well
+                        bundleCache.invalidateAll();
                         if (stateConfig != null && !stateConfig.isBundleChangeNotificationEnabled()) {
                             return;
                         }
                         try {
-                            final Notification notification = new Notification(EVENT, OBJECTNAME,
-                                    notificationSequenceNumber.getAndIncrement());
-                            notification.setUserData(new BundleEventData(event).toCompositeData());
-
-                            // also send notifications to the bundleIDs attribute listeners, if a bundle was added or removed
-                            final AttributeChangeNotification attributeChangeNotification =
-                                    getAttributeChangeNotification(event);
-
-                            eventDispatcher.submit(new Runnable() {
-                                public void run() {
-                                    sendNotification(notification);
-                                    if (attributeChangeNotification != null)
-                                        sendNotification(attributeChangeNotification);
-                                }
-                            });
+                            notificationDispatcher.dispatch(event);
                         } catch (RejectedExecutionException re) {
                             logger.log(LogService.LOG_WARNING, "Task rejected for JMX Notification dispatch of event ["
                                     + event + "] - Dispatcher may have been shutdown");
@@ -473,18 +511,23 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
                 newIDs[i] = newList.get(i);
             }
 
-            return new AttributeChangeNotification(OBJECTNAME, attributeChangeNotificationSequenceNumber.getAndIncrement(),
-                    System.currentTimeMillis(), "BundleIds changed", "BundleIds", "Array of long", oldIDs, newIDs);
+            return getAttributeChangeNotification(oldIDs, newIDs);
         default:
             return null;
         }
     }
 
+    private AttributeChangeNotification getAttributeChangeNotification(long[] oldIDs, long[] newIDs) {
+        return new AttributeChangeNotification(OBJECTNAME, attributeChangeNotificationSequenceNumber.getAndIncrement(),
+                System.currentTimeMillis(), "BundleIds changed", "BundleIds", "Array of long", oldIDs, newIDs);
+    }
+
     /*
      * Shuts down the notification dispatcher
      * [ARIES-259] MBeans not getting unregistered reliably
      */
     protected void shutDownDispatcher() {
+        bundleCache.setEnabled(false);
         if (bundleListener != null) {
             try {
                bundleContext.removeBundleListener(bundleListener);
@@ -493,8 +536,15 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
                // ignore
             }
         }
-        if (eventDispatcher != null) {
-            eventDispatcher.shutdown();
+        try {
+            bundleContext.removeServiceListener(cacheInvalidator);
+            bundleContext.removeFrameworkListener(cacheInvalidator);
+        }
+        catch (Exception e) {
+            // ignore
+        }
+        if (notificationDispatcher != null) {
+            notificationDispatcher.shutdown();
         }
     }
 
@@ -505,4 +555,92 @@ public class BundleState extends NotificationBroadcasterSupport implements Bundl
         return eventDispatcher;
     }
 
+    /**
+     * Returns the number of bundle events whose notification was dropped because too many were pending.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedEventCount() {
+        return notificationDispatcher != null ? notificationDispatcher.getDroppedEventCount() : 0;
+    }
+
+    /**
+     * Returns the number of <code>BundleIds</code> changes reported by the attribute change notification of another
+     * event.
+     *
+     * @return the number of coalesced attribute changes
+     */
+    public long getCoalescedEventCount() {
+        return notificationDispatcher != null ? notificationDispatcher.getCoalescedEventCount() : 0;
+    }
+
+    /*
+     * Invalidates the cached bundle data on the service and framework events changing it
+     */
+    private class CacheInvalidator implements AllServiceListener, FrameworkListener {
+
+        public void serviceChanged(ServiceEvent event) {
+            switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+                Bundle bundle = event.getServiceReference().getBundle();
+                if (bundle != null)
+                    bundleCache.invalidate(bundle.getBundleId());
+                break;
+            case ServiceEvent.UNREGISTERING:
+                // the services in use by other bundles change too
+                bundleCache.invalidateAll();
+                break;
+            default:
+                break;
+            }
+        }
+
+        public void frameworkEvent(FrameworkEvent event) {
+            if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED || event.getType() == FrameworkEvent.STARTLEVEL_CHANGED)
+                bundleCache.invalidateAll();
+        }
+    }
+
+    private class BundleEventDispatcher extends EventNotificationDispatcher<BundleEvent, BundleEventData> {
+
+        BundleEventDispatcher() {
+            super(BundleState.this, stateConfig, logger, EVENT, BATCH_EVENT, "JMX OSGi Bundle State Event Dispatcher");
+        }
+
+        @Override
+        protected BundleEventData getEventData(BundleEvent event) {
+            return new BundleEventData(event);
+        }
+
+        @Override
+        protected CompositeData toCompositeData(BundleEventData eventData) {
+            return eventData.toCompositeData();
+        }
+
+        @Override
+        protected Notification createNotification(String type) {
+            return new Notification(type, OBJECTNAME, notificationSequenceNumber.getAndIncrement());
+        }
+
+        @Override
+        protected boolean isAttributeChange(BundleEvent event) {
+            return event.getType() == BundleEvent.INSTALLED || event.getType() == BundleEvent.UNINSTALLED;
+        }
+
+        @Override
+        protected AttributeChangeNotification getAttributeChangeNotification(BundleEvent event) throws IOException {
+            return BundleState.this.getAttributeChangeNotification(event);
+        }
+
+        @Override
+        protected AttributeChangeNotification getAttributeChangeNotification(long[] oldValue, long[] newValue) {
+            return BundleState.this.getAttributeChangeNotification(oldValue, newValue);
+        }
+
+        @Override
+        protected long[] getAttributeValue() throws IOException {
+            return getBundleIds();
+        }
+    }
+
 }
@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.openmbean.CompositeData;
+
+import org.apache.aries.jmx.JMXThreadFactory;
+import org.apache.aries.jmx.Logger;
+import org.apache.aries.jmx.framework.StateConfig.DispatchMode;
+import org.osgi.service.log.LogService;
+
+/**
+ * Sends the JMX <code>Notification</code>s of the framework events of {@link BundleState} and {@link ServiceState}.
+ * <p>
+ * Events are queued by the framework thread and their notifications are built and sent by a single dispatcher
+ * thread. The queue is bounded by {@link StateConfig#getNotificationQueueSize()}, events arriving when it is full
+ * are dropped. In {@link DispatchMode#BATCH} mode the events of each interval are sent as one notification carrying
+ * an array of <code>CompositeData</code>, and when {@link StateConfig#isAttributeChangeNotificationCoalescing()} is
+ * set the attribute changes of all the events sent together are reported by a single
+ * <code>AttributeChangeNotification</code>.
+ *
+ * @param <E> the type of framework event
+ * @param <D> the type of the event data captured when the event is received
+ *
+ * @version $Rev$ $Date$
+ */
+abstract class EventNotificationDispatcher<E, D> {
+
+    private final NotificationBroadcasterSupport broadcaster;
+    private final StateConfig stateConfig;
+    private final Logger logger;
+    private final String eventType;
+    private final String batchEventType;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Queue<PendingEvent<D>> pendingEvents = new ConcurrentLinkedQueue<PendingEvent<D>>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private volatile ScheduledFuture<?> scheduledBatch;
+    private final AtomicBoolean attributeChanged = new AtomicBoolean();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong coalescedEvents = new AtomicLong();
+    private volatile long[] lastAttributeValue;
+
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    EventNotificationDispatcher(NotificationBroadcasterSupport broadcaster, StateConfig stateConfig, Logger logger,
+            String eventType, String batchEventType, String threadName) {
+        this.broadcaster = broadcaster;
+        this.stateConfig = stateConfig;
+        this.logger = logger;
+        this.eventType = eventType;
+        this.batchEventType = batchEventType;
+        this.executor = new ScheduledThreadPoolExecutor(1, new JMXThreadFactory(threadName));
+    }
+
+    /**
+     * Captures the data of the event to be sent in its notification.  Called on the framework thread.
+     */
+    protected abstract D getEventData(E event);
+
+    /**
+     * Converts the captured event data into the user data of its notification.  Called on the dispatcher thread.
+     */
+    protected abstract CompositeData toCompositeData(D eventData);
+
+    /**
+     * Creates a notification of the given type with the next sequence number of the MBean.
+     */
+    protected abstract Notification createNotification(String type);
+
+    /**
+     * Whether the event changes the value of the attribute notified by {@link #getAttributeChangeNotification(Object)}.
+     */
+    protected abstract boolean isAttributeChange(E event);
+
+    /**
+     * Returns the attribute change caused by this single event, or <code>null</code> if there is none.
+     */
+    protected abstract AttributeChangeNotification getAttributeChangeNotification(E event) throws IOException;
+
+    /**
+     * Returns the attribute change from the old to the new value, reporting the changes of several events at once.
+     */
+    protected abstract AttributeChangeNotification getAttributeChangeNotification(long[] oldValue, long[] newValue);
+
+    /**
+     * Returns the current value of the attribute.
+     */
+    protected abstract long[] getAttributeValue() throws IOException;
+
+    /**
+     * Queues the notifications of a framework event.
+     *
+     * @throws RejectedExecutionException if the dispatcher has been shut down
+     * @throws IOException if the attribute change of the event could not be computed
+     */
+    void dispatch(E event) throws IOException {
+        boolean notifyAttribute = isAttributeChangeNotificationEnabled() && isAttributeChange(event);
+        boolean coalescing = stateConfig != null && stateConfig.isAttributeChangeNotificationCoalescing();
+
+        int maxPending = stateConfig != null ? stateConfig.getNotificationQueueSize() : 0;
+        if (maxPending > 0 && pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            droppedEvents.incrementAndGet();
+            if (notifyAttribute) {
+                // the event is lost but listeners of the attribute still get its final value
+                markAttributeChanged();
+            }
+            return;
+        } else if (maxPending <= 0) {
+            pendingCount.incrementAndGet();
+        }
+
+        boolean queued = false;
+        try {
+            AttributeChangeNotification attributeChange = null;
+            if (notifyAttribute) {
+                if (coalescing) {
+                    markAttributeChanged();
+                } else {
+                    attributeChange = getAttributeChangeNotification(event);
+                }
+            }
+            // in immediate mode the sequence number of the notification follows the order of the events
+            Notification notification = getDispatchMode() == DispatchMode.IMMEDIATE ? createNotification(eventType) : null;
+            pendingEvents.offer(new PendingEvent<D>(getEventData(event), notification, attributeChange));
+            queued = true;
+        } finally {
+            if (!queued) {
+                pendingCount.decrementAndGet();
+            }
+        }
+        scheduleDrain();
+    }
+
+    private void markAttributeChanged() {
+        if (!attributeChanged.compareAndSet(false, true)) {
+            coalescedEvents.incrementAndGet();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                if (getDispatchMode() == DispatchMode.BATCH) {
+                    scheduledBatch = executor.schedule(drainTask, stateConfig.getNotificationBatchInterval(),
+                            TimeUnit.MILLISECONDS);
+                } else {
+                    executor.execute(drainTask);
+                }
+            } catch (RejectedExecutionException e) {
+                drainScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /*
+     * Sends the notifications of all the queued events, on the dispatcher thread
+     */
+    private void drain() {
+        // events queued from now on schedule another drain
+        drainScheduled.set(false);
+
+        List<CompositeData> batch = new ArrayList<CompositeData>();
+        List<AttributeChangeNotification> batchAttributeChanges = new ArrayList<AttributeChangeNotification>();
+        PendingEvent<D> pending;
+        while ((pending = pendingEvents.poll()) != null) {
+            pendingCount.decrementAndGet();
+            try {
+                CompositeData eventData = toCompositeData(pending.eventData);
+                if (pending.notification != null) {
+                    pending.notification.setUserData(eventData);
+                    broadcaster.sendNotification(pending.notification);
+                    if (pending.attributeChange != null) {
+                        sendAttributeChange(pending.attributeChange);
+                    }
+                } else {
+                    batch.add(eventData);
+                    if (pending.attributeChange != null) {
+                        batchAttributeChanges.add(pending.attributeChange);
+                    }
+                }
+            } catch (Exception e) {
+                logger.log(LogService.LOG_WARNING, "Exception occured on JMX Notification dispatch for event ["
+                        + pending.eventData + "]", e);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            Notification notification = createNotification(batchEventType);
+            notification.setUserData(batch.toArray(new CompositeData[batch.size()]));
+            broadcaster.sendNotification(notification);
+            for (AttributeChangeNotification attributeChange : batchAttributeChanges) {
+                sendAttributeChange(attributeChange);
+            }
+        }
+
+        if (attributeChanged.getAndSet(false)) {
+            try {
+                long[] newValue = getAttributeValue();
+                sendAttributeChange(getAttributeChangeNotification(lastAttributeValue, newValue));
+            } catch (Exception e) {
+                logger.log(LogService.LOG_WARNING, "Exception occured on JMX attribute change notification dispatch", e);
+            }
+        }
+    }
+
+    private void sendAttributeChange(AttributeChangeNotification attributeChange) {
+        lastAttributeValue = (long[]) attributeChange.getNewValue();
+        broadcaster.sendNotification(attributeChange);
+    }
+
+    private boolean isAttributeChangeNotificationEnabled() {
+        return stateConfig == null || stateConfig.isAttributeChangeNotificationEnabled();
+    }
+
+    private DispatchMode getDispatchMode() {
+        return stateConfig != null ? stateConfig.getNotificationDispatchMode() : DispatchMode.IMMEDIATE;
+    }
+
+    /**
+     * Records the current value of the attribute, used as the old value of the first attribute change sent for
+     * coalesced or dropped events.
+     */
+    void start() {
+        if (isAttributeChangeNotificationEnabled()) {
+            try {
+                lastAttributeValue = getAttributeValue();
+            } catch (Exception e) {
+                logger.log(LogService.LOG_WARNING, "Unable to read the initial value of the notified attribute", e);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending notifications and stops the dispatcher thread.
+     */
+    void shutdown() {
+        // pending events are sent right away instead of waiting for the end of the batch interval
+        ScheduledFuture<?> batch = scheduledBatch;
+        if (batch != null) {
+            batch.cancel(false);
+        }
+        try {
+            executor.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            // already shut down
+        }
+        executor.shutdown();
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the number of events whose notification was dropped because the queue was full
+     */
+    long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return the number of attribute changes reported by the notification of another event
+     */
+    long getCoalescedEventCount() {
+        return coalescedEvents.get();
+    }
+
+    private static class PendingEvent<D> {
+        private final D eventData;
+        private final Notification notification;
+        private final AttributeChangeNotification attributeChange;
+
+        PendingEvent(D eventData, Notification notification, AttributeChangeNotification attributeChange) {
+            this.eventData = eventData;
+            this.notification = notification;
+            this.attributeChange = attributeChange;
+        }
+    }
+}
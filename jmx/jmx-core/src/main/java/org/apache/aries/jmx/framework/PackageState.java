@@ -21,13 +21,24 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
 
 import org.apache.aries.jmx.codec.PackageData;
 import org.apache.aries.jmx.util.FrameworkUtils;
+import org.apache.aries.jmx.util.VersionedCache;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.Version;
 import org.osgi.jmx.framework.PackageStateMBean;
 import org.osgi.service.packageadmin.ExportedPackage;
@@ -42,13 +53,23 @@ import org.osgi.service.packageadmin.PackageAdmin;
  * 
  * @version $Rev$ $Date$
  */
-public class PackageState implements PackageStateMBean {
+public class PackageState implements PackageStateMBean, MBeanRegistration {
 
     /**
      * {@link PackageAdmin} service reference.
      */
     private PackageAdmin packageAdmin;
     private BundleContext context;
+    private StateConfig stateConfig;
+
+    /**
+     * The packages, invalidated by the bundle and framework events while this MBean is registered.
+     */
+    private final VersionedCache<String, List<CompositeData>> packagesCache =
+            new VersionedCache<String, List<CompositeData>>();
+    private final CacheInvalidator cacheInvalidator = new CacheInvalidator();
+    private final AtomicInteger registrations = new AtomicInteger(0);
+    private static final String PACKAGES_KEY = "packages";
 
     /**
      * Constructs new PackagesState MBean.
@@ -57,8 +78,20 @@ public class PackageState implements PackageStateMBean {
      * @param packageAdmin {@link PackageAdmin} service reference.
      */
     public PackageState(BundleContext context, PackageAdmin packageAdmin) {
+        this(context, packageAdmin, null);
+    }
+
+    /**
+     * Constructs new PackagesState MBean.
+     * 
+     * @param context bundle context.
+     * @param packageAdmin {@link PackageAdmin} service reference.
+     * @param stateConfig the configuration of the cached packages, <code>null</code> for no caching.
+     */
+    public PackageState(BundleContext context, PackageAdmin packageAdmin, StateConfig stateConfig) {
         this.context = context;
         this.packageAdmin = packageAdmin;
+        this.stateConfig = stateConfig;
     }
 
     /**
@@ -132,6 +165,26 @@ public class PackageState implements PackageStateMBean {
      * @see org.osgi.jmx.framework.PackageStateMBean#listPackages()
      */
     public TabularData listPackages() throws IOException {
+        long maxAge = stateConfig != null ? stateConfig.getCompositeDataCacheMaxAge() : 0;
+        List<CompositeData> cached = maxAge > 0 ? packagesCache.get(PACKAGES_KEY, maxAge) : null;
+        if (cached == null) {
+            long version = packagesCache.getVersion();
+            cached = new ArrayList<CompositeData>();
+            for (PackageData packageData : getPackages()) {
+                cached.add(packageData.toCompositeData());
+            }
+            if (maxAge > 0) {
+                packagesCache.put(PACKAGES_KEY, version, cached);
+            }
+        }
+        TabularData table = new TabularDataSupport(PACKAGES_TYPE);
+        for (CompositeData packageData : cached) {
+            table.put(packageData);
+        }
+        return table;
+    }
+
+    private Set<PackageData> getPackages() {
         Set<PackageData> packages = new HashSet<PackageData>();
         for (Bundle bundle : context.getBundles()) {
             ExportedPackage[] exportedPackages = packageAdmin.getExportedPackages(bundle);
@@ -142,7 +195,64 @@ public class PackageState implements PackageStateMBean {
             }
 
         }
-        return PackageData.tableFrom(packages);
+        return packages;
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#preRegister(javax.management.MBeanServer, javax.management.ObjectName)
+     */
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return name;
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#postRegister(java.lang.Boolean)
+     */
+    public void postRegister(Boolean registrationDone) {
+        if (registrationDone && registrations.incrementAndGet() == 1) {
+            context.addBundleListener(cacheInvalidator);
+            context.addFrameworkListener(cacheInvalidator);
+            packagesCache.setEnabled(true);
+        }
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#preDeregister()
+     */
+    public void preDeregister() throws Exception {
+        // No action
+    }
+
+    /**
+     * @see javax.management.MBeanRegistration#postDeregister()
+     */
+    public void postDeregister() {
+        if (registrations.decrementAndGet() > 0) {
+            return;
+        }
+        packagesCache.setEnabled(false);
+        try {
+            context.removeBundleListener(cacheInvalidator);
+            context.removeFrameworkListener(cacheInvalidator);
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    /*
+     * Invalidates the cached packages when the wiring of the bundles changes
+     */
+    private class CacheInvalidator implements BundleListener, FrameworkListener {
+
+        public void bundleChanged(BundleEvent event) {
+            packagesCache.invalidateAll();
+        }
+
+        public void frameworkEvent(FrameworkEvent event) {
+            if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+                packagesCache.invalidateAll();
+            }
+        }
     }
 
 }
@@ -16,7 +16,9 @@
  */
 package org.apache.aries.jmx.framework;
 
+import javax.management.MBeanServer;
 import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
 import javax.management.StandardMBean;
 
 import org.apache.aries.jmx.Logger;
@@ -45,12 +47,14 @@ public class PackageStateMBeanHandler implements MBeanHandler {
     private StandardMBean mbean;
     private BundleContext context;
     private Logger logger;
+    private StateConfig stateConfig;
 
     /**
      * Constructs new PackageStateMBeanHandler.
      */
-    public PackageStateMBeanHandler(JMXAgentContext agentContext) {
+    public PackageStateMBeanHandler(JMXAgentContext agentContext, StateConfig stateConfig) {
         this.agentContext = agentContext;
+        this.stateConfig = stateConfig;
         this.context = agentContext.getBundleContext();
         this.logger = agentContext.getLogger();
         this.name = ObjectNameUtils.createFullObjectName(context, PackageStateMBean.OBJECTNAME);
@@ -69,9 +73,33 @@ public class PackageStateMBeanHandler implements MBeanHandler {
     public void open() {
         ServiceReference adminRef = context.getServiceReference(PackageAdmin.class.getCanonicalName());
         PackageAdmin packageAdmin = (PackageAdmin) context.getService(adminRef);
-        PackageStateMBean packageState = new PackageState(context, packageAdmin);
+        final PackageState packageState = new PackageState(context, packageAdmin, stateConfig);
         try {
-            mbean = new StandardMBean(packageState, PackageStateMBean.class);
+            mbean = new StandardMBean(packageState, PackageStateMBean.class) {
+                // the registration callbacks maintain the cached packages
+                @Override
+                public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+                    return packageState.preRegister(server, super.preRegister(server, name));
+                }
+
+                @Override
+                public void postRegister(Boolean registrationDone) {
+                    super.postRegister(registrationDone);
+                    packageState.postRegister(registrationDone);
+                }
+
+                @Override
+                public void preDeregister() throws Exception {
+                    packageState.preDeregister();
+                    super.preDeregister();
+                }
+
+                @Override
+                public void postDeregister() {
+                    packageState.postDeregister();
+                    super.postDeregister();
+                }
+            };
         } catch (NotCompliantMBeanException e) {
             logger.log(LogService.LOG_ERROR, "Not compliant MBean", e);
         }
@@ -27,7 +27,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -44,11 +43,11 @@ import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
 import javax.management.openmbean.TabularDataSupport;
 
-import org.apache.aries.jmx.JMXThreadFactory;
 import org.apache.aries.jmx.Logger;
 import org.apache.aries.jmx.codec.PropertyData;
 import org.apache.aries.jmx.codec.ServiceData;
 import org.apache.aries.jmx.codec.ServiceEventData;
+import org.apache.aries.jmx.util.VersionedCache;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -67,16 +66,24 @@ import org.osgi.service.log.LogService;
  */
 public class ServiceState extends NotificationBroadcasterSupport implements ServiceStateMBean, MBeanRegistration {
 
+    /**
+     * The type of the notifications sent in batch dispatch mode, whose user data is an array of
+     * <code>CompositeData</code> typed by {@link #SERVICE_EVENT_TYPE}.
+     */
+    public static final String BATCH_EVENT = EVENT + ".batch";
+
     protected Logger logger;
     private BundleContext bundleContext;
     private StateConfig stateConfig;
 
     protected ExecutorService eventDispatcher;
+    private EventNotificationDispatcher<ServiceEvent, ServiceEventData> notificationDispatcher;
     protected AllServiceListener serviceListener;
     private AtomicInteger notificationSequenceNumber = new AtomicInteger(1);
     private AtomicInteger attributeChangeNotificationSequenceNumber = new AtomicInteger(1);
     private AtomicInteger registrations = new AtomicInteger(0);
     private Lock lock = new ReentrantLock();
+    private final VersionedCache<Long, CompositeData> serviceCache = new VersionedCache<Long, CompositeData>();
 
     // notification type description
     public static String SERVICE_EVENT = "org.osgi.service.event";
@@ -140,7 +147,19 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
      * @see org.osgi.jmx.framework.ServiceStateMBean#getService(long)
      */
     public CompositeData getService(long serviceId) throws IOException {
-        return new ServiceData(resolveService(bundleContext, serviceId)).toCompositeData();
+        long maxAge = getCompositeDataCacheMaxAge();
+        if (maxAge > 0) {
+            CompositeData cached = serviceCache.get(serviceId, maxAge);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        long version = serviceCache.getVersion();
+        CompositeData compositeData = new ServiceData(resolveService(bundleContext, serviceId)).toCompositeData();
+        if (maxAge > 0) {
+            serviceCache.put(serviceId, version, compositeData);
+        }
+        return compositeData;
     }
 
     /**
@@ -173,13 +192,28 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
             throw new IllegalStateException("Failed to retrieve all service references", e);
         }
         if (allServiceReferences != null) {
+            // only the data of all items is cached, as returned by getService(long)
+            long maxAge = serviceTypeItems.containsAll(SERVICE_TYPE.keySet()) ? getCompositeDataCacheMaxAge() : 0;
+            long version = serviceCache.getVersion();
             for (ServiceReference reference : allServiceReferences) {
-                servicesTable.put(new ServiceData(reference).toCompositeData(serviceTypeItems));
+                Long serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+                CompositeData compositeData = maxAge > 0 ? serviceCache.get(serviceId, maxAge) : null;
+                if (compositeData == null) {
+                    compositeData = new ServiceData(reference).toCompositeData(serviceTypeItems);
+                    if (maxAge > 0) {
+                        serviceCache.put(serviceId, version, compositeData);
+                    }
+                }
+                servicesTable.put(compositeData);
             }
         }
         return servicesTable;
     }
 
+    private long getCompositeDataCacheMaxAge() {
+        return stateConfig != null ? stateConfig.getCompositeDataCacheMaxAge() : 0;
+    }
+
     /**
      * @see javax.management.NotificationBroadcasterSupport#getNotificationInfo()
      */
@@ -194,7 +228,12 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
                 AttributeChangeNotification.class.getName(),
                 "An attribute of this MBean has changed");
 
-        return new MBeanNotificationInfo[] { eventInfo, attributeChangeInfo };
+        MBeanNotificationInfo batchEventInfo = new MBeanNotificationInfo(
+                new String[] { BATCH_EVENT },
+                Notification.class.getName(),
+                "The ServiceEvents issued from the Framework during the last batch interval");
+
+        return new MBeanNotificationInfo[] { eventInfo, attributeChangeInfo, batchEventInfo };
     }
 
     /**
@@ -236,8 +275,11 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
      */
     public void postRegister(Boolean registrationDone) {
         if (registrationDone && registrations.incrementAndGet() == 1) {
-            eventDispatcher = Executors.newSingleThreadExecutor(new JMXThreadFactory("JMX OSGi Service State Event Dispatcher"));
+            notificationDispatcher = new ServiceEventDispatcher();
+            notificationDispatcher.start();
+            eventDispatcher = notificationDispatcher.getExecutor();
             bundleContext.addServiceListener(serviceListener);
+            serviceCache.setEnabled(true);
         }
     }
 
@@ -254,26 +296,14 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
             if (serviceListener == null) {
                 serviceListener = new AllServiceListener() {
                     public void serviceChanged(ServiceEvent serviceevent) {
+                        if (serviceevent.getType() != ServiceEvent.REGISTERED) {
+                            serviceCache.invalidate((Long) serviceevent.getServiceReference().getProperty(Constants.SERVICE_ID));
+                        }
                         if (stateConfig != null && !stateConfig.isServiceChangeNotificationEnabled()) {
                             return;
                         }
                         try {
-                            // Create a notification for the event
-                            final Notification notification = new Notification(EVENT, OBJECTNAME,
-                                    notificationSequenceNumber.getAndIncrement());
-                            notification.setUserData(new ServiceEventData(serviceevent).toCompositeData());
-
-                            // also send notifications to the serviceIDs attribute listeners, if a service was added or removed
-                            final AttributeChangeNotification attributeChangeNotification =
-                                    getAttributeChangeNotification(serviceevent);
-
-                            eventDispatcher.submit(new Runnable() {
-                                public void run() {
-                                    sendNotification(notification);
-                                    if (attributeChangeNotification != null)
-                                        sendNotification(attributeChangeNotification);
-                                }
-                            });
+                            notificationDispatcher.dispatch(serviceevent);
                         } catch (RejectedExecutionException re) {
                             logger.log(LogService.LOG_WARNING, "Task rejected for JMX Notification dispatch of event ["
                                     + serviceevent + "] - Dispatcher may have been shutdown");
@@ -327,18 +357,23 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
                 newIDs[i] = newList.get(i);
             }
 
-            return new AttributeChangeNotification(OBJECTNAME, attributeChangeNotificationSequenceNumber.getAndIncrement(),
-                    System.currentTimeMillis(), "ServiceIds changed", "ServiceIds", "Array of long", oldIDs, newIDs);
+            return getAttributeChangeNotification(oldIDs, newIDs);
         default:
             return null;
         }
     }
 
+    private AttributeChangeNotification getAttributeChangeNotification(long[] oldIDs, long[] newIDs) {
+        return new AttributeChangeNotification(OBJECTNAME, attributeChangeNotificationSequenceNumber.getAndIncrement(),
+                System.currentTimeMillis(), "ServiceIds changed", "ServiceIds", "Array of long", oldIDs, newIDs);
+    }
+
     /*
      * Shuts down the notification dispatcher
      * [ARIES-259] MBeans not getting unregistered reliably
      */
     protected void shutDownDispatcher() {
+        serviceCache.setEnabled(false);
         if (serviceListener != null) {
             try {
                bundleContext.removeServiceListener(serviceListener);
@@ -347,8 +382,8 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
                // ignore
             }
         }
-        if (eventDispatcher != null) {
-            eventDispatcher.shutdown();
+        if (notificationDispatcher != null) {
+            notificationDispatcher.shutdown();
         }
     }
 
@@ -358,4 +393,65 @@ public class ServiceState extends NotificationBroadcasterSupport implements Serv
     protected ExecutorService getEventDispatcher() {
         return eventDispatcher;
     }
+
+    /**
+     * Returns the number of service events whose notification was dropped because too many were pending.
+     *
+     * @return the number of dropped events
+     */
+    public long getDroppedEventCount() {
+        return notificationDispatcher != null ? notificationDispatcher.getDroppedEventCount() : 0;
+    }
+
+    /**
+     * Returns the number of <code>ServiceIds</code> changes reported by the attribute change notification of another
+     * event.
+     *
+     * @return the number of coalesced attribute changes
+     */
+    public long getCoalescedEventCount() {
+        return notificationDispatcher != null ? notificationDispatcher.getCoalescedEventCount() : 0;
+    }
+
+    private class ServiceEventDispatcher extends EventNotificationDispatcher<ServiceEvent, ServiceEventData> {
+
+        ServiceEventDispatcher() {
+            super(ServiceState.this, stateConfig, logger, EVENT, BATCH_EVENT, "JMX OSGi Service State Event Dispatcher");
+        }
+
+        @Override
+        protected ServiceEventData getEventData(ServiceEvent event) {
+            return new ServiceEventData(event);
+        }
+
+        @Override
+        protected CompositeData toCompositeData(ServiceEventData eventData) {
+            return eventData.toCompositeData();
+        }
+
+        @Override
+        protected Notification createNotification(String type) {
+            return new Notification(type, OBJECTNAME, notificationSequenceNumber.getAndIncrement());
+        }
+
+        @Override
+        protected boolean isAttributeChange(ServiceEvent event) {
+            return event.getType() == ServiceEvent.REGISTERED || event.getType() == ServiceEvent.UNREGISTERING;
+        }
+
+        @Override
+        protected AttributeChangeNotification getAttributeChangeNotification(ServiceEvent event) throws IOException {
+            return ServiceState.this.getAttributeChangeNotification(event);
+        }
+
+        @Override
+        protected AttributeChangeNotification getAttributeChangeNotification(long[] oldValue, long[] newValue) {
+            return ServiceState.this.getAttributeChangeNotification(oldValue, newValue);
+        }
+
+        @Override
+        protected long[] getAttributeValue() throws IOException {
+            return getServiceIds();
+        }
+    }
 }
@@ -42,7 +42,60 @@ public class StateConfig implements ManagedService {
     private static final String BUNDLE_CHANGE_NOTIFICATION_ENABLED = "bundleChangeNotificationEnabled";
     private static final boolean DEFAULT_BUNDLE_CHANGE_NOTIFICATION_ENABLED = true;
 
+    private static final String ATTRIBUTE_CHANGE_NOTIFICATION_COALESCING = "attributeChangeNotificationCoalescing";
+    private static final boolean DEFAULT_ATTRIBUTE_CHANGE_NOTIFICATION_COALESCING = false;
+
+    private static final String NOTIFICATION_DISPATCH_MODE = "notificationDispatchMode";
+    private static final String DEFAULT_NOTIFICATION_DISPATCH_MODE = DispatchMode.IMMEDIATE.getValue();
+
+    private static final String NOTIFICATION_QUEUE_SIZE = "notificationQueueSize";
+    private static final int DEFAULT_NOTIFICATION_QUEUE_SIZE = 10000;
+
+    private static final String NOTIFICATION_BATCH_INTERVAL = "notificationBatchInterval";
+    private static final long DEFAULT_NOTIFICATION_BATCH_INTERVAL = 1000;
+
+    private static final String COMPOSITE_DATA_CACHE_MAX_AGE = "compositeDataCacheMaxAge";
+    private static final long DEFAULT_COMPOSITE_DATA_CACHE_MAX_AGE = 0;
+
+    /**
+     * How the notifications of framework events are sent.
+     */
+    public enum DispatchMode {
+        /**
+         * One notification is sent for each event, as soon as possible.
+         */
+        IMMEDIATE("immediate"),
+        /**
+         * One notification carrying the events of the last batch interval is sent per interval.
+         */
+        BATCH("batch");
+
+        private final String value;
+
+        private DispatchMode(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        static DispatchMode fromValue(String value) throws ConfigurationException {
+            for (DispatchMode mode : values()) {
+                if (mode.value.equalsIgnoreCase(value)) {
+                    return mode;
+                }
+            }
+            throw new ConfigurationException(NOTIFICATION_DISPATCH_MODE, "Unknown dispatch mode " + value);
+        }
+    }
+
     private volatile boolean attributeChangeNotificationEnabled = DEFAULT_ATTRIBUTE_CHANGE_NOTIFICATION_ENABLED;
+    private volatile boolean attributeChangeNotificationCoalescing = DEFAULT_ATTRIBUTE_CHANGE_NOTIFICATION_COALESCING;
+    private volatile DispatchMode notificationDispatchMode = DispatchMode.IMMEDIATE;
+    private volatile int notificationQueueSize = DEFAULT_NOTIFICATION_QUEUE_SIZE;
+    private volatile long notificationBatchInterval = DEFAULT_NOTIFICATION_BATCH_INTERVAL;
+    private volatile long compositeDataCacheMaxAge = DEFAULT_COMPOSITE_DATA_CACHE_MAX_AGE;
     private volatile boolean serviceChangeNotificationEnabled = DEFAULT_SERVICE_CHANGE_NOTIFICATION_ENABLED;
     private volatile boolean bundleChangeNotificationEnabled = DEFAULT_BUNDLE_CHANGE_NOTIFICATION_ENABLED;
 
@@ -50,6 +103,26 @@ public class StateConfig implements ManagedService {
         this.attributeChangeNotificationEnabled = attributeChangeNotificationEnabled;
     }
 
+    void setAttributeChangeNotificationCoalescing(boolean attributeChangeNotificationCoalescing) {
+        this.attributeChangeNotificationCoalescing = attributeChangeNotificationCoalescing;
+    }
+
+    void setNotificationDispatchMode(DispatchMode notificationDispatchMode) {
+        this.notificationDispatchMode = notificationDispatchMode;
+    }
+
+    void setNotificationQueueSize(int notificationQueueSize) {
+        this.notificationQueueSize = notificationQueueSize;
+    }
+
+    void setNotificationBatchInterval(long notificationBatchInterval) {
+        this.notificationBatchInterval = notificationBatchInterval;
+    }
+
+    void setCompositeDataCacheMaxAge(long compositeDataCacheMaxAge) {
+        this.compositeDataCacheMaxAge = compositeDataCacheMaxAge;
+    }
+
     void setServiceChangeNotificationEnabled(boolean serviceChangeNotificationEnabled) {
         this.serviceChangeNotificationEnabled = serviceChangeNotificationEnabled;
     }
@@ -76,12 +149,34 @@ public class StateConfig implements ManagedService {
 
     @Override
     public void updated(Dictionary<String, ?> dictionary) throws ConfigurationException {
-        attributeChangeNotificationEnabled = getBoolean(dictionary, ATTRIBUTE_CHANGE_NOTIFICATION_ENABLED,
+        // parse and validate the whole configuration before applying it, so an invalid one changes nothing
+        boolean attributeChangeNotificationEnabled = getBoolean(dictionary, ATTRIBUTE_CHANGE_NOTIFICATION_ENABLED,
                 DEFAULT_ATTRIBUTE_CHANGE_NOTIFICATION_ENABLED);
-        serviceChangeNotificationEnabled = getBoolean(dictionary, SERVICE_CHANGE_NOTIFICATION_ENABLED,
+        boolean serviceChangeNotificationEnabled = getBoolean(dictionary, SERVICE_CHANGE_NOTIFICATION_ENABLED,
                 DEFAULT_SERVICE_CHANGE_NOTIFICATION_ENABLED);
-        bundleChangeNotificationEnabled = getBoolean(dictionary, BUNDLE_CHANGE_NOTIFICATION_ENABLED,
+        boolean bundleChangeNotificationEnabled = getBoolean(dictionary, BUNDLE_CHANGE_NOTIFICATION_ENABLED,
                 DEFAULT_BUNDLE_CHANGE_NOTIFICATION_ENABLED);
+        boolean attributeChangeNotificationCoalescing = getBoolean(dictionary, ATTRIBUTE_CHANGE_NOTIFICATION_COALESCING,
+                DEFAULT_ATTRIBUTE_CHANGE_NOTIFICATION_COALESCING);
+        DispatchMode notificationDispatchMode = DispatchMode.fromValue(getString(dictionary, NOTIFICATION_DISPATCH_MODE,
+                DEFAULT_NOTIFICATION_DISPATCH_MODE));
+        int notificationQueueSize = (int) getLong(dictionary, NOTIFICATION_QUEUE_SIZE, DEFAULT_NOTIFICATION_QUEUE_SIZE);
+        long notificationBatchInterval = getLong(dictionary, NOTIFICATION_BATCH_INTERVAL,
+                DEFAULT_NOTIFICATION_BATCH_INTERVAL);
+        if (notificationBatchInterval <= 0) {
+            throw new ConfigurationException(NOTIFICATION_BATCH_INTERVAL, "Must be positive: " + notificationBatchInterval);
+        }
+        long compositeDataCacheMaxAge = getLong(dictionary, COMPOSITE_DATA_CACHE_MAX_AGE,
+                DEFAULT_COMPOSITE_DATA_CACHE_MAX_AGE);
+
+        this.attributeChangeNotificationEnabled = attributeChangeNotificationEnabled;
+        this.serviceChangeNotificationEnabled = serviceChangeNotificationEnabled;
+        this.bundleChangeNotificationEnabled = bundleChangeNotificationEnabled;
+        this.attributeChangeNotificationCoalescing = attributeChangeNotificationCoalescing;
+        this.notificationDispatchMode = notificationDispatchMode;
+        this.notificationQueueSize = notificationQueueSize;
+        this.notificationBatchInterval = notificationBatchInterval;
+        this.compositeDataCacheMaxAge = compositeDataCacheMaxAge;
     }
 
     /**
@@ -93,6 +188,54 @@ public class StateConfig implements ManagedService {
         return attributeChangeNotificationEnabled;
     }
 
+    /**
+     * Whether or not the JMX attribute change notifications caused by several events should be coalesced into a
+     * single notification carrying the old and new values of the attribute.
+     *
+     * @return <code>true</code> if attribute change notifications are coalesced
+     */
+    public boolean isAttributeChangeNotificationCoalescing() {
+        return attributeChangeNotificationCoalescing;
+    }
+
+    /**
+     * How the JMX notifications of bundle and service events are sent.
+     *
+     * @return the dispatch mode
+     */
+    public DispatchMode getNotificationDispatchMode() {
+        return notificationDispatchMode;
+    }
+
+    /**
+     * The maximum number of events waiting for their notification to be sent, beyond which events are dropped.
+     *
+     * @return the maximum number of pending events, or a value <= 0 if unbounded
+     */
+    public int getNotificationQueueSize() {
+        return notificationQueueSize;
+    }
+
+    /**
+     * The interval between batch notifications when the dispatch mode is {@link DispatchMode#BATCH}.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getNotificationBatchInterval() {
+        return notificationBatchInterval;
+    }
+
+    /**
+     * How long the <code>CompositeData</code> of bundles and services is cached.  The cached data is invalidated by
+     * the framework events, this bounds the staleness of the values which change without an event, such as the
+     * services in use by a bundle.  The data is not cached unless this is configured.
+     *
+     * @return the maximum age in milliseconds of cached data, or a value <= 0 if the data is not cached
+     */
+    public long getCompositeDataCacheMaxAge() {
+        return compositeDataCacheMaxAge;
+    }
+
     /**
      * Whether or not JMX OSGi service change notifications should be triggered when OSGi service change.
      *
@@ -123,4 +266,31 @@ public class StateConfig implements ManagedService {
         }
     }
 
+    private static long getLong(Dictionary<String, ?> dictionary, String propertyName, long defaultValue)
+            throws ConfigurationException {
+        Object object = (dictionary != null) ? dictionary.get(propertyName) : null;
+        if (object == null) {
+            return defaultValue;
+        } else if (object instanceof Number) {
+            return ((Number) object).longValue();
+        } else {
+            String string = object.toString().trim();
+            try {
+                return !string.isEmpty() ? Long.parseLong(string) : defaultValue;
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException(propertyName, "Not a number: " + string, e);
+            }
+        }
+    }
+
+    private static String getString(Dictionary<String, ?> dictionary, String propertyName, String defaultValue) {
+        Object object = (dictionary != null) ? dictionary.get(propertyName) : null;
+        if (object == null) {
+            return defaultValue;
+        } else {
+            String string = object.toString().trim();
+            return !string.isEmpty() ? string : defaultValue;
+        }
+    }
+
 }
@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.jmx.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of encoded MBean data, kept up to date by the framework listeners of the MBean.
+ * <p>
+ * Every invalidation increments the version of the cache. A value is only cached if no invalidation happened
+ * since the version was read with {@link #getVersion()}, before the value was computed, so that a value computed
+ * from a framework state which changed meanwhile is never served. The cache is disabled until the listeners
+ * invalidating it are registered, see {@link #setEnabled(boolean)}.
+ *
+ * @param <K> the key type, e.g. a bundle or service id
+ * @param <V> the cached value type, e.g. <code>CompositeData</code>
+ *
+ * @version $Rev$ $Date$
+ */
+public class VersionedCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile boolean enabled;
+
+    /**
+     * Returns the current version, to be passed to {@link #put(Object, long, Object)} once the value is computed.
+     *
+     * @return the current version
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns the cached value of a key.
+     *
+     * @param key the key
+     * @param maxAge the maximum age in milliseconds of the value, or <code>0</code> for no limit
+     * @return the cached value or <code>null</code> if none or too old
+     */
+    public V get(K key, long maxAge) {
+        if (!enabled) {
+            return null;
+        }
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (maxAge > 0 && System.currentTimeMillis() - entry.created > maxAge) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Caches a value, unless the cache was invalidated since the given version was read.
+     *
+     * @param key the key
+     * @param version the version read before the value was computed
+     * @param value the value
+     */
+    public void put(K key, long version, V value) {
+        if (!enabled || this.version.get() != version) {
+            return;
+        }
+        Entry<V> entry = new Entry<V>(value);
+        entries.put(key, entry);
+        if (this.version.get() != version) {
+            // invalidated while being put
+            entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * Invalidates the value of a key.
+     *
+     * @param key the key
+     */
+    public void invalidate(K key) {
+        version.incrementAndGet();
+        entries.remove(key);
+    }
+
+    /**
+     * Invalidates all the values.
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Enables or disables the cache.  The cache must only be enabled while the listeners invalidating it are
+     * registered.
+     *
+     * @param enabled <code>true</code> to enable the cache
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        invalidateAll();
+    }
+
+    /**
+     * @return <code>true</code> if the cache is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long created = System.currentTimeMillis();
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+}
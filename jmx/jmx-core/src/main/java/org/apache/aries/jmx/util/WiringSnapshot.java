@@ -0,0 +1,301 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.util;
+
+import static org.apache.aries.jmx.util.FrameworkUtils.extractHeaderDeclaration;
+import static org.apache.aries.jmx.util.FrameworkUtils.getBundleIds;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.packageadmin.RequiredBundle;
+
+/**
+ * A snapshot of the package and bundle wiring of the framework, used to answer the same questions as
+ * the per bundle methods of {@link FrameworkUtils} for many bundles at once.  The exported packages and
+ * required bundles of the whole framework are each fetched with a single {@link PackageAdmin} call, and
+ * indexed by exporter, importer, required and requiring bundle the first time they are needed.
+ * <p>
+ * A snapshot is meant to serve a single request, it does not track later changes to the wiring.
+ * 
+ * @version $Rev$ $Date$
+ */
+@SuppressWarnings("deprecation")
+public class WiringSnapshot {
+
+    private final PackageAdmin packageAdmin;
+
+    private ExportedPackage[] allExportedPackages;
+    private RequiredBundle[] allRequiredBundles;
+    private Map<Bundle, List<ExportedPackage>> exportsByExporter;
+    private Map<Bundle, List<ExportedPackage>> exportsByImporter;
+    private Map<Bundle, RequiredBundle> requiredByBundle;
+    private Map<Bundle, List<RequiredBundle>> requiredByRequirer;
+
+    public WiringSnapshot(PackageAdmin packageAdmin) {
+        if (packageAdmin == null) {
+            throw new IllegalArgumentException("Argument packageAdmin cannot be null");
+        }
+        this.packageAdmin = packageAdmin;
+    }
+
+    /**
+     * @see FrameworkUtils#getBundleExportedPackages(Bundle, PackageAdmin)
+     */
+    public String[] getBundleExportedPackages(Bundle bundle) {
+        List<ExportedPackage> exported = get(exportsByExporter(), bundle);
+        String[] exportedPackages = new String[exported.size()];
+        for (int i = 0; i < exportedPackages.length; i++) {
+            exportedPackages[i] = exported.get(i).getName() + ";" + exported.get(i).getVersion().toString();
+        }
+        return exportedPackages;
+    }
+
+    /**
+     * @see FrameworkUtils#getBundleImportedPackages(org.osgi.framework.BundleContext, Bundle, PackageAdmin)
+     */
+    public String[] getBundleImportedPackages(Bundle bundle) {
+        List<String> result = new ArrayList<String>();
+        for (ExportedPackage ep : getBundleImportedPackagesRaw(bundle)) {
+            result.add(ep.getName() + ";" + ep.getVersion());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @see FrameworkUtils#isBundlePendingRemoval(Bundle, PackageAdmin)
+     */
+    public boolean isBundlePendingRemoval(Bundle bundle) {
+        for (ExportedPackage exportedPackage : get(exportsByExporter(), bundle)) {
+            if (exportedPackage.isRemovalPending()) {
+                return true;
+            }
+        }
+        RequiredBundle requiredBundle = requiredByBundle().get(bundle);
+        return requiredBundle != null && requiredBundle.isRemovalPending();
+    }
+
+    /**
+     * @see FrameworkUtils#isBundleRequiredByOthers(Bundle, PackageAdmin)
+     */
+    public boolean isBundleRequiredByOthers(Bundle bundle) {
+        for (ExportedPackage exportedPackage : get(exportsByExporter(), bundle)) {
+            Bundle[] importingBundles = exportedPackage.getImportingBundles();
+            if (importingBundles != null && importingBundles.length > 0) {
+                return true;
+            }
+        }
+        RequiredBundle requiredBundle = requiredByBundle().get(bundle);
+        if (requiredBundle != null) {
+            Bundle[] requiring = requiredBundle.getRequiringBundles();
+            if (requiring != null && requiring.length > 0) {
+                return true;
+            }
+        }
+        Bundle[] fragments = packageAdmin.getFragments(bundle);
+        return fragments != null && fragments.length > 0;
+    }
+
+    /**
+     * @see FrameworkUtils#getBundleDependencies(org.osgi.framework.BundleContext, Bundle, PackageAdmin)
+     */
+    @SuppressWarnings("unchecked")
+    public long[] getBundleDependencies(Bundle bundle) {
+        Set<Bundle> dependencies = new LinkedHashSet<Bundle>();
+        for (ExportedPackage ep : getBundleImportedPackagesRaw(bundle)) {
+            dependencies.add(ep.getExportingBundle());
+        }
+        // Handle required bundles, only if Require-Bundle is used
+        Dictionary<String, String> bundleHeaders = bundle.getHeaders();
+        String requireBundleHeader = bundleHeaders.get(Constants.REQUIRE_BUNDLE);
+        if (requireBundleHeader != null) {
+            List<String> bundleSymbolicNames = extractHeaderDeclaration(requireBundleHeader);
+            for (RequiredBundle requiredBundle : get(requiredByRequirer(), bundle)) {
+                if (bundleSymbolicNames.contains(requiredBundle.getSymbolicName())) {
+                    dependencies.add(requiredBundle.getBundle());
+                }
+            }
+        }
+        // Handle fragment bundles
+        Bundle[] hosts = packageAdmin.getHosts(bundle);
+        if (hosts != null) {
+            Collections.addAll(dependencies, hosts);
+        }
+        return getBundleIds(dependencies.toArray(new Bundle[dependencies.size()]));
+    }
+
+    /**
+     * @see FrameworkUtils#getDependentBundles(Bundle, PackageAdmin)
+     */
+    public long[] getDependentBundles(Bundle bundle) {
+        Set<Bundle> dependencies = new LinkedHashSet<Bundle>();
+        // Handle imported packages (statically or dynamically)
+        for (ExportedPackage exportedPackage : get(exportsByExporter(), bundle)) {
+            Bundle[] importingBundles = exportedPackage.getImportingBundles();
+            if (importingBundles != null) {
+                Collections.addAll(dependencies, importingBundles);
+            }
+        }
+        // Handle required bundles
+        RequiredBundle requiredBundle = requiredByBundle().get(bundle);
+        if (requiredBundle != null) {
+            Bundle[] requiringBundles = requiredBundle.getRequiringBundles();
+            if (requiringBundles != null) {
+                Collections.addAll(dependencies, requiringBundles);
+            }
+        }
+        // Handle fragment bundles
+        Bundle[] fragments = packageAdmin.getFragments(bundle);
+        if (fragments != null) {
+            Collections.addAll(dependencies, fragments);
+        }
+        return getBundleIds(dependencies.toArray(new Bundle[dependencies.size()]));
+    }
+
+    /*
+     * Same selection as FrameworkUtils: with a wildcard dynamic import every package the bundle is wired to
+     * counts, otherwise only the packages named in its Import-Package and DynamicImport-Package headers
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<ExportedPackage> getBundleImportedPackagesRaw(Bundle bundle) {
+        List<ExportedPackage> wired = get(exportsByImporter(), bundle);
+        List<ExportedPackage> result = new ArrayList<ExportedPackage>();
+        if (wired.isEmpty()) {
+            return result;
+        }
+        Dictionary<String, String> bundleHeaders = bundle.getHeaders();
+        String dynamicImportHeader = bundleHeaders.get(Constants.DYNAMICIMPORT_PACKAGE);
+        if (dynamicImportHeader != null && dynamicImportHeader.contains("*")) {
+            for (ExportedPackage exportedPackage : wired) {
+                if (!bundle.equals(exportedPackage.getExportingBundle())) {
+                    result.add(exportedPackage);
+                }
+            }
+        } else {
+            List<String> importPackages = new ArrayList<String>();
+            String importPackageHeader = bundleHeaders.get(Constants.IMPORT_PACKAGE);
+            if (importPackageHeader != null && importPackageHeader.length() > 0) {
+                importPackages.addAll(extractHeaderDeclaration(importPackageHeader));
+            }
+            if (dynamicImportHeader != null) {
+                importPackages.addAll(extractHeaderDeclaration(dynamicImportHeader));
+            }
+            Map<String, List<ExportedPackage>> wiredByName = new HashMap<String, List<ExportedPackage>>();
+            for (ExportedPackage exportedPackage : wired) {
+                add(wiredByName, exportedPackage.getName(), exportedPackage);
+            }
+            for (String packageName : importPackages) {
+                result.addAll(get(wiredByName, packageName));
+            }
+        }
+        return result;
+    }
+
+    private Map<Bundle, List<ExportedPackage>> exportsByExporter() {
+        if (exportsByExporter == null) {
+            exportsByExporter = new HashMap<Bundle, List<ExportedPackage>>();
+            for (ExportedPackage exportedPackage : allExportedPackages()) {
+                add(exportsByExporter, exportedPackage.getExportingBundle(), exportedPackage);
+            }
+        }
+        return exportsByExporter;
+    }
+
+    private Map<Bundle, List<ExportedPackage>> exportsByImporter() {
+        if (exportsByImporter == null) {
+            exportsByImporter = new HashMap<Bundle, List<ExportedPackage>>();
+            for (ExportedPackage exportedPackage : allExportedPackages()) {
+                Bundle[] importingBundles = exportedPackage.getImportingBundles();
+                if (importingBundles != null) {
+                    for (Bundle importingBundle : importingBundles) {
+                        add(exportsByImporter, importingBundle, exportedPackage);
+                    }
+                }
+            }
+        }
+        return exportsByImporter;
+    }
+
+    private Map<Bundle, RequiredBundle> requiredByBundle() {
+        if (requiredByBundle == null) {
+            requiredByBundle = new HashMap<Bundle, RequiredBundle>();
+            for (RequiredBundle requiredBundle : allRequiredBundles()) {
+                Bundle bundle = requiredBundle.getBundle();
+                if (bundle != null && !requiredByBundle.containsKey(bundle)) {
+                    requiredByBundle.put(bundle, requiredBundle);
+                }
+            }
+        }
+        return requiredByBundle;
+    }
+
+    private Map<Bundle, List<RequiredBundle>> requiredByRequirer() {
+        if (requiredByRequirer == null) {
+            requiredByRequirer = new HashMap<Bundle, List<RequiredBundle>>();
+            for (RequiredBundle requiredBundle : allRequiredBundles()) {
+                Bundle[] requiringBundles = requiredBundle.getRequiringBundles();
+                if (requiringBundles != null) {
+                    for (Bundle requiringBundle : requiringBundles) {
+                        add(requiredByRequirer, requiringBundle, requiredBundle);
+                    }
+                }
+            }
+        }
+        return requiredByRequirer;
+    }
+
+    private ExportedPackage[] allExportedPackages() {
+        if (allExportedPackages == null) {
+            ExportedPackage[] exported = packageAdmin.getExportedPackages((Bundle) null);
+            allExportedPackages = exported != null ? exported : new ExportedPackage[0];
+        }
+        return allExportedPackages;
+    }
+
+    private RequiredBundle[] allRequiredBundles() {
+        if (allRequiredBundles == null) {
+            RequiredBundle[] required = packageAdmin.getRequiredBundles(null);
+            allRequiredBundles = required != null ? required : new RequiredBundle[0];
+        }
+        return allRequiredBundles;
+    }
+
+    private static <K, V> void add(Map<K, List<V>> map, K key, V value) {
+        List<V> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<V>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <K, V> List<V> get(Map<K, List<V>> map, K key) {
+        List<V> values = map.get(key);
+        return values != null ? values : Collections.<V>emptyList();
+    }
+}
@@ -53,7 +53,7 @@ import org.osgi.service.startlevel.StartLevel;
 
 public class BundleStateTest {
 
-    private void createBundle(StateConfig stateConfig, final List<Notification> received,
+    private BundleState createBundle(StateConfig stateConfig, final List<Notification> received,
                               final List<AttributeChangeNotification> attributeChanges) throws Exception {
         BundleContext context = mock(BundleContext.class);
         when(context.getBundles()).thenReturn(new Bundle [] {});
@@ -112,6 +112,7 @@ public class BundleStateTest {
         assertTrue(dispatcher.isShutdown());
         dispatcher.awaitTermination(2, TimeUnit.SECONDS);
         assertTrue(dispatcher.isTerminated());
+        return bundleState;
     }
 
     @Test
@@ -231,5 +232,53 @@ public class BundleStateTest {
         assertEquals(0, attributeChanges.size());
     }
 
+    @Test
+    public void testBatchNotificationsForBundleEvents() throws Exception {
+        StateConfig stateConfig = new StateConfig();
+        stateConfig.setNotificationDispatchMode(StateConfig.DispatchMode.BATCH);
+        stateConfig.setNotificationBatchInterval(60000);
+        stateConfig.setAttributeChangeNotificationCoalescing(true);
+
+        //holders for Notifications captured
+        List<Notification> received = new LinkedList<Notification>();
+        List<AttributeChangeNotification> attributeChanges = new LinkedList<AttributeChangeNotification>();
+
+        // the pending batch is sent when the dispatcher is shut down
+        createBundle(stateConfig, received, attributeChanges);
+
+        assertEquals(1, received.size());
+        Notification batch = received.get(0);
+        assertEquals(BundleState.BATCH_EVENT, batch.getType());
+        CompositeData[] events = (CompositeData[]) batch.getUserData();
+        assertEquals(2, events.length);
+        assertEquals(BundleEvent.INSTALLED, BundleEventData.from(events[0]).getEventType());
+        assertEquals(BundleEvent.RESOLVED, BundleEventData.from(events[1]).getEventType());
+
+        assertEquals(1, attributeChanges.size());
+        assertEquals("BundleIds", attributeChanges.get(0).getAttributeName());
+    }
+
+    @Test
+    public void testNotificationsDroppedWhenQueueFull() throws Exception {
+        StateConfig stateConfig = new StateConfig();
+        stateConfig.setNotificationDispatchMode(StateConfig.DispatchMode.BATCH);
+        stateConfig.setNotificationBatchInterval(60000);
+        stateConfig.setNotificationQueueSize(1);
+
+        //holders for Notifications captured
+        List<Notification> received = new LinkedList<Notification>();
+        List<AttributeChangeNotification> attributeChanges = new LinkedList<AttributeChangeNotification>();
+
+        BundleState bundleState = createBundle(stateConfig, received, attributeChanges);
+
+        assertEquals(1, received.size());
+        CompositeData[] events = (CompositeData[]) received.get(0).getUserData();
+        assertEquals(1, events.length);
+        assertEquals(BundleEvent.INSTALLED, BundleEventData.from(events[0]).getEventType());
+        assertEquals(1, bundleState.getDroppedEventCount());
+        assertEquals(1, attributeChanges.size());
+        // the change of the dropped event is reported from the value read when the dispatcher started
+        assertNotNull(attributeChanges.get(0).getOldValue());
+    }
 
 }
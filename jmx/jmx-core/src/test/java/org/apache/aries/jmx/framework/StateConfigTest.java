@@ -0,0 +1,63 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.apache.aries.jmx.framework.StateConfig.DispatchMode;
+import org.junit.Test;
+import org.osgi.service.cm.ConfigurationException;
+
+public class StateConfigTest {
+
+    @Test
+    public void testInvalidConfigurationChangesNothing() throws Exception {
+        StateConfig config = new StateConfig();
+        Dictionary<String, Object> valid = new Hashtable<String, Object>();
+        valid.put("bundleChangeNotificationEnabled", "false");
+        valid.put("notificationDispatchMode", "batch");
+        valid.put("notificationBatchInterval", 500L);
+        config.updated(valid);
+
+        assertInvalid(config, "notificationBatchInterval", 0L);
+        assertInvalid(config, "notificationQueueSize", "many");
+        assertInvalid(config, "notificationDispatchMode", "later");
+
+        assertFalse(config.isBundleChangeNotificationEnabled());
+        assertEquals(DispatchMode.BATCH, config.getNotificationDispatchMode());
+        assertEquals(500L, config.getNotificationBatchInterval());
+        assertEquals(10000, config.getNotificationQueueSize());
+    }
+
+    private void assertInvalid(StateConfig config, String property, Object value) {
+        Dictionary<String, Object> invalid = new Hashtable<String, Object>();
+        invalid.put("bundleChangeNotificationEnabled", "true");
+        invalid.put("notificationDispatchMode", "immediate");
+        invalid.put(property, value);
+        try {
+            config.updated(invalid);
+            fail("Expected a ConfigurationException for " + property);
+        } catch (ConfigurationException e) {
+            assertEquals(property, e.getProperty());
+        }
+    }
+}
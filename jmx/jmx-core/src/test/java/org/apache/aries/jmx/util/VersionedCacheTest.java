@@ -0,0 +1,83 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * 
+ * 
+ *
+ * @version $Rev$ $Date$
+ */
+public class VersionedCacheTest {
+
+    @Test
+    public void testDisabledCacheKeepsNothing() throws Exception {
+        VersionedCache<Long, String> cache = new VersionedCache<Long, String>();
+        cache.put(1L, cache.getVersion(), "one");
+        assertNull(cache.get(1L, 0));
+
+        cache.setEnabled(true);
+        cache.put(1L, cache.getVersion(), "one");
+        assertEquals("one", cache.get(1L, 0));
+
+        cache.setEnabled(false);
+        assertNull(cache.get(1L, 0));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        VersionedCache<Long, String> cache = new VersionedCache<Long, String>();
+        cache.setEnabled(true);
+        cache.put(1L, cache.getVersion(), "one");
+        cache.put(2L, cache.getVersion(), "two");
+
+        cache.invalidate(1L);
+        assertNull(cache.get(1L, 0));
+        assertEquals("two", cache.get(2L, 0));
+
+        cache.invalidateAll();
+        assertNull(cache.get(2L, 0));
+    }
+
+    @Test
+    public void testValueComputedBeforeInvalidationIsNotCached() throws Exception {
+        VersionedCache<Long, String> cache = new VersionedCache<Long, String>();
+        cache.setEnabled(true);
+
+        long version = cache.getVersion();
+        // the framework changes while the value is computed
+        cache.invalidate(1L);
+        cache.put(1L, version, "stale");
+        assertNull(cache.get(1L, 0));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        VersionedCache<Long, String> cache = new VersionedCache<Long, String>();
+        cache.setEnabled(true);
+        cache.put(1L, cache.getVersion(), "one");
+        Thread.sleep(20);
+        assertEquals("one", cache.get(1L, 60000));
+        assertNull(cache.get(1L, 10));
+        assertNull(cache.get(1L, 60000));
+    }
+}
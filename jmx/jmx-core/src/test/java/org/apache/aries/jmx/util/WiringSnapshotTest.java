@@ -0,0 +1,141 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.aries.jmx.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.packageadmin.RequiredBundle;
+
+/**
+ * 
+ * 
+ *
+ * @version $Rev$ $Date$
+ */
+@SuppressWarnings("deprecation")
+public class WiringSnapshotTest {
+
+    @Test
+    public void testImportedAndExportedPackages() throws Exception {
+
+        Bundle bundle = mock(Bundle.class);
+        Bundle b1 = mock(Bundle.class);
+        Bundle b2 = mock(Bundle.class);
+        Bundle b3 = mock(Bundle.class);
+
+        ExportedPackage ep1 = mock(ExportedPackage.class);
+        when(ep1.getExportingBundle()).thenReturn(b1);
+        when(ep1.getImportingBundles()).thenReturn(new Bundle[] { bundle, b2, b3 });
+        when(ep1.getName()).thenReturn("org.apache.aries.jmx.b1");
+        when(ep1.getVersion()).thenReturn(Version.emptyVersion);
+        ExportedPackage ep2 = mock(ExportedPackage.class);
+        when(ep2.getExportingBundle()).thenReturn(b2);
+        when(ep2.getImportingBundles()).thenReturn(new Bundle[] { bundle, b3 });
+        when(ep2.getName()).thenReturn("org.apache.aries.jmx.b2");
+        when(ep2.getVersion()).thenReturn(Version.parseVersion("2.0.1"));
+
+        PackageAdmin admin = mock(PackageAdmin.class);
+        when(admin.getExportedPackages((Bundle) null)).thenReturn(new ExportedPackage[] { ep1, ep2 });
+
+        Dictionary<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.DYNAMICIMPORT_PACKAGE, "*");
+        when(bundle.getHeaders()).thenReturn(headers);
+
+        WiringSnapshot wiring = new WiringSnapshot(admin);
+        assertArrayEquals(new String[] { "org.apache.aries.jmx.b1;0.0.0" , "org.apache.aries.jmx.b2;2.0.1"},
+                wiring.getBundleImportedPackages(bundle));
+        assertArrayEquals(new String[] { "org.apache.aries.jmx.b2;2.0.1"}, wiring.getBundleExportedPackages(b2));
+        assertEquals(0, wiring.getBundleExportedPackages(b3).length);
+
+        // only the declared imports count without a wildcard
+        headers.remove(Constants.DYNAMICIMPORT_PACKAGE);
+        headers.put(Constants.IMPORT_PACKAGE, "org.apache.aries.jmx.b2;version=\"[2.0, 3.0)\"");
+        assertArrayEquals(new String[] { "org.apache.aries.jmx.b2;2.0.1"}, wiring.getBundleImportedPackages(bundle));
+
+        // the framework is only asked once for all the packages
+        verify(admin, times(1)).getExportedPackages((Bundle) null);
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getBundleId()).thenReturn(new Long(11));
+        Bundle b1 = mock(Bundle.class);
+        when(b1.getBundleId()).thenReturn(new Long(44));
+        Bundle b2 = mock(Bundle.class);
+        when(b2.getBundleId()).thenReturn(new Long(55));
+        Bundle b3 = mock(Bundle.class);
+        when(b3.getBundleId()).thenReturn(new Long(66));
+
+        Dictionary<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.REQUIRE_BUNDLE, "b1;bundle-version=\"1.0.0\",b3;bundle-version=\"2.0.0\"");
+        when(bundle.getHeaders()).thenReturn(headers);
+
+        RequiredBundle rb1 = mock(RequiredBundle.class);
+        when(rb1.getSymbolicName()).thenReturn("b1");
+        when(rb1.getBundle()).thenReturn(b1);
+        when(rb1.getRequiringBundles()).thenReturn(new Bundle[] { bundle, b2 });
+        RequiredBundle rb2 = mock(RequiredBundle.class);
+        when(rb2.getSymbolicName()).thenReturn("b2");
+        when(rb2.getBundle()).thenReturn(b2);
+        when(rb2.getRequiringBundles()).thenReturn(new Bundle[] { b1 });
+        RequiredBundle rb3 = mock(RequiredBundle.class);
+        when(rb3.getSymbolicName()).thenReturn("b3");
+        when(rb3.getBundle()).thenReturn(b3);
+        when(rb3.getRequiringBundles()).thenReturn(new Bundle[] { bundle, b1, b2 });
+        when(rb3.isRemovalPending()).thenReturn(true);
+
+        PackageAdmin admin = mock(PackageAdmin.class);
+        when(admin.getRequiredBundles(null)).thenReturn(new RequiredBundle[] { rb1, rb2, rb3 });
+
+        WiringSnapshot wiring = new WiringSnapshot(admin);
+        assertEquals(toSet(new long[] { 44, 66 }), toSet(wiring.getBundleDependencies(bundle)));
+        assertEquals(toSet(new long[] { 11, 44, 55 }), toSet(wiring.getDependentBundles(b3)));
+        assertTrue(wiring.isBundleRequiredByOthers(b2));
+        assertFalse(wiring.isBundleRequiredByOthers(bundle));
+        assertTrue(wiring.isBundlePendingRemoval(b3));
+        assertFalse(wiring.isBundlePendingRemoval(b1));
+    }
+
+    private static Set<Long> toSet(long[] array) {
+        Set<Long> set = new HashSet<Long>();
+        for (long value : array) {
+            set.add(value);
+        }
+        return set;
+    }
+
+}
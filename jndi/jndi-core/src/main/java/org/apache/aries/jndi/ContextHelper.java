@@ -34,6 +34,8 @@ import javax.naming.spi.ObjectFactory;
 import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +47,27 @@ public final class ContextHelper {
 
     private static final Logger logger = Logger.getLogger(ContextHelper.class.getName());
 
+    /** The maximum number of bundle and environment combinations for which the context provider is remembered */
+    private static final int MAX_CACHED_PROVIDERS = 256;
+
+    /** The maximum number of URL schemes for which the URLObjectFactoryFinder is remembered */
+    private static final int MAX_CACHED_SCHEMES = 256;
+
+    /**
+     * The builder or factory service which provided the initial context of a bundle for a given environment.
+     * The entries are dropped when the builder or factory services change.  Failed lookups are not remembered,
+     * as a builder may provide a context later on without its service changing.
+     */
+    private static final ConcurrentMap<ProviderKey, CachedProvider> providers = new ConcurrentHashMap<>();
+    private static volatile long providersGeneration = -1;
+
+    /**
+     * The URLObjectFactoryFinder which last found the factory of a URL scheme, along with the generation of the
+     * finder services when it was found.  The finder is asked again on each use, and the absence of a finder is
+     * never remembered, as a finder may find a factory later on without its service changing.
+     */
+    private static final ConcurrentMap<String, CachedFinder> urlFinders = new ConcurrentHashMap<>();
+
     /**
      * Ensure no one constructs us
      */
@@ -82,19 +105,37 @@ public final class ContextHelper {
         ServiceReference<ObjectFactory> ref = Activator.getUrlFactory(urlScheme);
 
         if (ref == null) {
+            // the finders are asked for every scheme which has no ObjectFactory service, so first ask the
+            // finder which last knew the scheme, until the finder services change
+            long generation = Activator.getURLObjectFactoryFindersGeneration();
+            CachedFinder cached = urlScheme != null ? urlFinders.get(urlScheme) : null;
+            ServiceReference<URLObjectFactoryFinder> tried = null;
+            if (cached != null && cached.generation == generation) {
+                tried = cached.finder;
+                result = findURLObjectFactory(ctx, tried, urlScheme, environment);
+                if (result != null) {
+                    return result;
+                }
+            }
 
+            ServiceReference<URLObjectFactoryFinder> found = null;
             Collection<ServiceReference<URLObjectFactoryFinder>> refs = Activator.getURLObjectFactoryFinderServices();
             for (final ServiceReference<URLObjectFactoryFinder> finderRef : refs) {
-                URLObjectFactoryFinder finder = Activator.getService(ctx, finderRef);
-
-                if (finder != null) {
-                    ObjectFactory f = finder.findFactory(urlScheme, environment);
+                if (finderRef.equals(tried)) {
+                    continue;
+                }
+                result = findURLObjectFactory(ctx, finderRef, urlScheme, environment);
+                if (result != null) {
+                    found = finderRef;
+                    break;
+                }
+            }
 
-                    if (f != null) {
-                        result = new ServicePair<>(ctx, finderRef, f);
-                        break;
-                    }
+            if (urlScheme != null && found != null) {
+                if (urlFinders.size() >= MAX_CACHED_SCHEMES) {
+                    urlFinders.clear();
                 }
+                urlFinders.put(urlScheme, new CachedFinder(generation, found));
             }
         } else {
             result = new ServicePair<>(ctx, ref);
@@ -103,6 +144,28 @@ public final class ContextHelper {
         return result;
     }
 
+    private static ServicePair<ObjectFactory> findURLObjectFactory(BundleContext ctx,
+            ServiceReference<URLObjectFactoryFinder> finderRef, String urlScheme, Hashtable<?, ?> environment)
+            throws NamingException {
+        URLObjectFactoryFinder finder = Activator.getService(ctx, finderRef);
+
+        if (finder != null) {
+            ObjectFactory f = finder.findFactory(urlScheme, environment);
+
+            if (f != null) {
+                return new ServicePair<>(ctx, finderRef, f);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget which URLObjectFactoryFinder knows which URL scheme.
+     */
+    public static void clearURLObjectFactoryFinders() {
+        urlFinders.clear();
+    }
+
     public static Context getInitialContext(BundleContext context, Hashtable<?, ?> environment)
             throws NamingException {
 
@@ -138,12 +201,7 @@ public final class ContextHelper {
         ContextProvider provider = null;
         String contextFactoryClass = (String) environment.get(Context.INITIAL_CONTEXT_FACTORY);
         if (contextFactoryClass == null) {
-            // 1. get ContextFactory using builder
-            provider = getInitialContextUsingBuilder(context, environment)
-            // 2. lookup all ContextFactory services
-                    .orElseGet(() -> getInitialContextUsingFactoryServices(context, environment)
-                            .orElse(null));
-
+            provider = getCachedContextProvider(context, environment);
         } else {
             // 1. lookup using specified InitialContextFactory
             ServiceReference<InitialContextFactory> ref = Activator.getInitialContextFactory(contextFactoryClass);
@@ -164,18 +222,94 @@ public final class ContextHelper {
         return provider;
     }
 
+    /**
+     * Clear the remembered context providers of a bundle which stopped, or of all bundles if null.
+     */
+    public static void clearContextProviders(Bundle bundle) {
+        if (bundle == null) {
+            providers.clear();
+        } else {
+            providers.keySet().removeIf(key -> key.bundle == bundle);
+        }
+    }
+
+    /**
+     * Find the context provider when no InitialContextFactory is specified.  Walking all the builders
+     * and then all the factories is expensive, so the service which provided the context is remembered
+     * for the bundle and environment until the services change.
+     */
+    @SuppressWarnings("unchecked")
+    private static ContextProvider getCachedContextProvider(BundleContext context, Hashtable<?, ?> environment)
+            throws NamingException {
+        long generation = Activator.getInitialContextFactoriesGeneration();
+        if (generation != providersGeneration) {
+            providers.clear();
+            providersGeneration = generation;
+        }
+
+        ProviderKey key = new ProviderKey(context, environment);
+        CachedProvider cached = providers.get(key);
+        if (cached != null) {
+            Optional<ContextProvider> provider;
+            if (cached.builder != null) {
+                provider = getInitialContextUsingBuilder(context, cached.builder, environment);
+            } else {
+                provider = getInitialContextUsingFactoryService(context, cached.factory, environment);
+            }
+            if (provider.isPresent()) {
+                return provider.get();
+            }
+            providers.remove(key, cached);
+        }
+
+        // 1. get ContextFactory using builder
+        CachedProvider found;
+        ContextProvider provider = getInitialContextUsingBuilder(context, environment).orElse(null);
+        if (provider != null) {
+            found = new CachedProvider((ServiceReference<InitialContextFactoryBuilder>) provider.getReference(), null);
+        } else {
+            // 2. lookup all ContextFactory services
+            provider = getInitialContextUsingFactoryServices(context, environment).orElse(null);
+            if (provider == null) {
+                return null;
+            }
+            found = new CachedProvider(null, (ServiceReference<InitialContextFactory>) provider.getReference());
+        }
+
+        if (providers.size() >= MAX_CACHED_PROVIDERS) {
+            providers.clear();
+        }
+        providers.put(key, found);
+        if (Activator.getInitialContextFactoriesGeneration() != generation) {
+            // the services changed while we were looking, the result may already be stale
+            providers.remove(key, found);
+        }
+        return provider;
+    }
+
     private static Optional<ContextProvider> getInitialContextUsingFactoryServices(BundleContext context, Hashtable<?, ?> environment) {
         for (ServiceReference<InitialContextFactory> reference : Activator.getInitialContextFactoryServices()) {
-            try {
-                InitialContextFactory factory = Activator.getService(context, reference);
+            Optional<ContextProvider> provider = getInitialContextUsingFactoryService(context, reference, environment);
+            if (provider.isPresent()) {
+                return provider;
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<ContextProvider> getInitialContextUsingFactoryService(BundleContext context,
+            ServiceReference<InitialContextFactory> reference, Hashtable<?, ?> environment) {
+        try {
+            InitialContextFactory factory = Activator.getService(context, reference);
+            if (factory != null) {
                 Context initialContext = factory.getInitialContext(environment);
                 if (initialContext != null) {
                     return Optional.of(new SingleContextProvider(context, reference, initialContext));
                 }
-            } catch (NamingException e) {
-                // ignore this, if the builder fails we want to move onto the next one
-                logger.log(Level.FINE, "Exception caught", e);
             }
+        } catch (NamingException e) {
+            // ignore this, if the builder fails we want to move onto the next one
+            logger.log(Level.FINE, "Exception caught", e);
         }
         return Optional.empty();
     }
@@ -184,21 +318,85 @@ public final class ContextHelper {
     		Hashtable<?, ?> environment) throws NamingException {
     	
     	for (ServiceReference<InitialContextFactoryBuilder> ref : Activator.getInitialContextFactoryBuilderServices()) {
-    		InitialContextFactoryBuilder builder = Activator.getService(context, ref);
-    		InitialContextFactory factory=null;
-    		try {
-    			factory = builder.createInitialContextFactory(environment);
-    		} catch (NamingException ne) {
-    			// ignore this, if the builder fails we want to move onto the next one
-    			logger.log(Level.FINE, "Exception caught", ne);
-    		} catch (NullPointerException npe) {
-    			logger.log(Level.SEVERE, "NPE caught in ContextHelper.getInitialContextUsingBuilder. context=" + context + " ref=" + ref);
-    			throw npe;
-    		}
-    		if (factory != null) {
-    			return Optional.of(new SingleContextProvider(context, ref, factory.getInitialContext(environment)));
+    		Optional<ContextProvider> provider = getInitialContextUsingBuilder(context, ref, environment);
+    		if (provider.isPresent()) {
+    			return provider;
     		}
     	}
     	return Optional.empty();
     }
+
+    private static Optional<ContextProvider> getInitialContextUsingBuilder(BundleContext context,
+    		ServiceReference<InitialContextFactoryBuilder> ref, Hashtable<?, ?> environment) throws NamingException {
+
+    	InitialContextFactoryBuilder builder = Activator.getService(context, ref);
+    	if (builder == null) {
+    		return Optional.empty();
+    	}
+    	InitialContextFactory factory=null;
+    	try {
+    		factory = builder.createInitialContextFactory(environment);
+    	} catch (NamingException ne) {
+    		// ignore this, if the builder fails we want to move onto the next one
+    		logger.log(Level.FINE, "Exception caught", ne);
+    	} catch (NullPointerException npe) {
+    		logger.log(Level.SEVERE, "NPE caught in ContextHelper.getInitialContextUsingBuilder. context=" + context + " ref=" + ref);
+    		throw npe;
+    	}
+    	if (factory != null) {
+    		return Optional.of(new SingleContextProvider(context, ref, factory.getInitialContext(environment)));
+    	}
+    	return Optional.empty();
+    }
+
+    private static final class ProviderKey {
+        private final BundleContext context;
+        private final Bundle bundle;
+        private final Hashtable<?, ?> environment;
+        private final int hashCode;
+
+        ProviderKey(BundleContext context, Hashtable<?, ?> environment) {
+            this.context = context;
+            this.bundle = context.getBundle();
+            this.environment = new Hashtable<>(environment);
+            this.hashCode = 31 * System.identityHashCode(context) + this.environment.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProviderKey)) {
+                return false;
+            }
+            ProviderKey other = (ProviderKey) o;
+            return context == other.context && environment.equals(other.environment);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class CachedFinder {
+        private final long generation;
+        private final ServiceReference<URLObjectFactoryFinder> finder;
+
+        CachedFinder(long generation, ServiceReference<URLObjectFactoryFinder> finder) {
+            this.generation = generation;
+            this.finder = finder;
+        }
+    }
+
+    private static final class CachedProvider {
+        private final ServiceReference<InitialContextFactoryBuilder> builder;
+        private final ServiceReference<InitialContextFactory> factory;
+
+        CachedProvider(ServiceReference<InitialContextFactoryBuilder> builder, ServiceReference<InitialContextFactory> factory) {
+            this.builder = builder;
+            this.factory = factory;
+        }
+    }
 }
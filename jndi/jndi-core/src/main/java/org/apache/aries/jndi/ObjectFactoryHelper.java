@@ -19,6 +19,7 @@
 package org.apache.aries.jndi;
 
 import org.apache.aries.jndi.startup.Activator;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
 
@@ -29,6 +30,9 @@ import javax.naming.spi.ObjectFactory;
 import javax.naming.spi.ObjectFactoryBuilder;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +42,16 @@ public class ObjectFactoryHelper implements ObjectFactory {
 
     private static final Logger logger = Logger.getLogger(ObjectFactoryHelper.class.getName());
 
+    /** The maximum number of bundle and object type combinations for which the ObjectFactoryBuilder is remembered */
+    private static final int MAX_CACHED_BUILDERS = 256;
+
+    /**
+     * The ObjectFactoryBuilder which last created a factory for a type of object looked up by a bundle, along with
+     * the generation of the builder services when it was found. A builder may accept some objects of a type and not
+     * others, so it is asked again for each object, and the absence of a builder is never remembered.
+     */
+    private static final ConcurrentMap<BuilderKey, CachedBuilder> builders = new ConcurrentHashMap<>();
+
     protected BundleContext defaultContext;
     protected BundleContext callerContext;
 
@@ -173,14 +187,35 @@ public class ObjectFactoryHelper implements ObjectFactory {
                                                                Attributes attrs)
             throws Exception {
         ObjectFactory factory = null;
-        for (ObjectFactoryBuilder ofb : Activator.getServices(callerContext, ObjectFactoryBuilder.class)) {
-            try {
-                factory = ofb.createObjectFactory(obj, environment);
-            } catch (NamingException e) {
-                // TODO: log it
+
+        // the builders are asked for every object looked up, so first ask the builder which last knew
+        // the type of object, until the builder services visible to the caller change
+        long generation = Activator.getServicesGeneration(callerContext, ObjectFactoryBuilder.class);
+        BuilderKey key = generation >= 0 ? new BuilderKey(callerContext, obj) : null;
+        CachedBuilder cached = key != null ? builders.get(key) : null;
+        ServiceReference<ObjectFactoryBuilder> tried = null;
+        if (cached != null && cached.generation == generation) {
+            tried = cached.builder;
+            factory = createObjectFactory(tried, obj, environment);
+        }
+
+        if (factory == null) {
+            ServiceReference<ObjectFactoryBuilder> found = null;
+            for (ServiceReference<ObjectFactoryBuilder> ref : Activator.getReferences(callerContext, ObjectFactoryBuilder.class)) {
+                if (ref.equals(tried)) {
+                    continue;
+                }
+                factory = createObjectFactory(ref, obj, environment);
+                if (factory != null) {
+                    found = ref;
+                    break;
+                }
             }
-            if (factory != null) {
-                break;
+            if (key != null && found != null) {
+                if (builders.size() >= MAX_CACHED_BUILDERS) {
+                    builders.clear();
+                }
+                builders.put(key, new CachedBuilder(generation, found));
             }
         }
 
@@ -193,6 +228,29 @@ public class ObjectFactoryHelper implements ObjectFactory {
         return (result == null) ? obj : result;
     }
 
+    private ObjectFactory createObjectFactory(ServiceReference<ObjectFactoryBuilder> ref, Object obj, Hashtable<?, ?> environment) {
+        ObjectFactoryBuilder ofb = Activator.getService(callerContext, ref);
+        if (ofb != null) {
+            try {
+                return ofb.createObjectFactory(obj, environment);
+            } catch (NamingException e) {
+                // TODO: log it
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget the ObjectFactoryBuilders remembered for a bundle which stopped, or for all bundles if null.
+     */
+    public static void clearObjectFactoryBuilders(Bundle bundle) {
+        if (bundle == null) {
+            builders.clear();
+        } else {
+            builders.keySet().removeIf(key -> key.bundle == bundle);
+        }
+    }
+
     /*
      * Attempt to obtain an Object instance via the java.naming.factory.object property
      */
@@ -289,4 +347,43 @@ public class ObjectFactoryHelper implements ObjectFactory {
         });
     }
 
-}
\ No newline at end of file
+
+    private static final class BuilderKey {
+        private final Bundle bundle;
+        private final String type;
+        private final String className;
+
+        BuilderKey(BundleContext context, Object obj) {
+            this.bundle = context.getBundle();
+            this.type = obj != null ? obj.getClass().getName() : null;
+            this.className = obj instanceof Reference ? ((Reference) obj).getClassName() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BuilderKey)) {
+                return false;
+            }
+            BuilderKey other = (BuilderKey) o;
+            return bundle == other.bundle && Objects.equals(type, other.type) && Objects.equals(className, other.className);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(bundle) + Objects.hashCode(type)) + Objects.hashCode(className);
+        }
+    }
+
+    private static final class CachedBuilder {
+        private final long generation;
+        private final ServiceReference<ObjectFactoryBuilder> builder;
+
+        CachedBuilder(long generation, ServiceReference<ObjectFactoryBuilder> builder) {
+            this.generation = generation;
+            this.builder = builder;
+        }
+    }
+}
@@ -25,14 +25,17 @@ import org.osgi.framework.BundleReference;
 import org.osgi.service.jndi.JNDIConstants;
 
 import javax.naming.NamingException;
+import java.lang.ref.WeakReference;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -40,6 +43,14 @@ import java.util.function.Supplier;
  */
 public final class Utils {
 
+    /**
+     * The bundle contexts of the bundle class loaders met while looking for the caller's bundle.
+     * Both are weakly held, as a bundle context references its class loader, so that the class
+     * loader of a bundle which is refreshed or uninstalled can always be collected.
+     */
+    private static final Map<ClassLoader, WeakReference<BundleContext>> bundleContexts =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     /**
      * Ensure no one constructs us
      */
@@ -80,9 +91,15 @@ public final class Utils {
                 }
             }
 
-            // then go to the parent of the namingClass down the stack until we find a BundleContext
+            // then go to the parent of the namingClass down the stack until we find a BundleContext,
+            // consecutive frames usually share their class loader so only check each one once
+            ClassLoader previous = null;
             for (i++; i < classStack.length && result == null; i++) {
-                result = getBundleContext(classStack[i].getClassLoader());
+                ClassLoader cl = classStack[i].getClassLoader();
+                if (cl != previous) {
+                    result = getBundleContext(cl);
+                    previous = cl;
+                }
             }
         }
 
@@ -95,6 +112,11 @@ public final class Utils {
         while (result == null && cl != null) {
             if (cl instanceof BundleReference) {
                 Bundle b = ((BundleReference) cl).getBundle();
+                WeakReference<BundleContext> cached = bundleContexts.get(cl);
+                result = cached != null ? cached.get() : null;
+                if (result != null && (b.getState() & (Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING)) != 0) {
+                    break;
+                }
                 result = b.getBundleContext();
                 if (result == null) {
                     try {
@@ -104,6 +126,7 @@ public final class Utils {
                     }
                     break;
                 }
+                bundleContexts.put(cl, new WeakReference<>(result));
             } else if (cl != null) {
                 cl = cl.getParent();
             }
@@ -112,6 +135,13 @@ public final class Utils {
         return result;
     }
 
+    /**
+     * Forget the bundle context of a bundle which is no longer active.
+     */
+    public static void clearBundleContext(Bundle bundle) {
+        bundleContexts.keySet().removeIf(cl -> ((BundleReference) cl).getBundle() == bundle);
+    }
+
     public static String getSystemProperty(final String key, final String defaultValue) {
         return doPrivileged(() -> System.getProperty(key, defaultValue));
     }
@@ -77,6 +77,13 @@ public class Activator implements BundleActivator {
         return instance.urlObjectFactoryFinders.getReferences();
     }
 
+    /**
+     * @return a number which changes each time an URLObjectFactoryFinder service is added, modified or removed
+     */
+    public static long getURLObjectFactoryFindersGeneration() {
+        return instance.urlObjectFactoryFinders.getGeneration();
+    }
+
     public static ServiceReference<ObjectFactory> getUrlFactory(String scheme) {
         return instance.objectFactories.find(scheme);
     }
@@ -85,6 +92,14 @@ public class Activator implements BundleActivator {
         return instance.initialContextFactories.find(interfaceName);
     }
 
+    /**
+     * @return a number which changes each time an InitialContextFactoryBuilder or
+     *         InitialContextFactory service is added, modified or removed
+     */
+    public static long getInitialContextFactoriesGeneration() {
+        return instance.icfBuilders.getGeneration() + instance.initialContextFactories.getGeneration();
+    }
+
     public static AugmenterInvoker getAugmenterInvoker() {
         return instance.augmenterInvoker;
     }
@@ -99,6 +114,15 @@ public class Activator implements BundleActivator {
         return cache.getReferences(clazz);
     }
 
+    /**
+     * @return a number which changes each time a service of the given class visible to the bundle
+     *         is added, modified or removed, or -1 if the services of the bundle are not tracked
+     */
+    public static long getServicesGeneration(BundleContext context, Class<?> clazz) {
+        ServiceCache cache = instance.bundleServiceCaches.getObject(context.getBundle());
+        return cache != null ? cache.getGeneration(clazz) : -1;
+    }
+
     public static <T> Iterable<T> getServices(BundleContext context, Class<T> clazz) {
         ServiceCache cache = getServiceCache(context);
         if (cache == null) {
@@ -140,6 +164,12 @@ public class Activator implements BundleActivator {
             @Override
             public void modifiedBundle(Bundle bundle, BundleEvent event, ServiceCache object) {
             }
+            @Override
+            public void removedBundle(Bundle bundle, BundleEvent event, ServiceCache object) {
+                Utils.clearBundleContext(bundle);
+                ContextHelper.clearContextProviders(bundle);
+                ObjectFactoryHelper.clearObjectFactoryBuilders(bundle);
+            }
         };
         bundleServiceCaches.open();
 
@@ -221,6 +251,9 @@ public class Activator implements BundleActivator {
         objectFactories.close();
         initialContextFactories.close();
 
+        ContextHelper.clearContextProviders(null);
+        ContextHelper.clearURLObjectFactoryFinders();
+        ObjectFactoryHelper.clearObjectFactoryBuilders(null);
         instance = null;
     }
 
@@ -321,6 +354,10 @@ public class Activator implements BundleActivator {
             return (List) trackers.computeIfAbsent(clazz, c -> new CachingServiceTracker<>(context, c)).getReferences();
         }
 
+        long getGeneration(Class<?> clazz) {
+            return trackers.computeIfAbsent(clazz, c -> new CachingServiceTracker<>(context, c)).getGeneration();
+        }
+
         Object doGetService(ServiceReference<?> ref) {
             return Utils.doPrivileged(() -> context.getService(ref));
         }
@@ -30,6 +30,8 @@ public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference
 
     /** The cached references */
     private volatile Map<String, ServiceReference<S>> cache;
+    /** Incremented each time the tracked services change */
+    private volatile long generation;
     /** The funtion to obtain the identifiers */
     private final Function<ServiceReference<S>, Iterable<String>> properties;
 
@@ -60,6 +62,14 @@ public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference
         return cache.get(identifier);
     }
 
+    /**
+     * @return a number which changes each time a tracked service is added, modified or removed,
+     *         so that callers can tell whether results derived from the tracked services are stale
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
     public List<ServiceReference<S>> getReferences() {
         ServiceReference<S>[] refs = Utils.doPrivileged(this::getServiceReferences);
         if (refs != null) {
@@ -72,14 +82,17 @@ public class CachingServiceTracker<S> extends ServiceTracker<S, ServiceReference
 
     public synchronized ServiceReference<S> addingService(ServiceReference<S> reference) {
         cache = null;
+        generation++;
         return reference;
     }
 
     public synchronized void removedService(ServiceReference<S> reference, ServiceReference<S> service) {
         cache = null;
+        generation++;
     }
 
-    public void modifiedService(ServiceReference<S> reference, ServiceReference<S> service) {
+    public synchronized void modifiedService(ServiceReference<S> reference, ServiceReference<S> service) {
         cache = null;
+        generation++;
     }
 }
@@ -99,6 +99,54 @@ public class InitialContextTest {
         ctx.lookup("/");
     }
 
+    @Test
+    public void testLookupWithoutICFAfterFactoryRegistered() throws NamingException {
+        Properties props = new Properties();
+        props.put(JNDIConstants.BUNDLE_CONTEXT, bc);
+        try {
+            new InitialContext(props).lookup("/");
+            fail("Expected NoInitialContextException");
+        } catch (NoInitialContextException e) {
+            // no factory yet
+        }
+
+        InitialContextFactory icf = Skeleton.newMock(InitialContextFactory.class);
+        Context backCtx = Skeleton.newMock(Context.class);
+        Skeleton.getSkeleton(icf).setReturnValue(
+                new MethodCall(InitialContextFactory.class, "getInitialContext", Hashtable.class), backCtx);
+        Skeleton.getSkeleton(backCtx).setReturnValue(new MethodCall(Context.class, "lookup", String.class), "found");
+        bc.registerService(new String[]{InitialContextFactory.class.getName(), icf.getClass().getName()}, icf, (Dictionary) new Properties());
+
+        assertEquals("found", new InitialContext(props).lookup("/"));
+        assertEquals("found", new InitialContext(props).lookup("/"));
+    }
+
+    @Test
+    public void testLookupWithoutICFAfterBuilderBecomesReady() throws NamingException {
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        final Context backCtx = Skeleton.newMock(Context.class);
+        Skeleton.getSkeleton(backCtx).setReturnValue(new MethodCall(Context.class, "lookup", String.class), "found");
+        InitialContextFactoryBuilder builder = new InitialContextFactoryBuilder() {
+            public InitialContextFactory createInitialContextFactory(Hashtable<?, ?> environment) {
+                return ready.get() ? env -> backCtx : null;
+            }
+        };
+        bc.registerService(new String[]{InitialContextFactoryBuilder.class.getName()}, builder, (Dictionary) new Properties());
+
+        Properties props = new Properties();
+        props.put(JNDIConstants.BUNDLE_CONTEXT, bc);
+        try {
+            new InitialContext(props).lookup("/");
+            fail("Expected NoInitialContextException");
+        } catch (NoInitialContextException e) {
+            // the builder does not provide any context yet
+        }
+
+        // the builder service did not change, the failed lookup must not have been remembered
+        ready.set(true);
+        assertEquals("found", new InitialContext(props).lookup("/"));
+    }
+
     @Test
     public void testLookupWithoutICFButWithURLLookup() throws NamingException {
         ObjectFactory factory = Skeleton.newMock(ObjectFactory.class);
@@ -35,9 +35,11 @@ import javax.naming.Reference;
 import javax.naming.StringRefAddr;
 import javax.naming.spi.NamingManager;
 import javax.naming.spi.ObjectFactory;
+import javax.naming.spi.ObjectFactoryBuilder;
 import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -118,6 +120,48 @@ public class ObjectFactoryTest {
         assertEquals("The naming manager should have returned the test object", testObject, obj);
     }
 
+    @Test
+    public void testURLReferenceUsingURLObjectFactoryFinderRegisteredLater() throws Exception {
+        Reference ref = new Reference(null);
+        ref.add(new StringRefAddr("URL", "wibble"));
+        assertSame("No finder knows the scheme yet", ref, NamingManager.getObjectInstance(ref, null, null, env));
+
+        String testObject = "Test object";
+        URLObjectFactoryFinder factory = Skeleton.newMock(URLObjectFactoryFinder.class);
+        Skeleton.getSkeleton(factory).setReturnValue(new MethodCall(ObjectFactory.class, "getObjectInstance", Object.class, Name.class, Context.class, Hashtable.class), testObject);
+        bc.registerService(URLObjectFactoryFinder.class.getName(), factory, (Dictionary) new Properties());
+
+        assertEquals("The naming manager should have returned the test object", testObject, NamingManager.getObjectInstance(ref, null, null, env));
+        assertEquals("The naming manager should have returned the test object", testObject, NamingManager.getObjectInstance(ref, null, null, env));
+    }
+
+    @Test
+    public void testURLObjectFactoryFinderFindingTheSchemeLater() throws Exception {
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        URLObjectFactoryFinder finder = (url, environment) -> ready.get() ? (obj, name, nameCtx, e) -> "Test object" : null;
+        bc.registerService(URLObjectFactoryFinder.class.getName(), finder, (Dictionary) new Properties());
+
+        Reference ref = new Reference(null);
+        ref.add(new StringRefAddr("URL", "wibble"));
+        assertSame("The finder does not know the scheme yet", ref, NamingManager.getObjectInstance(ref, null, null, env));
+
+        // the finder service did not change, the failed lookup must not have been remembered
+        ready.set(true);
+        assertEquals("The naming manager should have returned the test object", "Test object", NamingManager.getObjectInstance(ref, null, null, env));
+    }
+
+    @Test
+    public void testObjectFactoryBuilderDecliningSomeObjectsOfAType() throws Exception {
+        ObjectFactoryBuilder builder = (obj, environment) ->
+                ((String) obj).startsWith("accepted") ? (o, name, nameCtx, e) -> "built " + o : null;
+        bc.registerService(ObjectFactoryBuilder.class.getName(), builder, (Dictionary) new Properties());
+
+        assertEquals("declined", NamingManager.getObjectInstance("declined", null, null, env));
+        assertEquals("built accepted", NamingManager.getObjectInstance("accepted", null, null, env));
+        assertEquals("declined", NamingManager.getObjectInstance("declined", null, null, env));
+        assertEquals("built accepted again", NamingManager.getObjectInstance("accepted again", null, null, env));
+    }
+
     @Test
     public void testReferenceWithNoClassName() throws Exception {
         String testObject = "Test object";
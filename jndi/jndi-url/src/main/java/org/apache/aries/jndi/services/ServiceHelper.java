@@ -33,6 +33,10 @@ import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This helper provides access to services registered in the OSGi service registry.
@@ -53,6 +57,10 @@ public final class ServiceHelper {
      */
     private static final ConcurrentMap<ServiceKey, WeakReference<Object>> proxyCache = new ConcurrentHashMap<>();
     private static final CacheClearoutListener cacheClearoutListener = new CacheClearoutListener(proxyCache);
+    /**
+     * The listeners shared by the proxies of the services matching a given filter
+     */
+    private static final ConcurrentMap<WatchKey, ServiceWatch> serviceWatches = new ConcurrentHashMap<>();
 
     public static Object getService(BundleContext ctx, OsgiName lookupName, String id,
                                     boolean dynamicRebind, Map<String, Object> env, boolean requireProxy) throws NamingException {
@@ -204,7 +212,13 @@ public final class ServiceHelper {
             throw new IllegalArgumentException(Arrays.asList(interfaces).toString());
         }
 
-        Callable<Object> ih = new JNDIServiceDamper(ctx, interface1, filter, pair, dynamicRebind, timeout);
+        String watchFilter = getListenerFilter(interface1, filter);
+        if (watchFilter == null) {
+            watchFilter = "(" + Constants.SERVICE_ID + "=" + pair.ref.getProperty(Constants.SERVICE_ID) + ")";
+        }
+        ServiceWatch watch = getServiceWatch(ctx, watchFilter);
+
+        Callable<Object> ih = new JNDIServiceDamper(ctx, interface1, filter, pair, dynamicRebind, timeout, watch);
 
         // The ClassLoader needs to be able to load the service interface
         // classes so it needs to be
@@ -220,6 +234,34 @@ public final class ServiceHelper {
         }
     }
 
+    private static String getListenerFilter(String interfaceName, String filter) {
+        if (interfaceName == null) {
+            return filter;
+        }
+        String objectClass = "(" + Constants.OBJECTCLASS + "=" + interfaceName + ")";
+        return filter == null ? objectClass : "(&" + objectClass + filter + ")";
+    }
+
+    private static ServiceWatch getServiceWatch(BundleContext ctx, String filter) {
+        WatchKey key = new WatchKey(ctx, filter);
+        ServiceWatch watch = serviceWatches.get(key);
+        if (watch == null) {
+            watch = new ServiceWatch();
+            ServiceWatch existing = serviceWatches.putIfAbsent(key, watch);
+            if (existing != null) {
+                watch = existing;
+            } else {
+                try {
+                    ctx.addServiceListener(watch, filter);
+                } catch (InvalidSyntaxException e) {
+                    serviceWatches.remove(key, watch);
+                    throw new IllegalArgumentException(e);
+                }
+            }
+        }
+        return watch;
+    }
+
     private static ServicePair findService(BundleContext ctx, String interface1, String filter)
             throws NamingException {
         ServicePair p = null;
@@ -317,6 +359,8 @@ public final class ServiceHelper {
             if (event.getType() == BundleEvent.STOPPED) {
                 Bundle b = event.getBundle();
                 cache.keySet().removeIf(key -> key.requesting == b);
+                // the service listeners of a stopped bundle are removed by the framework
+                serviceWatches.keySet().removeIf(key -> key.bundle == b);
             }
         }
 
@@ -384,52 +428,157 @@ public final class ServiceHelper {
         }
     }
 
+    private static final class WatchKey {
+        private final BundleContext ctx;
+        private final Bundle bundle;
+        private final String filter;
+
+        public WatchKey(BundleContext ctx, String filter) {
+            this.ctx = ctx;
+            this.bundle = ctx.getBundle();
+            this.filter = filter;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(ctx) * 31 + filter.hashCode();
+        }
+
+        public boolean equals(Object other) {
+            if (other == this) return true;
+
+            if (other instanceof WatchKey) {
+                WatchKey otherKey = (WatchKey) other;
+                return otherKey.ctx == ctx && otherKey.filter.equals(filter);
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Tracks the services matching a filter on behalf of all the proxies using that filter.
+     * Bound services are flagged when they go away, so that proxies only need a volatile read
+     * to check their binding, and callers waiting for a rebind are woken up when a matching
+     * service is registered instead of polling the registry.
+     */
+    private static final class ServiceWatch implements ServiceListener {
+        private final ConcurrentMap<Long, ServiceState> states = new ConcurrentHashMap<>();
+        private final Lock lock = new ReentrantLock();
+        private final Condition registered = lock.newCondition();
+        private volatile long registrations;
+
+        public ServiceState getState(ServiceReference<?> ref) {
+            return states.computeIfAbsent((Long) ref.getProperty(Constants.SERVICE_ID), id -> new ServiceState());
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            switch (event.getType()) {
+                case ServiceEvent.REGISTERED:
+                case ServiceEvent.MODIFIED:
+                    // services are never registered again, so forget those which went away
+                    states.values().removeIf(state -> state.unregistered);
+                    lock.lock();
+                    try {
+                        registrations++;
+                        registered.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    break;
+                case ServiceEvent.UNREGISTERING:
+                    Long id = (Long) event.getServiceReference().getProperty(Constants.SERVICE_ID);
+                    states.computeIfAbsent(id, i -> new ServiceState()).unregistered = true;
+                    break;
+            }
+        }
+
+        /**
+         * Find a matching service, waiting up to the given time for one to be registered.
+         */
+        public ServicePair await(BundleContext ctx, String interfaceName, String filter, long timeout) throws NamingException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (true) {
+                long seen = registrations;
+                ServicePair pair = findService(ctx, interfaceName, filter);
+                long remaining = deadline - System.nanoTime();
+                if (pair != null || remaining <= 0) {
+                    return pair;
+                }
+                lock.lock();
+                try {
+                    while (seen == registrations && remaining > 0) {
+                        remaining = registered.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class ServiceState {
+        private volatile boolean unregistered;
+    }
+
     private static class JNDIServiceDamper implements Callable<Object> {
-        private BundleContext ctx;
-        private ServicePair pair;
-        private String interfaceName;
-        private String filter;
-        private boolean dynamic;
-        private int rebindTimeout;
+        private final BundleContext ctx;
+        private final String interfaceName;
+        private final String filter;
+        private final boolean dynamic;
+        private final int rebindTimeout;
+        private final ServiceWatch watch;
+        private volatile ServicePair pair;
 
         public JNDIServiceDamper(BundleContext context, String i, String f, ServicePair service,
-                                 boolean d, int timeout) {
+                                 boolean d, int timeout, ServiceWatch w) {
             ctx = context;
-            pair = service;
             interfaceName = i;
             filter = f;
             dynamic = d;
             rebindTimeout = timeout;
+            watch = w;
+            pair = bind(service);
         }
 
         public Object call() throws NamingException {
-            if (pair == null || pair.ref.getBundle() == null) {
+            ServicePair p = pair;
+            if (p == null || p.state.unregistered) {
                 if (dynamic) {
-                    pair = findService(ctx, interfaceName, filter);
-                    if (pair == null && rebindTimeout > 0) {
-                        long startTime = System.currentTimeMillis();
-                        try {
-                            while (pair == null && System.currentTimeMillis() - startTime < rebindTimeout) {
-                                Thread.sleep(100);
-                                pair = findService(ctx, interfaceName, filter);
-                            }
-                        } catch (InterruptedException e) {
-                        }
+                    p = findService(ctx, interfaceName, filter);
+                    if (p == null && rebindTimeout > 0) {
+                        p = watch.await(ctx, interfaceName, filter, rebindTimeout);
                     }
+                    p = bind(p);
                 } else {
-                    pair = null;
+                    p = null;
                 }
+                pair = p;
             }
 
-            if (pair == null) {
+            if (p == null) {
                 throw new ServiceException(interfaceName, ServiceException.UNREGISTERED);
             }
-            return pair.service;
+            return p.service;
+        }
+
+        private ServicePair bind(ServicePair p) {
+            if (p != null) {
+                p.state = watch.getState(p.ref);
+                // the service may have gone before the watch knew about it
+                if (p.ref.getBundle() == null) {
+                    p.state.unregistered = true;
+                }
+            }
+            return p;
         }
     }
 
     private static class ServicePair {
         private ServiceReference<?> ref;
         private Object service;
+        private ServiceState state;
     }
 }
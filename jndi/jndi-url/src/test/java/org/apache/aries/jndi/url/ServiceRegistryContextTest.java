@@ -211,7 +211,45 @@ public class ServiceRegistryContextTest
        assertTrue("The run method did not fail in the expected time (1s): " + diff, diff >= 1000);
      }
   }
-  
+
+  @Test
+  public void testLookupRebindsWhenServiceIsRegistered() throws Exception
+  {
+     BundleMock mock = new BundleMock("scooby.doo", new Properties());
+
+     Thread.currentThread().setContextClassLoader(mock.getClassLoader());
+
+     Hashtable<Object, Object> env = new Hashtable<Object, Object>();
+     env.put(JNDIConstants.REBIND_TIMEOUT, 10000);
+
+     InitialContext ctx = new InitialContext(env);
+
+     Runnable r1 = (Runnable) ctx.lookup("osgi:service/java.lang.Runnable");
+     r1.run();
+
+     reg.unregister();
+
+     final Runnable replacement = Skeleton.newMock(Runnable.class);
+     Thread registrar = new Thread() {
+       public void run() {
+         try {
+           Thread.sleep(200);
+         } catch (InterruptedException e) {
+         }
+         registerService(replacement);
+       }
+     };
+     registrar.start();
+
+     long startTime = System.currentTimeMillis();
+     r1.run();
+     long diff = System.currentTimeMillis() - startTime;
+     registrar.join();
+
+     assertTrue("The proxy did not rebind when the service was registered: " + diff, diff < 5000);
+     Skeleton.getSkeleton(replacement).assertCalled(new MethodCall(Runnable.class, "run"));
+  }
+
   /**
    * This test checks that we correctly register and deregister the url context
    * object factory in the service registry.
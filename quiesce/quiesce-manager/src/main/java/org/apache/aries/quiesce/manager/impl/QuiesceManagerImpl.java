@@ -1,358 +1,435 @@
-/*
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package org.apache.aries.quiesce.manager.impl;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-
-import org.apache.aries.quiesce.manager.QuiesceCallback;
-import org.apache.aries.quiesce.manager.QuiesceManager;
-import org.apache.aries.quiesce.participant.QuiesceParticipant;
-import org.apache.aries.util.nls.MessageUtil;
-import org.osgi.framework.Bundle;
-import org.osgi.framework.BundleContext;
-import org.osgi.framework.BundleException;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-public class QuiesceManagerImpl implements QuiesceManager {
-
-    /** Logger */
-    private static final Logger LOGGER = LoggerFactory.getLogger(QuiesceManagerImpl.class.getName());
-    /** MessageUtil */
-    private static final MessageUtil MESSAGES = MessageUtil.createMessageUtil(QuiesceManagerImpl.class, "org.apache.aries.quiesce.manager.nls.quiesceMessages");
-    /** The default timeout to use */
-    private static int defaultTimeout = 60000; 
-    /** The container's {@link BundleContext} */
-    private BundleContext bundleContext = null;
-    /** The thread pool to execute timeout commands */
-    private ScheduledExecutorService timeoutExecutor = Executors.newScheduledThreadPool(10, new ThreadFactory() {
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, "Quiesce Manager Timeout Thread");
-            t.setDaemon(true);
-            return t;
-        }
-    });
-    
-    /** The thread pool to execute quiesce commands */
-    private ExecutorService executor = new ThreadPoolExecutor(0, 10, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),new ThreadFactory() {
-        
-        public Thread newThread(Runnable arg0) {
-            Thread t = new Thread(arg0, "Quiesce Manager Thread");
-            t.setDaemon(true);
-            return t;
-        }
-    });
-    
-    /** The map of bundles that are currently being quiesced */
-    private static ConcurrentHashMap<Bundle, Bundle> bundleMap = new ConcurrentHashMap<Bundle, Bundle>();
-
-
-    public QuiesceManagerImpl(BundleContext bc) {
-        bundleContext = bc;
-    }
-    
-    /**
-     * Attempts to quiesce all bundles in the list. After the timeout has elapsed, 
-     * or if successfully quiesced before that, the bundles are stopped. This method 
-     * is non-blocking. Calling objects wishing to track the state of the bundles 
-     * need to listen for the resulting stop events. 
-     */
-    public void quiesce(long timeout, List<Bundle> bundles) {
-        quiesceWithFuture(timeout, bundles);
-    }
-    
-    public Future<?> quiesceWithFuture(List<Bundle> bundlesToQuiesce) {
-        return quiesceWithFuture(defaultTimeout, bundlesToQuiesce);
-    }
-    
-    public Future<?> quiesceWithFuture(long timeout, List<Bundle> bundles) {
-        QuiesceFuture result = new QuiesceFuture();
-        if (bundles != null && !!!bundles.isEmpty()) {
-            //check that bundle b is not already quiescing
-            Iterator<Bundle> it = bundles.iterator();
-            Set<Bundle> bundlesToQuiesce = new HashSet<Bundle>();
-            while(it.hasNext()) {
-                Bundle b = it.next();
-                Bundle priorBundle = bundleMap.putIfAbsent(b, b);
-                if (priorBundle == null) {
-                    bundlesToQuiesce.add(b);
-                }else{
-                    LOGGER.warn(MESSAGES.getMessage("already.quiescing.bundle", b.getSymbolicName() + '/' + b.getVersion()));
-                }
-            }
-            Runnable command = new BundleQuiescer(bundlesToQuiesce, timeout, result, bundleMap);
-            executor.execute(command);
-            
-            return result;
-        } else {
-            result.registerDone();
-        }
-        
-        return result;
-    }
-    
-    private static class QuiesceFuture implements Future<Object> {
-        private CountDownLatch latch = new CountDownLatch(1);
-        
-        public boolean cancel(boolean mayInterruptIfRunning) {
-            throw new UnsupportedOperationException(MESSAGES.getMessage("quiesce.cannot.be.canceled"));
-        }
-
-        public Object get() throws InterruptedException, ExecutionException {
-            latch.await();
-            return null;
-        }
-
-        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-            if (!!!latch.await(timeout, unit))
-                throw new TimeoutException();
-            
-            return null;
-        }
-
-        public boolean isCancelled() {
-            return false;
-        }
-
-        public boolean isDone() {
-            return latch.getCount() == 0;
-        }
-        
-        public void registerDone() {
-            if (!!!isDone()) {
-                latch.countDown();
-            }
-        }
-        
-    }
-
-    /**
-     * Attempts to quiesce all bundles in the list, using the default timeout. 
-     * After the timeout has elapsed, or if successfully quiesced before that, 
-     * the bundles are stopped. This method is non-blocking. Calling objects 
-     * wishing to track the state of the bundles need to listen for the 
-     * resulting stop events. 
-     */
-    public void quiesce(List<Bundle> bundlesToQuiesce) {
-        quiesce(defaultTimeout, bundlesToQuiesce);
-    }
-  
-    /**
-     * Stop a bundle that was to be quiesced. This happens either when all the participants
-     * are finished or when the timeout has occurred.
-     * 
-     * The set of all bundles to quiesce is used to track stops, so that they do not occur twice.
-     * @param bundleToStop
-     * @param bundlesToStop
-     * @return
-     */
-    private static boolean stopBundle(Bundle bundleToStop, Set<Bundle> bundlesToStop) {
-        try {
-            synchronized (bundlesToStop) {
-                if (bundlesToStop.remove(bundleToStop)) {
-                    bundleToStop.stop();
-                    bundleMap.remove(bundleToStop);
-                }
-            }
-        } catch (BundleException be) {
-            return false;
-        }
-        return true;
-    }
-    
-    private static boolean stillQuiescing(Bundle bundleToStop) {
-        return bundleMap.containsKey(bundleToStop);
-    }
-    
-
-    /**
-     * BundleQuiescer is used for each bundle to quiesce. It creates a callback object for each 
-     * participant. Well-behaved participants will be non-blocking on their quiesce method.
-     * When all callbacks for the participants have completed, this thread will get an 
-     * interrupt, so it sleeps until it hits the timeout. When complete it stops the bundle
-     * and removes the bundles from the list of those that are being quiesced.
-     */
-    private class BundleQuiescer implements Runnable {
-      
-        private final Set<Bundle> bundlesToQuiesce;
-        private final long timeout;
-        private final QuiesceFuture future;
-        
-        public BundleQuiescer(Set<Bundle> bundlesToQuiesce, long timeout, QuiesceFuture future, ConcurrentHashMap<Bundle, Bundle> bundleMap) {
-            this.bundlesToQuiesce = new HashSet<Bundle>(bundlesToQuiesce);
-            this.timeout = timeout;
-            this.future = future;
-        }
-
-        public void run() {
-            try {
-                if (bundleContext != null) {
-                    ServiceReference[] serviceRefs = bundleContext.getServiceReferences(QuiesceParticipant.class.getName(), null);
-                    if (serviceRefs != null) {
-                        List<QuiesceParticipant> participants = new ArrayList<QuiesceParticipant>();
-                        final List<QuiesceCallbackImpl> callbacks = new ArrayList<QuiesceCallbackImpl>();
-                        List<Bundle> copyOfBundles = new ArrayList<Bundle>(bundlesToQuiesce);
-                        
-                        ScheduledFuture<?> timeoutFuture = timeoutExecutor.schedule(new Runnable() {
-                            public void run() {
-                                try {
-                                  synchronized (bundlesToQuiesce) {
-                                      for (Bundle b : new ArrayList<Bundle>(bundlesToQuiesce)) {
-                                          LOGGER.warn(MESSAGES.getMessage("quiesce.failed", b.getSymbolicName() + '/' + b.getVersion()));
-                                          stopBundle(b, bundlesToQuiesce);
-                                      }
-                                  }
-                                } finally { 
-                                  future.registerDone();
-                                  LOGGER.debug("Quiesce complete");
-                                }
-                            }
-                        }, timeout, TimeUnit.MILLISECONDS);
-
-                        
-                        //Create callback objects for all participants
-                        for( ServiceReference sr : serviceRefs ) {
-                            QuiesceParticipant participant = (QuiesceParticipant) bundleContext.getService(sr);
-                            participants.add(participant);
-                            callbacks.add(new QuiesceCallbackImpl(bundlesToQuiesce, callbacks, future, timeoutFuture));
-                        }
-                        
-                        //Quiesce each participant and wait for an interrupt from a callback 
-                        //object when all are quiesced, or the timeout to be reached
-                        for( int i=0; i<participants.size(); i++ ) {
-                            QuiesceParticipant participant = participants.get(i);
-                            QuiesceCallbackImpl callback = callbacks.get(i);
-                            participant.quiesce(callback, copyOfBundles);
-                        }                        
-                    }else{
-                        for (Bundle b : bundlesToQuiesce) {
-                            stopBundle(b, bundlesToQuiesce);
-                        }
-                        future.registerDone();
-                    }
-                }
-            } catch (InvalidSyntaxException e) {
-                LOGGER.warn(MESSAGES.getMessage("null.is.invalid.filter"));
-                for (Bundle b : bundlesToQuiesce) {
-                    stopBundle(b, bundlesToQuiesce);
-                }
-                future.registerDone();
-            }
-        }
-    }
- 
-    /**
-     * Callback object provided for each participant for each quiesce call 
-     * from the quiesce manager. 
-     */
-    private static class QuiesceCallbackImpl implements QuiesceCallback {
-        //Must be a copy
-        private final Set<Bundle> toQuiesce;
-        // Must not be a copy
-        private final Set<Bundle> toQuiesceShared;        
-        //Must not be a copy
-        private final List<QuiesceCallbackImpl> allCallbacks;
-        //Timer so we can cancel the alarm if all done
-        private final QuiesceFuture future;
-        //The cleanup action that runs at timeout
-        private final ScheduledFuture<?> timeoutFuture;
-        
-        public QuiesceCallbackImpl(Set<Bundle> toQuiesce, List<QuiesceCallbackImpl> allCallbacks, QuiesceFuture future, ScheduledFuture<?> timeoutFuture) 
-        {
-            this.toQuiesce = new HashSet<Bundle>(toQuiesce);
-            this.toQuiesceShared = toQuiesce;
-            this.allCallbacks = allCallbacks;
-            this.future = future;
-            this.timeoutFuture = timeoutFuture;
-        }
-
-        /** 
-         * Removes the bundles from the list of those to quiesce. 
-         * If the list is now empty, this callback object is finished (i.e. 
-         * the participant linked to this object has quiesced all the bundles
-         * requested).  
-         * 
-         * If all other participants have also completed, then the 
-         * calling BundleQuieser thread is interrupted.
-         */
-        public void bundleQuiesced(Bundle... bundlesQuiesced) {
-            
-            boolean timeoutOccurred = false; 
-            
-            synchronized (allCallbacks) {
-                for(Bundle b : bundlesQuiesced) {
-                    if(QuiesceManagerImpl.stillQuiescing(b)) {
-                        if(toQuiesce.remove(b)) {
-                            if(checkOthers(b)){
-                                QuiesceManagerImpl.stopBundle(b, toQuiesceShared);
-                                if(allCallbacksComplete()){
-                                    future.registerDone();
-                                    timeoutFuture.cancel(false);
-                                    LOGGER.debug("Quiesce complete");
-                                }
-                            }
-                        }
-                    } else {
-                        timeoutOccurred = true;
-                        break;
-                    }
-                }
-                if (timeoutOccurred) {
-                        Iterator<QuiesceCallbackImpl> it = allCallbacks.iterator();
-                        while (it.hasNext()) {
-                            it.next().toQuiesce.clear();
-                        }
-                }
-            }
-        }
-
-        private boolean checkOthers(Bundle b) {
-            boolean allDone = true;
-            Iterator<QuiesceCallbackImpl> it = allCallbacks.iterator();
-            while (allDone && it.hasNext()) {
-                allDone = !!!it.next().toQuiesce.contains(b);
-            }
-            return allDone;
-        }
-        
-        private boolean allCallbacksComplete() {
-            boolean allDone = true;
-            Iterator<QuiesceCallbackImpl> it = allCallbacks.iterator();
-            while (allDone && it.hasNext()) {
-                QuiesceCallbackImpl next = it.next();
-                if (!!!next.toQuiesce.isEmpty()) allDone = false;
-            }
-            return allDone;
-        }        
-    }
-}
\ No newline at end of file
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.quiesce.manager.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.aries.quiesce.manager.QuiesceCallback;
+import org.apache.aries.quiesce.manager.QuiesceManager;
+import org.apache.aries.quiesce.participant.QuiesceParticipant;
+import org.apache.aries.util.nls.MessageUtil;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class QuiesceManagerImpl implements QuiesceManager {
+
+    /** Logger */
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuiesceManagerImpl.class.getName());
+    /** MessageUtil */
+    private static final MessageUtil MESSAGES = MessageUtil.createMessageUtil(QuiesceManagerImpl.class, "org.apache.aries.quiesce.manager.nls.quiesceMessages");
+    /** The default timeout to use */
+    private static int defaultTimeout = 60000; 
+    /** The container's {@link BundleContext} */
+    private BundleContext bundleContext = null;
+    /** The single timer thread for the timeouts of all quiesce requests */
+    private ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Quiesce Manager Timeout Thread");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
+    /** 
+     * The thread pool to execute quiesce commands and participants. Participants may block in quiesce, so
+     * each task gets its own thread rather than waiting in a queue behind a blocked one.
+     */
+    private ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),new ThreadFactory() {
+        
+        public Thread newThread(Runnable arg0) {
+            Thread t = new Thread(arg0, "Quiesce Manager Thread");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
+    /** The map of bundles that are currently being quiesced */
+    private static ConcurrentHashMap<Bundle, Bundle> bundleMap = new ConcurrentHashMap<Bundle, Bundle>();
+    /** The maximum number of bundles whose drain time is remembered */
+    private static final int MAX_DRAIN_TIMES = 256;
+    /** The time in milliseconds it took to drain the most recently quiesced bundles, keyed by bundle id */
+    private final Map<Long, Long> drainTimes = Collections.synchronizedMap(new LinkedHashMap<Long, Long>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_DRAIN_TIMES;
+        }
+    });
+
+
+    public QuiesceManagerImpl(BundleContext bc) {
+        bundleContext = bc;
+    }
+    
+    /**
+     * Attempts to quiesce all bundles in the list. After the timeout has elapsed, 
+     * or if successfully quiesced before that, the bundles are stopped. This method 
+     * is non-blocking. Calling objects wishing to track the state of the bundles 
+     * need to listen for the resulting stop events. 
+     */
+    public void quiesce(long timeout, List<Bundle> bundles) {
+        quiesceWithFuture(timeout, bundles);
+    }
+    
+    public Future<?> quiesceWithFuture(List<Bundle> bundlesToQuiesce) {
+        return quiesceWithFuture(defaultTimeout, bundlesToQuiesce);
+    }
+    
+    public Future<?> quiesceWithFuture(long timeout, List<Bundle> bundles) {
+        QuiesceFuture result = new QuiesceFuture();
+        if (bundles != null && !!!bundles.isEmpty()) {
+            //check that bundle b is not already quiescing
+            Iterator<Bundle> it = bundles.iterator();
+            Set<Bundle> bundlesToQuiesce = new HashSet<Bundle>();
+            while(it.hasNext()) {
+                Bundle b = it.next();
+                Bundle priorBundle = bundleMap.putIfAbsent(b, b);
+                if (priorBundle == null) {
+                    bundlesToQuiesce.add(b);
+                }else{
+                    LOGGER.warn(MESSAGES.getMessage("already.quiescing.bundle", b.getSymbolicName() + '/' + b.getVersion()));
+                }
+            }
+            Runnable command = new BundleQuiescer(bundlesToQuiesce, timeout, result, bundleMap);
+            executor.execute(command);
+            
+            return result;
+        } else {
+            result.registerDone();
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Returns the time in milliseconds it took the participants to drain each of the
+     * most recently quiesced bundles the last time it was quiesced, keyed by bundle id.
+     * Bundles whose quiesce timed out are reported with the time until the timeout.
+     */
+    public Map<Long, Long> getDrainTimes() {
+        synchronized (drainTimes) {
+            return Collections.unmodifiableMap(new HashMap<Long, Long>(drainTimes));
+        }
+    }
+
+    /**
+     * Returns the time in milliseconds it took the participants to drain the bundle
+     * the last time it was quiesced, or -1 if it has not been quiesced.
+     */
+    public long getDrainTime(Bundle bundle) {
+        Long time = drainTimes.get(bundle.getBundleId());
+        return time != null ? time : -1;
+    }
+
+    private static class QuiesceFuture implements Future<Object> {
+        private CountDownLatch latch = new CountDownLatch(1);
+        
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            throw new UnsupportedOperationException(MESSAGES.getMessage("quiesce.cannot.be.canceled"));
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            latch.await();
+            return null;
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!!!latch.await(timeout, unit))
+                throw new TimeoutException();
+            
+            return null;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+        
+        public void registerDone() {
+            if (!!!isDone()) {
+                latch.countDown();
+            }
+        }
+        
+    }
+
+    /**
+     * Attempts to quiesce all bundles in the list, using the default timeout. 
+     * After the timeout has elapsed, or if successfully quiesced before that, 
+     * the bundles are stopped. This method is non-blocking. Calling objects 
+     * wishing to track the state of the bundles need to listen for the 
+     * resulting stop events. 
+     */
+    public void quiesce(List<Bundle> bundlesToQuiesce) {
+        quiesce(defaultTimeout, bundlesToQuiesce);
+    }
+  
+    /**
+     * Stop a bundle that was to be quiesced. This happens either when all the participants
+     * are finished with it or when the timeout has occurred, the caller makes sure it happens once.
+     * @param bundleToStop
+     */
+    private static void stopBundle(Bundle bundleToStop) {
+        try {
+            bundleToStop.stop();
+        } catch (BundleException be) {
+            LOGGER.debug("Failed to stop bundle " + bundleToStop.getSymbolicName() + '/' + bundleToStop.getVersion(), be);
+        } finally {
+            bundleMap.remove(bundleToStop);
+        }
+    }
+
+    /**
+     * BundleQuiescer is used for each request to quiesce a set of bundles. It creates a callback object
+     * for each participant and asks all the participants to quiesce the bundles concurrently. Each bundle
+     * is stopped as soon as all participants have quiesced it, or when the timeout is reached.
+     */
+    private class BundleQuiescer implements Runnable {
+      
+        private final Set<Bundle> bundlesToQuiesce;
+        private final long timeout;
+        private final QuiesceFuture future;
+        
+        public BundleQuiescer(Set<Bundle> bundlesToQuiesce, long timeout, QuiesceFuture future, ConcurrentHashMap<Bundle, Bundle> bundleMap) {
+            this.bundlesToQuiesce = new HashSet<Bundle>(bundlesToQuiesce);
+            this.timeout = timeout;
+            this.future = future;
+        }
+
+        public void run() {
+            try {
+                if (bundleContext != null) {
+                    ServiceReference[] serviceRefs = bundleContext.getServiceReferences(QuiesceParticipant.class.getName(), null);
+                    if (serviceRefs != null) {
+                        List<QuiesceParticipant> participants = new ArrayList<QuiesceParticipant>();
+                        for (ServiceReference sr : serviceRefs) {
+                            QuiesceParticipant participant = (QuiesceParticipant) bundleContext.getService(sr);
+                            if (participant != null) {
+                                participants.add(participant);
+                            }
+                        }
+
+                        final QuiesceRequest request = new QuiesceRequest(bundlesToQuiesce, participants.size(), timeout, future);
+                        if (request.isDone()) {
+                            return;
+                        }
+                        request.scheduleTimeout();
+
+                        //Quiesce all the participants concurrently, the last one on this thread
+                        List<Bundle> copyOfBundles = new ArrayList<Bundle>(bundlesToQuiesce);
+                        for (int i = 0; i < participants.size(); i++) {
+                            Runnable quiesce = new ParticipantQuiescer(participants.get(i), new QuiesceCallbackImpl(bundlesToQuiesce, request), copyOfBundles);
+                            if (i < participants.size() - 1) {
+                                executor.execute(quiesce);
+                            } else {
+                                quiesce.run();
+                            }
+                        }
+                    }else{
+                        for (Bundle b : bundlesToQuiesce) {
+                            stopBundle(b);
+                        }
+                        future.registerDone();
+                    }
+                }
+            } catch (InvalidSyntaxException e) {
+                LOGGER.warn(MESSAGES.getMessage("null.is.invalid.filter"));
+                for (Bundle b : bundlesToQuiesce) {
+                    stopBundle(b);
+                }
+                future.registerDone();
+            }
+        }
+    }
+
+    /**
+     * Asks one participant to quiesce the bundles of a request.
+     */
+    private static class ParticipantQuiescer implements Runnable {
+        private final QuiesceParticipant participant;
+        private final QuiesceCallbackImpl callback;
+        private final List<Bundle> bundles;
+
+        ParticipantQuiescer(QuiesceParticipant participant, QuiesceCallbackImpl callback, List<Bundle> bundles) {
+            this.participant = participant;
+            this.callback = callback;
+            this.bundles = bundles;
+        }
+
+        public void run() {
+            try {
+                participant.quiesce(callback, bundles);
+            } catch (RuntimeException e) {
+                // the bundles will be stopped when the timeout is reached
+                LOGGER.warn(MESSAGES.getMessage("participant.failed", participant), e);
+            }
+        }
+    }
+
+    /**
+     * The state of one request to quiesce a set of bundles. Each bundle counts down the participants
+     * which still have to quiesce it, and the request counts down the bundles which still have to be
+     * stopped, so that no lock is needed when the participants report their progress.
+     */
+    private class QuiesceRequest {
+        private final Map<Bundle, BundleDrain> drains = new ConcurrentHashMap<Bundle, BundleDrain>();
+        private final AtomicInteger bundlesRemaining;
+        private final long timeout;
+        private final QuiesceFuture future;
+        private final long startTime = System.currentTimeMillis();
+        private volatile ScheduledFuture<?> timeoutFuture;
+
+        QuiesceRequest(Set<Bundle> bundles, int participants, long timeout, QuiesceFuture future) {
+            this.timeout = timeout;
+            this.future = future;
+            this.bundlesRemaining = new AtomicInteger(bundles.size());
+            for (Bundle b : bundles) {
+                drains.put(b, new BundleDrain(b, participants));
+            }
+            if (bundles.isEmpty()) {
+                future.registerDone();
+            } else if (participants == 0) {
+                for (BundleDrain drain : drains.values()) {
+                    finish(drain, false);
+                }
+            }
+        }
+
+        boolean isDone() {
+            return future.isDone();
+        }
+
+        void scheduleTimeout() {
+            // the bundles are stopped on the timer thread, so that participants blocking the
+            // executor threads can never delay the forced stop
+            timeoutFuture = timeoutExecutor.schedule(new Runnable() {
+                public void run() {
+                    for (BundleDrain drain : drains.values()) {
+                        finish(drain, true);
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (isDone()) {
+                timeoutFuture.cancel(false);
+            }
+        }
+
+        /**
+         * Called once by each participant for each bundle it has quiesced.
+         */
+        void participantDone(Bundle b) {
+            BundleDrain drain = drains.get(b);
+            if (drain != null && drain.participantsRemaining.decrementAndGet() == 0) {
+                finish(drain, false);
+            }
+        }
+
+        private void finish(BundleDrain drain, boolean timedOut) {
+            if (!!!drain.finished.compareAndSet(false, true)) {
+                return;
+            }
+            Bundle b = drain.bundle;
+            if (timedOut) {
+                LOGGER.warn(MESSAGES.getMessage("quiesce.failed", b.getSymbolicName() + '/' + b.getVersion(), timeout));
+            }
+            drainTimes.put(b.getBundleId(), System.currentTimeMillis() - startTime);
+            try {
+                stopBundle(b);
+            } finally {
+                if (bundlesRemaining.decrementAndGet() == 0) {
+                    future.registerDone();
+                    ScheduledFuture<?> f = timeoutFuture;
+                    if (f != null) {
+                        f.cancel(false);
+                    }
+                    LOGGER.debug("Quiesce complete");
+                }
+            }
+        }
+    }
+
+    private static class BundleDrain {
+        private final Bundle bundle;
+        private final AtomicInteger participantsRemaining;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        BundleDrain(Bundle bundle, int participants) {
+            this.bundle = bundle;
+            this.participantsRemaining = new AtomicInteger(participants);
+        }
+    }
+ 
+    /**
+     * Callback object provided for each participant for each quiesce call 
+     * from the quiesce manager. 
+     */
+    private static class QuiesceCallbackImpl implements QuiesceCallback {
+        //The bundles this participant has not quiesced yet
+        private final Map<Bundle, Boolean> toQuiesce = new ConcurrentHashMap<Bundle, Boolean>();
+        private final QuiesceRequest request;
+        
+        public QuiesceCallbackImpl(Set<Bundle> toQuiesce, QuiesceRequest request) 
+        {
+            for (Bundle b : toQuiesce) {
+                this.toQuiesce.put(b, Boolean.TRUE);
+            }
+            this.request = request;
+        }
+
+        /** 
+         * Removes the bundles from the list of those this participant has to quiesce.
+         * Each bundle is stopped once all participants have quiesced it, and the
+         * request is complete once all its bundles are stopped.
+         */
+        public void bundleQuiesced(Bundle... bundlesQuiesced) {
+            for (Bundle b : bundlesQuiesced) {
+                if (toQuiesce.remove(b) != null) {
+                    request.participantDone(b);
+                }
+            }
+        }
+    }
+}
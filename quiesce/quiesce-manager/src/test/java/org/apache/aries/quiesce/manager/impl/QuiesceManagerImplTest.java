@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.quiesce.manager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.quiesce.manager.QuiesceCallback;
+import org.apache.aries.quiesce.participant.QuiesceParticipant;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+public class QuiesceManagerImplTest {
+
+    @Test
+    public void testParticipantsAreQuiescedConcurrently() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blockingCalled = new CountDownLatch(2);
+        final CountDownLatch otherCalled = new CountDownLatch(1);
+
+        QuiesceParticipant blocking = new QuiesceParticipant() {
+            public void quiesce(QuiesceCallback callback, List<Bundle> bundlesToQuiesce) {
+                blockingCalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                callback.bundleQuiesced(bundlesToQuiesce.toArray(new Bundle[0]));
+            }
+        };
+        QuiesceParticipant other = new QuiesceParticipant() {
+            public void quiesce(QuiesceCallback callback, List<Bundle> bundlesToQuiesce) {
+                otherCalled.countDown();
+                callback.bundleQuiesced(bundlesToQuiesce.toArray(new Bundle[0]));
+            }
+        };
+
+        TestBundle bundle = new TestBundle(1);
+        QuiesceManagerImpl manager = new QuiesceManagerImpl(context(blocking, blocking, other));
+        Future<?> future = manager.quiesceWithFuture(60000, Collections.singletonList(bundle.proxy));
+
+        // both blocking participants run on their own thread and do not hold up the other one
+        assertTrue(blockingCalled.await(5, TimeUnit.SECONDS));
+        assertTrue(otherCalled.await(5, TimeUnit.SECONDS));
+        assertFalse(future.isDone());
+        assertEquals(0, bundle.stopCount);
+
+        release.countDown();
+        future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, bundle.stopCount);
+        assertTrue(manager.getDrainTime(bundle.proxy) >= 0);
+    }
+
+    @Test
+    public void testBundlesAreStoppedWhenParticipantBlocksPastTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        QuiesceParticipant blocking = new QuiesceParticipant() {
+            public void quiesce(QuiesceCallback callback, List<Bundle> bundlesToQuiesce) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        TestBundle bundle1 = new TestBundle(2);
+        TestBundle bundle2 = new TestBundle(3);
+        QuiesceManagerImpl manager = new QuiesceManagerImpl(context(blocking, blocking));
+        try {
+            Future<?> future = manager.quiesceWithFuture(100, Arrays.asList(bundle1.proxy, bundle2.proxy));
+            future.get(5, TimeUnit.SECONDS);
+            assertEquals(1, bundle1.stopCount);
+            assertEquals(1, bundle2.stopCount);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static BundleContext context(final QuiesceParticipant... participants) {
+        final ServiceReference[] references = new ServiceReference[participants.length];
+        for (int i = 0; i < participants.length; i++) {
+            references[i] = proxy(ServiceReference.class, new Handler(participants[i]));
+        }
+        return proxy(BundleContext.class, new Handler(null) {
+            @Override
+            Object handle(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getServiceReferences")) {
+                    return references;
+                } else if (method.getName().equals("getService")) {
+                    return ((Handler) Proxy.getInvocationHandler(args[0])).target;
+                }
+                return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(QuiesceManagerImplTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static class Handler implements InvocationHandler {
+        final Object target;
+
+        Handler(Object target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("equals")) {
+                return proxy == args[0];
+            } else if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (method.getName().equals("toString")) {
+                return "proxy" + System.identityHashCode(proxy);
+            }
+            return handle(proxy, method, args);
+        }
+
+        Object handle(Object proxy, Method method, Object[] args) {
+            return null;
+        }
+    }
+
+    private static class TestBundle extends Handler {
+        final Bundle proxy;
+        final long id;
+        volatile int stopCount;
+
+        TestBundle(long id) {
+            super(null);
+            this.id = id;
+            this.proxy = proxy(Bundle.class, this);
+        }
+
+        @Override
+        Object handle(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("stop")) {
+                stopCount++;
+            } else if (method.getName().equals("getBundleId")) {
+                return id;
+            } else if (method.getName().equals("getSymbolicName")) {
+                return "bundle" + id;
+            } else if (method.getName().equals("getVersion")) {
+                return Version.emptyVersion;
+            }
+            return null;
+        }
+    }
+}
@@ -15,7 +15,9 @@ package org.apache.aries.subsystem.core.archive;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.aries.subsystem.core.internal.ResourceHelper;
 import org.osgi.framework.VersionRange;
@@ -77,8 +79,13 @@ public class PreferredProviderHeader extends AbstractClauseBasedHeader<Preferred
 	
 	public static final String NAME = SubsystemConstants.PREFERRED_PROVIDER;
 	
+	// Clauses indexed by symbolic name so that contains() only evaluates the
+	// clauses that may match. Queried for every candidate by the resolver hook.
+	private final Map<String, List<Clause>> symbolicNameToClauses;
+	
 	public PreferredProviderHeader(Collection<Clause> clauses) {
 		super(clauses);
+		symbolicNameToClauses = indexBySymbolicName(this.clauses);
 	}
 	
 	public PreferredProviderHeader(String value) {
@@ -90,10 +97,29 @@ public class PreferredProviderHeader extends AbstractClauseBasedHeader<Preferred
 						return new Clause(clause);
 					}
 				});
+		symbolicNameToClauses = indexBySymbolicName(this.clauses);
+	}
+	
+	private static Map<String, List<Clause>> indexBySymbolicName(Collection<Clause> clauses) {
+		Map<String, List<Clause>> result = new HashMap<String, List<Clause>>(clauses.size());
+		synchronized (clauses) {
+			for (Clause clause : clauses) {
+				List<Clause> list = result.get(clause.getSymbolicName());
+				if (list == null) {
+					list = new ArrayList<Clause>(1);
+					result.put(clause.getSymbolicName(), list);
+				}
+				list.add(clause);
+			}
+		}
+		return result;
 	}
 	
 	public boolean contains(Resource resource) {
-		for (Clause clause : getClauses())
+		List<Clause> clauses = symbolicNameToClauses.get(ResourceHelper.getSymbolicNameAttribute(resource));
+		if (clauses == null)
+			return false;
+		for (Clause clause : clauses)
 			if (clause.contains(resource))
 				return true;
 		return false;
@@ -47,6 +47,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
     private static final Logger logger = LoggerFactory.getLogger(Activator.class);
     public static final String MODELLED_RESOURCE_MANAGER = "org.apache.aries.application.modelling.ModelledResourceManager";
     private static final String LOCK_TIMEOUT = "org.apache.aries.subsystem.lock.timeout";
+    private static final String MANIFEST_FLUSH_DELAY = "org.apache.aries.subsystem.manifest.flush.delay";
 
     public static final String LOG_ENTRY = "Method entry: {}, args {}";
     public static final String LOG_EXIT = "Method exit: {}, returning {}";
@@ -63,6 +64,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 	private volatile LockingStrategy lockingStrategy;
     private volatile ConfigAdminContentHandler configAdminHandler;
 	private volatile Coordinator coordinator;
+	private volatile DeploymentManifestWriter deploymentManifestWriter;
     private volatile Object modelledResourceManager;
     private volatile RegionDigraph regionDigraph;
 	private volatile SubsystemServiceRegistrar registrar;
@@ -89,6 +91,10 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		return coordinator;
 	}
 
+	public DeploymentManifestWriter getDeploymentManifestWriter() {
+		return deploymentManifestWriter;
+	}
+
     public ServiceModeller getServiceModeller() {
         return serviceModeller;
     }
@@ -145,6 +151,7 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		synchronized (Activator.class) {
 			instance = Activator.this;
 		}
+		deploymentManifestWriter = new DeploymentManifestWriter(getManifestFlushDelay());
 		subsystems = new Subsystems();
 		registerBundleEventHook();
 		registrations.add(bundleContext.registerService(ResolverHookFactory.class, new SubsystemResolverHookFactory(subsystems), null));
@@ -177,11 +184,26 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Obje
 		}
         configAdminHandler.shutDown();
 		bundleEventHook.processPendingEvents();
+		// Durably write the deployment manifests of the stopped subsystems.
+		deploymentManifestWriter.close();
 		synchronized (Activator.class) {
 			instance = null;
 		}
 	}
 
+	private long getManifestFlushDelay() {
+		long value = 100; // milliseconds
+		String delay = bundleContext.getProperty(MANIFEST_FLUSH_DELAY);
+		if (delay != null) {
+			try {
+				value = Long.parseLong(delay);
+			} catch (NumberFormatException e) {
+				// ignore, the default will be used
+			}
+		}
+		return value;
+	}
+
 	private <T> T findAlternateServiceFor(Class<T> service) {
 		Object[] services = serviceTracker.getServices();
 		if (services == null)
@@ -13,7 +13,6 @@
  */
 package org.apache.aries.subsystem.core.internal;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -104,6 +103,7 @@ public class BasicSubsystem implements Resource, AriesSubsystem {
 
 				@Override
 				public void failed(Coordination c) throws Exception {
+					Activator.getInstance().getDeploymentManifestWriter().discard(file);
 					IOUtils.deleteRecursive(file);
 				}
 			});
@@ -573,20 +573,9 @@ public class BasicSubsystem implements Resource, AriesSubsystem {
 	}
 
 	synchronized void saveDeploymentManifest() throws IOException {
-		File file = new File(getDirectory(), "OSGI-INF");
-		if (!file.exists())
-			file.mkdirs();
-		BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(file, "DEPLOYMENT.MF")));
-		try {
-			if (logger.isDebugEnabled())
-				logger.debug("Writing deployment manifest for subsystem {} in state {}", getSymbolicName(), getState());
-			deploymentManifest.write(out);
-			if (logger.isDebugEnabled())
-				logger.debug("Wrote deployment manifest for subsystem {} in state {}", getSymbolicName(), getState());
-		}
-		finally {
-			IOUtils.close(out);
-		}
+		// The manifest is immutable and written later on by the writer, without
+		// holding the monitor of this subsystem.
+		Activator.getInstance().getDeploymentManifestWriter().write(getDirectory(), deploymentManifest);
 	}
 	
 	void setState(State value) {
@@ -700,6 +689,8 @@ public class BasicSubsystem implements Resource, AriesSubsystem {
 					logger.debug("Saving deployment manifest of subsystem {} for coordination {}", dirtySubsystem.getSymbolicName(), coordination.getName());
 				dirtySubsystem.saveDeploymentManifest();
 			}
+			// Write the manifests of the coordination without waiting for the flush delay.
+			Activator.getInstance().getDeploymentManifestWriter().requestFlush();
 		}
 
 		@Override
@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.aries.subsystem.core.archive.DeploymentManifest;
+import org.apache.aries.util.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the deployment manifests of subsystems behind the callers.
+ * <p>
+ * A subsystem updates its deployment manifest on every state change and
+ * content addition. Rather than rewriting the file each time, the latest
+ * manifest of each subsystem is kept in memory and written by a background
+ * thread once the flush delay has elapsed, or right away when requested at the
+ * end of a coordination. Successive changes to the same subsystem therefore
+ * result in a single write. Each manifest is written to a temporary file,
+ * synced and renamed over DEPLOYMENT.MF so that a crash never leaves a
+ * truncated manifest behind. A flush delay of zero or less restores
+ * synchronous writes.
+ */
+public class DeploymentManifestWriter {
+	private static final Logger logger = LoggerFactory.getLogger(DeploymentManifestWriter.class);
+	
+	private static final String DEPLOYMENT_MANIFEST = "DEPLOYMENT.MF";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	
+	private final long delay;
+	private final ScheduledExecutorService executor;
+	// Held while writing so that discard() waits for a write in progress.
+	private final Object writeLock = new Object();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	
+	// The following are guarded by this.
+	private final Map<File, DeploymentManifest> pending = new LinkedHashMap<File, DeploymentManifest>();
+	private ScheduledFuture<?> scheduledFlush;
+	private boolean closed;
+	
+	public DeploymentManifestWriter(long delay) {
+		this.delay = delay;
+		if (delay <= 0) {
+			executor = null;
+			closed = true;
+		}
+		else {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Aries Subsystem Deployment Manifest Writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+	
+	/*
+	 * Records the deployment manifest of the subsystem stored in the specified
+	 * directory, to be written once the flush delay has elapsed. Written right
+	 * away if the writer is synchronous or closed.
+	 */
+	public void write(File directory, DeploymentManifest manifest) throws IOException {
+		synchronized (this) {
+			if (!closed) {
+				pending.put(directory, manifest);
+				schedule(delay);
+				return;
+			}
+		}
+		synchronized (writeLock) {
+			writeNow(directory, manifest);
+		}
+	}
+	
+	/*
+	 * Requests the pending manifests to be written on the background thread
+	 * without waiting for the flush delay.
+	 */
+	public synchronized void requestFlush() {
+		if (!closed && !pending.isEmpty())
+			schedule(0);
+	}
+	
+	/*
+	 * Writes all the pending manifests before returning.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			Map<File, DeploymentManifest> manifests;
+			synchronized (this) {
+				if (scheduledFlush != null) {
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+				manifests = new LinkedHashMap<File, DeploymentManifest>(pending);
+				pending.clear();
+			}
+			for (Map.Entry<File, DeploymentManifest> entry : manifests.entrySet()) {
+				try {
+					writeNow(entry.getKey(), entry.getValue());
+				}
+				catch (Exception e) {
+					logger.error("Unable to write the deployment manifest of subsystem in " + entry.getKey(), e);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Drops the pending manifest of the subsystem stored in the specified
+	 * directory, waiting for a write in progress, before the directory is
+	 * deleted.
+	 */
+	public void discard(File directory) {
+		synchronized (writeLock) {
+			synchronized (this) {
+				pending.remove(directory);
+			}
+		}
+	}
+	
+	/*
+	 * Writes all the pending manifests and stops the background thread. Later
+	 * manifests are written synchronously.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		flush();
+		if (executor != null)
+			executor.shutdown();
+	}
+	
+	private void schedule(long delay) {
+		if (scheduledFlush != null) {
+			if (delay > 0 || scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= 0)
+				return;
+			scheduledFlush.cancel(false);
+		}
+		scheduledFlush = executor.schedule(flushTask, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	private static void writeNow(File directory, DeploymentManifest manifest) throws IOException {
+		if (!directory.exists()) {
+			// The subsystem was uninstalled or its installation failed.
+			if (logger.isDebugEnabled())
+				logger.debug("Not writing deployment manifest of deleted subsystem directory {}", directory);
+			return;
+		}
+		File file = new File(directory, "OSGI-INF");
+		if (!file.exists())
+			file.mkdirs();
+		File target = new File(file, DEPLOYMENT_MANIFEST);
+		File temporary = new File(file, DEPLOYMENT_MANIFEST + TEMPORARY_SUFFIX);
+		FileOutputStream fos = new FileOutputStream(temporary);
+		try {
+			BufferedOutputStream out = new BufferedOutputStream(fos);
+			manifest.write(out);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			IOUtils.close(fos);
+		}
+		if (!temporary.renameTo(target)) {
+			// Some platforms do not replace an existing file when renaming.
+			target.delete();
+			if (!temporary.renameTo(target))
+				throw new IOException("Unable to rename " + temporary + " to " + target);
+		}
+		if (logger.isDebugEnabled())
+			logger.debug("Wrote deployment manifest {}", target);
+	}
+}
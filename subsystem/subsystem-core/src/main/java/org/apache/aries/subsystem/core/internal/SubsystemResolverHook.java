@@ -15,7 +15,9 @@ package org.apache.aries.subsystem.core.internal;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.aries.subsystem.core.archive.PreferredProviderHeader;
 import org.osgi.framework.hooks.resolver.ResolverHook;
@@ -32,6 +34,13 @@ public class SubsystemResolverHook implements ResolverHook {
 	
 	private final Subsystems subsystems;
 	
+	// A hook instance lives for a single resolve operation, from begin() on the
+	// factory to end(), during which filterMatches is called for every
+	// requirement. The decisions below are memoized for that duration only.
+	private final Map<Resource, Collection<BasicSubsystem>> resourceToReferencingSubsystems = new HashMap<Resource, Collection<BasicSubsystem>>();
+	private final Map<BasicSubsystem, PreferredProviderHeader> subsystemToPreferredProviderHeader = new HashMap<BasicSubsystem, PreferredProviderHeader>();
+	private final Map<BasicSubsystem, Map<Resource, Boolean>> subsystemToPreferredProviders = new HashMap<BasicSubsystem, Map<Resource, Boolean>>();
+	
 	public SubsystemResolverHook(Subsystems subsystems) {
 		if (subsystems == null)
 			throw new NullPointerException("Missing required parameter: subsystems");
@@ -39,7 +48,9 @@ public class SubsystemResolverHook implements ResolverHook {
 	}
 	
 	public void end() {
-		// noop
+		resourceToReferencingSubsystems.clear();
+		subsystemToPreferredProviderHeader.clear();
+		subsystemToPreferredProviders.clear();
 	}
 
 	public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
@@ -47,17 +58,25 @@ public class SubsystemResolverHook implements ResolverHook {
 		// there is at least one preferred provider.
 		// (1) Find the subsystem(s) containing requirement.getResource() as a
 		// constituent.
-		Collection<BasicSubsystem> requirers = subsystems.getSubsystemsReferencing(requirement.getResource());
+		Collection<BasicSubsystem> requirers = getSubsystemsReferencing(requirement.getResource());
+		Collection<BasicSubsystem> preferers = new ArrayList<BasicSubsystem>(requirers.size());
+		for (BasicSubsystem subsystem : requirers)
+			if (getPreferredProviderHeader(subsystem) != null)
+				preferers.add(subsystem);
+		if (preferers.isEmpty())
+			// None of the requiring subsystems has preferred providers.
+			return;
 		// (2) For each candidate, ask each subsystem if the candidate or any of
 		// the candidate's containing subsystems is a preferred provider. If at
 		// least one preferred provider exists, filter out all other candidates
 		// that are not also preferred providers.
 		Collection<BundleCapability> preferredProviders = new ArrayList<BundleCapability>(candidates.size());
 		for (BundleCapability candidate : candidates)
-			for (BasicSubsystem subsystem : requirers) {
-				PreferredProviderHeader header = subsystem.getSubsystemManifest().getPreferredProviderHeader();
-				if (header != null && (header.contains(candidate.getResource()) || isResourceConstituentOfPreferredSubsystem(candidate.getResource(), subsystem)))
+			for (BasicSubsystem subsystem : preferers) {
+				if (isPreferredProvider(candidate.getResource(), subsystem)) {
 					preferredProviders.add(candidate);
+					break;
+				}
 			}
 		if (!preferredProviders.isEmpty())
 			candidates.retainAll(preferredProviders);
@@ -106,10 +125,42 @@ public class SubsystemResolverHook implements ResolverHook {
 		// noop
 	}
 	
-	private boolean isResourceConstituentOfPreferredSubsystem(Resource resource, BasicSubsystem preferer) {
-		Collection<BasicSubsystem> subsystems = this.subsystems.getSubsystemsReferencing(resource);
+	private Collection<BasicSubsystem> getSubsystemsReferencing(Resource resource) {
+		Collection<BasicSubsystem> result = resourceToReferencingSubsystems.get(resource);
+		if (result == null) {
+			result = subsystems.getSubsystemsReferencing(resource);
+			resourceToReferencingSubsystems.put(resource, result);
+		}
+		return result;
+	}
+	
+	private PreferredProviderHeader getPreferredProviderHeader(BasicSubsystem subsystem) {
+		if (subsystemToPreferredProviderHeader.containsKey(subsystem))
+			return subsystemToPreferredProviderHeader.get(subsystem);
+		PreferredProviderHeader result = subsystem.getSubsystemManifest().getPreferredProviderHeader();
+		subsystemToPreferredProviderHeader.put(subsystem, result);
+		return result;
+	}
+	
+	private boolean isPreferredProvider(Resource resource, BasicSubsystem preferer) {
+		Map<Resource, Boolean> preferredProviders = subsystemToPreferredProviders.get(preferer);
+		if (preferredProviders == null) {
+			preferredProviders = new HashMap<Resource, Boolean>();
+			subsystemToPreferredProviders.put(preferer, preferredProviders);
+		}
+		Boolean result = preferredProviders.get(resource);
+		if (result == null) {
+			PreferredProviderHeader header = getPreferredProviderHeader(preferer);
+			result = Boolean.valueOf(header.contains(resource) || isResourceConstituentOfPreferredSubsystem(resource, header));
+			preferredProviders.put(resource, result);
+		}
+		return result.booleanValue();
+	}
+	
+	private boolean isResourceConstituentOfPreferredSubsystem(Resource resource, PreferredProviderHeader header) {
+		Collection<BasicSubsystem> subsystems = getSubsystemsReferencing(resource);
 		for (BasicSubsystem subsystem : subsystems)
-			if (preferer.getSubsystemManifest().getPreferredProviderHeader().contains(subsystem))
+			if (header.contains(subsystem))
 				return true;
 		return false;
 	}
@@ -116,6 +116,7 @@ public class SubsystemResourceUninstaller extends ResourceUninstaller {
 		}
 		finally {
 			// Let's be sure to always clean up the directory.
+			Activator.getInstance().getDeploymentManifestWriter().discard(subsystem.getDirectory());
 			IOUtils.deleteRecursive(subsystem.getDirectory());
 		}
 	}
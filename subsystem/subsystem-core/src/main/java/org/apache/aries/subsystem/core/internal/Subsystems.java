@@ -24,6 +24,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.aries.subsystem.core.archive.DeploymentManifest;
 import org.apache.aries.subsystem.core.internal.BundleResourceInstaller.BundleConstituent;
@@ -45,6 +47,12 @@ public class Subsystems {
 	private final Map<String, BasicSubsystem> locationToSubsystem = new HashMap<String, BasicSubsystem>();
 	private final ResourceReferences resourceReferences = new ResourceReferences();
 	private final Map<BasicSubsystem, Set<Resource>> subsystemToConstituents = new HashMap<BasicSubsystem, Set<Resource>>();
+	// Inverse indexes of subsystemToConstituents, read without locking by the
+	// resolver and bundle event hooks. They are only modified while holding
+	// the subsystemToConstituents lock, and their sets are immutable copies
+	// replaced on every change.
+	private final ConcurrentMap<Resource, Set<BasicSubsystem>> constituentToSubsystems = new ConcurrentHashMap<Resource, Set<BasicSubsystem>>();
+	private final ConcurrentMap<Bundle, Set<BundleConstituent>> bundleToConstituents = new ConcurrentHashMap<Bundle, Set<BundleConstituent>>();
 	
 	public void addChild(BasicSubsystem parent, BasicSubsystem child, boolean referenceCount) {
 		graph.add(parent, child);
@@ -58,7 +66,8 @@ public class Subsystems {
 				constituents = new HashSet<Resource>();
 				subsystemToConstituents.put(subsystem, constituents);
 			}
-			constituents.add(constituent);
+			if (constituents.add(constituent))
+				addConstituentToSubsystem(subsystem, constituent);
 		}
 		subsystem.addedConstituent(constituent, referenced);
 	}
@@ -206,35 +215,24 @@ public class Subsystems {
 		return new ArrayList<BasicSubsystem>(idToSubsystem.values());
 	}
 	
-	// TODO Not very pretty. A quick fix.
 	public Object[] getSubsystemsByBundle(Bundle bundle) {
+		Set<BundleConstituent> constituents = bundleToConstituents.get(bundle);
+		if (constituents == null)
+			return null;
 		BundleRevision revision = null;
 		ArrayList<BasicSubsystem> result = new ArrayList<BasicSubsystem>();
-		synchronized (subsystemToConstituents) {
-			for (BasicSubsystem subsystem : subsystemToConstituents.keySet()) {
-				for (Resource constituent : getConstituents(subsystem)) {
-					if (constituent instanceof BundleConstituent &&
-							((BundleConstituent)constituent).getBundle() == bundle) {
-						result.add(subsystem);
-						revision = ((BundleConstituent)constituent).getRevision();
-					}
-				}	
-			}
+		for (BundleConstituent constituent : constituents) {
+			result.addAll(getSubsystemsByConstituent(constituent));
+			revision = constituent.getRevision();
 		}
 		result.trimToSize();
-		if (revision == null)
-			return null;
 		return new Object[]{revision, result};
 	}
 	
 	public Collection<BasicSubsystem> getSubsystemsByConstituent(Resource constituent) {
-		ArrayList<BasicSubsystem> result = new ArrayList<BasicSubsystem>();
-		synchronized (subsystemToConstituents) {
-			for (BasicSubsystem subsystem : subsystemToConstituents.keySet())
-				if (getConstituents(subsystem).contains(constituent))
-					result.add(subsystem);
-		}
-		result.trimToSize();
+		Set<BasicSubsystem> result = constituentToSubsystems.get(constituent);
+		if (result == null)
+			return Collections.emptySet();
 		return result;
 	}
 	
@@ -254,7 +252,8 @@ public class Subsystems {
 		synchronized (subsystemToConstituents) {
 			Set<Resource> constituents = subsystemToConstituents.get(subsystem);
 			if (constituents != null) {
-				constituents.remove(constituent);
+				if (constituents.remove(constituent))
+					removeConstituentToSubsystem(subsystem, constituent);
 				if (constituents.isEmpty())
 					subsystemToConstituents.remove(subsystem);
 			}
@@ -275,6 +274,50 @@ public class Subsystems {
 		}
 	}
 	
+	private void addConstituentToSubsystem(BasicSubsystem subsystem, Resource constituent) {
+		Set<BasicSubsystem> subsystems = constituentToSubsystems.get(constituent);
+		subsystems = subsystems == null ? new HashSet<BasicSubsystem>(2) : new HashSet<BasicSubsystem>(subsystems);
+		subsystems.add(subsystem);
+		constituentToSubsystems.put(constituent, Collections.unmodifiableSet(subsystems));
+		if (constituent instanceof BundleConstituent) {
+			BundleConstituent bundleConstituent = (BundleConstituent)constituent;
+			Bundle bundle = bundleConstituent.getBundle();
+			if (bundle == null)
+				return;
+			Set<BundleConstituent> constituents = bundleToConstituents.get(bundle);
+			if (constituents != null && constituents.contains(bundleConstituent))
+				return;
+			constituents = constituents == null ? new HashSet<BundleConstituent>(2) : new HashSet<BundleConstituent>(constituents);
+			constituents.add(bundleConstituent);
+			bundleToConstituents.put(bundle, Collections.unmodifiableSet(constituents));
+		}
+	}
+	
+	private void removeConstituentToSubsystem(BasicSubsystem subsystem, Resource constituent) {
+		Set<BasicSubsystem> subsystems = constituentToSubsystems.get(constituent);
+		if (subsystems == null)
+			return;
+		subsystems = new HashSet<BasicSubsystem>(subsystems);
+		subsystems.remove(subsystem);
+		if (!subsystems.isEmpty()) {
+			constituentToSubsystems.put(constituent, Collections.unmodifiableSet(subsystems));
+			return;
+		}
+		constituentToSubsystems.remove(constituent);
+		if (constituent instanceof BundleConstituent) {
+			Bundle bundle = ((BundleConstituent)constituent).getBundle();
+			Set<BundleConstituent> constituents = bundle == null ? null : bundleToConstituents.get(bundle);
+			if (constituents == null)
+				return;
+			constituents = new HashSet<BundleConstituent>(constituents);
+			constituents.remove(constituent);
+			if (constituents.isEmpty())
+				bundleToConstituents.remove(bundle);
+			else
+				bundleToConstituents.put(bundle, Collections.unmodifiableSet(constituents));
+		}
+	}
+	
 	private void addIdToSubsystem(BasicSubsystem subsystem) {
 		long id = subsystem.getSubsystemId();
 		idToSubsystem.put(id, subsystem);
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.apache.aries.subsystem.core.archive.DeploymentManifest;
+import org.apache.aries.util.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeploymentManifestWriterTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("subsystem", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        IOUtils.deleteRecursive(directory);
+    }
+
+    @Test
+    public void testWritesAreCoalescedUntilFlush() throws Exception {
+        DeploymentManifestWriter writer = new DeploymentManifestWriter(60000);
+        try {
+            writer.write(directory, manifest("1"));
+            writer.write(directory, manifest("2"));
+            assertFalse(deploymentManifest().exists());
+            writer.flush();
+            assertEquals("2", readState());
+            assertFalse(new File(directory, "OSGI-INF/DEPLOYMENT.MF.tmp").exists());
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testRequestFlushWritesInBackground() throws Exception {
+        DeploymentManifestWriter writer = new DeploymentManifestWriter(60000);
+        try {
+            writer.write(directory, manifest("1"));
+            writer.requestFlush();
+            long timeout = System.currentTimeMillis() + 10000;
+            while (!deploymentManifest().exists() && System.currentTimeMillis() < timeout)
+                Thread.sleep(10);
+            assertEquals("1", readState());
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testDiscardAndClose() throws Exception {
+        DeploymentManifestWriter writer = new DeploymentManifestWriter(60000);
+        writer.write(directory, manifest("1"));
+        writer.discard(directory);
+        writer.close();
+        assertFalse(deploymentManifest().exists());
+        // Written synchronously once closed.
+        writer.write(directory, manifest("2"));
+        assertEquals("2", readState());
+    }
+
+    @Test
+    public void testDeletedDirectoryIsNotRecreated() throws Exception {
+        DeploymentManifestWriter writer = new DeploymentManifestWriter(0);
+        IOUtils.deleteRecursive(directory);
+        writer.write(directory, manifest("1"));
+        assertFalse(directory.exists());
+        directory.mkdirs();
+        writer.write(directory, manifest("2"));
+        assertTrue(deploymentManifest().exists());
+    }
+
+    private File deploymentManifest() {
+        return new File(directory, "OSGI-INF/DEPLOYMENT.MF");
+    }
+
+    private String readState() throws IOException {
+        return new DeploymentManifest(deploymentManifest()).getHeaders().get("Test-State").getValue();
+    }
+
+    private static DeploymentManifest manifest(String state) {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Test-State", state);
+        return new DeploymentManifest(manifest);
+    }
+}
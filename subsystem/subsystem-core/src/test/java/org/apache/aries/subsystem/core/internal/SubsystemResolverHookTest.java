@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.aries.subsystem.core.archive.PreferredProviderHeader;
+import org.apache.aries.subsystem.core.archive.SubsystemManifest;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.IdentityNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Resource;
+import org.osgi.service.subsystem.SubsystemConstants;
+
+public class SubsystemResolverHookTest {
+    private final Map<Resource, Integer> lookups = new HashMap<Resource, Integer>();
+    private Subsystems subsystems;
+    private SubsystemResolverHook hook;
+    private BundleRevision requirer;
+
+    @Before
+    public void setUp() {
+        subsystems = new Subsystems() {
+            @Override
+            public Collection<BasicSubsystem> getSubsystemsReferencing(Resource resource) {
+                Integer count = lookups.get(resource);
+                lookups.put(resource, count == null ? 1 : count + 1);
+                return super.getSubsystemsReferencing(resource);
+            }
+        };
+        hook = new SubsystemResolverHook(subsystems);
+        requirer = createRevision("requirer");
+    }
+
+    @Test
+    public void testCandidatePreferredDirectly() {
+        subsystems.addReference(createSubsystem("application", "provider;type=osgi.bundle"), requirer);
+        BundleCapability preferred = createCandidate(createRevision("provider"));
+        BundleCapability other = createCandidate(createRevision("other"));
+
+        Collection<BundleCapability> candidates = filterMatches(preferred, other);
+
+        assertEquals(Arrays.asList(preferred), candidates);
+    }
+
+    @Test
+    public void testCandidatePreferredThroughItsSubsystem() {
+        subsystems.addReference(createSubsystem("application", "provider.composite;version=\"[1,2)\""), requirer);
+        BundleRevision provider = createRevision("provider");
+        subsystems.addReference(createSubsystem("provider.composite", null), provider);
+        BundleCapability preferred = createCandidate(provider);
+        BundleCapability other = createCandidate(createRevision("other"));
+
+        Collection<BundleCapability> candidates = filterMatches(other, preferred);
+
+        assertEquals(Arrays.asList(preferred), candidates);
+    }
+
+    @Test
+    public void testCandidatesUntouchedWithoutPreferredProvider() {
+        subsystems.addReference(createSubsystem("application", null), requirer);
+        BundleCapability first = createCandidate(createRevision("first"));
+        BundleCapability second = createCandidate(createRevision("second"));
+
+        Collection<BundleCapability> candidates = filterMatches(first, second);
+
+        assertEquals(Arrays.asList(first, second), candidates);
+        // the candidates are not looked at when no requirer declares a preferred provider
+        assertFalse(lookups.containsKey(first.getResource()));
+    }
+
+    @Test
+    public void testCandidatesUntouchedWithoutPreferredCandidate() {
+        // the clause has the symbolic name of the first candidate, but the default composite type
+        subsystems.addReference(createSubsystem("application", "first"), requirer);
+        BundleCapability first = createCandidate(createRevision("first"));
+        BundleCapability second = createCandidate(createRevision("second"));
+
+        Collection<BundleCapability> candidates = filterMatches(first, second);
+
+        assertEquals(Arrays.asList(first, second), candidates);
+    }
+
+    @Test
+    public void testMemoizedResultsAreDiscardedByEnd() {
+        BasicSubsystem application = createSubsystem("application", "provider;type=osgi.bundle");
+        subsystems.addReference(application, requirer);
+        BundleCapability preferred = createCandidate(createRevision("provider"));
+        BundleCapability other = createCandidate(createRevision("other"));
+
+        filterMatches(preferred, other);
+        filterMatches(preferred, other);
+        assertEquals(Integer.valueOf(1), lookups.get(requirer));
+
+        // a new resolve operation sees the references as they are now
+        hook.end();
+        subsystems.removeReference(application, requirer);
+        Collection<BundleCapability> candidates = filterMatches(preferred, other);
+
+        assertEquals(Integer.valueOf(2), lookups.get(requirer));
+        assertEquals(Arrays.asList(preferred, other), candidates);
+    }
+
+    private Collection<BundleCapability> filterMatches(BundleCapability... candidates) {
+        BundleRequirement requirement = createNiceMock(BundleRequirement.class);
+        expect(requirement.getResource()).andReturn(requirer).anyTimes();
+        replay(requirement);
+        Collection<BundleCapability> result = new ArrayList<BundleCapability>(Arrays.asList(candidates));
+        hook.filterMatches(requirement, result);
+        return result;
+    }
+
+    private BasicSubsystem createSubsystem(String symbolicName, String preferredProviders) {
+        SubsystemManifest manifest = createNiceMock(SubsystemManifest.class);
+        expect(manifest.getPreferredProviderHeader()).andReturn(
+                preferredProviders == null ? null : new PreferredProviderHeader(preferredProviders)).anyTimes();
+        BasicSubsystem subsystem = createNiceMock(BasicSubsystem.class);
+        expect(subsystem.getSubsystemManifest()).andReturn(manifest).anyTimes();
+        expect(subsystem.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE)).andReturn(
+                identity(symbolicName, SubsystemConstants.SUBSYSTEM_TYPE_COMPOSITE)).anyTimes();
+        replay(manifest, subsystem);
+        return subsystem;
+    }
+
+    private BundleRevision createRevision(String symbolicName) {
+        BundleRevision revision = createNiceMock(BundleRevision.class);
+        expect(revision.getCapabilities(IdentityNamespace.IDENTITY_NAMESPACE)).andReturn(
+                identity(symbolicName, IdentityNamespace.TYPE_BUNDLE)).anyTimes();
+        expect(revision.getSymbolicName()).andReturn(symbolicName).anyTimes();
+        replay(revision);
+        return revision;
+    }
+
+    private BundleCapability createCandidate(BundleRevision revision) {
+        BundleCapability capability = createNiceMock(BundleCapability.class);
+        expect(capability.getResource()).andReturn(revision).anyTimes();
+        replay(capability);
+        return capability;
+    }
+
+    private static List<Capability> identity(String symbolicName, String type) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(IdentityNamespace.IDENTITY_NAMESPACE, symbolicName);
+        attributes.put(IdentityNamespace.CAPABILITY_VERSION_ATTRIBUTE, new Version(1, 0, 0));
+        attributes.put(IdentityNamespace.CAPABILITY_TYPE_ATTRIBUTE, type);
+        return Collections.<Capability>singletonList(new TestCapability(IdentityNamespace.IDENTITY_NAMESPACE, attributes));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.subsystem.core.internal;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.apache.aries.subsystem.core.internal.BundleResourceInstaller.BundleConstituent;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class SubsystemsTest {
+    @Test
+    public void testSubsystemsByConstituentAndBundle() {
+        Subsystems subsystems = new Subsystems();
+        BasicSubsystem subsystem1 = createNiceMock(BasicSubsystem.class);
+        BasicSubsystem subsystem2 = createNiceMock(BasicSubsystem.class);
+        Bundle bundle = createNiceMock(Bundle.class);
+        BundleRevision revision = createNiceMock(BundleRevision.class);
+        expect(revision.getBundle()).andReturn(bundle).anyTimes();
+        replay(subsystem1, subsystem2, bundle, revision);
+
+        subsystems.addConstituent(subsystem1, new BundleConstituent(null, revision), false);
+        subsystems.addConstituent(subsystem2, new BundleConstituent(null, revision), false);
+
+        Collection<BasicSubsystem> result = subsystems.getSubsystemsByConstituent(new BundleConstituent(null, revision));
+        assertEquals(new HashSet<BasicSubsystem>(Arrays.asList(subsystem1, subsystem2)), new HashSet<BasicSubsystem>(result));
+        Object[] byBundle = subsystems.getSubsystemsByBundle(bundle);
+        assertSame(revision, byBundle[0]);
+        assertEquals(2, ((Collection<?>)byBundle[1]).size());
+
+        subsystems.removeConstituent(subsystem1, new BundleConstituent(null, revision));
+        // previously returned collections are snapshots
+        assertEquals(2, result.size());
+        assertEquals(Arrays.asList(subsystem2), Arrays.asList(subsystems.getSubsystemsByConstituent(new BundleConstituent(null, revision)).toArray()));
+
+        subsystems.removeConstituent(subsystem2, new BundleConstituent(null, revision));
+        assertTrue(subsystems.getSubsystemsByConstituent(new BundleConstituent(null, revision)).isEmpty());
+        assertNull(subsystems.getSubsystemsByBundle(bundle));
+    }
+}
@@ -23,9 +23,12 @@ import org.apache.aries.transaction.jdbc.internal.AbstractMCFFactory;
 import org.apache.aries.transaction.jdbc.internal.ConnectionManagerFactory;
 import org.apache.aries.transaction.jdbc.internal.DataSourceMCFFactory;
 import org.apache.aries.transaction.jdbc.internal.Recovery;
+import org.apache.aries.transaction.jdbc.internal.ValidatingDelegatingManagedConnectionFactory;
+import org.apache.aries.transaction.jdbc.internal.ValidatingGenericConnectionManager;
 import org.apache.aries.transaction.jdbc.internal.XADataSourceMCFFactory;
 import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
+import javax.resource.spi.ConnectionManager;
 import javax.sql.CommonDataSource;
 import javax.sql.DataSource;
 import javax.sql.XADataSource;
@@ -62,6 +65,7 @@ public class RecoverableDataSource implements DataSource, RecoverableDataSourceM
     private boolean validateOnMatch = true;
     private boolean backgroundValidation = false;
     private int backgroundValidationMilliseconds = 600000;
+    private int validateOnMatchIdleMilliseconds = 0;
 
     private ConnectionManagerFactory cm;
     private DataSource delegate;
@@ -180,6 +184,15 @@ public class RecoverableDataSource implements DataSource, RecoverableDataSourceM
         this.backgroundValidationMilliseconds = backgroundValidationMilliseconds;
     }
 
+    /**
+     * Connections released or validated more recently than this are not validated
+     * again when matched (defaults to 0, always validate).
+     * @param validateOnMatchIdleMilliseconds
+     */
+    public void setValidateOnMatchIdleMilliseconds(int validateOnMatchIdleMilliseconds) {
+        this.validateOnMatchIdleMilliseconds = validateOnMatchIdleMilliseconds;
+    }
+
     /**
      * Transaction support.
      * Can be none, local or xa (defaults to xa).
@@ -231,6 +244,7 @@ public class RecoverableDataSource implements DataSource, RecoverableDataSourceM
         cm.setValidateOnMatch(validateOnMatch);
         cm.setBackgroundValidation(backgroundValidation);
         cm.setBackgroundValidationMilliseconds(backgroundValidationMilliseconds);
+        cm.setValidateOnMatchIdleMilliseconds(validateOnMatchIdleMilliseconds);
         cm.setTransaction(transaction);
         cm.setName(name);
         cm.init();
@@ -311,6 +325,10 @@ public class RecoverableDataSource implements DataSource, RecoverableDataSourceM
         return backgroundValidationMilliseconds;
     }
 
+    public int getValidateOnMatchIdleMilliseconds() {
+        return validateOnMatchIdleMilliseconds;
+    }
+
     public String getTransaction() {
         return transaction;
     }
@@ -323,6 +341,41 @@ public class RecoverableDataSource implements DataSource, RecoverableDataSourceM
         return cm.getPoolingSupport().getIdleConnectionCount();
     }
 
+    public long getValidationCount() {
+        ValidatingDelegatingManagedConnectionFactory mcf = getValidatingManagedConnectionFactory();
+        return mcf != null ? mcf.getValidationCount() : 0;
+    }
+
+    public long getInvalidConnectionCount() {
+        ValidatingDelegatingManagedConnectionFactory mcf = getValidatingManagedConnectionFactory();
+        return mcf != null ? mcf.getInvalidConnectionCount() : 0;
+    }
+
+    public long getAverageValidationMicroseconds() {
+        ValidatingDelegatingManagedConnectionFactory mcf = getValidatingManagedConnectionFactory();
+        return mcf != null ? mcf.getAverageValidationMicroseconds() : 0;
+    }
+
+    public long getMaxValidationMicroseconds() {
+        ValidatingDelegatingManagedConnectionFactory mcf = getValidatingManagedConnectionFactory();
+        return mcf != null ? mcf.getMaxValidationMicroseconds() : 0;
+    }
+
+    public long getBackgroundValidationEvictions() {
+        ConnectionManager connectionManager = cm != null ? cm.getConnectionManager() : null;
+        if (connectionManager instanceof ValidatingGenericConnectionManager) {
+            return ((ValidatingGenericConnectionManager) connectionManager).getEvictedConnections();
+        }
+        return 0;
+    }
+
+    private ValidatingDelegatingManagedConnectionFactory getValidatingManagedConnectionFactory() {
+        if (cm != null && cm.getManagedConnectionFactory() instanceof ValidatingDelegatingManagedConnectionFactory) {
+            return (ValidatingDelegatingManagedConnectionFactory) cm.getManagedConnectionFactory();
+        }
+        return null;
+    }
+
     //---------------------------
     // DataSource implementation
     //---------------------------
@@ -48,9 +48,21 @@ public interface RecoverableDataSourceMBean {
 
     int getBackgroundValidationMilliseconds();
 
+    int getValidateOnMatchIdleMilliseconds();
+
     String getTransaction();
 
     int getConnectionCount();
 
     int getIdleConnectionCount();
+
+    long getValidationCount();
+
+    long getInvalidConnectionCount();
+
+    long getAverageValidationMicroseconds();
+
+    long getMaxValidationMicroseconds();
+
+    long getBackgroundValidationEvictions();
 }
@@ -59,6 +59,7 @@ public class ConnectionManagerFactory {
     private boolean validateOnMatch = true;
     private boolean backgroundValidation = false;
     private int backgroundValidationMilliseconds = 600000;
+    private int validateOnMatchIdleMilliseconds = 0;
 
     private SubjectSource subjectSource;
 
@@ -149,7 +150,8 @@ public class ConnectionManagerFactory {
         if (connectionManager == null) {
             if (validateOnMatch || backgroundValidation) {
                 // Wrap the original ManagedConnectionFactory to add validation capability
-                managedConnectionFactory = new ValidatingDelegatingManagedConnectionFactory((UserPasswordManagedConnectionFactory) managedConnectionFactory);
+                managedConnectionFactory = new ValidatingDelegatingManagedConnectionFactory((UserPasswordManagedConnectionFactory) managedConnectionFactory,
+                        validateOnMatchIdleMilliseconds);
             }
             if (backgroundValidation) {
                 // Instantiate the Validating Connection Manager
@@ -318,6 +320,14 @@ public class ConnectionManagerFactory {
         this.backgroundValidationMilliseconds = backgroundValidationMilliseconds;
     }
 
+    public int getValidateOnMatchIdleMilliseconds() {
+        return validateOnMatchIdleMilliseconds;
+    }
+
+    public void setValidateOnMatchIdleMilliseconds(int validateOnMatchIdleMilliseconds) {
+        this.validateOnMatchIdleMilliseconds = validateOnMatchIdleMilliseconds;
+    }
+
     public SubjectSource getSubjectSource() {
         return subjectSource;
     }
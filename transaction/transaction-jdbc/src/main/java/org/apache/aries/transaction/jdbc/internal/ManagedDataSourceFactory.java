@@ -125,6 +125,7 @@ public class ManagedDataSourceFactory {
         ds.setValidateOnMatch(getBool("aries.xa.validateOnMatch", true));
         ds.setBackgroundValidation(getBool("aries.xa.backgroundValidation", false));
         ds.setBackgroundValidationMilliseconds(getInt("aries.xa.backgroundValidationMilliseconds", 600000));
+        ds.setValidateOnMatchIdleMilliseconds(getInt("aries.xa.validateOnMatchIdleMilliseconds", 0));
         ds.setTransaction(getString("aries.xa.transaction", isXaDataSource ? "xa" : "local"));
         ds.setName(getResourceName());
         ds.start();
@@ -28,6 +28,8 @@ import org.tranql.connector.jdbc.TranqlDataSource;
 
 import javax.resource.NotSupportedException;
 import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
 import javax.resource.spi.ConnectionManager;
 import javax.resource.spi.ConnectionRequestInfo;
 import javax.resource.spi.ManagedConnection;
@@ -39,8 +41,13 @@ import javax.security.auth.Subject;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings({
     "rawtypes", "serial", "unchecked"
@@ -49,23 +56,95 @@ public final class ValidatingDelegatingManagedConnectionFactory implements UserP
 
     private static final Logger LOG = LoggerFactory.getLogger(ValidatingDelegatingManagedConnectionFactory.class);
     private final ManagedConnectionFactory delegate;
+    private final long validateOnMatchIdleMilliseconds;
+
+    // time at which each connection was last released or validated
+    private final Map<ManagedConnection, Long> lastUsed = Collections.synchronizedMap(new WeakHashMap<ManagedConnection, Long>());
+    private final ConnectionEventListener usageListener = new UsageListener();
+
+    private final AtomicLong validationCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong validationTime = new AtomicLong();
+    private final AtomicLong maxValidationTime = new AtomicLong();
 
     public ValidatingDelegatingManagedConnectionFactory(ManagedConnectionFactory managedConnectionFactory) {
+        this(managedConnectionFactory, 0);
+    }
+
+    /**
+     * @param validateOnMatchIdleMilliseconds connections released or validated more recently than this
+     *                                        are not validated again when matched, 0 to always validate
+     */
+    public ValidatingDelegatingManagedConnectionFactory(ManagedConnectionFactory managedConnectionFactory, long validateOnMatchIdleMilliseconds) {
         this.delegate = managedConnectionFactory;
+        this.validateOnMatchIdleMilliseconds = validateOnMatchIdleMilliseconds;
     }
 
-    private boolean isValidConnection(Connection c) {
+    private boolean isValidConnection(AbstractManagedConnection<Connection, ConnectionHandle> amc) {
+        Connection c = amc.getPhysicalConnection();
+        long t0 = System.nanoTime();
+        boolean valid = false;
         try {
             if (c.isValid(0)) {
                 LOG.debug("Connection validation succeeded for managed connection {}.", c);
-                return true;
+                valid = true;
             } else {
                 LOG.debug("Connection validation failed for managed connection {}.", c);
             }
         } catch (SQLException e) {
             // no-op
         }
-        return false;
+        long time = System.nanoTime() - t0;
+        validationCount.incrementAndGet();
+        validationTime.addAndGet(time);
+        long max;
+        while (time > (max = maxValidationTime.get()) && !maxValidationTime.compareAndSet(max, time)) {
+            // retry
+        }
+        if (valid) {
+            lastUsed.put(amc, System.currentTimeMillis());
+        } else {
+            invalidCount.incrementAndGet();
+            lastUsed.remove(amc);
+        }
+        return valid;
+    }
+
+    private boolean isRecentlyUsed(ManagedConnection mc) {
+        if (validateOnMatchIdleMilliseconds <= 0) {
+            return false;
+        }
+        Long time = lastUsed.get(mc);
+        return time != null && System.currentTimeMillis() - time <= validateOnMatchIdleMilliseconds;
+    }
+
+    /**
+     * @return the number of connection validations
+     */
+    public long getValidationCount() {
+        return validationCount.get();
+    }
+
+    /**
+     * @return the number of connections found invalid
+     */
+    public long getInvalidConnectionCount() {
+        return invalidCount.get();
+    }
+
+    /**
+     * @return the average duration of a connection validation in microseconds
+     */
+    public long getAverageValidationMicroseconds() {
+        long count = validationCount.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMicros(validationTime.get() / count) : 0;
+    }
+
+    /**
+     * @return the longest duration of a connection validation in microseconds
+     */
+    public long getMaxValidationMicroseconds() {
+        return TimeUnit.NANOSECONDS.toMicros(maxValidationTime.get());
     }
 
     @Override
@@ -81,7 +160,7 @@ public final class ValidatingDelegatingManagedConnectionFactory implements UserP
             if (o instanceof AbstractManagedConnection) {
                 AbstractManagedConnection<Connection, ConnectionHandle> amc = AbstractManagedConnection.class.cast(o);
 
-                if (!isValidConnection(amc.getPhysicalConnection())) {
+                if (!isValidConnection(amc)) {
                     invalid.add(amc);
                 }
             }
@@ -112,7 +191,12 @@ public final class ValidatingDelegatingManagedConnectionFactory implements UserP
 
     @Override
     public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo cxRequestInfo) throws ResourceException {
-        return delegate.createManagedConnection(subject, cxRequestInfo);
+        ManagedConnection mc = delegate.createManagedConnection(subject, cxRequestInfo);
+        if (validateOnMatchIdleMilliseconds > 0) {
+            mc.addConnectionEventListener(usageListener);
+            lastUsed.put(mc, System.currentTimeMillis());
+        }
+        return mc;
     }
 
     @Override
@@ -123,7 +207,7 @@ public final class ValidatingDelegatingManagedConnectionFactory implements UserP
                 if (mch.matches(this, subject, cxRequestInfo)) {
                     if (mch instanceof AbstractManagedConnection) {
                         AbstractManagedConnection<Connection, ConnectionHandle> amc = AbstractManagedConnection.class.cast(mch);
-                        if (isValidConnection(amc.getPhysicalConnection())) {
+                        if (isRecentlyUsed(amc) || isValidConnection(amc)) {
                             return amc;
                         }
                     } else {
@@ -155,4 +239,29 @@ public final class ValidatingDelegatingManagedConnectionFactory implements UserP
     public boolean equals(Object other) {
         return delegate.equals(other);
     }
+
+    private class UsageListener implements ConnectionEventListener {
+
+        @Override
+        public void connectionClosed(ConnectionEvent event) {
+            lastUsed.put((ManagedConnection) event.getSource(), System.currentTimeMillis());
+        }
+
+        @Override
+        public void connectionErrorOccurred(ConnectionEvent event) {
+            lastUsed.remove(event.getSource());
+        }
+
+        @Override
+        public void localTransactionStarted(ConnectionEvent event) {
+        }
+
+        @Override
+        public void localTransactionCommitted(ConnectionEvent event) {
+        }
+
+        @Override
+        public void localTransactionRolledback(ConnectionEvent event) {
+        }
+    }
 }
@@ -38,42 +38,52 @@ import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.ValidatingManagedConnectionFactory;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 
+/**
+ * A connection manager validating the idle connections of its pool in the background.
+ * <p>
+ * The idle connections are taken out of the pool one at a time, validated without holding any
+ * pool lock and then given back or destroyed before the next one is taken, so the validation
+ * holds at most one pool permit.  A connection is only taken when a permit is free, otherwise
+ * the validation is skipped until the next run, so borrowers never wait for it.
+ * Each manager validates its pool on its own scheduler thread, so that a slow database does
+ * not delay the validation of the other data sources.
+ */
 @SuppressWarnings({
     "unchecked", "serial"
 })
 public final class ValidatingGenericConnectionManager extends GenericConnectionManager {
 
-    private static final Timer TIMER = new Timer("ValidatingGenericConnectionManagerTimer", true);
-
-    private transient final TimerTask validatingTask;
+    private transient final ValidatingTask validatingTask;
+    private transient ScheduledExecutorService scheduler;
     private final long validatingInterval;
+    private final String name;
 
-    private final ReadWriteLock lock;
-    private final Object pool;
+    private final AtomicLong validationRuns = new AtomicLong();
+    private final AtomicLong evictedConnections = new AtomicLong();
 
     public ValidatingGenericConnectionManager(TransactionSupport transactionSupport, PoolingSupport pooling, SubjectSource subjectSource, ConnectionTracker connectionTracker, RecoverableTransactionManager transactionManager, ManagedConnectionFactory mcf, String name, ClassLoader classLoader, long interval) {
         super(transactionSupport, pooling, subjectSource, connectionTracker, transactionManager, mcf, name, classLoader);
         validatingInterval = interval;
+        this.name = name;
 
         ConnectionInterceptor stack = interceptors.getStack();
 
-        ReadWriteLock foundLock = null;
         ConnectionInterceptor current = stack;
         do {
             if (current instanceof AbstractSinglePoolConnectionInterceptor) {
-                try {
-                    foundLock = (ReadWriteLock) Reflections.get(current, "resizeLock");
-                } catch (Exception e) {
-                    // no-op
-                }
                 break;
             }
 
@@ -85,86 +95,156 @@ public final class ValidatingGenericConnectionManager extends GenericConnectionM
             }
         } while (current != null);
 
-        this.lock = foundLock;
-
-        Object foundPool = null;
-        if (current instanceof AbstractSinglePoolConnectionInterceptor) {
-            foundPool = Reflections.get(current, "pool");
+        ValidatingTask task = null;
+        if (current instanceof SinglePoolConnectionInterceptor || current instanceof SinglePoolMatchAllConnectionInterceptor) {
+            task = new ValidatingTask((AbstractSinglePoolConnectionInterceptor) current);
         } else if (current instanceof MultiPoolConnectionInterceptor) {
             log.warn("validation on stack {} not supported", stack);
+        } else if (current != null) {
+            log.warn("stack {} currently not supported", stack);
         }
-        this.pool = foundPool;
-
-        if (pool != null) {
-            validatingTask = new ValidatingTask(current, lock, pool);
-        } else {
-            validatingTask = null;
-        }
+        validatingTask = task;
     }
 
     @Override
     public void doStart() throws Exception {
         super.doStart();
         if (validatingTask != null) {
-            TIMER.schedule(validatingTask, validatingInterval, validatingInterval);
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ValidatingGenericConnectionManager-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            scheduler.scheduleWithFixedDelay(validatingTask, validatingInterval, validatingInterval, TimeUnit.MILLISECONDS);
         }
     }
 
     @Override
     public void doStop() throws Exception {
-        if (validatingTask != null) {
-            validatingTask.cancel();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
         }
         super.doStop();
     }
 
-    private class ValidatingTask extends TimerTask {
+    /**
+     * @return the number of background validations of the pool
+     */
+    public long getValidationRuns() {
+        return validationRuns.get();
+    }
+
+    /**
+     * @return the number of idle connections destroyed by the background validation
+     */
+    public long getEvictedConnections() {
+        return evictedConnections.get();
+    }
+
+    boolean isValidating() {
+        return scheduler != null && !scheduler.isShutdown();
+    }
+
+    /**
+     * Validate the idle connections of the pool once.
+     */
+    void validateIdleConnections() {
+        if (validatingTask != null) {
+            validatingTask.run();
+        }
+    }
+
+    private class ValidatingTask implements Runnable {
 
-        private final ConnectionInterceptor stack;
-        private final ReadWriteLock lock;
-        private final Object pool;
+        private final AbstractSinglePoolConnectionInterceptor pool;
+        private final ReadWriteLock resizeLock;
+        private final Object idleConnections;
 
-        public ValidatingTask(ConnectionInterceptor stack, ReadWriteLock lock, Object pool) {
-            this.stack = stack;
-            this.lock = lock;
+        public ValidatingTask(AbstractSinglePoolConnectionInterceptor pool) {
             this.pool = pool;
+            this.resizeLock = (ReadWriteLock) Reflections.get(pool, "resizeLock");
+            this.idleConnections = Reflections.get(pool, "pool");
         }
 
         @Override
         public void run() {
-            if (lock != null) {
-                lock.writeLock().lock();
-            }
-
             try {
-                final Map<ManagedConnection, ManagedConnectionInfo> connections;
-                if (stack instanceof SinglePoolConnectionInterceptor) {
-                    connections = new HashMap<ManagedConnection, ManagedConnectionInfo>();
-                    for (ManagedConnectionInfo info : (List<ManagedConnectionInfo>) pool) {
-                        connections.put(info.getManagedConnection(), info);
+                validationRuns.incrementAndGet();
+                for (ManagedConnectionInfo mci : getIdleConnections()) {
+                    Boolean borrowed = borrow(mci);
+                    if (borrowed == null) {
+                        log.debug("No free permit in pool {}, skipping the validation", pool);
+                        return;
+                    }
+                    if (borrowed) {
+                        validate(new ConnectionInfo(mci));
                     }
-                } else if (stack instanceof SinglePoolMatchAllConnectionInterceptor) {
-                    connections = (Map<ManagedConnection, ManagedConnectionInfo>) pool;
-                } else {
-                    log.warn("stack {} currently not supported", stack);
-                    return;
                 }
+            } catch (Throwable t) {
+                // do not let the scheduler cancel the task
+                log.error("Error validating connections of pool " + pool, t);
+            }
+        }
+
+        private List<ManagedConnectionInfo> getIdleConnections() {
+            synchronized (idleConnections) {
+                if (idleConnections instanceof Map) {
+                    return new ArrayList<ManagedConnectionInfo>(((Map<ManagedConnection, ManagedConnectionInfo>) idleConnections).values());
+                }
+                return new ArrayList<ManagedConnectionInfo>((List<ManagedConnectionInfo>) idleConnections);
+            }
+        }
 
-                // destroy invalid connections
-                try {
-                    Set<ManagedConnection> invalids = ValidatingManagedConnectionFactory.class.cast(getManagedConnectionFactory()).getInvalidConnections(connections.keySet());
-                    if (invalids != null) {
-                        for (ManagedConnection invalid : invalids) {
-                            stack.returnConnection(new ConnectionInfo(connections.get(invalid)), ConnectionReturnAction.DESTROY);
-                        }
+        /**
+         * Take the given idle connection out of the pool, with a permit like any borrower, but only
+         * if a permit is free: the validation never makes a borrower wait for a connection.
+         *
+         * @return <code>null</code> if no permit is free, <code>false</code> if the connection is no
+         * longer idle and <code>true</code> if it has been taken out of the pool
+         */
+        private Boolean borrow(ManagedConnectionInfo mci) {
+            resizeLock.readLock().lock();
+            try {
+                Semaphore permits = (Semaphore) Reflections.get(pool, "permits");
+                if (!permits.tryAcquire()) {
+                    return null;
+                }
+                boolean removed;
+                synchronized (idleConnections) {
+                    if (idleConnections instanceof Map) {
+                        removed = ((Map<ManagedConnection, ManagedConnectionInfo>) idleConnections).remove(mci.getManagedConnection()) != null;
+                    } else {
+                        removed = ((List<ManagedConnectionInfo>) idleConnections).remove(mci);
                     }
-                } catch (ResourceException e) {
-                    log.error(e.getMessage(), e);
                 }
+                if (!removed) {
+                    permits.release();
+                }
+                return removed;
             } finally {
-                if (lock != null) {
-                    lock.writeLock().unlock();
+                resizeLock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Validate a borrowed connection and give it back to the pool, or destroy it if it is invalid.
+         */
+        private void validate(ConnectionInfo info) throws ResourceException {
+            ConnectionReturnAction action = ConnectionReturnAction.RETURN_HANDLE;
+            try {
+                ManagedConnection mc = info.getManagedConnectionInfo().getManagedConnection();
+                Set<?> invalids = ValidatingManagedConnectionFactory.class.cast(getManagedConnectionFactory())
+                        .getInvalidConnections(Collections.singleton(mc));
+                if (invalids != null && invalids.contains(mc)) {
+                    evictedConnections.incrementAndGet();
+                    action = ConnectionReturnAction.DESTROY;
                 }
+            } finally {
+                pool.returnConnection(info, action);
             }
         }
     }
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.aries.transaction.jdbc.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAResource;
+
+import org.apache.geronimo.connector.outbound.connectionmanagerconfig.NoTransactions;
+import org.apache.geronimo.connector.outbound.connectionmanagerconfig.SinglePool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ValidatingGenericConnectionManagerTest {
+
+    private TestManagedConnectionFactory mcf;
+    private ValidatingGenericConnectionManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        mcf = new TestManagedConnectionFactory();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (cm != null) {
+            cm.doStop();
+        }
+    }
+
+    @Test
+    public void testInvalidIdleConnectionsAreEvicted() throws Exception {
+        cm = createConnectionManager(60000);
+        List<TestManagedConnection> connections = fillPool(3);
+        connections.get(1).valid = false;
+        assertEquals(3, cm.getIdleConnectionCount());
+
+        cm.validateIdleConnections();
+
+        assertEquals(1, cm.getEvictedConnections());
+        assertEquals(2, cm.getIdleConnectionCount());
+        assertEquals(2, cm.getConnectionCount());
+        assertFalse(connections.get(0).destroyed);
+        assertTrue(connections.get(1).destroyed);
+        assertFalse(connections.get(2).destroyed);
+    }
+
+    @Test
+    public void testValidIdleConnectionsAreKept() throws Exception {
+        cm = createConnectionManager(60000);
+        List<TestManagedConnection> connections = fillPool(3);
+
+        cm.validateIdleConnections();
+        cm.validateIdleConnections();
+
+        assertEquals(0, cm.getEvictedConnections());
+        assertEquals(3, cm.getIdleConnectionCount());
+        for (TestManagedConnection connection : connections) {
+            assertFalse(connection.destroyed);
+        }
+        // every idle connection has been validated once per run
+        assertEquals(6, mcf.validated);
+    }
+
+    @Test
+    public void testBorrowersAreNotBlockedByValidation() throws Exception {
+        cm = createConnectionManager(60000);
+        fillPool(2);
+        mcf.validating = new CountDownLatch(1);
+        mcf.release = new CountDownLatch(1);
+
+        Thread validator = new Thread() {
+            public void run() {
+                cm.validateIdleConnections();
+            }
+        };
+        validator.start();
+        assertTrue(mcf.validating.await(5, TimeUnit.SECONDS));
+
+        // the pool is validated without holding any lock a borrower would wait for
+        Object handle = cm.allocateConnection(mcf, null);
+        assertNotNull(handle);
+        ((TestConnection) handle).close();
+
+        mcf.release.countDown();
+        validator.join(5000);
+        assertFalse(validator.isAlive());
+        assertEquals(0, cm.getEvictedConnections());
+        assertEquals(2, cm.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testBorrowerDoesNotBlockOnFullPoolWhileValidationRuns() throws Exception {
+        cm = createConnectionManager(60000, 2);
+        List<TestManagedConnection> connections = fillPool(2);
+        mcf.validating = new CountDownLatch(1);
+        mcf.release = new CountDownLatch(1);
+
+        Thread validator = new Thread() {
+            public void run() {
+                cm.validateIdleConnections();
+            }
+        };
+        validator.start();
+        assertTrue(mcf.validating.await(5, TimeUnit.SECONDS));
+
+        // only the connection being validated is taken out of the pool
+        assertEquals(1, cm.getIdleConnectionCount());
+        // served the other idle connection rather than waiting for a permit
+        TestConnection handle = (TestConnection) cm.allocateConnection(mcf, null);
+        assertTrue(connections.contains(handle.mc));
+        handle.close();
+
+        mcf.release.countDown();
+        validator.join(5000);
+        assertFalse(validator.isAlive());
+        assertEquals(2, cm.getIdleConnectionCount());
+        assertEquals(2, cm.getConnectionCount());
+    }
+
+    @Test
+    public void testValidationIsSkippedWithoutFreePermit() throws Exception {
+        cm = createConnectionManager(60000);
+        List<TestManagedConnection> connections = fillPool(2);
+        connections.get(0).valid = false;
+
+        // take the permits as borrowers would
+        Object pool = Reflections.get(Reflections.get(cm, "validatingTask"), "pool");
+        Semaphore permits = (Semaphore) Reflections.get(pool, "permits");
+        int available = permits.drainPermits();
+        try {
+            cm.validateIdleConnections();
+        } finally {
+            permits.release(available);
+        }
+        assertEquals(0, mcf.validated);
+        assertEquals(2, cm.getIdleConnectionCount());
+
+        cm.validateIdleConnections();
+        assertEquals(1, cm.getEvictedConnections());
+        assertEquals(1, cm.getIdleConnectionCount());
+    }
+
+    @Test
+    public void testBackgroundValidationStopsWithManager() throws Exception {
+        cm = createConnectionManager(10);
+        List<TestManagedConnection> connections = fillPool(2);
+        connections.get(0).valid = false;
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cm.getEvictedConnections() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cm.getEvictedConnections());
+        assertTrue(cm.isValidating());
+
+        cm.doStop();
+        assertFalse(cm.isValidating());
+        cm = null;
+    }
+
+    private ValidatingGenericConnectionManager createConnectionManager(long interval) throws Exception {
+        return createConnectionManager(interval, 5);
+    }
+
+    private ValidatingGenericConnectionManager createConnectionManager(long interval, int maxSize) throws Exception {
+        ValidatingGenericConnectionManager manager = new ValidatingGenericConnectionManager(
+                NoTransactions.INSTANCE, new SinglePool(maxSize, 0, 100, 1, true, false, true),
+                null, null, null, mcf, "test", getClass().getClassLoader(), interval);
+        manager.doStart();
+        return manager;
+    }
+
+    /**
+     * Borrow the given number of connections and give them back, leaving them idle in the pool.
+     */
+    private List<TestManagedConnection> fillPool(int size) throws ResourceException {
+        List<TestConnection> handles = new ArrayList<TestConnection>();
+        for (int i = 0; i < size; i++) {
+            handles.add((TestConnection) cm.allocateConnection(mcf, null));
+        }
+        List<TestManagedConnection> connections = new ArrayList<TestManagedConnection>();
+        for (TestConnection handle : handles) {
+            connections.add(handle.mc);
+            handle.close();
+        }
+        return connections;
+    }
+
+    private static class TestConnection {
+        private final TestManagedConnection mc;
+
+        TestConnection(TestManagedConnection mc) {
+            this.mc = mc;
+        }
+
+        void close() {
+            ConnectionEvent event = new ConnectionEvent(mc, ConnectionEvent.CONNECTION_CLOSED);
+            event.setConnectionHandle(this);
+            for (ConnectionEventListener listener : new ArrayList<ConnectionEventListener>(mc.listeners)) {
+                listener.connectionClosed(event);
+            }
+        }
+    }
+
+    private static class TestManagedConnection implements ManagedConnection {
+        private final List<ConnectionEventListener> listeners = new ArrayList<ConnectionEventListener>();
+        private volatile boolean valid = true;
+        private volatile boolean destroyed;
+
+        public Object getConnection(Subject subject, ConnectionRequestInfo cxRequestInfo) {
+            return new TestConnection(this);
+        }
+
+        public void destroy() {
+            destroyed = true;
+        }
+
+        public void cleanup() {
+        }
+
+        public void associateConnection(Object connection) {
+        }
+
+        public void addConnectionEventListener(ConnectionEventListener listener) {
+            listeners.add(listener);
+        }
+
+        public void removeConnectionEventListener(ConnectionEventListener listener) {
+            listeners.remove(listener);
+        }
+
+        public XAResource getXAResource() throws ResourceException {
+            throw new ResourceException("not supported");
+        }
+
+        public LocalTransaction getLocalTransaction() throws ResourceException {
+            throw new ResourceException("not supported");
+        }
+
+        public ManagedConnectionMetaData getMetaData() throws ResourceException {
+            throw new ResourceException("not supported");
+        }
+
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+    }
+
+    @SuppressWarnings({
+        "rawtypes", "serial"
+    })
+    private static class TestManagedConnectionFactory implements ManagedConnectionFactory, ValidatingManagedConnectionFactory {
+        private volatile int validated;
+        private volatile CountDownLatch validating;
+        private volatile CountDownLatch release;
+
+        public Object createConnectionFactory(ConnectionManager cxManager) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Object createConnectionFactory() {
+            throw new UnsupportedOperationException();
+        }
+
+        public ManagedConnection createManagedConnection(Subject subject, ConnectionRequestInfo cxRequestInfo) {
+            return new TestManagedConnection();
+        }
+
+        public ManagedConnection matchManagedConnections(Set connectionSet, Subject subject, ConnectionRequestInfo cxRequestInfo) {
+            return connectionSet.isEmpty() ? null : (ManagedConnection) connectionSet.iterator().next();
+        }
+
+        public Set getInvalidConnections(Set connectionSet) throws ResourceException {
+            if (validating != null) {
+                validating.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new ResourceException(e);
+                }
+            }
+            Set<ManagedConnection> invalids = new HashSet<ManagedConnection>();
+            for (Object connection : connectionSet) {
+                validated++;
+                if (!((TestManagedConnection) connection).valid) {
+                    invalids.add((ManagedConnection) connection);
+                }
+            }
+            return invalids;
+        }
+
+        public void setLogWriter(PrintWriter out) {
+        }
+
+        public PrintWriter getLogWriter() {
+            return null;
+        }
+    }
+}
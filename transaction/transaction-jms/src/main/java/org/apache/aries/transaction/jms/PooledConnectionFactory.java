@@ -16,7 +16,13 @@
  */
 package org.apache.aries.transaction.jms;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
@@ -67,6 +73,10 @@ public class PooledConnectionFactory implements ConnectionFactory {
 
     protected final AtomicBoolean stopped = new AtomicBoolean(false);
     private GenericKeyedObjectPool<ConnectionKey, ConnectionPool> connectionsPool;
+    private final ConcurrentMap<ConnectionKey, ConnectionSlots> connectionSlots = new ConcurrentHashMap<ConnectionKey, ConnectionSlots>();
+    private final AtomicLong connectionHits = new AtomicLong();
+    private final AtomicLong connectionMisses = new AtomicLong();
+    private final AtomicLong connectionWaitTime = new AtomicLong();
 
     private ConnectionFactory connectionFactory;
 
@@ -77,6 +87,7 @@ public class PooledConnectionFactory implements ConnectionFactory {
     private long expiryTimeout = 0l;
     private boolean createConnectionOnStartup = true;
     private boolean useAnonymousProducers = true;
+    private int producerCacheSize = 10;
 
     public void initConnectionsPool() {
         if (this.connectionsPool == null) {
@@ -112,6 +123,7 @@ public class PooledConnectionFactory implements ConnectionFactory {
                                 connection.setBlockIfSessionPoolIsFullTimeout(getBlockIfSessionPoolIsFullTimeout());
                             }
                             connection.setUseAnonymousProducers(isUseAnonymousProducers());
+                            connection.setProducerCacheSize(getProducerCacheSize());
 
                             if (LOG.isTraceEnabled()) {
                                 LOG.trace("Created new connection: {}", connection);
@@ -178,14 +190,42 @@ public class PooledConnectionFactory implements ConnectionFactory {
     }
 
     @Override
-    public synchronized Connection createConnection(String userName, String password) throws JMSException {
+    public Connection createConnection(String userName, String password) throws JMSException {
         if (stopped.get()) {
             LOG.debug("PooledConnectionFactory is stopped, skip create new connection.");
             return null;
         }
 
-        ConnectionPool connection = null;
         ConnectionKey key = new ConnectionKey(userName, password);
+        ConnectionSlots slots = getConnectionSlots(key);
+        int index = slots.next();
+
+        // Connections handed out recently are cached in slots which are used in turn, so that
+        // concurrent callers do not need to go through the pool.  The reference count is
+        // incremented under the connection lock, as when borrowing from the pool, to prevent
+        // another thread from triggering an expiration check and closing it under us.
+        ConnectionPool connection = slots.get(index);
+        if (connection != null) {
+            synchronized (connection) {
+                if (!connection.expiredCheck()) {
+                    connection.incrementReferenceCount();
+                    connectionHits.incrementAndGet();
+                    return newPooledConnection(connection);
+                }
+            }
+            slots.compareAndSet(index, connection, null);
+        }
+
+        connectionMisses.incrementAndGet();
+        long t0 = System.nanoTime();
+        connection = acquireConnection(key, t0);
+        slots.compareAndSet(index, null, connection);
+        return newPooledConnection(connection);
+    }
+
+    private synchronized ConnectionPool acquireConnection(ConnectionKey key, long t0) throws JMSException {
+        connectionWaitTime.addAndGet(System.nanoTime() - t0);
+        ConnectionPool connection = null;
 
         // This will either return an existing non-expired ConnectionPool or it
         // will create a new one to meet the demand.
@@ -232,7 +272,19 @@ public class PooledConnectionFactory implements ConnectionFactory {
             throw createJmsException("Error when returning connection to the pool", e);
         }
 
-        return newPooledConnection(connection);
+        return connection;
+    }
+
+    private ConnectionSlots getConnectionSlots(ConnectionKey key) {
+        ConnectionSlots slots = connectionSlots.get(key);
+        if (slots == null) {
+            slots = new ConnectionSlots(getMaxConnections());
+            ConnectionSlots previous = connectionSlots.putIfAbsent(key, slots);
+            if (previous != null) {
+                slots = previous;
+            }
+        }
+        return slots;
     }
 
     protected Connection newPooledConnection(ConnectionPool connection) {
@@ -269,6 +321,7 @@ public class PooledConnectionFactory implements ConnectionFactory {
 
     public void stop() {
         if (stopped.compareAndSet(false, true)) {
+            connectionSlots.clear();
             LOG.debug("Stopping the PooledConnectionFactory, number of connections in cache: {}",
                     connectionsPool != null ? connectionsPool.getNumActive() : 0);
             try {
@@ -292,6 +345,7 @@ public class PooledConnectionFactory implements ConnectionFactory {
             return;
         }
 
+        connectionSlots.clear();
         getConnectionsPool().clear();
     }
 
@@ -362,6 +416,7 @@ public class PooledConnectionFactory implements ConnectionFactory {
      */
     public void setMaxConnections(int maxConnections) {
         getConnectionsPool().setMaxIdle(maxConnections);
+        connectionSlots.clear();
     }
 
     /**
@@ -454,6 +509,30 @@ public class PooledConnectionFactory implements ConnectionFactory {
         this.useAnonymousProducers = value;
     }
 
+    /**
+     * @return the number of destination specific MessageProducers kept open by each pooled Session.
+     * @see #setProducerCacheSize(int)
+     */
+    public int getProducerCacheSize() {
+        return this.producerCacheSize;
+    }
+
+    /**
+     * Sets the number of destination specific MessageProducers each pooled Session keeps open
+     * when anonymous producers are not used, defaults to 10.
+     *
+     * Producers created for the same destination are then reused across the uses of the Session
+     * instead of being created and closed on the Broker each time.  The least recently used
+     * producers are closed when the Session is returned to the pool.  Producers for temporary
+     * destinations are never cached.  Set to zero to disable the cache.
+     *
+     * @param producerCacheSize
+     *      The number of producers cached by each Session.
+     */
+    public void setProducerCacheSize(int producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+    }
+
     /**
      * Gets the Pool of ConnectionPool instances which are keyed by different ConnectionKeys.
      *
@@ -493,6 +572,27 @@ public class PooledConnectionFactory implements ConnectionFactory {
         return getConnectionsPool().getNumIdle();
     }
 
+    /**
+     * @return the number of calls to {@link #createConnection()} served from the recently used Connections
+     */
+    public long getConnectionCacheHits() {
+        return connectionHits.get();
+    }
+
+    /**
+     * @return the number of calls to {@link #createConnection()} which had to go through the Pool
+     */
+    public long getConnectionCacheMisses() {
+        return connectionMisses.get();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for access to the Pool
+     */
+    public long getConnectionWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(connectionWaitTime.get());
+    }
+
     /**
      * Delegate that creates each instance of an ConnectionPool object.  Subclasses can override
      * this method to customize the type of connection pool returned.
@@ -533,6 +633,27 @@ public class PooledConnectionFactory implements ConnectionFactory {
         this.blockIfSessionPoolIsFullTimeout = blockIfSessionPoolIsFullTimeout;
     }
 
+    private static class ConnectionSlots {
+        private final AtomicReferenceArray<ConnectionPool> connections;
+        private final AtomicInteger index = new AtomicInteger();
+
+        ConnectionSlots(int size) {
+            this.connections = new AtomicReferenceArray<ConnectionPool>(Math.max(size, 1));
+        }
+
+        int next() {
+            return (index.getAndIncrement() & Integer.MAX_VALUE) % connections.length();
+        }
+
+        ConnectionPool get(int index) {
+            return connections.get(index);
+        }
+
+        boolean compareAndSet(int index, ConnectionPool expect, ConnectionPool update) {
+            return connections.compareAndSet(index, expect, update);
+        }
+    }
+
     static class XAConnectionFactoryWrapper implements XAConnectionFactory, ConnectionFactory {
         private final XAConnectionFactory delegate;
 
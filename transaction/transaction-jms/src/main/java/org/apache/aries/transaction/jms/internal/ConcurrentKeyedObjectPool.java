@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.jms.internal;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool.BaseKeyedObjectPool;
+import org.apache.commons.pool.KeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A keyed object pool keeping the idle objects of each key in a concurrent free list, so that
+ * borrowing and returning objects does not take a pool wide lock like {@link GenericKeyedObjectPool}.
+ * <p/>
+ * As with {@link GenericKeyedObjectPool}, the number of objects of each key can be limited, in which
+ * case borrowers either block or fail once the limit is reached, and the number of idle objects kept
+ * for each key is bounded.  The limit of a key is read when the first object of that key is borrowed.
+ */
+public class ConcurrentKeyedObjectPool<K, V> extends BaseKeyedObjectPool<K, V> {
+    private static final transient Logger LOG = LoggerFactory.getLogger(ConcurrentKeyedObjectPool.class);
+
+    private final KeyedPoolableObjectFactory<K, V> factory;
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>();
+
+    private volatile int maxActive = GenericKeyedObjectPool.DEFAULT_MAX_ACTIVE;
+    private volatile int maxIdle = GenericKeyedObjectPool.DEFAULT_MAX_IDLE;
+    private volatile byte whenExhaustedAction = GenericKeyedObjectPool.DEFAULT_WHEN_EXHAUSTED_ACTION;
+    private volatile long maxWait = GenericKeyedObjectPool.DEFAULT_MAX_WAIT;
+
+    private final AtomicLong numBorrows = new AtomicLong();
+    private final AtomicLong numWaits = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+
+    public ConcurrentKeyedObjectPool(KeyedPoolableObjectFactory<K, V> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public V borrowObject(K key) throws Exception {
+        assertOpen();
+        Entry<V> entry = getEntry(key);
+        acquire(entry);
+        boolean borrowed = false;
+        try {
+            V obj = entry.idle.poll();
+            if (obj != null) {
+                entry.numIdle.decrementAndGet();
+            } else {
+                obj = factory.makeObject(key);
+            }
+            factory.activateObject(key, obj);
+            entry.numActive.incrementAndGet();
+            numBorrows.incrementAndGet();
+            borrowed = true;
+            return obj;
+        } finally {
+            if (!borrowed) {
+                release(entry);
+            }
+        }
+    }
+
+    @Override
+    public void returnObject(K key, V obj) throws Exception {
+        Entry<V> entry = getEntry(key);
+        entry.numActive.decrementAndGet();
+        try {
+            boolean keepIdle = false;
+            try {
+                factory.passivateObject(key, obj);
+                if (!isClosed()) {
+                    int numIdle = entry.numIdle.incrementAndGet();
+                    keepIdle = maxIdle < 0 || numIdle <= maxIdle;
+                    if (!keepIdle) {
+                        entry.numIdle.decrementAndGet();
+                    }
+                }
+            } finally {
+                if (keepIdle) {
+                    entry.idle.offer(obj);
+                } else {
+                    destroy(key, obj);
+                }
+            }
+        } finally {
+            release(entry);
+        }
+    }
+
+    @Override
+    public void invalidateObject(K key, V obj) throws Exception {
+        Entry<V> entry = getEntry(key);
+        entry.numActive.decrementAndGet();
+        try {
+            factory.destroyObject(key, obj);
+        } finally {
+            release(entry);
+        }
+    }
+
+    @Override
+    public void addObject(K key) throws Exception {
+        assertOpen();
+        Entry<V> entry = getEntry(key);
+        V obj = factory.makeObject(key);
+        factory.passivateObject(key, obj);
+        entry.numIdle.incrementAndGet();
+        entry.idle.offer(obj);
+    }
+
+    @Override
+    public int getNumIdle(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.numIdle.get() : 0;
+    }
+
+    @Override
+    public int getNumActive(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry != null ? entry.numActive.get() : 0;
+    }
+
+    @Override
+    public int getNumIdle() {
+        int numIdle = 0;
+        for (Entry<V> entry : entries.values()) {
+            numIdle += entry.numIdle.get();
+        }
+        return numIdle;
+    }
+
+    @Override
+    public int getNumActive() {
+        int numActive = 0;
+        for (Entry<V> entry : entries.values()) {
+            numActive += entry.numActive.get();
+        }
+        return numActive;
+    }
+
+    @Override
+    public void clear() {
+        for (K key : entries.keySet()) {
+            clear(key);
+        }
+    }
+
+    @Override
+    public void clear(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            V obj;
+            while ((obj = entry.idle.poll()) != null) {
+                entry.numIdle.decrementAndGet();
+                destroy(key, obj);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public byte getWhenExhaustedAction() {
+        return whenExhaustedAction;
+    }
+
+    public void setWhenExhaustedAction(byte whenExhaustedAction) {
+        this.whenExhaustedAction = whenExhaustedAction;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return the number of objects borrowed from this pool
+     */
+    public long getNumBorrows() {
+        return numBorrows.get();
+    }
+
+    /**
+     * @return the number of borrowers which had to wait for an object to be returned
+     */
+    public long getNumWaits() {
+        return numWaits.get();
+    }
+
+    /**
+     * @return the total time in milliseconds borrowers waited for an object to be returned
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    private Entry<V> getEntry(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            int max = whenExhaustedAction == GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW ? -1 : maxActive;
+            entry = new Entry<V>(max);
+            Entry<V> previous = entries.putIfAbsent(key, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        return entry;
+    }
+
+    private void acquire(Entry<V> entry) throws Exception {
+        if (entry.permits == null || entry.permits.tryAcquire()) {
+            return;
+        }
+        if (whenExhaustedAction == GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL) {
+            throw new NoSuchElementException("Pool exhausted");
+        }
+        numWaits.incrementAndGet();
+        long t0 = System.nanoTime();
+        try {
+            if (maxWait <= 0) {
+                entry.permits.acquire();
+            } else if (!entry.permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new NoSuchElementException("Timeout waiting for idle object");
+            }
+        } finally {
+            waitTime.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    private void release(Entry<V> entry) {
+        if (entry.permits != null) {
+            entry.permits.release();
+        }
+    }
+
+    private void destroy(K key, V obj) {
+        try {
+            factory.destroyObject(key, obj);
+        } catch (Exception e) {
+            LOG.trace("Ignoring exception while destroying pooled object: " + e, e);
+        }
+    }
+
+    private static class Entry<V> {
+        private final Semaphore permits;
+        private final ConcurrentLinkedQueue<V> idle = new ConcurrentLinkedQueue<V>();
+        private final AtomicInteger numIdle = new AtomicInteger();
+        private final AtomicInteger numActive = new AtomicInteger();
+
+        Entry(int maxActive) {
+            this.permits = maxActive > 0 ? new Semaphore(maxActive) : null;
+        }
+    }
+}
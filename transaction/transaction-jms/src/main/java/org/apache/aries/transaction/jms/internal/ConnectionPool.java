@@ -26,7 +26,6 @@ import javax.jms.JMSException;
 import javax.jms.Session;
 
 import org.apache.commons.pool.KeyedPoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
 /**
@@ -46,17 +45,19 @@ public class ConnectionPool {
     private int idleTimeout = 30 * 1000;
     private long expiryTimeout = 0l;
     private boolean useAnonymousProducers = true;
+    private int producerCacheSize;
 
     private final AtomicBoolean started = new AtomicBoolean(false);
-    private final GenericKeyedObjectPool<SessionKey, PooledSession> sessionPool;
+    private final ConcurrentKeyedObjectPool<SessionKey, PooledSession> sessionPool;
     private final List<PooledSession> loanedSessions = new CopyOnWriteArrayList<PooledSession>();
 
     public ConnectionPool(Connection connection) {
 
         this.connection = wrap(connection);
 
-        // Create our internal Pool of session instances.
-        this.sessionPool = new GenericKeyedObjectPool<SessionKey, PooledSession>(
+        // Create our internal Pool of session instances, which does not serialize the
+        // threads borrowing and returning sessions.
+        this.sessionPool = new ConcurrentKeyedObjectPool<SessionKey, PooledSession>(
                 new KeyedPoolableObjectFactory<SessionKey, PooledSession>() {
 
                     @Override
@@ -73,7 +74,9 @@ public class ConnectionPool {
                     @Override
                     public PooledSession makeObject(SessionKey key) throws Exception {
                         Session session = makeSession(key);
-                        return new PooledSession(key, session, sessionPool, key.isTransacted(), useAnonymousProducers);
+                        PooledSession pooledSession = new PooledSession(key, session, sessionPool, key.isTransacted(), useAnonymousProducers);
+                        pooledSession.setProducerCacheSize(producerCacheSize);
+                        return pooledSession;
                     }
 
                     @Override
@@ -251,6 +254,14 @@ public class ConnectionPool {
         this.useAnonymousProducers = value;
     }
 
+    public int getProducerCacheSize() {
+        return this.producerCacheSize;
+    }
+
+    public void setProducerCacheSize(int producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+    }
+
     /**
      * @return the total number of Pooled session including idle sessions that are not
      *          currently loaned out to any client.
@@ -273,6 +284,28 @@ public class ConnectionPool {
         return this.sessionPool.getNumActive();
     }
 
+    /**
+     * @return the number of sessions borrowed from the session pool.
+     */
+    public long getNumSessionBorrows() {
+        return this.sessionPool.getNumBorrows();
+    }
+
+    /**
+     * @return the number of session requests which had to wait for a session to be returned
+     *          because the maximum number of active sessions was reached.
+     */
+    public long getNumSessionWaits() {
+        return this.sessionPool.getNumWaits();
+    }
+
+    /**
+     * @return the total time in milliseconds spent waiting for a session to be returned.
+     */
+    public long getSessionWaitTime() {
+        return this.sessionPool.getWaitTime();
+    }
+
     /**
      * Configure whether the createSession method should block when there are no more idle sessions and the
      * pool already contains the maximum number of active sessions.  If false the create method will fail
@@ -36,11 +36,21 @@ public class PooledProducer implements MessageProducer {
     private int priority;
     private long timeToLive;
     private boolean anonymous = true;
+    private final boolean shared;
 
     public PooledProducer(MessageProducer messageProducer, Destination destination) throws JMSException {
+        this(messageProducer, destination, false);
+    }
+
+    /**
+     * @param shared whether the producer is cached by the session, in which case
+     *               it is not closed when this producer is closed
+     */
+    public PooledProducer(MessageProducer messageProducer, Destination destination, boolean shared) throws JMSException {
         this.messageProducer = messageProducer;
         this.destination = destination;
         this.anonymous = messageProducer.getDestination() == null;
+        this.shared = shared;
 
         this.deliveryMode = messageProducer.getDeliveryMode();
         this.disableMessageID = messageProducer.getDisableMessageID();
@@ -51,7 +61,7 @@ public class PooledProducer implements MessageProducer {
 
     @Override
     public void close() throws JMSException {
-        if (!anonymous) {
+        if (!anonymous && !shared) {
             this.messageProducer.close();
         }
     }
@@ -31,6 +31,10 @@ public class PooledQueueSender extends PooledProducer implements QueueSender {
         super(messageProducer, destination);
     }
 
+    public PooledQueueSender(QueueSender messageProducer, Destination destination, boolean shared) throws JMSException {
+        super(messageProducer, destination, shared);
+    }
+
     public void send(Queue queue, Message message, int i, int i1, long l) throws JMSException {
         getQueueSender().send(queue, message, i, i1, l);
     }
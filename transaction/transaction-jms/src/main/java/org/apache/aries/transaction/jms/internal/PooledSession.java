@@ -19,6 +19,8 @@ package org.apache.aries.transaction.jms.internal;
 import java.io.Serializable;
 import java.lang.IllegalStateException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import javax.jms.*;
 import javax.transaction.xa.XAResource;
@@ -40,6 +42,11 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
     private TopicPublisher publisher;
     private QueueSender sender;
 
+    private final ProducerCache<MessageProducer> producers = new ProducerCache<MessageProducer>();
+    private final ProducerCache<TopicPublisher> publishers = new ProducerCache<TopicPublisher>();
+    private final ProducerCache<QueueSender> senders = new ProducerCache<QueueSender>();
+    private volatile int producerCacheSize;
+
     private Session session;
     private boolean transactional = true;
     private boolean ignoreClose;
@@ -69,6 +76,45 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
         this.ignoreClose = ignoreClose;
     }
 
+    public int getProducerCacheSize() {
+        return producerCacheSize;
+    }
+
+    /**
+     * Sets the number of destination specific producers kept open by this session
+     * when anonymous producers are not used.  The producers are reused across the
+     * uses of the session.  Once the cache is full, the producers created for other
+     * destinations are not cached and are closed with their handle, as the cached ones
+     * may still be in use.  The least recently used producers are closed when the session
+     * is returned to the pool.  Zero disables the cache.
+     */
+    public void setProducerCacheSize(int producerCacheSize) {
+        this.producerCacheSize = producerCacheSize;
+    }
+
+    /**
+     * Closes the producers cached by this session.
+     */
+    protected void closeCachedProducers() {
+        producers.trim(0);
+        publishers.trim(0);
+        senders.trim(0);
+    }
+
+    /**
+     * @return the number of producers reused from the cache of this session.
+     */
+    public long getProducerCacheHits() {
+        return producers.hits + publishers.hits + senders.hits;
+    }
+
+    /**
+     * @return the number of producers created because they were not in the cache of this session.
+     */
+    public long getProducerCacheMisses() {
+        return producers.misses + publishers.misses + senders.misses;
+    }
+
     @Override
     public void close() throws JMSException {
         if (!ignoreClose) {
@@ -88,6 +134,11 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
                     browser.close();
                 }
 
+                // Only keep the most recently used producers open while the session is idle.
+                producers.trim(producerCacheSize);
+                publishers.trim(producerCacheSize);
+                senders.trim(producerCacheSize);
+
                 if (transactional && !isXa) {
                     try {
                         getInternalSession().rollback();
@@ -111,6 +162,7 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
             if (invalidate) {
                 // lets close the session and not put the session back into the pool
                 // instead invalidate it so the pool can create a new one on demand.
+                closeCachedProducers();
                 if (session != null) {
                     try {
                         session.close();
@@ -335,17 +387,20 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
     // -------------------------------------------------------------------------
     @Override
     public MessageProducer createProducer(Destination destination) throws JMSException {
-        return new PooledProducer(getMessageProducer(destination), destination);
+        MessageProducer result = getMessageProducer(destination);
+        return new PooledProducer(result, destination, producers.contains(destination, result));
     }
 
     @Override
     public QueueSender createSender(Queue queue) throws JMSException {
-        return new PooledQueueSender(getQueueSender(queue), queue);
+        QueueSender result = getQueueSender(queue);
+        return new PooledQueueSender(result, queue, senders.contains(queue, result));
     }
 
     @Override
     public TopicPublisher createPublisher(Topic topic) throws JMSException {
-        return new PooledTopicPublisher(getTopicPublisher(topic), topic);
+        TopicPublisher result = getTopicPublisher(topic);
+        return new PooledTopicPublisher(result, topic, publishers.contains(topic, result));
     }
 
     public Session getInternalSession() throws IllegalStateException {
@@ -373,6 +428,14 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
             }
 
             result = producer;
+        } else if (isCachedProducer(destination)) {
+            synchronized (producers) {
+                result = producers.get(destination);
+                if (result == null) {
+                    result = getInternalSession().createProducer(destination);
+                    producers.put(destination, result, producerCacheSize);
+                }
+            }
         } else {
             result = getInternalSession().createProducer(destination);
         }
@@ -398,6 +461,14 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
             }
 
             result = sender;
+        } else if (isCachedProducer(destination)) {
+            synchronized (senders) {
+                result = senders.get(destination);
+                if (result == null) {
+                    result = ((QueueSession) getInternalSession()).createSender(destination);
+                    senders.put(destination, result, producerCacheSize);
+                }
+            }
         } else {
             result = ((QueueSession) getInternalSession()).createSender(destination);
         }
@@ -423,6 +494,14 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
             }
 
             result = publisher;
+        } else if (isCachedProducer(destination)) {
+            synchronized (publishers) {
+                result = publishers.get(destination);
+                if (result == null) {
+                    result = ((TopicSession) getInternalSession()).createPublisher(destination);
+                    publishers.put(destination, result, producerCacheSize);
+                }
+            }
         } else {
             result = ((TopicSession) getInternalSession()).createPublisher(destination);
         }
@@ -430,6 +509,14 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
         return result;
     }
 
+    /**
+     * Temporary destinations can be deleted while the session is idle, so their producers are not cached.
+     */
+    private boolean isCachedProducer(Destination destination) {
+        return !useAnonymousProducers && producerCacheSize > 0 && destination != null
+                && !(destination instanceof TemporaryQueue) && !(destination instanceof TemporaryTopic);
+    }
+
     private QueueBrowser addQueueBrowser(QueueBrowser browser) {
         browsers.add(browser);
         return browser;
@@ -475,4 +562,56 @@ public class PooledSession implements Session, TopicSession, QueueSession, XASes
     protected void onConsumerClose(MessageConsumer consumer) {
         consumers.remove(consumer);
     }
+
+    /**
+     * The destination specific producers of a session, in least recently used order.
+     * Callers synchronize on the cache.  The cached producers may be in use through
+     * the handles given out by the session, so they are only closed once the session
+     * is no longer in use.
+     */
+    private static class ProducerCache<P extends MessageProducer> {
+        private final Map<Destination, P> producers = new LinkedHashMap<Destination, P>(16, 0.75f, true);
+        private volatile long hits;
+        private volatile long misses;
+
+        P get(Destination destination) {
+            P producer = producers.get(destination);
+            if (producer != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return producer;
+        }
+
+        /**
+         * Caches the producer unless the cache is full, in which case the caller owns it.
+         */
+        void put(Destination destination, P producer, int maxSize) {
+            if (producers.size() < maxSize) {
+                producers.put(destination, producer);
+            }
+        }
+
+        synchronized boolean contains(Destination destination, MessageProducer producer) {
+            return destination != null && producers.get(destination) == producer;
+        }
+
+        synchronized void trim(int size) {
+            Iterator<P> iter = producers.values().iterator();
+            for (int n = producers.size(); n > size && iter.hasNext(); n--) {
+                P producer = iter.next();
+                iter.remove();
+                close(producer);
+            }
+        }
+
+        private static void close(MessageProducer producer) {
+            try {
+                producer.close();
+            } catch (JMSException e) {
+                LOG.trace("Ignoring exception on close of cached producer: " + e, e);
+            }
+        }
+    }
 }
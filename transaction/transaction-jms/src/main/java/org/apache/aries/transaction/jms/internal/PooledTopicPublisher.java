@@ -31,6 +31,10 @@ public class PooledTopicPublisher extends PooledProducer implements TopicPublish
         super(messageProducer, destination);
     }
 
+    public PooledTopicPublisher(TopicPublisher messageProducer, Destination destination, boolean shared) throws JMSException {
+        super(messageProducer, destination, shared);
+    }
+
     public Topic getTopic() throws JMSException {
         return getTopicPublisher().getTopic();
     }
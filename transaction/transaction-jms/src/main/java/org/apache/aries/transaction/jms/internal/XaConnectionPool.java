@@ -120,6 +120,10 @@ public class XaConnectionPool extends ConnectionPool {
         @Override
         public void afterCompletion(int status) {
             try {
+                // Do not reuse producers which took part in a failed transaction.
+                if (status != Status.STATUS_COMMITTED) {
+                    session.closeCachedProducers();
+                }
                 // This will return session to the pool.
                 session.setIgnoreClose(false);
                 session.close();
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+
+import org.apache.aries.transaction.jms.internal.PooledConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledConnectionFactoryTest {
+
+    private final List<Connection> created = Collections.synchronizedList(new ArrayList<Connection>());
+    private final Set<Connection> closed = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Connection, Boolean>()));
+
+    private PooledConnectionFactory pcf;
+
+    @Before
+    public void setUp() {
+        pcf = new PooledConnectionFactory();
+        pcf.setConnectionFactory(createConnectionFactory());
+    }
+
+    @After
+    public void tearDown() {
+        pcf.stop();
+    }
+
+    @Test
+    public void testRecentlyUsedConnectionsAreReused() throws Exception {
+        pcf.setMaxConnections(2);
+
+        Connection first = pcf.createConnection();
+        Connection second = pcf.createConnection();
+        Connection third = pcf.createConnection();
+
+        assertEquals(2, created.size());
+        assertNotSame(delegate(first), delegate(second));
+        // the slots are used in turn
+        assertSame(delegate(first), delegate(third));
+        assertEquals(2, pcf.getConnectionCacheMisses());
+        assertEquals(1, pcf.getConnectionCacheHits());
+
+        first.close();
+        second.close();
+        third.close();
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentCallersShareTheMaxConnections() throws Exception {
+        pcf.setMaxConnections(2);
+
+        final int threads = 8;
+        final int iterations = 200;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < iterations; j++) {
+                            Connection connection = pcf.createConnection();
+                            if (closed.contains(delegate(connection))) {
+                                throw new AssertionError("handed out a closed connection");
+                            }
+                            connection.close();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(30000);
+            assertFalse(worker.isAlive());
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(threads * iterations, pcf.getConnectionCacheHits() + pcf.getConnectionCacheMisses());
+        assertEquals(2, created.size());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testIdleConnectionIsReplacedOnNextCall() throws Exception {
+        pcf.setMaxConnections(1);
+        pcf.setIdleTimeout(50);
+
+        Connection first = pcf.createConnection();
+        Connection delegate = delegate(first);
+        first.close();
+        Thread.sleep(150);
+
+        Connection second = pcf.createConnection();
+        assertTrue(closed.contains(delegate));
+        assertNotSame(delegate, delegate(second));
+        assertEquals(2, created.size());
+        second.close();
+    }
+
+    @Test
+    public void testIdleConnectionIsEvictedInBackground() throws Exception {
+        pcf.setMaxConnections(1);
+        pcf.setIdleTimeout(50);
+        pcf.setTimeBetweenExpirationCheckMillis(20);
+
+        Connection first = pcf.createConnection();
+        Connection delegate = delegate(first);
+        first.close();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!closed.contains(delegate) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(closed.contains(delegate));
+
+        // the slot holding the evicted connection is not used anymore
+        Connection second = pcf.createConnection();
+        assertNotSame(delegate, delegate(second));
+        assertFalse(closed.contains(delegate(second)));
+        second.close();
+    }
+
+    @Test
+    public void testConnectionInUseIsNotEvicted() throws Exception {
+        pcf.setMaxConnections(1);
+        pcf.setIdleTimeout(50);
+
+        Connection first = pcf.createConnection();
+        Thread.sleep(150);
+
+        Connection second = pcf.createConnection();
+        assertSame(delegate(first), delegate(second));
+        assertTrue(closed.isEmpty());
+        first.close();
+        second.close();
+    }
+
+    private static Connection delegate(Connection connection) throws JMSException {
+        return ((PooledConnection) connection).getConnection();
+    }
+
+    private ConnectionFactory createConnectionFactory() {
+        return (ConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {ConnectionFactory.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createConnection")) {
+                    Connection connection = createConnection();
+                    created.add(connection);
+                    return connection;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Connection.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("close")) {
+                    closed.add((Connection) proxy);
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("toString")) {
+                    return "Connection@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.jms.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentKeyedObjectPoolTest {
+
+    private static final String KEY = "key";
+
+    private CountingFactory factory;
+    private ConcurrentKeyedObjectPool<String, Object> pool;
+
+    @Before
+    public void setUp() {
+        factory = new CountingFactory();
+        pool = new ConcurrentKeyedObjectPool<String, Object>(factory);
+    }
+
+    @Test
+    public void testConcurrentBorrowAndReturn() throws Exception {
+        pool.setMaxActive(3);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+
+        final int threads = 8;
+        final int iterations = 500;
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < iterations; j++) {
+                            Object obj = pool.borrowObject(KEY);
+                            int current = active.incrementAndGet();
+                            int max;
+                            while (current > (max = maxActive.get()) && !maxActive.compareAndSet(max, current)) {
+                                // retry
+                            }
+                            Thread.yield();
+                            active.decrementAndGet();
+                            pool.returnObject(KEY, obj);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join(30000);
+            assertFalse(worker.isAlive());
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue("more than maxActive objects borrowed at once", maxActive.get() <= 3);
+        assertTrue("more objects created than maxActive", factory.made.get() <= 3);
+        assertEquals(threads * iterations, pool.getNumBorrows());
+        assertEquals(0, pool.getNumActive(KEY));
+        assertEquals(factory.made.get(), pool.getNumIdle(KEY));
+        assertEquals(0, factory.destroyed.get());
+    }
+
+    @Test
+    public void testBorrowBlocksWhenExhausted() throws Exception {
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        final Object obj = pool.borrowObject(KEY);
+
+        final AtomicReference<Object> borrowed = new AtomicReference<Object>();
+        Thread borrower = new Thread() {
+            public void run() {
+                try {
+                    borrowed.set(pool.borrowObject(KEY));
+                } catch (Exception e) {
+                    borrowed.set(e);
+                }
+            }
+        };
+        borrower.start();
+        borrower.join(200);
+        assertTrue("borrower should block until an object is returned", borrower.isAlive());
+
+        pool.returnObject(KEY, obj);
+        borrower.join(5000);
+        assertFalse(borrower.isAlive());
+        assertSame(obj, borrowed.get());
+        assertEquals(1, pool.getNumWaits());
+        assertEquals(1, factory.made.get());
+    }
+
+    @Test
+    public void testBorrowTimesOutWhenExhausted() throws Exception {
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxWait(100);
+        pool.borrowObject(KEY);
+
+        long t0 = System.nanoTime();
+        try {
+            pool.borrowObject(KEY);
+            fail("borrow should time out");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) >= 90);
+        assertEquals(1, pool.getNumWaits());
+        assertEquals(1, pool.getNumActive(KEY));
+    }
+
+    @Test
+    public void testBorrowFailsWhenExhausted() throws Exception {
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+        pool.borrowObject(KEY);
+
+        try {
+            pool.borrowObject(KEY);
+            fail("borrow should fail");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertEquals(0, pool.getNumWaits());
+        // other keys have their own limit
+        pool.borrowObject("other");
+    }
+
+    @Test
+    public void testBorrowGrowsWhenExhausted() throws Exception {
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW);
+        for (int i = 0; i < 3; i++) {
+            pool.borrowObject(KEY);
+        }
+        assertEquals(3, pool.getNumActive(KEY));
+    }
+
+    @Test
+    public void testInvalidateDestroysObjectAndReleasesPermit() throws Exception {
+        pool.setMaxActive(1);
+        pool.setWhenExhaustedAction(GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL);
+        Object obj = pool.borrowObject(KEY);
+
+        pool.invalidateObject(KEY, obj);
+        assertEquals(1, factory.destroyed.get());
+        assertEquals(0, pool.getNumActive(KEY));
+        assertEquals(0, pool.getNumIdle(KEY));
+
+        assertNotSame(obj, pool.borrowObject(KEY));
+        assertEquals(2, factory.made.get());
+    }
+
+    @Test
+    public void testIdleObjectsBeyondMaxIdleAreDestroyed() throws Exception {
+        pool.setMaxIdle(1);
+        List<Object> objs = new ArrayList<Object>();
+        for (int i = 0; i < 3; i++) {
+            objs.add(pool.borrowObject(KEY));
+        }
+        for (Object obj : objs) {
+            pool.returnObject(KEY, obj);
+        }
+        assertEquals(1, pool.getNumIdle(KEY));
+        assertEquals(2, factory.destroyed.get());
+
+        // the idle object is reused
+        assertSame(objs.get(0), pool.borrowObject(KEY));
+        assertEquals(3, factory.made.get());
+    }
+
+    @Test
+    public void testClearAndCloseDestroyIdleObjects() throws Exception {
+        Object first = pool.borrowObject(KEY);
+        Object second = pool.borrowObject(KEY);
+        pool.returnObject(KEY, first);
+
+        pool.clear();
+        assertEquals(0, pool.getNumIdle(KEY));
+        assertEquals(1, factory.destroyed.get());
+
+        pool.close();
+        // objects returned after the pool is closed are not kept
+        pool.returnObject(KEY, second);
+        assertEquals(0, pool.getNumIdle(KEY));
+        assertEquals(2, factory.destroyed.get());
+    }
+
+    private static class CountingFactory extends BaseKeyedPoolableObjectFactory<String, Object> {
+        private final AtomicInteger made = new AtomicInteger();
+        private final AtomicInteger destroyed = new AtomicInteger();
+
+        @Override
+        public Object makeObject(String key) {
+            made.incrementAndGet();
+            return new Object();
+        }
+
+        @Override
+        public void destroyObject(String key, Object obj) {
+            destroyed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.jms.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jms.Destination;
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledSessionTest {
+
+    private final List<MessageProducer> created = new ArrayList<MessageProducer>();
+    private final Set<MessageProducer> closed = new HashSet<MessageProducer>();
+    private final List<Message> sent = new ArrayList<Message>();
+
+    private PooledSession session;
+
+    @Before
+    public void setUp() {
+        Session delegate = (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Session.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("createProducer")) {
+                    MessageProducer producer = createProducer((Destination) args[0]);
+                    created.add(producer);
+                    return producer;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+        session = new PooledSession(new SessionKey(false, Session.AUTO_ACKNOWLEDGE), delegate, null, false, false);
+        session.setProducerCacheSize(2);
+    }
+
+    @Test
+    public void testProducersAreReused() throws Exception {
+        Queue queue = createQueue();
+
+        session.createProducer(queue).close();
+        session.createProducer(queue).close();
+
+        assertEquals(1, created.size());
+        assertEquals(1, session.getProducerCacheHits());
+        assertEquals(1, session.getProducerCacheMisses());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void testCachedProducersStayOpenWhileSessionIsInUse() throws Exception {
+        Queue first = createQueue();
+        Queue second = createQueue();
+        Queue third = createQueue();
+
+        MessageProducer firstProducer = session.createProducer(first);
+        session.createProducer(second);
+        MessageProducer thirdProducer = session.createProducer(third);
+
+        // the cache is full, so the producer of the third queue is not cached
+        assertEquals(3, created.size());
+        assertTrue(closed.isEmpty());
+        firstProducer.send(createMessage());
+        assertEquals(1, sent.size());
+
+        thirdProducer.close();
+        assertEquals(1, closed.size());
+        assertTrue(closed.contains(created.get(2)));
+
+        // the cached producers are still reused
+        session.createProducer(first).send(createMessage());
+        session.createProducer(second);
+        assertEquals(3, created.size());
+        assertEquals(2, session.getProducerCacheHits());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void testCachedProducersAreClosedWithTheCache() throws Exception {
+        session.createProducer(createQueue());
+        session.createProducer(createQueue());
+
+        session.closeCachedProducers();
+
+        assertEquals(2, closed.size());
+    }
+
+    private MessageProducer createProducer(final Destination destination) {
+        return (MessageProducer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {MessageProducer.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws JMSException {
+                if (method.getName().equals("close")) {
+                    closed.add((MessageProducer) proxy);
+                    return null;
+                } else if (method.getDeclaringClass() == MessageProducer.class && closed.contains(proxy)) {
+                    throw new IllegalStateException("The producer is closed");
+                } else if (method.getName().equals("send")) {
+                    sent.add((Message) args[1]);
+                    return null;
+                } else if (method.getName().equals("getDestination")) {
+                    return destination;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    private Message createMessage() {
+        return (Message) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Message.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    private Queue createQueue() {
+        return (Queue) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Queue.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        } else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (method.getName().equals("toString")) {
+            return method.getDeclaringClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        } else if (method.getReturnType() == int.class) {
+            return 0;
+        } else if (method.getReturnType() == long.class) {
+            return 0L;
+        } else if (method.getReturnType() == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+}
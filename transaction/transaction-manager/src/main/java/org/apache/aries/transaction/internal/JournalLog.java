@@ -0,0 +1,835 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import javax.transaction.xa.Xid;
+
+import org.apache.geronimo.transaction.manager.LogException;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link TransactionLog} writing to preallocated, memory-mapped segment files.
+ *
+ * <p>Appending a record only reserves its space in the current segment with a compare-and-set,
+ * so concurrent transactions copy their records into the mapped segment in parallel.</p>
+ *
+ * <p>Prepare records are forced using a group commit: while a thread forces the segments to disk,
+ * the threads which need a force wait for it to complete and are then all covered by the next one.
+ * The number of records per force thus adapts to the commit rate and to the latency of the disk,
+ * without any flush timer.</p>
+ *
+ * <p>Segments are retired, oldest first, once all the transactions they prepared are completed, and deleted
+ * after the next force so that completing a transaction never waits for the disk. When more than
+ * <code>maxSegments</code> segments are in use, the prepare records still active in the oldest segment
+ * are copied to the current segment so that the oldest one can be deleted.</p>
+ *
+ * <p>Segment files are named <code>&lt;logFileName&gt;_&lt;id&gt;.&lt;logFileExt&gt;</code>. Each record is
+ * aligned on 8 bytes and protected by a CRC32 checksum, so that recovery skips torn or missing records.</p>
+ */
+public class JournalLog implements TransactionLog {
+
+    static final int MAGIC = 0x4152544a; // ARTJ
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 32;
+    // magic, length, transaction id, type
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1;
+    static final int RECORD_TRAILER_SIZE = 4;
+    static final int ALIGNMENT = 8;
+
+    private static final byte PREPARE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte ROLLBACK = 3;
+
+    private static final Logger log = LoggerFactory.getLogger(JournalLog.class);
+
+    private final File logFileDir;
+    private final String logFileName;
+    private final String logFileExt;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    // segments without active transactions, deleted once the records appended before they were retired are on disk
+    private final LinkedList<Segment> retiring = new LinkedList<Segment>();
+    private volatile Segment current;
+    private final ConcurrentMap<Long, Mark> active = new ConcurrentHashMap<Long, Mark>();
+    private final AtomicLong nextTxId = new AtomicLong(1);
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile boolean started;
+
+    // group commit: number of records appended, and the number of records known to be on disk
+    private final AtomicLong appended = new AtomicLong();
+    private final Object forceLock = new Object();
+    private long forced;
+    private boolean forcing;
+
+    private final AtomicLong bytesAppended = new AtomicLong();
+    private final AtomicLong forceCount = new AtomicLong();
+    private final AtomicLong forceTime = new AtomicLong();
+    private final AtomicLong forcedRecords = new AtomicLong();
+    private volatile long bytesForced;
+
+    /**
+     * @param logFileDir directory containing the segment files
+     * @param logFileName prefix of the segment file names
+     * @param logFileExt extension of the segment file names
+     * @param segmentSizeKBytes size of each segment file in kilobytes
+     * @param maxSegments number of segments above which active records are copied out of the oldest segment
+     */
+    public JournalLog(String logFileDir, String logFileName, String logFileExt, int segmentSizeKBytes, int maxSegments) {
+        this.logFileDir = new File(logFileDir);
+        this.logFileName = logFileName;
+        this.logFileExt = logFileExt;
+        this.segmentSize = segmentSizeKBytes * 1024;
+        this.maxSegments = Math.max(2, maxSegments);
+    }
+
+    public String getLogFileDir() {
+        return logFileDir.getAbsolutePath();
+    }
+
+    public String getLogFileName() {
+        return logFileName;
+    }
+
+    public String getLogFileExt() {
+        return logFileExt;
+    }
+
+    public int getSegmentSizeKBytes() {
+        return segmentSize / 1024;
+    }
+
+    public int getMaxSegments() {
+        return maxSegments;
+    }
+
+    public synchronized void doStart() throws Exception {
+        if (started) {
+            return;
+        }
+        if (!logFileDir.isDirectory() && !logFileDir.mkdirs()) {
+            throw new IOException("Unable to create transaction log directory " + logFileDir);
+        }
+        long lastId = 0;
+        for (File file : listSegmentFiles(logFileDir, logFileName, logFileExt)) {
+            long id = segmentId(file, logFileName, logFileExt);
+            lastId = Math.max(lastId, id);
+            Segment segment = Segment.open(file, id);
+            if (segment == null) {
+                log.warn("Ignoring invalid transaction log segment {}", file);
+                if (!file.delete()) {
+                    log.warn("Unable to delete invalid transaction log segment {}", file);
+                }
+                continue;
+            }
+            replay(segment);
+            segments.add(segment);
+        }
+        current = Segment.create(segmentFile(lastId + 1), lastId + 1, segmentSize);
+        segments.add(current);
+        started = true;
+        log.debug("Transaction journal started with {} active transactions", active.size());
+        retire();
+        // the recovered segments are already on disk
+        deleteRetired(appended.get());
+    }
+
+    public synchronized void doStop() throws Exception {
+        if (!started) {
+            return;
+        }
+        List<Segment> open;
+        synchronized (segments) {
+            started = false;
+            // no record can be reserved anymore
+            for (Segment segment : segments) {
+                segment.seal();
+            }
+            open = new ArrayList<Segment>(segments);
+        }
+        for (Segment segment : open) {
+            while (segment.writers.get() > 0) {
+                Thread.yield();
+            }
+        }
+        force();
+        synchronized (segments) {
+            open = new ArrayList<Segment>(segments);
+            open.addAll(retiring);
+            segments.clear();
+            retiring.clear();
+        }
+        for (Segment segment : open) {
+            segment.close();
+        }
+        active.clear();
+    }
+
+    public void begin(Xid xid) throws LogException {
+    }
+
+    public Object prepare(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+        Mark mark = new Mark(nextTxId.getAndIncrement(), encode(xid, branches));
+        synchronized (mark) {
+            mark.segment = append(mark.record, true);
+            active.put(mark.txId, mark);
+        }
+        force();
+        return mark;
+    }
+
+    public void commit(Xid xid, Object logMark) throws LogException {
+        done((Mark) logMark, COMMIT);
+    }
+
+    public void rollback(Xid xid, Object logMark) throws LogException {
+        done((Mark) logMark, ROLLBACK);
+    }
+
+    public Collection<Recovery.XidBranchesPair> recover(XidFactory xidFactory) throws LogException {
+        log.debug("Initiating transaction manager recovery");
+        Map<Long, Mark> marks = new LinkedHashMap<Long, Mark>(active);
+        List<Recovery.XidBranchesPair> recovered = new ArrayList<Recovery.XidBranchesPair>();
+        for (Mark mark : marks.values()) {
+            try {
+                recovered.add(decode(mark, xidFactory));
+            } catch (IOException e) {
+                throw new LogException("Unable to decode prepare record of transaction " + mark.txId, e);
+            }
+        }
+        log.debug("In doubt transactions recovered from log");
+        return recovered;
+    }
+
+    public String getXMLStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<JournalLog>\n");
+        sb.append("  <segments>").append(getSegmentCount()).append("</segments>\n");
+        sb.append("  <activeTransactions>").append(active.size()).append("</activeTransactions>\n");
+        sb.append("  <bytesAppended>").append(bytesAppended.get()).append("</bytesAppended>\n");
+        sb.append("  <forceCount>").append(forceCount.get()).append("</forceCount>\n");
+        sb.append("  <averageForceTime>").append(getAverageForceTime()).append("</averageForceTime>\n");
+        sb.append("  <averageBytesPerForce>").append(getAverageBytesPerForce()).append("</averageBytesPerForce>\n");
+        sb.append("  <averageRecordsPerForce>").append(getAverageRecordsPerForce()).append("</averageRecordsPerForce>\n");
+        sb.append("</JournalLog>\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return the average time of a force in milliseconds
+     */
+    public int getAverageForceTime() {
+        long count = forceCount.get();
+        return count > 0 ? (int) (forceTime.get() / count / 1000000L) : 0;
+    }
+
+    public int getAverageBytesPerForce() {
+        long count = forceCount.get();
+        return count > 0 ? (int) (bytesForced / count) : 0;
+    }
+
+    /**
+     * @return the average number of records made durable by a single force, which shows how well commits are grouped
+     */
+    public int getAverageRecordsPerForce() {
+        long count = forceCount.get();
+        return count > 0 ? (int) (forcedRecords.get() / count) : 0;
+    }
+
+    /**
+     * @return the number of bytes appended to the journal since it has been started
+     */
+    public long getBytesAppended() {
+        return bytesAppended.get();
+    }
+
+    public int getSegmentCount() {
+        synchronized (segments) {
+            return segments.size();
+        }
+    }
+
+    public int getActiveTransactionCount() {
+        return active.size();
+    }
+
+    private void done(Mark mark, byte type) throws LogException {
+        Segment segment;
+        synchronized (mark) {
+            if (mark.done) {
+                return;
+            }
+            mark.done = true;
+            active.remove(mark.txId);
+            append(encode(mark.txId, type, new byte[0]), false);
+            segment = mark.segment;
+        }
+        // Like HOWL, completion records are not forced: an in doubt transaction is at worst recovered again
+        if (segment.live.decrementAndGet() == 0 && segment != current) {
+            retire();
+        }
+    }
+
+    /**
+     * Append a record to the current segment, rolling to a new segment if the record does not fit.
+     *
+     * @return the segment the record has been written to
+     */
+    private Segment append(byte[] record, boolean prepare) throws LogException {
+        if (!started) {
+            throw new IllegalStateException("Transaction log is closed");
+        }
+        if (record.length > segmentSize - SEGMENT_HEADER_SIZE) {
+            throw new LogException("Transaction log record of " + record.length + " bytes does not fit in a segment of " + segmentSize + " bytes");
+        }
+        while (true) {
+            Segment segment = current;
+            int position = segment.reserve(record.length);
+            if (position >= 0) {
+                try {
+                    segment.write(position, record);
+                    if (prepare) {
+                        segment.live.incrementAndGet();
+                    }
+                } finally {
+                    segment.writers.decrementAndGet();
+                }
+                bytesAppended.addAndGet(record.length);
+                appended.incrementAndGet();
+                return segment;
+            }
+            roll(segment);
+        }
+    }
+
+    private void roll(Segment full) throws LogException {
+        boolean compact;
+        synchronized (segments) {
+            if (!started) {
+                throw new IllegalStateException("Transaction log is closed");
+            }
+            if (current != full) {
+                return;
+            }
+            full.seal();
+            long id = full.id + 1;
+            try {
+                current = Segment.create(segmentFile(id), id, segmentSize);
+            } catch (IOException e) {
+                throw new LogException("Unable to create transaction log segment " + segmentFile(id), e);
+            }
+            segments.add(current);
+            compact = segments.size() > maxSegments;
+        }
+        if (compact && compacting.compareAndSet(false, true)) {
+            try {
+                compact();
+            } finally {
+                compacting.set(false);
+            }
+        }
+        retire();
+    }
+
+    /**
+     * Copy the records still active in the oldest segment to the current one, so that it can be deleted.
+     */
+    private void compact() throws LogException {
+        Segment oldest;
+        synchronized (segments) {
+            oldest = segments.getFirst();
+        }
+        int copied = 0;
+        for (Mark mark : active.values()) {
+            synchronized (mark) {
+                if (mark.done || mark.segment != oldest) {
+                    continue;
+                }
+                mark.segment = append(mark.record, true);
+                oldest.live.decrementAndGet();
+                copied++;
+            }
+        }
+        if (copied > 0) {
+            log.debug("Copied {} active transactions out of transaction log segment {}", copied, oldest.file);
+        }
+    }
+
+    /**
+     * Retire the oldest segments which do not contain any active transaction.
+     * Segments are only retired in order, as the completion records of the transactions prepared
+     * in a segment are written in the following ones.
+     */
+    private void retire() {
+        synchronized (segments) {
+            long target = appended.get();
+            while (!segments.isEmpty()) {
+                Segment segment = segments.getFirst();
+                if (segment == current || segment.live.get() > 0 || segment.writers.get() > 0) {
+                    break;
+                }
+                segments.removeFirst();
+                segment.retiredAt = target;
+                retiring.add(segment);
+            }
+        }
+    }
+
+    /**
+     * Delete the retired segments once the records copied out of them are on disk.
+     *
+     * @param forced the number of records known to be on disk
+     */
+    private void deleteRetired(long forced) {
+        List<Segment> deletable = new ArrayList<Segment>();
+        synchronized (segments) {
+            while (!retiring.isEmpty() && retiring.getFirst().retiredAt <= forced) {
+                deletable.add(retiring.removeFirst());
+            }
+        }
+        for (Segment segment : deletable) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Make sure all the records appended so far are on disk.
+     */
+    private void force() throws LogException {
+        long target = appended.get();
+        while (true) {
+            synchronized (forceLock) {
+                while (forcing && forced < target) {
+                    try {
+                        forceLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new LogException("Interrupted while waiting for the transaction log to be forced", e);
+                    }
+                }
+                if (forced >= target) {
+                    return;
+                }
+                forcing = true;
+            }
+            // every record counted here has been written to its segment before being counted
+            long records = appended.get();
+            long bytes = bytesAppended.get();
+            long t0 = System.nanoTime();
+            try {
+                List<Segment> snapshot;
+                synchronized (segments) {
+                    snapshot = new ArrayList<Segment>(segments);
+                }
+                for (Segment segment : snapshot) {
+                    segment.force();
+                }
+            } finally {
+                synchronized (forceLock) {
+                    forceCount.incrementAndGet();
+                    forceTime.addAndGet(System.nanoTime() - t0);
+                    forcedRecords.addAndGet(records - forced);
+                    bytesForced = bytes;
+                    forced = records;
+                    forcing = false;
+                    forceLock.notifyAll();
+                }
+            }
+            deleteRetired(records);
+        }
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE <= segment.size) {
+            int length = readRecord(buffer, position, segment.size);
+            if (length < 0) {
+                // torn, missing or not yet written record
+                position += ALIGNMENT;
+                continue;
+            }
+            long txId = buffer.getLong(position + 8);
+            byte type = buffer.get(position + 16);
+            if (type == PREPARE) {
+                byte[] record = new byte[align(length)];
+                buffer.position(position);
+                buffer.get(record, 0, length);
+                Mark mark = new Mark(txId, record);
+                mark.segment = segment;
+                segment.live.incrementAndGet();
+                Mark previous = active.put(txId, mark);
+                if (previous != null) {
+                    // the record has been copied out of an older segment
+                    previous.segment.live.decrementAndGet();
+                }
+            } else {
+                Mark mark = active.remove(txId);
+                if (mark != null) {
+                    mark.segment.live.decrementAndGet();
+                }
+            }
+            if (txId >= nextTxId.get()) {
+                nextTxId.set(txId + 1);
+            }
+            position += align(length);
+        }
+        // recovered segments are never appended to
+        segment.seal();
+    }
+
+    /**
+     * @return the length of the valid record at the given position, or -1
+     */
+    private static int readRecord(ByteBuffer buffer, int position, int size) {
+        if (buffer.getInt(position) != MAGIC) {
+            return -1;
+        }
+        int length = buffer.getInt(position + 4);
+        if (length < RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE || length > size - position) {
+            return -1;
+        }
+        byte[] data = new byte[length - 4 - RECORD_TRAILER_SIZE];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(position + 4);
+        dup.get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != buffer.getInt(position + length - RECORD_TRAILER_SIZE)) {
+            return -1;
+        }
+        return length;
+    }
+
+    private static byte[] encode(Xid xid, List<? extends TransactionBranchInfo> branches) throws LogException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(xid.getFormatId());
+            writeBytes(out, xid.getGlobalTransactionId());
+            writeBytes(out, xid.getBranchQualifier());
+            out.writeShort(branches.size());
+            for (TransactionBranchInfo branch : branches) {
+                writeBytes(out, branch.getBranchXid().getBranchQualifier());
+                out.writeUTF(branch.getResourceName());
+            }
+            out.close();
+            return encode(0, PREPARE, baos.toByteArray());
+        } catch (IOException e) {
+            throw new LogException(e);
+        }
+    }
+
+    private static byte[] encode(long txId, byte type, byte[] payload) {
+        int length = RECORD_HEADER_SIZE + payload.length + RECORD_TRAILER_SIZE;
+        byte[] record = new byte[align(length)];
+        ByteBuffer bb = ByteBuffer.wrap(record);
+        bb.putInt(MAGIC).putInt(length).putLong(txId).put(type).put(payload);
+        setTxId(record, txId);
+        return record;
+    }
+
+    private static void setTxId(byte[] record, long txId) {
+        ByteBuffer bb = ByteBuffer.wrap(record);
+        bb.putLong(8, txId);
+        int length = bb.getInt(4);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, length - 4 - RECORD_TRAILER_SIZE);
+        bb.putInt(length - RECORD_TRAILER_SIZE, (int) crc.getValue());
+    }
+
+    private static Recovery.XidBranchesPair decode(Mark mark, XidFactory xidFactory) throws IOException {
+        int length = ByteBuffer.wrap(mark.record).getInt(4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                mark.record, RECORD_HEADER_SIZE, length - RECORD_HEADER_SIZE - RECORD_TRAILER_SIZE));
+        int formatId = in.readInt();
+        byte[] globalId = readBytes(in);
+        byte[] branchId = readBytes(in);
+        Xid masterXid = xidFactory.recover(formatId, globalId, branchId);
+        Recovery.XidBranchesPair xidBranchesPair = new Recovery.XidBranchesPair(masterXid, mark);
+        log.debug("recovered prepare record for master xid: " + masterXid);
+        int branches = in.readUnsignedShort();
+        for (int i = 0; i < branches; i++) {
+            byte[] branchBranchId = readBytes(in);
+            String name = in.readUTF();
+            Xid branchXid = xidFactory.recover(formatId, globalId, branchBranchId);
+            xidBranchesPair.addBranch(new TransactionBranchInfoImpl(branchXid, name));
+            log.debug("recovered branch for resource manager, branchId " + name + ", " + branchXid);
+        }
+        return xidBranchesPair;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    private File segmentFile(long id) {
+        return new File(logFileDir, String.format("%s_%d.%s", logFileName, id, logFileExt));
+    }
+
+    /**
+     * @return the segment files of a journal, ordered by segment id
+     */
+    static List<File> listSegmentFiles(File logFileDir, final String logFileName, final String logFileExt) {
+        File[] files = logFileDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return segmentPattern(logFileName, logFileExt).matcher(name).matches();
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long id1 = segmentId(f1, logFileName, logFileExt);
+                long id2 = segmentId(f2, logFileName, logFileExt);
+                return id1 < id2 ? -1 : id1 > id2 ? 1 : 0;
+            }
+        });
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    private static long segmentId(File file, String logFileName, String logFileExt) {
+        Matcher matcher = segmentPattern(logFileName, logFileExt).matcher(file.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    private static Pattern segmentPattern(String logFileName, String logFileExt) {
+        return Pattern.compile(Pattern.quote(logFileName) + "_([0-9]+)\\." + Pattern.quote(logFileExt));
+    }
+
+    /**
+     * The position of a prepare record, used as the log mark of a transaction.
+     */
+    private static class Mark {
+
+        private final long txId;
+        private final byte[] record;
+        private Segment segment;
+        private boolean done;
+
+        Mark(long txId, byte[] record) {
+            this.txId = txId;
+            this.record = record;
+            setTxId(record, txId);
+        }
+
+        @Override
+        public String toString() {
+            return "JournalLog.Mark[" + txId + "]";
+        }
+    }
+
+    private static class Segment {
+
+        private final long id;
+        private final File file;
+        private final int size;
+        private final MappedByteBuffer buffer;
+        // next free position, set to the size of the segment once the segment is sealed
+        private final AtomicInteger position;
+        // number of threads writing a record in this segment
+        private final AtomicInteger writers = new AtomicInteger();
+        // number of prepare records of active transactions
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile boolean dirty;
+        // number of records appended when the segment has been retired
+        private long retiredAt;
+        private boolean closed;
+
+        private Segment(long id, File file, MappedByteBuffer buffer, int position) {
+            this.id = id;
+            this.file = file;
+            this.size = buffer.capacity();
+            this.buffer = buffer;
+            this.position = new AtomicInteger(position);
+        }
+
+        static Segment create(File file, long id, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(8, id);
+                buffer.putInt(16, size);
+                buffer.force();
+                return new Segment(id, file, buffer, SEGMENT_HEADER_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+
+        static Segment open(File file, long id) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                long length = raf.length();
+                if (length < SEGMENT_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    return null;
+                }
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                        || buffer.getLong(8) != id || buffer.getInt(16) != length) {
+                    return null;
+                }
+                return new Segment(id, file, buffer, SEGMENT_HEADER_SIZE);
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Reserve space for a record.  On success, the caller must decrement <code>writers</code> once written.
+         *
+         * @return the position of the record or -1 if the segment is full
+         */
+        int reserve(int length) {
+            writers.incrementAndGet();
+            while (true) {
+                int p = position.get();
+                if ((long) p + length > size) {
+                    writers.decrementAndGet();
+                    return -1;
+                }
+                if (position.compareAndSet(p, p + length)) {
+                    return p;
+                }
+            }
+        }
+
+        void write(int p, byte[] record) {
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(p);
+            dup.put(record);
+            dirty = true;
+        }
+
+        void seal() {
+            position.set(size);
+        }
+
+        synchronized void force() {
+            if (dirty && !closed) {
+                dirty = false;
+                buffer.force();
+            }
+        }
+
+        synchronized void delete() {
+            if (!closed) {
+                // invalidate the header first, so that the segment is ignored by recovery if it can not be deleted
+                buffer.putInt(0, 0);
+                buffer.force();
+                close();
+            }
+            if (!file.delete()) {
+                log.debug("Unable to delete transaction log segment {}, it will be deleted on restart", file);
+            }
+        }
+
+        /**
+         * Unmap the segment.  It must not be written to anymore.
+         */
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Release the mapping of a buffer right away rather than when the buffer is garbage collected,
+     * so that the file can be deleted on every platform.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8 and earlier
+        } catch (Exception e) {
+            log.debug("Unable to unmap transaction log segment", e);
+            return;
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.debug("Unable to unmap transaction log segment", e);
+        }
+    }
+
+}
@@ -57,6 +57,7 @@ public class TransactionLogUtils {
      */
     public static boolean copyActiveTransactions(Dictionary<String, Object> oldConfiguration, Dictionary<String, ?> newConfiguration)
             throws ConfigurationException, IOException {
+        boolean knownOldConfiguration = oldConfiguration != null;
         if (oldConfiguration == null) {
             oldConfiguration = new Hashtable<String, Object>();
         }
@@ -77,6 +78,13 @@ public class TransactionLogUtils {
         File newDir = new File(newLogDirectory);
         newLogDirectory = newDir.getAbsolutePath();
 
+        String newLogType = getString(newConfiguration, LOG_TYPE, LOG_TYPE_HOWL);
+        String oldLogType = knownOldConfiguration ? getString(oldConfiguration, LOG_TYPE, LOG_TYPE_HOWL)
+                : detectLogType(oldDir, newConfiguration, newLogType);
+        if (LOG_TYPE_JOURNAL.equals(oldLogType) || LOG_TYPE_JOURNAL.equals(newLogType)) {
+            return copyJournalTransactions(oldConfiguration, newConfiguration, oldLogType, newLogType);
+        }
+
         // a file which may tell us what's the previous configuation
         File transaction_1 = null;
 
@@ -219,6 +227,140 @@ public class TransactionLogUtils {
         }
     }
 
+    /**
+     * <p>When the previous configuration is not known, the type of the previous transaction log is
+     * guessed from the files found in the log directory.</p>
+     */
+    private static String detectLogType(File dir, Dictionary<String, ?> configuration, String configuredLogType) throws ConfigurationException {
+        boolean howlFiles = hasHowlFiles(dir, configuration);
+        boolean journalFiles = hasJournalFiles(dir, configuration);
+        if (LOG_TYPE_JOURNAL.equals(configuredLogType)) {
+            return howlFiles && !journalFiles ? LOG_TYPE_HOWL : LOG_TYPE_JOURNAL;
+        } else {
+            return journalFiles && !howlFiles ? LOG_TYPE_JOURNAL : LOG_TYPE_HOWL;
+        }
+    }
+
+    private static boolean hasHowlFiles(File dir, Dictionary<String, ?> configuration) throws ConfigurationException {
+        File transaction_1 = new File(dir, configuredTransactionLogName(configuration, 1));
+        return transaction_1.exists() && transaction_1.length() > 0L;
+    }
+
+    private static boolean hasJournalFiles(File dir, Dictionary<String, ?> configuration) {
+        return !JournalLog.listSegmentFiles(dir, getString(configuration, HOWL_LOG_FILE_NAME, "transaction"),
+                getString(configuration, JOURNAL_LOG_FILE_EXT, "journal")).isEmpty();
+    }
+
+    /**
+     * <p>Copies the active transactions when the previous or the new transaction log is a {@link JournalLog}.
+     * Active transactions are recovered from the previous log and prepared again in the new one, after which
+     * the files of the previous log are deleted.</p>
+     */
+    private static boolean copyJournalTransactions(Dictionary<String, Object> oldConfiguration, Dictionary<String, ?> newConfiguration,
+                                                   String oldLogType, String newLogType) throws ConfigurationException, IOException {
+        File oldDir = new File((String) oldConfiguration.get(HOWL_LOG_FILE_DIR)).getAbsoluteFile();
+        File newDir = new File((String) newConfiguration.get(HOWL_LOG_FILE_DIR)).getAbsoluteFile();
+
+        oldConfiguration = copy(oldConfiguration);
+        oldConfiguration.put(LOG_TYPE, oldLogType);
+        oldConfiguration.put(RECOVERABLE, "true");
+        if (LOG_TYPE_JOURNAL.equals(oldLogType)) {
+            if (LOG_TYPE_JOURNAL.equals(newLogType) && oldDir.equals(newDir)
+                    && getString(oldConfiguration, HOWL_LOG_FILE_NAME, "transaction").equals(getString(newConfiguration, HOWL_LOG_FILE_NAME, "transaction"))
+                    && getString(oldConfiguration, JOURNAL_LOG_FILE_EXT, "journal").equals(getString(newConfiguration, JOURNAL_LOG_FILE_EXT, "journal"))) {
+                // segments keep their own size, so the same journal can be used with the new configuration
+                return false;
+            }
+            if (!hasJournalFiles(oldDir, oldConfiguration)) {
+                return false;
+            }
+        } else {
+            if (!hasHowlFiles(oldDir, oldConfiguration)) {
+                return false;
+            }
+            BaseTxLogConfig oldTxConfig = transactionLogFileConfig(new File(oldDir, configuredTransactionLogName(oldConfiguration, 1)));
+            if (oldTxConfig == null) {
+                return false;
+            }
+            oldConfiguration.put(HOWL_MAX_LOG_FILES, Integer.toString(oldTxConfig.maxLogFiles));
+            oldConfiguration.put(HOWL_MAX_BLOCKS_PER_FILE, Integer.toString(oldTxConfig.maxBlocksPerFile));
+            oldConfiguration.put(HOWL_BUFFER_SIZE, Integer.toString(oldTxConfig.bufferSizeKBytes));
+        }
+
+        log.info("Copying transaction log from {} ({}) to {} ({})", new Object[] { oldDir.getAbsolutePath(), oldLogType, newDir.getAbsolutePath(), newLogType });
+
+        String tmid1 = TransactionManagerService.getString(oldConfiguration, TMID, Activator.PID);
+        XidFactory xidFactory1 = new XidFactoryImpl(tmid1.substring(0, Math.min(tmid1.length(), 64)).getBytes());
+        String tmid2 = TransactionManagerService.getString(newConfiguration, TMID, Activator.PID);
+        XidFactory xidFactory2 = new XidFactoryImpl(tmid2.substring(0, Math.min(tmid2.length(), 64)).getBytes());
+
+        org.apache.geronimo.transaction.manager.TransactionLog oldLog = null;
+        org.apache.geronimo.transaction.manager.TransactionLog newLog = null;
+        boolean copied = false;
+        try {
+            oldLog = TransactionManagerService.createTransactionLog(oldConfiguration, xidFactory1);
+            newLog = TransactionManagerService.createTransactionLog(newConfiguration, xidFactory2);
+
+            Collection<Recovery.XidBranchesPair> pairs = oldLog.recover(xidFactory1);
+            for (Recovery.XidBranchesPair xidBranchesPair : pairs) {
+                log.info("Copying active transaction with XID {}", xidBranchesPair.getXid());
+                for (TransactionBranchInfo branchInfo : xidBranchesPair.getBranches()) {
+                    log.info("- Copying branch {} for resource {}", branchInfo.getBranchXid(), branchInfo.getResourceName());
+                }
+                newLog.prepare(xidBranchesPair.getXid(), new ArrayList<TransactionBranchInfo>(xidBranchesPair.getBranches()));
+            }
+            log.info("Migration of active transactions finished");
+            copied = true;
+
+            return !pairs.isEmpty();
+        } catch (Exception e) {
+            log.error("An exception occurred while trying to migrate transaction log after changing configuration.", e);
+            return false;
+        } finally {
+            try {
+                stop(oldLog);
+                stop(newLog);
+            } catch (Exception e) {
+                log.error(e.getMessage(), e);
+            }
+            if (copied) {
+                // the previous log must not be recovered again if the configuration is changed back
+                if (LOG_TYPE_JOURNAL.equals(oldLogType)) {
+                    for (File file : JournalLog.listSegmentFiles(oldDir, getString(oldConfiguration, HOWL_LOG_FILE_NAME, "transaction"),
+                            getString(oldConfiguration, JOURNAL_LOG_FILE_EXT, "journal"))) {
+                        file.delete();
+                    }
+                } else {
+                    deleteHowlFiles(oldDir, oldConfiguration);
+                }
+            }
+        }
+    }
+
+    private static void stop(org.apache.geronimo.transaction.manager.TransactionLog transactionLog) throws Exception {
+        if (transactionLog instanceof HOWLLog) {
+            ((HOWLLog) transactionLog).doStop();
+        } else if (transactionLog instanceof JournalLog) {
+            ((JournalLog) transactionLog).doStop();
+        }
+    }
+
+    private static void deleteHowlFiles(File dir, Dictionary<String, ?> configuration) throws ConfigurationException {
+        final String logFileName = getString(configuration, HOWL_LOG_FILE_NAME, "transaction");
+        final String logFileExt = getString(configuration, HOWL_LOG_FILE_EXT, "log");
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                Matcher matcher = TX_FILE_NAME.matcher(name);
+                return matcher.matches() && matcher.group(1).equals(logFileName) && matcher.group(3).equals(logFileExt);
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
     /**
      * Retrieves 3 important configuration parameters from single HOWL transaction log file
      * @param txFile existing HOWL file
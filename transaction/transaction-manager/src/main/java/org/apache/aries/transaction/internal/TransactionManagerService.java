@@ -58,6 +58,13 @@ public class TransactionManagerService {
     public static final String HOWL_THREADS_WAITING_FORCE_THRESHOLD = "aries.transaction.howl.threadsWaitingForceThreshold";
     public static final String HOWL_LOG_FILE_DIR = "aries.transaction.howl.logFileDir";
     public static final String HOWL_FLUSH_PARTIAL_BUFFERS = "aries.transaction.flushPartialBuffers";
+    public static final String LOG_TYPE = "aries.transaction.log.type";
+    public static final String JOURNAL_LOG_FILE_EXT = "aries.transaction.journal.logFileExt";
+    public static final String JOURNAL_SEGMENT_SIZE = "aries.transaction.journal.segmentSize";
+    public static final String JOURNAL_MAX_SEGMENTS = "aries.transaction.journal.maxSegments";
+
+    public static final String LOG_TYPE_HOWL = "howl";
+    public static final String LOG_TYPE_JOURNAL = "journal";
 
     public static final int DEFAULT_TRANSACTION_TIMEOUT = 600; // 600 seconds -> 10 minutes
     public static final boolean DEFAULT_RECOVERABLE = false;   // not recoverable by default
@@ -126,6 +133,8 @@ public class TransactionManagerService {
       
         if (transactionLog instanceof HOWLLog) {
             ((HOWLLog) transactionLog).doStop();
+        } else if (transactionLog instanceof JournalLog) {
+            ((JournalLog) transactionLog).doStop();
         }
     }
 
@@ -163,7 +172,13 @@ public class TransactionManagerService {
 
     static TransactionLog createTransactionLog(Dictionary properties, XidFactory xidFactory) throws ConfigurationException {
         TransactionLog result = null;
-        if (getBool(properties, RECOVERABLE, DEFAULT_RECOVERABLE)) {
+        String logType = getString(properties, LOG_TYPE, LOG_TYPE_HOWL);
+        if (!LOG_TYPE_HOWL.equals(logType) && !LOG_TYPE_JOURNAL.equals(logType)) {
+            throw new ConfigurationException(LOG_TYPE, "The transaction log type must be either " + LOG_TYPE_HOWL + " or " + LOG_TYPE_JOURNAL + ".");
+        }
+        if (getBool(properties, RECOVERABLE, DEFAULT_RECOVERABLE) && LOG_TYPE_JOURNAL.equals(logType)) {
+            result = createJournalLog(properties);
+        } else if (getBool(properties, RECOVERABLE, DEFAULT_RECOVERABLE)) {
             String bufferClassName = getString(properties, HOWL_BUFFER_CLASS_NAME, "org.objectweb.howl.log.BlockLogBuffer");
             int bufferSizeKBytes = getInt(properties, HOWL_BUFFER_SIZE, 4);
             if (bufferSizeKBytes < 1 || bufferSizeKBytes > 32) {
@@ -219,6 +234,33 @@ public class TransactionManagerService {
         return result;
     }
 
+    static JournalLog createJournalLog(Dictionary properties) throws ConfigurationException {
+        String logFileDir = getString(properties, HOWL_LOG_FILE_DIR, null);
+        if (logFileDir == null || logFileDir.length() == 0 || !new File(logFileDir).isAbsolute()) {
+            throw new ConfigurationException(HOWL_LOG_FILE_DIR, "The log file directory must be set to an absolute directory.");
+        }
+        String logFileName = getString(properties, HOWL_LOG_FILE_NAME, "transaction");
+        String logFileExt = getString(properties, JOURNAL_LOG_FILE_EXT, "journal");
+        if (logFileExt.equals(getString(properties, HOWL_LOG_FILE_EXT, "log"))) {
+            throw new ConfigurationException(JOURNAL_LOG_FILE_EXT, "The journal file extension must be different from the HOWL log file extension.");
+        }
+        int segmentSizeKBytes = getInt(properties, JOURNAL_SEGMENT_SIZE, 4096);
+        if (segmentSizeKBytes < 64 || segmentSizeKBytes > 1024 * 1024) {
+            throw new ConfigurationException(JOURNAL_SEGMENT_SIZE, "The segment size must be between 64 kilobytes and one gigabyte.");
+        }
+        int maxSegments = getInt(properties, JOURNAL_MAX_SEGMENTS, 4);
+        if (maxSegments < 2) {
+            throw new ConfigurationException(JOURNAL_MAX_SEGMENTS, "The maximum number of segments must be at least two.");
+        }
+        JournalLog result = new JournalLog(logFileDir, logFileName, logFileExt, segmentSizeKBytes, maxSegments);
+        try {
+            result.doStart();
+        } catch (Exception e) {
+            throw new ConfigurationException(null, e.getMessage(), e);
+        }
+        return result;
+    }
+
     /**
      * We use an inner static class to decouple this class from the spring-tx classes
      * in order to not have NoClassDefFoundError if those are not present.
@@ -17,6 +17,8 @@
 
 package org.apache.aries.transaction.internal;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.transaction.xa.Xid;
 import org.apache.geronimo.transaction.manager.XidFactory;
 import org.apache.geronimo.transaction.manager.XidImpl;
@@ -29,34 +31,47 @@ import org.apache.geronimo.transaction.manager.XidImpl;
  * <li>base id</li>
  * <ol>
  * can't easily extend geronimo XidFactoryImpl b/c count is private
+ *
+ * The branch qualifiers of the first branches are computed once and shared by all the
+ * branch xids, as XidImpl never modifies them and only hands out copies.
  */
 public class XidFactoryImpl implements XidFactory {
+    // same format id as the geronimo XidImpl
+    private static final int FORMAT_ID = 0x4765526f;
+    private static final int CACHED_BRANCHES = 32;
+
     private final byte[] baseId = new byte[Xid.MAXGTRIDSIZE];
     private final long start = System.currentTimeMillis();
-    private long count = start;
+    private final AtomicLong count = new AtomicLong(start);
+    private final byte[] noBranchId = new byte[Xid.MAXBQUALSIZE];
+    private final byte[][] branchIds = new byte[CACHED_BRANCHES][];
 
     public XidFactoryImpl(byte[] tmId) {
         System.arraycopy(tmId, 0, baseId, 8, tmId.length);
+        for (int i = 0; i < CACHED_BRANCHES; i++) {
+            branchIds[i] = newBranchId(i);
+        }
     }
 
     public Xid createXid() {
         byte[] globalId = (byte[]) baseId.clone();
-        long id;
-        synchronized (this) {
-            id = count++;
-        }
-        insertLong(id, globalId, 0);
-        return new XidImpl(globalId);
+        insertLong(count.getAndIncrement(), globalId, 0);
+        return new XidImpl(FORMAT_ID, globalId, noBranchId);
     }
 
     public Xid createBranch(Xid globalId, int branch) {
+        byte[] branchId = branch >= 0 && branch < CACHED_BRANCHES ? branchIds[branch] : newBranchId(branch);
+        return new XidImpl(globalId, branchId);
+    }
+
+    private byte[] newBranchId(int branch) {
         byte[] branchId = (byte[]) baseId.clone();
         branchId[0] = (byte) branch;
         branchId[1] = (byte) (branch >>> 8);
         branchId[2] = (byte) (branch >>> 16);
         branchId[3] = (byte) (branch >>> 24);
         insertLong(start, branchId, 4);
-        return new XidImpl(globalId, branchId);
+        return branchId;
     }
 
     public boolean matchesGlobalId(byte[] globalTransactionId) {
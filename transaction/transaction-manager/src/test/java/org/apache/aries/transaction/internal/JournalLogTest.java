@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.internal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.transaction.Transaction;
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.geronimo.transaction.manager.Recovery;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournalLogTest {
+
+    private static File BASE = new File(System.getProperty("user.dir"), "txlogs");
+
+    private XidFactory xidFactory = new XidFactoryImpl("journal".getBytes());
+
+    @Before
+    public void setUp() {
+        System.setProperty("org.slf4j.simplelogger.defaultlog", "error");
+    }
+
+    @Test
+    public void recoverPreparedTransactions() throws Exception {
+        File logDir = new File(BASE, "journalRecover");
+        FileUtils.deleteDirectory(logDir);
+        JournalLog txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Xid xid1 = xidFactory.createXid();
+        Xid xid2 = xidFactory.createXid();
+        Xid xid3 = xidFactory.createXid();
+        txLog.prepare(xid1, branches(xid1, 2));
+        Object mark2 = txLog.prepare(xid2, branches(xid2, 1));
+        txLog.prepare(xid3, branches(xid3, 3));
+        txLog.commit(xid2, mark2);
+        txLog.doStop();
+
+        txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Collection<Recovery.XidBranchesPair> recovered = txLog.recover(xidFactory);
+        assertEquals(2, recovered.size());
+        for (Recovery.XidBranchesPair pair : recovered) {
+            if (pair.getXid().equals(xid1)) {
+                assertEquals(2, pair.getBranches().size());
+                txLog.rollback(pair.getXid(), pair.getMark());
+            } else {
+                assertEquals(xid3, pair.getXid());
+                assertEquals(3, pair.getBranches().size());
+                assertTrue(pair.getBranches().iterator().next().getResourceName().startsWith("res-"));
+                txLog.commit(pair.getXid(), pair.getMark());
+            }
+        }
+        txLog.doStop();
+
+        txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        assertTrue(txLog.recover(xidFactory).isEmpty());
+        assertEquals("Completed segments should be deleted", 1, txLog.getSegmentCount());
+        txLog.doStop();
+    }
+
+    @Test
+    public void retiredSegmentsAreDeletedAfterNextForce() throws Exception {
+        File logDir = new File(BASE, "journalRetire");
+        FileUtils.deleteDirectory(logDir);
+        JournalLog txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Xid xid1 = xidFactory.createXid();
+        txLog.prepare(xid1, branches(xid1, 1));
+        txLog.doStop();
+
+        txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Recovery.XidBranchesPair pair = txLog.recover(xidFactory).iterator().next();
+        txLog.commit(pair.getXid(), pair.getMark());
+        // completing the transaction does not wait for the disk
+        assertTrue(txLog.getXMLStats().contains("<forceCount>0</forceCount>"));
+        assertTrue(new File(logDir, "transaction_1.journal").exists());
+
+        Xid xid2 = xidFactory.createXid();
+        txLog.prepare(xid2, branches(xid2, 1));
+        assertTrue(txLog.getXMLStats().contains("<forceCount>1</forceCount>"));
+        assertFalse(new File(logDir, "transaction_1.journal").exists());
+        txLog.doStop();
+    }
+
+    @Test
+    public void skipTornRecords() throws Exception {
+        File logDir = new File(BASE, "journalTorn");
+        FileUtils.deleteDirectory(logDir);
+        JournalLog txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Xid xid1 = xidFactory.createXid();
+        Xid xid2 = xidFactory.createXid();
+        txLog.prepare(xid1, branches(xid1, 1));
+        txLog.prepare(xid2, branches(xid2, 1));
+        txLog.doStop();
+
+        // corrupt the first record
+        RandomAccessFile raf = new RandomAccessFile(new File(logDir, "transaction_1.journal"), "rw");
+        raf.seek(JournalLog.SEGMENT_HEADER_SIZE + JournalLog.RECORD_HEADER_SIZE + 2);
+        raf.write(0xff);
+        raf.close();
+
+        txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 4);
+        txLog.doStart();
+        Collection<Recovery.XidBranchesPair> recovered = txLog.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        assertEquals(xid2, recovered.iterator().next().getXid());
+        txLog.doStop();
+    }
+
+    @Test
+    public void compactSegments() throws Exception {
+        File logDir = new File(BASE, "journalCompact");
+        FileUtils.deleteDirectory(logDir);
+        JournalLog txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 2);
+        txLog.doStart();
+        Xid inDoubt = xidFactory.createXid();
+        txLog.prepare(inDoubt, branches(inDoubt, 2));
+        for (int i = 0; i < 5000; i++) {
+            Xid xid = xidFactory.createXid();
+            Object mark = txLog.prepare(xid, branches(xid, 2));
+            txLog.commit(xid, mark);
+        }
+        assertTrue("Segments should be reclaimed", txLog.getSegmentCount() <= 3);
+        assertEquals(1, txLog.getActiveTransactionCount());
+        assertFalse("The first segment should have been compacted", new File(logDir, "transaction_1.journal").exists());
+        txLog.doStop();
+
+        txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 64, 2);
+        txLog.doStart();
+        Collection<Recovery.XidBranchesPair> recovered = txLog.recover(xidFactory);
+        assertEquals(1, recovered.size());
+        assertEquals(inDoubt, recovered.iterator().next().getXid());
+        assertEquals(2, recovered.iterator().next().getBranches().size());
+        txLog.doStop();
+    }
+
+    @Test
+    public void groupCommit() throws Exception {
+        File logDir = new File(BASE, "journalGroupCommit");
+        FileUtils.deleteDirectory(logDir);
+        JournalLog txLog = new JournalLog(logDir.getAbsolutePath(), "transaction", "journal", 256, 4);
+        txLog.doStart();
+        GeronimoTransactionManager tm = new GeronimoTransactionManager(600, xidFactory, txLog);
+        final XAResource xar1 = new LogTest.TestXAResource("res1");
+        final XAResource xar2 = new LogTest.TestXAResource("res2");
+        tm.registerNamedXAResourceFactory(new LogTest.TestXAResourceFactory("res1"));
+        tm.registerNamedXAResourceFactory(new LogTest.TestXAResourceFactory("res2"));
+        new LogTest().testThroughput(tm, xar1, xar2, 20, 100);
+        assertEquals(0, txLog.getActiveTransactionCount());
+        assertTrue(txLog.getXMLStats().contains("<forceCount>"));
+        txLog.doStop();
+    }
+
+    private List<TransactionBranchInfo> branches(Xid xid, int count) {
+        List<TransactionBranchInfo> branches = new ArrayList<TransactionBranchInfo>();
+        for (int b = 1; b <= count; b++) {
+            branches.add(new TransactionBranchInfoImpl(xidFactory.createBranch(xid, b), String.format("res-%02d", b)));
+        }
+        return branches;
+    }
+
+}
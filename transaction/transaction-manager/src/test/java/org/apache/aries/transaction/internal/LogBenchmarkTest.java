@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aries.transaction.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.transaction.Transaction;
+import javax.transaction.xa.XAException;
+import javax.transaction.xa.Xid;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.geronimo.transaction.log.HOWLLog;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfo;
+import org.apache.geronimo.transaction.manager.TransactionBranchInfoImpl;
+import org.apache.geronimo.transaction.manager.TransactionLog;
+import org.apache.geronimo.transaction.manager.XidFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput, latency and recovery time harness for the transaction logs.
+ *
+ * <p>Two-phase transactions are run through {@link AriesTransactionManagerImpl} by many threads, enlisting
+ * simulated XA resources, and the commit rate, the commit latency percentiles and the number of log bytes
+ * per transaction are reported.  The recovery run prepares a number of in doubt transactions, then measures
+ * the time taken to reopen the log and to create a transaction manager recovering them.</p>
+ *
+ * <p>The small smoke runs are part of the build.  The full benchmark is run with
+ * <pre>
+ * mvn test -Dtest=LogBenchmarkTest -Dbenchmark=true -Dbenchmark.threads=100 -Dbenchmark.transactions=1000
+ *          -Daries.transaction.log.type=journal
+ * </pre>
+ * Any <code>aries.transaction.*</code> property, such as <code>aries.transaction.howl.threadsWaitingForceThreshold</code>
+ * or <code>aries.transaction.flushPartialBuffers</code>, is passed to the transaction log.  The same properties
+ * can be used with the {@link #main(String[])} method.</p>
+ */
+public class LogBenchmarkTest {
+
+    public static final String THREADS = "benchmark.threads";
+    public static final String TRANSACTIONS = "benchmark.transactions";
+    public static final String RESOURCES = "benchmark.resources";
+    public static final String PREPARE_DELAY = "benchmark.prepareDelay";
+    public static final String COMMIT_DELAY = "benchmark.commitDelay";
+    public static final String IN_DOUBT = "benchmark.inDoubt";
+
+    private static final String DEFAULT_LOG = "org.slf4j.simplelogger.defaultlog";
+    private static final Pattern HOWL_BYTES_WRITTEN = Pattern.compile("<LogFiles [^>]*bytesWritten='([0-9]+)'");
+
+    private static File BASE = new File(System.getProperty("user.dir"), "txlogs");
+
+    private String defaultLog;
+
+    @Before
+    public void setUp() {
+        defaultLog = System.getProperty(DEFAULT_LOG);
+        System.setProperty(DEFAULT_LOG, "error");
+    }
+
+    @After
+    public void tearDown() {
+        if (defaultLog != null) {
+            System.setProperty(DEFAULT_LOG, defaultLog);
+        } else {
+            System.clearProperty(DEFAULT_LOG);
+        }
+    }
+
+    @Test
+    public void journalSmoke() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(TransactionManagerService.LOG_TYPE, TransactionManagerService.LOG_TYPE_JOURNAL);
+        properties.setProperty(TransactionManagerService.JOURNAL_SEGMENT_SIZE, "64");
+        LogBenchmarkTest benchmark = new LogBenchmarkTest();
+
+        ThroughputResult throughput = benchmark.throughput(properties, new File(BASE, "benchmarkJournal"), 4, 50, 2, 0, 0);
+        assertEquals(0, throughput.errors);
+        assertEquals(200, throughput.latencies.length);
+        assertTrue(throughput.bytesPerTransaction > 0);
+
+        long recovery = benchmark.recovery(properties, new File(BASE, "benchmarkJournalRecovery"), 20, 2);
+        assertTrue(recovery >= 0);
+    }
+
+    @Test
+    public void howlSmoke() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(TransactionManagerService.HOWL_FLUSH_SLEEP_TIME, "1");
+        LogBenchmarkTest benchmark = new LogBenchmarkTest();
+
+        ThroughputResult throughput = benchmark.throughput(properties, new File(BASE, "benchmarkHowl"), 4, 20, 2, 0, 0);
+        assertEquals(0, throughput.errors);
+        assertTrue(throughput.bytesPerTransaction > 0);
+
+        long recovery = benchmark.recovery(properties, new File(BASE, "benchmarkHowlRecovery"), 20, 2);
+        assertTrue(recovery >= 0);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        run(System.getProperties());
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(System.getProperties());
+    }
+
+    public static void run(Properties properties) throws Exception {
+        int threads = Integer.parseInt(properties.getProperty(THREADS, "50"));
+        int transactions = Integer.parseInt(properties.getProperty(TRANSACTIONS, "1000"));
+        int resources = Integer.parseInt(properties.getProperty(RESOURCES, "2"));
+        long prepareDelay = Long.parseLong(properties.getProperty(PREPARE_DELAY, "0"));
+        long commitDelay = Long.parseLong(properties.getProperty(COMMIT_DELAY, "0"));
+        int inDoubt = Integer.parseInt(properties.getProperty(IN_DOUBT, "10000"));
+        String logType = properties.getProperty(TransactionManagerService.LOG_TYPE, TransactionManagerService.LOG_TYPE_HOWL);
+
+        LogBenchmarkTest benchmark = new LogBenchmarkTest();
+        ThroughputResult result = benchmark.throughput(properties, new File(BASE, "benchmark-" + logType),
+                threads, transactions, resources, prepareDelay, commitDelay);
+        System.err.println(result);
+        long recovery = benchmark.recovery(properties, new File(BASE, "benchmark-" + logType + "-recovery"), inDoubt, resources);
+        System.err.println("[" + logType + "] recovery of " + inDoubt + " in doubt transactions: " + recovery + " ms");
+        System.err.flush();
+    }
+
+    /**
+     * Run <code>transactions</code> two-phase transactions in each of the <code>threads</code> threads.
+     *
+     * @param prepareDelay simulated prepare time of each resource in microseconds
+     * @param commitDelay simulated commit time of each resource in microseconds
+     */
+    public ThroughputResult throughput(Properties properties, File logDir, int threads, final int transactions, int resources,
+                                       long prepareDelay, long commitDelay) throws Exception {
+        FileUtils.deleteDirectory(logDir);
+        logDir.mkdirs();
+        XidFactory xidFactory = new XidFactoryImpl("benchmark".getBytes());
+        TransactionLog txLog = TransactionManagerService.createTransactionLog(configuration(properties, logDir), xidFactory);
+        final AriesTransactionManagerImpl tm = new AriesTransactionManagerImpl(600, xidFactory, txLog);
+        final SimulatedXAResource[] xars = new SimulatedXAResource[resources];
+        for (int i = 0; i < resources; i++) {
+            xars[i] = new SimulatedXAResource("res" + i, prepareDelay, commitDelay);
+            tm.registerNamedXAResourceFactory(new LogTest.TestXAResourceFactory(xars[i].getName()));
+        }
+
+        final long[][] latencies = new long[threads][transactions];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int thIdx = 0; thIdx < threads; thIdx++) {
+            final long[] threadLatencies = latencies[thIdx];
+            workers[thIdx] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int txIdx = 0; txIdx < transactions; txIdx++) {
+                            long t0 = System.nanoTime();
+                            tm.begin();
+                            Transaction tx = tm.getTransaction();
+                            for (SimulatedXAResource xar : xars) {
+                                tx.enlistResource(xar);
+                            }
+                            tx.commit();
+                            threadLatencies[txIdx] = System.nanoTime() - t0;
+                        }
+                    } catch (Throwable t) {
+                        errors.incrementAndGet();
+                        t.printStackTrace();
+                    }
+                }
+            };
+            workers[thIdx].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - t0;
+
+        String stats = txLog.getXMLStats();
+        long bytes = bytesWritten(txLog, stats);
+        stop(txLog);
+
+        long[] all = new long[threads * transactions];
+        for (int i = 0; i < threads; i++) {
+            System.arraycopy(latencies[i], 0, all, i * transactions, transactions);
+        }
+        Arrays.sort(all);
+        ThroughputResult result = new ThroughputResult();
+        result.logType = properties.getProperty(TransactionManagerService.LOG_TYPE, TransactionManagerService.LOG_TYPE_HOWL);
+        result.threads = threads;
+        result.resources = resources;
+        result.latencies = all;
+        result.elapsed = elapsed;
+        result.errors = errors.get();
+        result.bytesPerTransaction = all.length > 0 && bytes >= 0 ? bytes / all.length : -1;
+        result.stats = stats;
+        return result;
+    }
+
+    /**
+     * Prepare <code>inDoubt</code> transactions, then measure the time in milliseconds taken to reopen the
+     * log and to create a transaction manager recovering them.
+     */
+    public long recovery(Properties properties, File logDir, int inDoubt, int resources) throws Exception {
+        FileUtils.deleteDirectory(logDir);
+        logDir.mkdirs();
+        Dictionary<String, Object> configuration = configuration(properties, logDir);
+        XidFactory xidFactory = new XidFactoryImpl("benchmark".getBytes());
+        TransactionLog txLog = TransactionManagerService.createTransactionLog(configuration, xidFactory);
+        for (int i = 0; i < inDoubt; i++) {
+            Xid xid = xidFactory.createXid();
+            List<TransactionBranchInfo> branches = new ArrayList<TransactionBranchInfo>();
+            for (int b = 0; b < resources; b++) {
+                branches.add(new TransactionBranchInfoImpl(xidFactory.createBranch(xid, b), "res" + b));
+            }
+            txLog.prepare(xid, branches);
+        }
+        stop(txLog);
+
+        long t0 = System.nanoTime();
+        txLog = TransactionManagerService.createTransactionLog(configuration, xidFactory);
+        new AriesTransactionManagerImpl(600, xidFactory, txLog);
+        long elapsed = System.nanoTime() - t0;
+        stop(txLog);
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    private static Dictionary<String, Object> configuration(Properties properties, File logDir) {
+        Dictionary<String, Object> configuration = new Hashtable<String, Object>();
+        configuration.put(TransactionManagerService.RECOVERABLE, "true");
+        configuration.put(TransactionManagerService.HOWL_LOG_FILE_DIR, logDir.getAbsolutePath());
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("aries.transaction.") && !name.equals(TransactionManagerService.HOWL_LOG_FILE_DIR)) {
+                configuration.put(name, properties.getProperty(name));
+            }
+        }
+        return configuration;
+    }
+
+    private static void stop(TransactionLog txLog) throws Exception {
+        if (txLog instanceof HOWLLog) {
+            ((HOWLLog) txLog).doStop();
+        } else if (txLog instanceof JournalLog) {
+            ((JournalLog) txLog).doStop();
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the log since it has been started, or -1 if the log does not report it
+     */
+    private static long bytesWritten(TransactionLog txLog, String stats) {
+        if (txLog instanceof JournalLog) {
+            return ((JournalLog) txLog).getBytesAppended();
+        }
+        // HOWL reports the bytes written to its files, including the padding of partially filled buffers
+        Matcher matcher = HOWL_BYTES_WRITTEN.matcher(stats);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    public static class ThroughputResult {
+
+        String logType;
+        int threads;
+        int resources;
+        long[] latencies;
+        long elapsed;
+        int errors;
+        long bytesPerTransaction;
+        String stats;
+
+        public double getCommitsPerSecond() {
+            return latencies.length / (elapsed / 1000000000.0);
+        }
+
+        /**
+         * @return the latency in microseconds below which the given fraction of the transactions committed
+         */
+        public long getPercentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return TimeUnit.NANOSECONDS.toMicros(latencies[Math.max(0, Math.min(latencies.length - 1, index))]);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%s] %d threads, %d transactions, %d resources: %.0f commits/s, latency (us) p50=%d p90=%d p99=%d p99.9=%d max=%d, %d bytes/tx, %d errors%n%s",
+                    logType, threads, latencies.length, resources, getCommitsPerSecond(),
+                    getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getPercentile(0.999), getPercentile(1.0),
+                    bytesPerTransaction, errors, stats);
+        }
+    }
+
+    /**
+     * A resource voting to commit, spending the given time in prepare and commit.
+     */
+    public static class SimulatedXAResource extends LogTest.TestXAResource {
+
+        private final long prepareDelay;
+        private final long commitDelay;
+
+        public SimulatedXAResource(String name, long prepareDelay, long commitDelay) {
+            super(name);
+            this.prepareDelay = prepareDelay;
+            this.commitDelay = commitDelay;
+        }
+
+        @Override
+        public int prepare(Xid xid) throws XAException {
+            delay(prepareDelay);
+            return XA_OK;
+        }
+
+        @Override
+        public void commit(Xid xid, boolean onePhase) throws XAException {
+            delay(commitDelay);
+        }
+
+        private static void delay(long micros) {
+            if (micros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(micros));
+            }
+        }
+    }
+
+}
@@ -307,6 +307,64 @@ public class LogConversionTest {
         assertTrue("New transaction log should exist", new File(logDir, "megatransaction_1.log").exists());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void existingTransactionLogChangedToJournal() throws Exception {
+        File logDir = new File(BASE, "existingTransactionLogChangedToJournal");
+        FileUtils.deleteDirectory(logDir);
+        logDir.mkdirs();
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        HOWLLog txLog = createLog("existingTransactionLogChangedToJournal", "transaction", 2, -1, 1, properties);
+        txLog.doStart();
+        transaction(txLog, 2, false);
+        transaction(txLog, 1, true);
+        txLog.doStop();
+
+        Hashtable<String, Object> journalConfig = (Hashtable<String, Object>) properties.clone();
+        journalConfig.put("aries.transaction.log.type", "journal");
+        journalConfig.put("aries.transaction.journal.segmentSize", "64");
+
+        assertTrue(TransactionLogUtils.copyActiveTransactions(properties, journalConfig));
+        assertFalse("Old transaction log should be removed", new File(logDir, "transaction_1.log").exists());
+        assertThat(recoverJournal(journalConfig), equalTo(1));
+
+        // unknown previous configuration: the journal is used as is
+        assertFalse(TransactionLogUtils.copyActiveTransactions(null, journalConfig));
+
+        assertTrue(TransactionLogUtils.copyActiveTransactions(journalConfig, properties));
+        assertTrue("New transaction log should exist", new File(logDir, "transaction_1.log").exists());
+        assertTrue("Old journal should be removed", JournalLog.listSegmentFiles(logDir, "transaction", "journal").isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void unknownExistingTransactionLogChangedToJournal() throws Exception {
+        File logDir = new File(BASE, "unknownExistingTransactionLogChangedToJournal");
+        FileUtils.deleteDirectory(logDir);
+        logDir.mkdirs();
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        HOWLLog txLog = createLog("unknownExistingTransactionLogChangedToJournal", "transaction", 2, -1, 1, properties);
+        txLog.doStart();
+        transaction(txLog, 1, false);
+        txLog.doStop();
+
+        Hashtable<String, Object> journalConfig = (Hashtable<String, Object>) properties.clone();
+        journalConfig.put("aries.transaction.log.type", "journal");
+
+        assertTrue(TransactionLogUtils.copyActiveTransactions(null, journalConfig));
+        assertFalse("Old transaction log should be removed", new File(logDir, "transaction_1.log").exists());
+        assertThat(recoverJournal(journalConfig), equalTo(1));
+    }
+
+    private int recoverJournal(Dictionary<String, Object> properties) throws Exception {
+        JournalLog journal = TransactionManagerService.createJournalLog(properties);
+        try {
+            return journal.recover(xidFactory).size();
+        } finally {
+            journal.doStop();
+        }
+    }
+
     private HOWLLog createLog(String logFileDir, String logFileName,
                               int maxLogFiles, int maxBlocksPerFile, int bufferSizeInKB,
                               Dictionary<String, Object> properties) throws Exception {
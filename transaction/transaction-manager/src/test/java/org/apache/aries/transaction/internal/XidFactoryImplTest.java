@@ -17,11 +17,15 @@
 
 package org.apache.aries.transaction.internal;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.transaction.xa.Xid;
 
 import org.apache.aries.transaction.internal.XidFactoryImpl;
 import org.apache.geronimo.transaction.manager.XidFactory;
+import org.apache.geronimo.transaction.manager.XidImpl;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -69,4 +73,52 @@ public class XidFactoryImplTest {
         assertTrue("Should match old branch: " + b_id2, factory2.matchesBranchId(b_id2.getBranchQualifier()));
     }
 
+    @Test
+    public void testCompatibleWithGeronimoXids() throws Exception {
+        XidFactory factory = new XidFactoryImpl("hi".getBytes());
+        Xid id = factory.createXid();
+        Xid expected = new XidImpl(id.getGlobalTransactionId());
+        assertEquals(expected, id);
+        assertEquals(expected.getFormatId(), id.getFormatId());
+        assertEquals(expected.hashCode(), id.hashCode());
+
+        for (int branch : new int[] { 1, 31, 32, 70000 }) {
+            byte[] bqual = factory.createBranch(id, branch).getBranchQualifier();
+            assertEquals(Xid.MAXBQUALSIZE, bqual.length);
+            assertEquals(branch, (bqual[0] & 0xff) + ((bqual[1] & 0xff) << 8) + ((bqual[2] & 0xff) << 16) + ((bqual[3] & 0xff) << 24));
+            byte[] gtrid = id.getGlobalTransactionId();
+            assertTrue(Arrays.equals(Arrays.copyOfRange(gtrid, 12, gtrid.length), Arrays.copyOfRange(bqual, 12, bqual.length)));
+        }
+        // the shared branch qualifier can not be modified through the xid
+        factory.createBranch(id, 1).getBranchQualifier()[0] = 42;
+        assertEquals(1, factory.createBranch(id, 1).getBranchQualifier()[0]);
+    }
+
+    @Test
+    public void testConcurrentXids() throws Exception {
+        final XidFactory factory = new XidFactoryImpl("hi".getBytes());
+        final Set<Long> ids = new HashSet<Long>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    long[] created = new long[1000];
+                    for (int j = 0; j < created.length; j++) {
+                        created[j] = XidFactoryImpl.extractLong(factory.createXid().getGlobalTransactionId(), 0);
+                    }
+                    synchronized (ids) {
+                        for (long id : created) {
+                            ids.add(id);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, ids.size());
+    }
+
 }
@@ -30,9 +30,11 @@ public class NestedCloseableDirectory extends CloseableDirectory {
 
 	private final File tempFile;
 	private final ZipFile zip;
+	private final NestedZipIndex index;
 	
 	public NestedCloseableDirectory(IFile archive, NestedZipDirectory delegate) throws IOException {
 		super(delegate);
+		index = delegate.index;
 		
 		tempFile = File.createTempFile("archiveExtract", ".jar");
 
@@ -60,5 +62,6 @@ public class NestedCloseableDirectory extends CloseableDirectory {
 			zip.close();
 		} catch (IOException e) {}
 		tempFile.delete();
+		index.close();
 	}
 }
@@ -29,13 +29,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import org.apache.aries.util.IORuntimeException;
 import org.apache.aries.util.filesystem.ICloseableDirectory;
 import org.apache.aries.util.filesystem.IDirectory;
 import org.apache.aries.util.filesystem.IFile;
-import org.apache.aries.util.io.IOUtils;
 
 public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 	public NestedZipDirectory(IFile archive, ZipEntry entry, NestedZipDirectory parent, NestedCloseableDirectory cache) {
@@ -92,22 +90,10 @@ public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 		if (cache != null && !!!cache.isClosed()) {
 			return Collections.list(cache.getZipFile().entries());
 		} else {
-			ZipInputStream zis = null;
 			try {
-				zis = new ZipInputStream(archive.open());
-
-				List<ZipEntry> result = new ArrayList<ZipEntry>();
-				ZipEntry entry = zis.getNextEntry();
-				while (entry != null) {
-					result.add(entry);
-					entry = zis.getNextEntry();
-				}
-
-				return result;
+				return index.getEntries();
 			} catch (IOException e) {
 				throw new IORuntimeException("IOException reading nested ZipFile", e);
-			} finally {
-				IOUtils.close(zis);
 			}
 		}
 	}
@@ -154,22 +140,18 @@ public class NestedZipDirectory extends NestedZipFile implements IDirectory {
 			ze = zip.getEntry(name);
 
 		} else {
-			ZipInputStream zis = null;
-
 			try {
-				zis = new ZipInputStream(archive.open());
-
-				ze = zis.getNextEntry();
-
-				while (ze != null && !!!ze.getName().equals(name)) {
-					if (name.startsWith(ze.getName())) entries.put(ze.getName(), ze);
-
-					ze = zis.getNextEntry();
+				String[] segments = name.split("/");
+				StringBuilder path = new StringBuilder();
+				for (String s : segments) {
+					path.append(s).append('/');
+					ZipEntry p = index.getEntry(path.toString());
+					if (p != null) entries.put(path.toString(), p);
 				}
+
+				ze = index.getEntry(name);
 			} catch (IOException e) {
 				throw new IORuntimeException("IOException reading nested ZipFile", e);
-			} finally {
-				IOUtils.close(zis);
 			}
 		}
 
@@ -24,7 +24,6 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 import org.apache.aries.util.filesystem.IDirectory;
 import org.apache.aries.util.filesystem.IFile;
@@ -37,6 +36,7 @@ public class NestedZipFile implements IFile {
 	protected final IFile archive;
 	private final String nameInZip;
 	protected final NestedCloseableDirectory cache;
+	protected final NestedZipIndex index;
 	
 	/**
 	 * Construct a nested zip file
@@ -53,6 +53,7 @@ public class NestedZipFile implements IFile {
 		size = entry.getSize();
 		lastModified = entry.getTime();
 		this.cache = cache;
+		this.index = parent != null ? parent.index : new NestedZipIndex(archive);
 	}
 	
 	public NestedZipFile(IFile archive, String pathInZip, NestedZipDirectory parent, NestedCloseableDirectory cache) {
@@ -64,6 +65,7 @@ public class NestedZipFile implements IFile {
 		size = -1;
 		lastModified = -1;
 		this.cache = cache;
+		this.index = parent != null ? parent.index : new NestedZipIndex(archive);
 	}
 	
 	
@@ -76,6 +78,7 @@ public class NestedZipFile implements IFile {
 		lastModified = archive.getLastModified();
 		size = archive.getSize();
 		cache = null;
+		index = new NestedZipIndex(archive);
 	}
 	
 	public NestedZipFile(NestedZipFile other, NestedCloseableDirectory cache) {
@@ -85,6 +88,7 @@ public class NestedZipFile implements IFile {
 		parent = other.parent;
 		archive = other.archive;
 		nameInZip = other.nameInZip;
+		index = other.index;
 		
 		this.cache = cache;
 	}
@@ -135,19 +139,7 @@ public class NestedZipFile implements IFile {
 			if (ze != null) return zip.getInputStream(ze);
 			else return null;
 		} else {
-			final ZipInputStream zis = new ZipInputStream(archive.open());
-			
-			ZipEntry entry = zis.getNextEntry();
-			while (entry != null && !!!entry.getName().equals(nameInZip)) {
-				entry = zis.getNextEntry();
-			}
-			
-			if (entry != null) {
-				return zis;
-			} else {
-				zis.close();
-				return null;
-			}
+			return index.open(nameInZip);
 		}
 	}
 
@@ -0,0 +1,466 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.aries.util.filesystem.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.aries.util.filesystem.IFile;
+import org.apache.aries.util.io.IOUtils;
+
+/**
+ * The central directory of a zip archive nested in another archive, shared by the {@link NestedZipFile}s and
+ * {@link NestedZipDirectory}s of that archive.
+ * <p>
+ * A small nested archive is read into memory and its central directory is indexed, so that entries are looked up and
+ * opened without scanning the archive. The content is only softly referenced and read again if it was reclaimed.
+ * Larger archives, and archives whose central directory cannot be read this way such as zip64 archives, are copied
+ * once to a temporary file opened as a {@link ZipFile}. The file is deleted when the index is closed, or once the index
+ * and the streams opened from it are no longer referenced. Only archives the {@link ZipFile} cannot read either are
+ * scanned for their entries, which are then streamed from the archive.
+ */
+public class NestedZipIndex {
+	/** Nested archives up to this size are kept in memory, larger ones are copied to a temporary file */
+	private static final int MAX_IN_MEMORY_SIZE = 4 * 1024 * 1024;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_HEADER_SIGNATURE = 0x06054b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_HEADER_SIZE = 22;
+
+	private final IFile archive;
+
+	private boolean loaded;
+	/* the content of an indexed archive, null if the archive is not kept in memory */
+	private SoftReference<ByteBuffer> content;
+	/* the temporary copy of a large archive, null if the archive is not copied */
+	private SpooledArchive spooled;
+	private List<ZipEntry> entries;
+	private Map<String, ZipEntry> entriesByName;
+	private Map<String, Long> localHeaderOffsets;
+
+	public NestedZipIndex(IFile archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * @return all the entries of the archive, in the order of its central directory
+	 */
+	public synchronized List<ZipEntry> getEntries() throws IOException {
+		load();
+		return entries;
+	}
+
+	/**
+	 * @return the entry of the given name, or <code>null</code> if none
+	 */
+	public synchronized ZipEntry getEntry(String name) throws IOException {
+		load();
+		return entriesByName.get(name);
+	}
+
+	/**
+	 * @return the content of the entry of the given name, or <code>null</code> if none
+	 */
+	public InputStream open(String name) throws IOException {
+		ZipEntry indexed;
+		SpooledArchive spooled;
+		synchronized (this) {
+			load();
+			indexed = entriesByName.get(name);
+			if (indexed == null) return null;
+			if (content != null) return openIndexed(indexed, getContent());
+			spooled = this.spooled;
+		}
+		if (spooled != null) return spooled.open(name);
+
+		final ZipInputStream zis = new ZipInputStream(archive.open());
+
+		ZipEntry entry = zis.getNextEntry();
+		while (entry != null && !!!entry.getName().equals(name)) {
+			entry = zis.getNextEntry();
+		}
+
+		if (entry != null) {
+			return zis;
+		} else {
+			zis.close();
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the temporary copy of a large archive. The archive is read again if the index is used afterwards.
+	 */
+	public synchronized void close() {
+		if (spooled != null) {
+			spooled.close();
+			spooled = null;
+			loaded = false;
+		}
+	}
+
+	private synchronized void load() throws IOException {
+		if (loaded) return;
+
+		InputStream in = archive.open();
+		try {
+			ByteArrayOutputStream memory = new ByteArrayOutputStream();
+			if (archive.getSize() <= MAX_IN_MEMORY_SIZE && read(in, memory)) {
+				ByteBuffer buffer = ByteBuffer.wrap(memory.toByteArray());
+				if (index(buffer)) {
+					content = new SoftReference<ByteBuffer>(buffer);
+					loaded = true;
+					return;
+				}
+			}
+			spooled = spool(memory, in);
+		} finally {
+			IOUtils.close(in);
+		}
+		if (spooled == null) scan();
+		loaded = true;
+	}
+
+	/*
+	 * Returns the content of an indexed archive, reading it again if it was reclaimed
+	 */
+	private synchronized ByteBuffer getContent() throws IOException {
+		ByteBuffer buffer = content.get();
+		if (buffer == null) {
+			buffer = read();
+			if (buffer == null) throw new IOException("The nested archive " + archive + " has changed");
+			content = new SoftReference<ByteBuffer>(buffer);
+		}
+		return buffer;
+	}
+
+	private InputStream openIndexed(ZipEntry entry, ByteBuffer content) throws IOException {
+		ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int offset = (int) localHeaderOffsets.get(entry.getName()).longValue();
+		if (buffer.getInt(offset) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Invalid local header for " + entry.getName() + " in " + archive);
+		}
+		int dataOffset = offset + LOCAL_HEADER_SIZE + (buffer.getShort(offset + 26) & 0xffff)
+				+ (buffer.getShort(offset + 28) & 0xffff);
+		buffer.position(dataOffset);
+		buffer.limit(dataOffset + (int) entry.getCompressedSize());
+		InputStream data = new ByteBufferInputStream(buffer.slice());
+
+		if (entry.getMethod() == ZipEntry.STORED) return data;
+
+		// like ZipFile, an extra dummy byte is needed by the Inflater in nowrap mode
+		final Inflater inflater = new Inflater(true);
+		InputStream padded = new SequenceInputStream(data, new ByteArrayInputStream(new byte[1]));
+		return new InflaterInputStream(padded, inflater) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!!!closed) {
+					closed = true;
+					inflater.end();
+				}
+				super.close();
+			}
+		};
+	}
+
+	/*
+	 * Reads the whole nested archive into memory, returns null if it is too large
+	 */
+	private ByteBuffer read() throws IOException {
+		if (archive.getSize() > MAX_IN_MEMORY_SIZE) return null;
+
+		InputStream in = archive.open();
+		try {
+			ByteArrayOutputStream memory = new ByteArrayOutputStream();
+			return read(in, memory) ? ByteBuffer.wrap(memory.toByteArray()) : null;
+		} finally {
+			IOUtils.close(in);
+		}
+	}
+
+	/*
+	 * Reads the archive into memory, stops and returns false once more than MAX_IN_MEMORY_SIZE bytes are read
+	 */
+	private static boolean read(InputStream in, ByteArrayOutputStream memory) throws IOException {
+		byte[] b = new byte[8192];
+		int len;
+		while ((len = in.read(b)) != -1) {
+			memory.write(b, 0, len);
+			if (memory.size() > MAX_IN_MEMORY_SIZE) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Copies the part of the archive already read and the rest of it to a temporary file, and lists its entries.
+	 * Returns null if the archive cannot be read as a ZipFile.
+	 */
+	private SpooledArchive spool(ByteArrayOutputStream memory, InputStream in) throws IOException {
+		File file = File.createTempFile("nestedArchive", ".zip");
+		ZipFile zip = null;
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				memory.writeTo(out);
+				IOUtils.copyAndDoNotCloseInputStream(in, out);
+			} finally {
+				IOUtils.close(out);
+			}
+			zip = new ZipFile(file);
+
+			List<ZipEntry> entries = new ArrayList<ZipEntry>(zip.size());
+			Map<String, ZipEntry> entriesByName = new HashMap<String, ZipEntry>(zip.size() * 2);
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				ZipEntry entry = e.nextElement();
+				entries.add(entry);
+				if (!!!entriesByName.containsKey(entry.getName())) entriesByName.put(entry.getName(), entry);
+			}
+
+			this.entries = Collections.unmodifiableList(entries);
+			this.entriesByName = entriesByName;
+			return new SpooledArchive(file, zip);
+		} catch (ZipException e) {
+			// left to ZipInputStream
+			closeQuietly(zip);
+			file.delete();
+			return null;
+		} catch (IOException e) {
+			closeQuietly(zip);
+			file.delete();
+			throw e;
+		}
+	}
+
+	private static void closeQuietly(ZipFile zip) {
+		if (zip != null) {
+			try {
+				zip.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/*
+	 * Lists the entries of an archive which is not indexed, reading it sequentially
+	 */
+	private void scan() throws IOException {
+		ZipInputStream zis = null;
+		try {
+			zis = new ZipInputStream(archive.open());
+
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			Map<String, ZipEntry> entriesByName = new HashMap<String, ZipEntry>();
+			ZipEntry entry = zis.getNextEntry();
+			while (entry != null) {
+				entries.add(entry);
+				if (!!!entriesByName.containsKey(entry.getName())) entriesByName.put(entry.getName(), entry);
+				entry = zis.getNextEntry();
+			}
+
+			this.entries = Collections.unmodifiableList(entries);
+			this.entriesByName = entriesByName;
+		} finally {
+			IOUtils.close(zis);
+		}
+	}
+
+	/*
+	 * Indexes the central directory of the archive, returns false if it cannot be read
+	 */
+	private boolean index(ByteBuffer content) {
+		ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int end = findEndHeader(buffer);
+		if (end < 0) return false;
+
+		int count = buffer.getShort(end + 10) & 0xffff;
+		long directoryOffset = buffer.getInt(end + 16) & 0xffffffffL;
+		if (count == 0xffff || directoryOffset >= buffer.limit()) return false;
+
+		List<ZipEntry> entries = new ArrayList<ZipEntry>(count);
+		Map<String, ZipEntry> entriesByName = new HashMap<String, ZipEntry>(count * 2);
+		Map<String, Long> offsets = new HashMap<String, Long>(count * 2);
+		try {
+			int pos = (int) directoryOffset;
+			for (int i = 0; i < count; i++) {
+				if (buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE) return false;
+
+				int method = buffer.getShort(pos + 10) & 0xffff;
+				long dosTime = buffer.getInt(pos + 12) & 0xffffffffL;
+				long crc = buffer.getInt(pos + 16) & 0xffffffffL;
+				long compressedSize = buffer.getInt(pos + 20) & 0xffffffffL;
+				long size = buffer.getInt(pos + 24) & 0xffffffffL;
+				int nameLength = buffer.getShort(pos + 28) & 0xffff;
+				int extraLength = buffer.getShort(pos + 30) & 0xffff;
+				int commentLength = buffer.getShort(pos + 32) & 0xffff;
+				long localOffset = buffer.getInt(pos + 42) & 0xffffffffL;
+
+				if ((method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+						|| compressedSize == 0xffffffffL || size == 0xffffffffL || localOffset >= buffer.limit()) {
+					return false;
+				}
+
+				byte[] name = new byte[nameLength];
+				ByteBuffer nameBuffer = buffer.duplicate();
+				nameBuffer.position(pos + CENTRAL_HEADER_SIZE);
+				nameBuffer.get(name);
+
+				ZipEntry entry = new ZipEntry(new String(name, "UTF-8"));
+				entry.setMethod(method);
+				entry.setTime(dosToJavaTime(dosTime));
+				entry.setCrc(crc);
+				entry.setSize(size);
+				entry.setCompressedSize(compressedSize);
+
+				entries.add(entry);
+				entriesByName.put(entry.getName(), entry);
+				offsets.put(entry.getName(), localOffset);
+
+				pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+			}
+		} catch (RuntimeException e) {
+			// a truncated or corrupt archive, left to ZipInputStream
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+
+		this.entries = Collections.unmodifiableList(entries);
+		this.entriesByName = entriesByName;
+		this.localHeaderOffsets = offsets;
+		return true;
+	}
+
+	private static int findEndHeader(ByteBuffer buffer) {
+		int last = buffer.limit() - END_HEADER_SIZE;
+		int first = Math.max(0, last - 0xffff);
+		for (int pos = last; pos >= first; pos--) {
+			if (buffer.getInt(pos) == END_HEADER_SIGNATURE) return pos;
+		}
+		return -1;
+	}
+
+	private static long dosToJavaTime(long dosTime) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set((int) ((dosTime >> 25) & 0x7f) + 1980, (int) ((dosTime >> 21) & 0x0f) - 1,
+				(int) ((dosTime >> 16) & 0x1f), (int) ((dosTime >> 11) & 0x1f), (int) ((dosTime >> 5) & 0x3f),
+				(int) ((dosTime << 1) & 0x3e));
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * The temporary copy of a large nested archive. It is deleted when closed, or when neither the index nor the
+	 * streams opened from it reference it any longer.
+	 */
+	private static class SpooledArchive {
+		private final File file;
+		private final ZipFile zip;
+		private boolean closed;
+
+		SpooledArchive(File file, ZipFile zip) {
+			this.file = file;
+			this.zip = zip;
+		}
+
+		synchronized InputStream open(String name) throws IOException {
+			if (closed) throw new IOException("The nested archive " + file + " has been closed");
+			ZipEntry entry = zip.getEntry(name);
+			if (entry == null) return null;
+			// the stream keeps this archive from being deleted while it is read
+			return new FilterInputStream(zip.getInputStream(entry)) {
+				@SuppressWarnings("unused")
+				private final SpooledArchive archive = SpooledArchive.this;
+			};
+		}
+
+		synchronized void close() {
+			if (!!!closed) {
+				closed = true;
+				closeQuietly(zip);
+				file.delete();
+			}
+		}
+
+		@Override
+		protected void finalize() throws Throwable {
+			try {
+				close();
+			} finally {
+				super.finalize();
+			}
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!!!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
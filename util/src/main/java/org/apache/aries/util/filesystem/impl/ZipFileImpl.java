@@ -245,7 +245,7 @@ public class ZipFileImpl implements IFile
     	z = cache.getZipFile();
     } else {
 	    try {
-	      z = new ZipFile(zip);
+	      z = ZipFilePool.acquire(zip);
 	    } catch (IOException e) {
 	      throw new IORuntimeException("IOException in ZipFileImpl.openZipFile", e);
 	    }
@@ -258,7 +258,7 @@ public class ZipFileImpl implements IFile
 		  // do nothing
 	  } else {
 		  try{
-			  z.close();
+			  ZipFilePool.release(z);
 		  }
 		  catch (IOException e) {
 			  throw new IORuntimeException("IOException in ZipFileImpl.closeZipFile", e);
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.aries.util.filesystem.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.ZipFile;
+
+import org.apache.aries.util.io.IOUtils;
+
+/**
+ * A pool of open {@link ZipFile}s shared by the {@link ZipDirectory}s and {@link ZipFileImpl}s which are not backed
+ * by a {@link ZipCloseableDirectory}, so that the central directory of an archive is not read again for every
+ * lookup, listing or opened entry.
+ * <p>
+ * Zip files are keyed by canonical path, modification time and length, so a modified archive is opened again. Each
+ * {@link #acquire(File)} must be matched by a {@link #release(ZipFile)}. At most {@link #MAX_IDLE} zip files are
+ * kept open while not in use, the least recently used being closed first, and a zip file not used for
+ * {@link #IDLE_TIMEOUT} milliseconds is closed by a background timer, which only runs while zip files are idle.
+ * <p>
+ * The modification time and length do not identify the content of an archive: an archive rewritten in place with
+ * the same length within the resolution of the file system timestamps is still served from the zip file opened
+ * before, which may then return stale or corrupt entries. Code replacing archives in place should call
+ * {@link #closeIdle()} afterwards, or disable the pool by setting its size to 0.
+ */
+public final class ZipFilePool {
+	/** The maximum number of zip files kept open while not in use, 0 disables the pool */
+	public static final int MAX_IDLE = Integer.getInteger("org.apache.aries.util.filesystem.zipFilePoolSize", 16);
+	/** How long a zip file not in use is kept open */
+	public static final long IDLE_TIMEOUT = Long.getLong("org.apache.aries.util.filesystem.zipFilePoolIdleTimeout", 10000);
+
+	private static final Map<String, PooledZipFile> pool = new LinkedHashMap<String, PooledZipFile>(16, 0.75f, true);
+	private static final Map<ZipFile, PooledZipFile> inUse = new IdentityHashMap<ZipFile, PooledZipFile>();
+	private static long hits;
+	/* only set while zip files are idle, with a single expiry task scheduled */
+	private static Timer expiryTimer;
+	private static long misses;
+
+	private ZipFilePool() {}
+
+	/**
+	 * Returns an open zip file for the given archive, to be released with {@link #release(ZipFile)}.
+	 */
+	public static ZipFile acquire(File archive) throws IOException {
+		if (MAX_IDLE <= 0) return new ZipFile(archive);
+
+		String key = archive.getCanonicalPath();
+		long lastModified = archive.lastModified();
+		long length = archive.length();
+		List<ZipFile> toClose = new ArrayList<ZipFile>();
+		try {
+			synchronized (ZipFilePool.class) {
+				PooledZipFile pooled = pool.get(key);
+				if (pooled != null && (pooled.lastModified != lastModified || pooled.length != length)) {
+					// the archive was modified, the open zip file is closed once released
+					pool.remove(key);
+					pooled.pooled = false;
+					if (pooled.references == 0) toClose.add(pooled.zip);
+					pooled = null;
+				}
+
+				if (pooled != null) {
+					hits++;
+				} else {
+					misses++;
+					pooled = new PooledZipFile(new ZipFile(archive), lastModified, length);
+					pool.put(key, pooled);
+				}
+				pooled.references++;
+				inUse.put(pooled.zip, pooled);
+				evict(toClose);
+				return pooled.zip;
+			}
+		} finally {
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Releases a zip file returned by {@link #acquire(File)}.
+	 */
+	public static void release(ZipFile zip) throws IOException {
+		if (MAX_IDLE <= 0) {
+			zip.close();
+			return;
+		}
+
+		List<ZipFile> toClose = new ArrayList<ZipFile>();
+		try {
+			synchronized (ZipFilePool.class) {
+				PooledZipFile pooled = inUse.get(zip);
+				if (pooled == null) {
+					toClose.add(zip);
+				} else if (--pooled.references == 0) {
+					inUse.remove(zip);
+					pooled.lastUsed = System.currentTimeMillis();
+					if (!!!pooled.pooled) toClose.add(zip);
+					else scheduleExpiry();
+				}
+				evict(toClose);
+			}
+		} finally {
+			close(toClose);
+		}
+	}
+
+	/**
+	 * Closes all the zip files not in use, for instance before deleting archives on platforms locking open files.
+	 */
+	public static void closeIdle() {
+		List<ZipFile> toClose = new ArrayList<ZipFile>();
+		synchronized (ZipFilePool.class) {
+			Iterator<PooledZipFile> it = pool.values().iterator();
+			while (it.hasNext()) {
+				PooledZipFile pooled = it.next();
+				if (pooled.references == 0) {
+					it.remove();
+					toClose.add(pooled.zip);
+				}
+			}
+		}
+		close(toClose);
+	}
+
+	/**
+	 * @return the number of times an open zip file was reused
+	 */
+	public static synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of times a zip file had to be opened
+	 */
+	public static synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the ratio of acquired zip files which were already open, between 0 and 1
+	 */
+	public static synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/*
+	 * Removes the zip files not in use beyond the maximum or idle for too long, in least recently used order
+	 */
+	private static void evict(List<ZipFile> toClose) {
+		int idle = 0;
+		for (PooledZipFile pooled : pool.values()) {
+			if (pooled.references == 0) idle++;
+		}
+
+		long expired = System.currentTimeMillis() - IDLE_TIMEOUT;
+		Iterator<PooledZipFile> it = pool.values().iterator();
+		while (it.hasNext()) {
+			PooledZipFile pooled = it.next();
+			if (pooled.references == 0 && (idle > MAX_IDLE || pooled.lastUsed < expired)) {
+				it.remove();
+				toClose.add(pooled.zip);
+				idle--;
+			}
+		}
+	}
+
+	/*
+	 * Starts the expiry timer if it is not already running, must be called while holding the pool lock
+	 */
+	private static void scheduleExpiry() {
+		if (expiryTimer == null && IDLE_TIMEOUT > 0) {
+			expiryTimer = new Timer("Aries ZipFilePool idle expiry", true);
+			expiryTimer.schedule(new ExpiryTask(), IDLE_TIMEOUT);
+		}
+	}
+
+	/*
+	 * Closes the expired zip files, and schedules itself again for the next zip file to expire or stops the timer
+	 * once no zip file is idle
+	 */
+	private static class ExpiryTask extends TimerTask {
+		@Override
+		public void run() {
+			List<ZipFile> toClose = new ArrayList<ZipFile>();
+			try {
+				synchronized (ZipFilePool.class) {
+					evict(toClose);
+
+					long oldest = Long.MAX_VALUE;
+					for (PooledZipFile pooled : pool.values()) {
+						if (pooled.references == 0) oldest = Math.min(oldest, pooled.lastUsed);
+					}
+
+					if (oldest == Long.MAX_VALUE) {
+						expiryTimer.cancel();
+						expiryTimer = null;
+					} else {
+						expiryTimer.schedule(new ExpiryTask(), Math.max(1, oldest + IDLE_TIMEOUT - System.currentTimeMillis()));
+					}
+				}
+			} finally {
+				close(toClose);
+			}
+		}
+	}
+
+	private static void close(List<ZipFile> zips) {
+		for (ZipFile zip : zips) {
+			try {
+				IOUtils.close(zip);
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	private static class PooledZipFile {
+		private final ZipFile zip;
+		private final long lastModified;
+		private final long length;
+		private int references;
+		private long lastUsed = System.currentTimeMillis();
+		private boolean pooled = true;
+
+		PooledZipFile(ZipFile zip, long lastModified, long length) {
+			this.zip = zip;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
@@ -20,11 +20,14 @@
 package org.apache.aries.util.manifest;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,6 +44,14 @@ public class ManifestHeaderProcessor
   private static final String LESS_EQ_OP = "<=";
   private static final String GREATER_EQ_OP = ">=";
 
+  /** The maximum number of parsed headers of each kind kept in the parse caches, 0 disables the caches */
+  public static final int PARSE_CACHE_SIZE = Integer.getInteger("org.apache.aries.util.manifest.parseCacheSize", 1024);
+
+  private static final ParseCache<String, List<NameValuePair>> IMPORT_EXPORT_CACHE = new ParseCache<String, List<NameValuePair>>();
+  private static final ParseCache<String, List<GenericMetadata>> GENERIC_METADATA_CACHE = new ParseCache<String, List<GenericMetadata>>();
+  private static final ParseCache<String, VersionRange> VERSION_RANGE_CACHE = new ParseCache<String, VersionRange>();
+  private static final ParseCache<String, VersionRange> EXACT_VERSION_RANGE_CACHE = new ParseCache<String, VersionRange>();
+
   /**
    * A GenericMetadata is either a Generic Capability or a Generic Requirement
    */
@@ -340,7 +351,9 @@ public class ManifestHeaderProcessor
    */
   public static List<NameValuePair> parseExportString(String s){
     NameValueList retval = new NameValueList();
-    genericImportExportProcess(retval, s);
+    for (NameValuePair p : parseImportExportCached(s)) {
+      retval.addToCollection(p.getName(), copy(p.getAttributes()));
+    }
     return retval;
   }
 
@@ -379,10 +392,49 @@ public class ManifestHeaderProcessor
    */
   public static Map<String, Map<String, String>> parseImportString(String s){
     NameValueMap retval = new NameValueMap();
-    genericImportExportProcess(retval, s);
+    for (NameValuePair p : parseImportExportCached(s)) {
+      retval.addToCollection(p.getName(), copy(p.getAttributes()));
+    }
     return retval;
   }
 
+  /*
+   * Returns the immutable, interned result of parsing an import/export style header, parsing it only on a cache miss
+   */
+  private static List<NameValuePair> parseImportExportCached(String s) {
+    List<NameValuePair> result = s != null ? IMPORT_EXPORT_CACHE.get(s) : null;
+    if (result == null) {
+      NameValueList parsed = new NameValueList();
+      genericImportExportProcess(parsed, s);
+
+      List<NameValuePair> interned = new ArrayList<NameValuePair>(parsed.size());
+      for (NameValuePair p : parsed) {
+        interned.add(new NameValuePair(p.getName().intern(), internAttributes(p.getAttributes())));
+      }
+      result = Collections.unmodifiableList(interned);
+      if (s != null) IMPORT_EXPORT_CACHE.put(s, result);
+    }
+    return result;
+  }
+
+  private static Map<String, String> internAttributes(Map<String, String> attributes) {
+    if (attributes == null) return null;
+
+    Map<String, String> interned = new HashMap<String, String>(attributes.size() * 2);
+    for (Map.Entry<String, String> entry : attributes.entrySet()) {
+      String key = entry.getKey().intern();
+      String value = entry.getValue();
+      // versions and version ranges repeat across most bundles of a system
+      if (key.endsWith("version")) value = value.intern();
+      interned.put(key, value);
+    }
+    return Collections.unmodifiableMap(interned);
+  }
+
+  private static Map<String, String> copy(Map<String, String> attributes) {
+    return attributes != null ? new HashMap<String, String>(attributes) : null;
+  }
+
   /**
    * Parse a generic capability header. For example<br>
    *   com.acme.myns;mylist:List&lt;String&gt;="nl,be,fr,uk";myver:Version=1.3;long:Long="1234";d:Double="3.14";myattr=xyz,
@@ -392,7 +444,7 @@ public class ManifestHeaderProcessor
    *   are of the specified datatype.
    */
   public static List<GenericMetadata> parseCapabilityString(String s) {
-    return parseGenericMetadata(s);
+    return parseGenericMetadataCached(s);
   }
 
   /**
@@ -404,7 +456,44 @@ public class ManifestHeaderProcessor
    *   are of the specified datatype.
    */
   public static List<GenericMetadata> parseRequirementString(String s) {
-    return parseGenericMetadata(s);
+    return parseGenericMetadataCached(s);
+  }
+
+  /*
+   * Returns a copy of the cached result of parsing a generic capability or requirement header, parsing it only on a
+   * cache miss. The cached result is never handed out, as callers are free to modify the returned metadata.
+   */
+  private static List<GenericMetadata> parseGenericMetadataCached(String s) {
+    List<GenericMetadata> cached = s != null ? GENERIC_METADATA_CACHE.get(s) : null;
+    if (cached == null) {
+      List<GenericMetadata> parsed = parseGenericMetadata(s);
+      List<GenericMetadata> interned = new ArrayList<GenericMetadata>(parsed.size());
+      for (GenericMetadata metadata : parsed) {
+        interned.add(copy(metadata, true));
+      }
+      cached = Collections.unmodifiableList(interned);
+      if (s != null) GENERIC_METADATA_CACHE.put(s, cached);
+    }
+
+    List<GenericMetadata> result = new ArrayList<GenericMetadata>(cached.size());
+    for (GenericMetadata metadata : cached) {
+      result.add(copy(metadata, false));
+    }
+    return result;
+  }
+
+  private static GenericMetadata copy(GenericMetadata metadata, boolean intern) {
+    GenericMetadata copy = new GenericMetadata(intern ? metadata.getNamespace().intern() : metadata.getNamespace());
+    for (Map.Entry<String, Object> entry : metadata.getAttributes().entrySet()) {
+      Object value = entry.getValue();
+      // typed List attributes are the only mutable values
+      if (value instanceof List) value = new ArrayList<Object>((List<?>) value);
+      copy.getAttributes().put(intern ? entry.getKey().intern() : entry.getKey(), value);
+    }
+    for (Map.Entry<String, String> entry : metadata.getDirectives().entrySet()) {
+      copy.getDirectives().put(intern ? entry.getKey().intern() : entry.getKey(), entry.getValue());
+    }
+    return copy;
   }
 
   private static List<GenericMetadata> parseGenericMetadata(String s) {
@@ -494,7 +583,13 @@ public class ManifestHeaderProcessor
    * @throws IllegalArgumentException if the String could not be parsed as a VersionRange
    */
   public static VersionRange parseVersionRange(String s) throws IllegalArgumentException{
-    return new VersionRange(s);
+    // VersionRange is immutable, so the same instance is shared by all the headers declaring the range
+    VersionRange result = s != null ? VERSION_RANGE_CACHE.get(s) : null;
+    if (result == null) {
+      result = new VersionRange(s);
+      if (s != null) VERSION_RANGE_CACHE.put(s, result);
+    }
+    return result;
   }
 
   /**
@@ -506,7 +601,13 @@ public class ManifestHeaderProcessor
    * @throws IllegalArgumentException if the String could not be parsed as a VersionRange
    */
   public static VersionRange parseVersionRange(String s, boolean exactVersion) throws IllegalArgumentException{
-    return new VersionRange(s, exactVersion);
+    ParseCache<String, VersionRange> cache = exactVersion ? EXACT_VERSION_RANGE_CACHE : VERSION_RANGE_CACHE;
+    VersionRange result = s != null ? cache.get(s) : null;
+    if (result == null) {
+      result = new VersionRange(s, exactVersion);
+      if (s != null) cache.put(s, result);
+    }
+    return result;
   }
 
   /**
@@ -767,5 +868,22 @@ public class ManifestHeaderProcessor
     }
     return result;
   }
-}
 
+  /**
+   * A concurrent cache of parsed headers, bounded by {@link #PARSE_CACHE_SIZE}. Once full it is simply cleared, the
+   * headers of the bundles being processed are then parsed and cached again.
+   */
+  private static class ParseCache<K, V> {
+    private final ConcurrentMap<K, V> entries = new ConcurrentHashMap<K, V>();
+
+    V get(K key) {
+      return PARSE_CACHE_SIZE > 0 ? entries.get(key) : null;
+    }
+
+    void put(K key, V value) {
+      if (PARSE_CACHE_SIZE <= 0) return;
+      if (entries.size() >= PARSE_CACHE_SIZE) entries.clear();
+      entries.put(key, value);
+    }
+  }
+}
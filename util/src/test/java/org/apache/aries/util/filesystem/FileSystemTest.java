@@ -26,15 +26,23 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -42,6 +50,8 @@ import java.util.zip.ZipOutputStream;
 
 import org.apache.aries.unittest.junit.Assert;
 import org.apache.aries.util.IORuntimeException;
+import org.apache.aries.util.filesystem.impl.NestedZipIndex;
+import org.apache.aries.util.filesystem.impl.ZipFilePool;
 import org.apache.aries.util.io.IOUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -192,8 +202,8 @@ public class FileSystemTest
 
 	  File desiredFile = new File(new File(getTestResourceDir(), "/app1"), "META-INF/APPLICATION.MF");
 
-	  // no size information when stream reading :(
-	  runBasicDirTest(inner, "app2.zip/", -1, desiredFile.lastModified());
+	  // the sizes come from the central directory of the nested zip
+	  runBasicDirTest(inner, "app2.zip/", desiredFile.length(), desiredFile.lastModified());
 	  runBasicDirTest(inner.toCloseable(), "app2.zip/", desiredFile.length(), desiredFile.lastModified());
   }
 
@@ -213,8 +223,8 @@ public class FileSystemTest
 
       File desiredFile = new File(new File(getTestResourceDir(), "/app1"), "META-INF/APPLICATION.MF");
 
-      // no size information when stream reading :(
-      runBasicDirTest(inner, "app2.zip/", -1, desiredFile.lastModified());
+      // the sizes come from the central directory of the nested zip
+      runBasicDirTest(inner, "app2.zip/", desiredFile.length(), desiredFile.lastModified());
       runBasicDirTest(inner.toCloseable(), "app2.zip/", desiredFile.length(), desiredFile.lastModified());
     } finally {
       outer.close();
@@ -504,6 +514,210 @@ public class FileSystemTest
     Assert.assertHashCodeEquals(file, applicationMF2, true);
   }
 
+  /**
+   * Make sure the zip files read through the file system are reused from the pool,
+   * and opened again once modified.
+   *
+   * @throws IOException
+   */
+  @Test
+  public void zipFilesAreReusedFromPool() throws IOException
+  {
+    File zipFile = new File("fileSystemTest/pooled.zip");
+    writeZip(zipFile, "a.txt");
+
+    IDirectory dir = FileSystem.getFSRoot(zipFile);
+    long hits = ZipFilePool.getHitCount();
+    assertNotNull(dir.getFile("a.txt"));
+    assertEquals(1, dir.listAllFiles().size());
+    assertTrue(ZipFilePool.getHitCount() >= hits + 1);
+
+    // the zip file left open is closed in the background once it has been idle for too long
+    assertTrue(isThreadAlive("Aries ZipFilePool idle expiry"));
+
+    writeZip(zipFile, "b.txt");
+    zipFile.setLastModified(zipFile.lastModified() + 2000);
+    assertNull(dir.getFile("a.txt"));
+    assertNotNull(dir.getFile("b.txt"));
+
+    ZipFilePool.closeIdle();
+    assertTrue(zipFile.delete());
+  }
+
+  /**
+   * Make sure the deflated entries of a nested zip are read through its index.
+   */
+  @Test
+  public void nestedZipWithDeflatedEntries() throws IOException
+  {
+    byte[] text = repeat("nested deflated content\n", 1000).getBytes("UTF-8");
+    File outerFile = new File("fileSystemTest/deflatedOuter.zip");
+    writeNestedZip(outerFile, zip("META-INF/", null, "META-INF/text.txt", text, "small.txt", "small".getBytes("UTF-8")));
+    try {
+      IDirectory inner = FileSystem.getFSRoot(outerFile).getFile("inner.jar").convertNested();
+      assertNotNull(inner);
+
+      IFile file = inner.getFile("META-INF/text.txt");
+      assertNotNull(file);
+      assertEquals(text.length, file.getSize());
+      assertTrue(Arrays.equals(text, read(file)));
+      assertEquals("small", new String(read(inner.getFile("small.txt")), "UTF-8"));
+      assertNull(inner.getFile("missing.txt"));
+      assertEquals(3, inner.listAllFiles().size());
+    } finally {
+      ZipFilePool.closeIdle();
+      assertTrue(outerFile.delete());
+    }
+  }
+
+  /**
+   * Make sure a nested zip too large to be kept in memory is read from its temporary copy.
+   */
+  @Test
+  public void largeNestedZipIsRead() throws IOException
+  {
+    byte[] large = new byte[5 * 1024 * 1024];
+    new Random(0).nextBytes(large);
+    File outerFile = new File("fileSystemTest/largeOuter.zip");
+    writeNestedZip(outerFile, zip("large.bin", large, "small.txt", "small".getBytes("UTF-8")));
+    try {
+      IDirectory inner = FileSystem.getFSRoot(outerFile).getFile("inner.jar").convertNested();
+      assertNotNull(inner);
+
+      IFile file = inner.getFile("large.bin");
+      assertNotNull(file);
+      assertTrue(Arrays.equals(large, read(file)));
+      assertEquals(large.length, file.getSize());
+      assertEquals("small", new String(read(inner.getFile("small.txt")), "UTF-8"));
+      assertNull(inner.getFile("missing.txt"));
+      assertEquals(2, inner.listAllFiles().size());
+    } finally {
+      ZipFilePool.closeIdle();
+      assertTrue(outerFile.delete());
+    }
+  }
+
+  /**
+   * Make sure the entries of a nested zip too large to be kept in memory are opened through its index, reading the
+   * nested zip from its parent only once, and that the temporary copy is deleted when the index is closed.
+   */
+  @Test
+  public void largeNestedZipEntriesAreOpenedThroughTheIndex() throws IOException
+  {
+    byte[] large = new byte[5 * 1024 * 1024];
+    new Random(0).nextBytes(large);
+    File outerFile = new File("fileSystemTest/largeIndexedOuter.zip");
+    writeNestedZip(outerFile, zip("large.bin", large, "a.txt", "a".getBytes("UTF-8"), "b.txt", "b".getBytes("UTF-8")));
+    try {
+      final IFile archive = FileSystem.getFSRoot(outerFile).getFile("inner.jar");
+      final AtomicInteger opened = new AtomicInteger();
+      IFile counting = (IFile) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {IFile.class}, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (method.getName().equals("open")) opened.incrementAndGet();
+          try {
+            return method.invoke(archive, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        }
+      });
+
+      int tempFiles = countTempFiles();
+      NestedZipIndex index = new NestedZipIndex(counting);
+      assertEquals(3, index.getEntries().size());
+      assertEquals(tempFiles + 1, countTempFiles());
+
+      assertEquals("b", new String(read(index.open("b.txt")), "UTF-8"));
+      assertEquals("a", new String(read(index.open("a.txt")), "UTF-8"));
+      assertTrue(Arrays.equals(large, read(index.open("large.bin"))));
+      assertNull(index.open("missing.txt"));
+      assertEquals(1, opened.get());
+
+      index.close();
+      assertEquals(tempFiles, countTempFiles());
+
+      // the archive is read again once the index is closed
+      assertEquals("a", new String(read(index.open("a.txt")), "UTF-8"));
+      assertEquals(2, opened.get());
+      index.close();
+    } finally {
+      ZipFilePool.closeIdle();
+      assertTrue(outerFile.delete());
+    }
+  }
+
+  private int countTempFiles() {
+    String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+    int count = 0;
+    for (String name : names) {
+      if (name.startsWith("nestedArchive")) count++;
+    }
+    return count;
+  }
+
+  /*
+   * Builds a zip of deflated entries from name and content pairs, a null content being a directory
+   */
+  private byte[] zip(Object... namesAndContents) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    ZipOutputStream zos = new ZipOutputStream(baos);
+    try {
+      for (int i = 0; i < namesAndContents.length; i += 2) {
+        zos.putNextEntry(new ZipEntry((String) namesAndContents[i]));
+        if (namesAndContents[i + 1] != null) zos.write((byte[]) namesAndContents[i + 1]);
+        zos.closeEntry();
+      }
+    } finally {
+      zos.close();
+    }
+    return baos.toByteArray();
+  }
+
+  private void writeNestedZip(File zipFile, byte[] inner) throws IOException {
+    ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+    try {
+      zos.putNextEntry(new ZipEntry("inner.jar"));
+      zos.write(inner);
+      zos.closeEntry();
+    } finally {
+      zos.close();
+    }
+  }
+
+  private byte[] read(IFile file) throws IOException {
+    return read(file.open());
+  }
+
+  private byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    IOUtils.copy(in, baos);
+    return baos.toByteArray();
+  }
+
+  private String repeat(String s, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; i++) sb.append(s);
+    return sb.toString();
+  }
+
+  private boolean isThreadAlive(String name) {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals(name) && thread.isAlive()) return true;
+    }
+    return false;
+  }
+
+  private void writeZip(File zipFile, String entryName) throws IOException {
+    ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile));
+    try {
+      zos.putNextEntry(new ZipEntry(entryName));
+      zos.write(entryName.getBytes("UTF-8"));
+      zos.closeEntry();
+    } finally {
+      zos.close();
+    }
+  }
+
   private void filterOutSvn(Collection<IFile> files) {
 	  Iterator<IFile> its = files.iterator();
 	  while (its.hasNext()) {
@@ -570,6 +570,38 @@ public class ManifestHeaderProcessorTest
       testCapabilitiesOrRequirements(capabilities);
     }
 
+    @Test
+    public void testCachedParseResultsAreNotShared() throws Exception {
+      String importPackage = "org.acme.cached;version=\"[1.0,2.0)\",org.acme.other";
+
+      Map<String, Map<String, String>> first = ManifestHeaderProcessor.parseImportString(importPackage);
+      first.get("org.acme.cached").put("resolution:", "optional");
+      first.remove("org.acme.other");
+
+      Map<String, Map<String, String>> second = ManifestHeaderProcessor.parseImportString(importPackage);
+      assertEquals(2, second.size());
+      assertEquals(1, second.get("org.acme.cached").size());
+      assertEquals("[1.0,2.0)", second.get("org.acme.cached").get("version"));
+      assertTrue(second.get("org.acme.other").isEmpty());
+
+      List<NameValuePair> export1 = ManifestHeaderProcessor.parseExportString(importPackage);
+      List<NameValuePair> export2 = ManifestHeaderProcessor.parseExportString(importPackage);
+      assertEquals(export1, export2);
+      assertNotSame(export1.get(0).getAttributes(), export2.get(0).getAttributes());
+
+      String capability = "org.acme.ns;langs:List<String>=\"nl,fr\";effective:=active";
+      List<GenericMetadata> caps1 = ManifestHeaderProcessor.parseCapabilityString(capability);
+      ((List<?>) caps1.get(0).getAttributes().get("langs")).clear();
+      caps1.get(0).getDirectives().clear();
+
+      List<GenericMetadata> caps2 = ManifestHeaderProcessor.parseCapabilityString(capability);
+      assertEquals(Arrays.asList("nl", "fr"), caps2.get(0).getAttributes().get("langs"));
+      assertEquals("active", caps2.get(0).getDirectives().get("effective"));
+
+      assertTrue(ManifestHeaderProcessor.parseVersionRange("[1.0,2.0)") == ManifestHeaderProcessor.parseVersionRange("[1.0,2.0)"));
+      assertFalse(ManifestHeaderProcessor.parseVersionRange("1.0", true).equals(ManifestHeaderProcessor.parseVersionRange("1.0")));
+    }
+
     private void testCapabilitiesOrRequirements(List<GenericMetadata> metadata) {
       assertEquals(3, metadata.size());
 